@@ -0,0 +1,294 @@
+package com.alipay.bench;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.response.AlipayOpenPublicMessageCustomSendResponse;
+import com.alipay.constants.AlipayServiceEventConstants;
+import com.alipay.constants.AlipayServiceNameConstants;
+import com.alipay.metrics.LatencyHistogram;
+import com.alipay.mock.MockAlipayGateway;
+import com.alipay.util.AliTool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 开放式（open-loop）压测工具
+ * <p>
+ * 按固定到达率向 {@link AliTool#getGateWayResponseMsg(Map, Boolean, Boolean)} 注入混合的支付宝推送消息（关注、带sceneId进入、
+ * 菜单点击、文本、网关验证），并可按比例直接发起出站单发消息。消息以模拟网关的支付宝密钥签名，出站调用全部发往本地
+ * {@link MockAlipayGateway}。
+ * <p>
+ * 每个请求的延迟从“计划发出时间”开始计算，而不是从实际开始执行的时间，因此被测系统变慢导致的排队也会计入延迟，
+ * 不存在coordinated omission。周期性输出各类请求的延迟百分位、吞吐量、线程数与堆内存；soak模式下每个周期前先GC，
+ * 输出GC后的堆占用，用于观察内存泄漏。
+ *
+ * <pre>
+ * java com.alipay.bench.LoadGenerator rate=500 duration=60 workers=64 outbound=0.2 latency=20 jitter=30 errorRate=0.01
+ * java com.alipay.bench.LoadGenerator rate=200 duration=3600 soak=true interval=60
+ * </pre>
+ */
+public class LoadGenerator {
+
+	private static final String[] OPERATIONS = {"follow", "enter", "click", "text", "verifygw", "outbound"};
+
+	private final AliTool aliTool;
+	private final MockAlipayGateway gateway;
+	private final double rate;
+	private final long durationSeconds;
+	private final int workers;
+	private final double outboundRatio;
+	private final long intervalSeconds;
+	private final boolean soak;
+	private final Map<String, IntervalRecorder> intervalHistograms = new LinkedHashMap<>();
+	private final Map<String, LatencyHistogram> totalHistograms = new LinkedHashMap<>();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+
+	public LoadGenerator(AliTool aliTool, MockAlipayGateway gateway, double rate, long durationSeconds, int workers, double outboundRatio,
+						 long intervalSeconds, boolean soak) {
+		this.aliTool = aliTool;
+		this.gateway = gateway;
+		this.rate = rate;
+		this.durationSeconds = durationSeconds;
+		this.workers = workers;
+		this.outboundRatio = outboundRatio;
+		this.intervalSeconds = intervalSeconds;
+		this.soak = soak;
+		for (String operation : OPERATIONS) {
+			intervalHistograms.put(operation, new IntervalRecorder());
+			totalHistograms.put(operation, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * 执行压测，结束后输出汇总
+	 *
+	 * @throws InterruptedException 被中断
+	 */
+	public void run() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long nextReport = start + TimeUnit.SECONDS.toNanos(intervalSeconds);
+		long lastReport = start;
+		long lastCompleted = 0;
+		long seq = 0;
+		LogLine.header();
+		while (true) {
+			final long intended = start + seq * periodNanos;
+			if (intended >= end)
+				break;
+			long now = System.nanoTime();
+			if (intended > now)
+				TimeUnit.NANOSECONDS.sleep(intended - now);
+			final String operation = pickOperation();
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					boolean ok = false;
+					try {
+						ok = execute(operation);
+					} finally {
+						intervalHistograms.get(operation).record(System.nanoTime() - intended);
+						if (!ok)
+							failures.incrementAndGet();
+						completed.incrementAndGet();
+					}
+				}
+			});
+			seq++;
+			now = System.nanoTime();
+			if (now >= nextReport) {
+				long done = completed.get();
+				report((done - lastCompleted) / ((now - lastReport) / 1e9));
+				lastCompleted = done;
+				lastReport = now;
+				nextReport += TimeUnit.SECONDS.toNanos(intervalSeconds);
+			}
+		}
+		pool.shutdown();
+		if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+			// 超时未完成的请求不计入汇总，避免报告与仍在进行的请求交错
+			int dropped = pool.shutdownNow().size();
+			System.out.println(String.format("等待1分钟后仍有%d个请求未完成（其中%d个未开始），已取消", seq - completed.get(), dropped));
+		}
+		long now = System.nanoTime();
+		report((completed.get() - lastCompleted) / Math.max(1e-9, (now - lastReport) / 1e9));
+
+		System.out.println();
+		System.out.println("==== 汇总 ====");
+		System.out.println(String.format("计划请求=%d 完成=%d 失败=%d 平均吞吐=%.1f/s", seq, completed.get(), failures.get(),
+				completed.get() / ((now - start) / 1e9)));
+		for (Map.Entry<String, LatencyHistogram> entry : totalHistograms.entrySet()) {
+			if (entry.getValue().getCount() > 0)
+				System.out.println(String.format("%-9s %s", entry.getKey(), entry.getValue().summary()));
+		}
+		System.out.println("网关收到的custom.send请求数=" + gateway.getRequestCount("alipay.open.public.message.custom.send"));
+	}
+
+	private String pickOperation() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (random.nextDouble() < outboundRatio)
+			return "outbound";
+		// 推送消息的大致比例：文本40%，进入30%，点击15%，关注14%，网关验证1%
+		int n = random.nextInt(100);
+		if (n < 40)
+			return "text";
+		if (n < 70)
+			return "enter";
+		if (n < 85)
+			return "click";
+		if (n < 99)
+			return "follow";
+		return "verifygw";
+	}
+
+	private boolean execute(String operation) {
+		String userId = String.valueOf(2088000000000000L + ThreadLocalRandom.current().nextInt(1000000));
+		try {
+			if ("outbound".equals(operation)) {
+				AlipayOpenPublicMessageCustomSendResponse response = aliTool.toAlipaySingleSendImgTextMsg(userId, "压测消息", "1");
+				return null != response && response.isSuccess();
+			}
+			String response = aliTool.getGateWayResponseMsg(buildNotify(operation, userId), false, true);
+			return null != response && response.contains("<sign>");
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 构造支付宝推送到开发者网关的请求参数并签名
+	 */
+	private Map<String, String> buildNotify(String operation, String userId) throws AlipayApiException {
+		StringBuilder xml = new StringBuilder(256);
+		xml.append("<XML><AppId><![CDATA[").append(MockAlipayGateway.APP_ID).append("]]></AppId>");
+		xml.append("<FromUserId><![CDATA[").append(userId).append("]]></FromUserId>");
+		xml.append("<CreateTime>").append(System.currentTimeMillis()).append("</CreateTime>");
+		String service = AlipayServiceNameConstants.ALIPAY_PUBLIC_MESSAGE_NOTIFY;
+		if ("text".equals(operation)) {
+			xml.append("<MsgType><![CDATA[text]]></MsgType><Text><Content><![CDATA[你好]]></Content></Text>");
+		} else {
+			String eventType = operation;
+			String actionParam = "";
+			if ("enter".equals(operation)) {
+				eventType = AlipayServiceEventConstants.ENTER_EVENT;
+				actionParam = "{\"scene\":{\"sceneId\":\"" + (1 + ThreadLocalRandom.current().nextInt(2)) + "\"}}";
+			} else if ("click".equals(operation)) {
+				eventType = AlipayServiceEventConstants.CLICK_EVENT;
+				actionParam = "async_image_text";
+			} else if ("verifygw".equals(operation)) {
+				eventType = AlipayServiceEventConstants.VERIFYGW_EVENT;
+				service = AlipayServiceNameConstants.ALIPAY_CHECK_SERVICE;
+			}
+			xml.append("<MsgType><![CDATA[event]]></MsgType>");
+			xml.append("<EventType><![CDATA[").append(eventType).append("]]></EventType>");
+			xml.append("<ActionParam><![CDATA[").append(actionParam).append("]]></ActionParam>");
+		}
+		xml.append("</XML>");
+
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("service", service);
+		params.put("biz_content", xml.toString());
+		params.put("charset", "utf-8");
+		params.put("sign_type", "RSA2");
+		params.put("sign", gateway.signAsAlipay(params, "utf-8", "RSA2"));
+		return params;
+	}
+
+	private void report(double throughput) {
+		if (soak)
+			System.gc();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long heapMb = memory.getHeapMemoryUsage().getUsed() / (1024 * 1024);
+		System.out.println(String.format("%s 吞吐=%.1f/s 线程=%d 堆%s=%dMB 失败累计=%d", LogLine.now(), throughput, threads.getThreadCount(),
+				soak ? "(GC后)" : "", heapMb, failures.get()));
+		for (Map.Entry<String, IntervalRecorder> entry : intervalHistograms.entrySet()) {
+			LatencyHistogram snapshot = entry.getValue().swap();
+			if (snapshot.getCount() == 0)
+				continue;
+			totalHistograms.get(entry.getKey()).add(snapshot);
+			System.out.println(String.format("  %-9s %s", entry.getKey(), snapshot.summary()));
+		}
+	}
+
+	/**
+	 * 一个报告周期的延迟记录：取出当前直方图与换上新直方图是原子的，周期之间的样本不会丢失
+	 */
+	private static final class IntervalRecorder {
+		private LatencyHistogram current = new LatencyHistogram();
+
+		synchronized void record(long nanos) {
+			current.recordNanos(nanos);
+		}
+
+		synchronized LatencyHistogram swap() {
+			LatencyHistogram previous = current;
+			current = new LatencyHistogram();
+			return previous;
+		}
+	}
+
+	private static final class LogLine {
+		private static long start;
+
+		static void header() {
+			start = System.currentTimeMillis();
+		}
+
+		static String now() {
+			return String.format("[%6.1fs]", (System.currentTimeMillis() - start) / 1000d);
+		}
+	}
+
+	/**
+	 * 参数均为 key=value 形式：
+	 * rate 每秒请求数(200)，duration 秒数(60)，workers 工作线程数(64)，outbound 直接出站调用比例(0.1)，
+	 * interval 报告间隔秒数(10)，soak 是否为soak模式(false)，latency/jitter 模拟网关延迟毫秒数(20/20)，
+	 * errorRate 模拟网关错误率(0)，throttleRate 模拟网关限流率(0)
+	 *
+	 * @param args 参数
+	 * @throws Exception 启动失败
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int idx = arg.indexOf('=');
+			if (idx > 0)
+				options.put(arg.substring(0, idx), arg.substring(idx + 1));
+		}
+		MockAlipayGateway gateway = new MockAlipayGateway(0);
+		gateway.setLatency(Long.parseLong(option(options, "latency", "20")), Long.parseLong(option(options, "jitter", "20")));
+		gateway.setErrorRate(Double.parseDouble(option(options, "errorRate", "0")));
+		gateway.setThrottleRate(Double.parseDouble(option(options, "throttleRate", "0")));
+		gateway.start();
+		try {
+			AliTool aliTool = new AliTool(MockAlipayGateway.APP_ID, gateway.getAppPrivateKey(), gateway.getAppPublicKey(),
+					gateway.getAlipayPublicKey(), "", null, null, null, gateway.getGatewayUrl(), null);
+			LoadGenerator generator = new LoadGenerator(aliTool, gateway, Double.parseDouble(option(options, "rate", "200")),
+					Long.parseLong(option(options, "duration", "60")), Integer.parseInt(option(options, "workers", "64")),
+					Double.parseDouble(option(options, "outbound", "0.1")), Long.parseLong(option(options, "interval", "10")),
+					Boolean.parseBoolean(option(options, "soak", "false")));
+			generator.run();
+		} finally {
+			gateway.stop();
+		}
+		System.exit(0);
+	}
+
+	private static String option(Map<String, String> options, String key, String defaultValue) {
+		String value = options.get(key);
+		return null == value || value.length() == 0 ? defaultValue : value;
+	}
+}
@@ -0,0 +1,135 @@
+package com.alipay.bulk;
+
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+import com.alipay.api.domain.Article;
+import com.alipay.api.domain.Text;
+import com.alipay.api.request.AlipayOpenPublicMessageCustomSendRequest;
+import com.alipay.api.request.AlipayOpenPublicMessageSingleSendRequest;
+import com.alipay.domain.AlipayColorValue;
+import com.alipay.domain.AlipayImageTextMessage;
+import com.alipay.util.BizContentJson;
+import com.alipay.util.JsonEscape;
+import com.alipay.util.TemplateMessageRenderer;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 群发的消息模板
+ * <p>
+ * 创建时把除 to_user_id 以外的内容序列化一次，发送时只拼接 to_user_id，不再逐个用户序列化。
+ */
+public final class BulkMessage {
+
+	private static final String CUSTOM_SEND_METHOD = "alipay.open.public.message.custom.send";
+	private static final String SINGLE_SEND_METHOD = "alipay.open.public.message.single.send";
+
+	private final String method;
+	private final String prefix;
+	private final String suffix;
+
+	private BulkMessage(String method, String json) {
+		if (json.length() < 2 || json.charAt(0) != '{')
+			throw new IllegalArgumentException("消息必须是JSON对象：" + json);
+		this.method = method;
+		this.prefix = "{\"to_user_id\":\"";
+		this.suffix = json.length() == 2 ? "\"}" : "\"," + json.substring(1);
+	}
+
+	/**
+	 * 纯文本客服消息，同 {@link com.alipay.util.AliTool#toAlipaySingleSendImgTextMsg(String, String, String)}
+	 *
+	 * @param textContent 文本消息的内容
+	 * @param chat        是否是聊天消息，0或1
+	 * @return BulkMessage
+	 */
+	public static BulkMessage text(String textContent, String chat) {
+		AlipayImageTextMessage message = new AlipayImageTextMessage();
+		message.setMsg_type("text");
+		Text text = new Text();
+		text.setContent(textContent);
+		message.setText(text);
+		message.setChat(chat);
+		return customSend(message);
+	}
+
+	/**
+	 * 图文客服消息，同 {@link com.alipay.util.AliTool#toAlipaySingleSendImgTextMsg(String, List, String)}
+	 *
+	 * @param articles 图文消息
+	 * @param chat     是否是聊天消息，0或1
+	 * @return BulkMessage
+	 */
+	public static BulkMessage imageText(List<Article> articles, String chat) {
+		AlipayImageTextMessage message = new AlipayImageTextMessage();
+		message.setMsg_type("image-text");
+		message.setArticles(articles);
+		message.setChat(chat);
+		return customSend(message);
+	}
+
+	/**
+	 * 任意客服消息，message 中的 to_user_id 被忽略
+	 *
+	 * @param message 消息
+	 * @return BulkMessage
+	 */
+	public static BulkMessage customSend(AlipayImageTextMessage message) {
+		String toUserId = message.getTo_user_id();
+		message.setTo_user_id(null);
+		try {
+			return new BulkMessage(CUSTOM_SEND_METHOD, BizContentJson.toJson(message));
+		} finally {
+			message.setTo_user_id(toUserId);
+		}
+	}
+
+	/**
+	 * 模板消息，同 {@link com.alipay.util.AliTool#toAlipayLabelSendMsg(String, String, String, String, String, Map)}
+	 *
+	 * @param templateId 消息模板id
+	 * @param headColor  顶部色条的色值
+	 * @param url        点击消息后承接页的地址
+	 * @param actionName 底部链接描述文字
+	 * @param keywords   模板中的关键字及其颜色与值
+	 * @return BulkMessage
+	 */
+	public static BulkMessage template(String templateId, String headColor, String url, String actionName, Map<String, AlipayColorValue> keywords) {
+		TemplateMessageRenderer renderer = TemplateMessageRenderer.compile(templateId, keywords.keySet());
+		return new BulkMessage(SINGLE_SEND_METHOD, renderer.render(null, headColor, url, actionName, keywords));
+	}
+
+	/**
+	 * @return API方法名
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @param toUserId 接收用户
+	 * @return 该用户的 biz_content
+	 */
+	public String bizContent(String toUserId) {
+		StringBuilder builder = new StringBuilder(prefix.length() + toUserId.length() + suffix.length());
+		builder.append(prefix);
+		JsonEscape.append(builder, toUserId);
+		return builder.append(suffix).toString();
+	}
+
+	/**
+	 * @param toUserId 接收用户
+	 * @return 发送给该用户的请求
+	 */
+	public AlipayRequest<? extends AlipayResponse> newRequest(String toUserId) {
+		if (SINGLE_SEND_METHOD.equals(method)) {
+			AlipayOpenPublicMessageSingleSendRequest request = new AlipayOpenPublicMessageSingleSendRequest();
+			request.setBizContent(bizContent(toUserId));
+			return request;
+		}
+		AlipayOpenPublicMessageCustomSendRequest request = new AlipayOpenPublicMessageCustomSendRequest();
+		request.setBizContent(bizContent(toUserId));
+		return request;
+	}
+}
@@ -0,0 +1,375 @@
+package com.alipay.bulk;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+import com.alipay.client.CircuitBreakerAlipayClient;
+import com.alipay.client.QuotaAlipayClient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按用户逐个发送的群发活动，支持断点续发
+ * <p>
+ * 从 {@link UserIdSource} 顺序读取用户，以固定并发数调用 custom.send 或 single.send；调用经过 AliTool 的配额与熔断，
+ * 超出配额或熔断时等待后重试同一用户，不计入重试次数，但同一用户累计等待超过5分钟后记为失败，以免断点长期停在该用户。网络异常与支付宝系统错误（20000、isp.*）按指数退避重试，
+ * 其他业务错误记为失败，写入失败记录文件（断点文件名加 .failed，每行：用户id、code、sub_code、说明）。
+ * <p>
+ * 进度按用户在来源中的顺序号记录到断点文件：小于 watermark 的全部已处理，另外记录 watermark 之后已处理的顺序号，
+ * 连续的顺序号记为区间（如 120-180）。
+ * 断点文件每秒或每500个用户原子地替换一次，{@link #stop()} 或来源读完后再写一次。使用同一断点文件再次运行时跳过已处理的用户；
+ * 进程崩溃时最多重发最后一次写入断点之后发送的用户。
+ */
+public class BulkSendCampaign {
+
+	private static final int MAX_RETRIES = 8;
+	private static final long MAX_BACKOFF_MILLIS = 5000;
+	/**
+	 * 超出配额或熔断时同一用户最长的累计等待时间
+	 */
+	private static final long MAX_THROTTLED_WAIT_MILLIS = 300000;
+	private static final int CHECKPOINT_EVERY = 500;
+	private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+	private static final String ABANDONED = "abandoned";
+
+	private final AlipayClient alipayClient;
+	private final BulkMessage message;
+	private final UserIdSource source;
+	private final File checkpointFile;
+	private final File failedFile;
+	private final int concurrency;
+	private volatile boolean stopped;
+
+	private long watermark;
+	private final TreeSet<Long> doneAbove = new TreeSet<>();
+	private long totalSent;
+	private long totalFailed;
+	private boolean finished;
+	private long sent;
+	private long failed;
+	private int sinceCheckpoint;
+	private long lastCheckpoint;
+	private Writer failedWriter;
+
+	/**
+	 * 构造函数
+	 *
+	 * @param alipayClient   AlipayClient，一般为 AliTool 的客户端，带有配额与熔断
+	 * @param message        消息模板
+	 * @param source         用户id来源，运行结束后关闭
+	 * @param checkpointFile 断点文件，不存在时从头发送
+	 * @param concurrency    并发数
+	 */
+	public BulkSendCampaign(AlipayClient alipayClient, BulkMessage message, UserIdSource source, File checkpointFile, int concurrency) {
+		this.alipayClient = alipayClient;
+		this.message = message;
+		this.source = source;
+		this.checkpointFile = checkpointFile;
+		this.failedFile = new File(checkpointFile.getPath() + ".failed");
+		this.concurrency = Math.max(1, concurrency);
+	}
+
+	/**
+	 * 执行群发，阻塞到来源读完或 {@link #stop()}
+	 *
+	 * @return 本次运行的结果
+	 * @throws IOException 断点文件或来源读写失败，已发送的进度仍会写入断点文件
+	 */
+	public BulkSendResult run() throws IOException {
+		long start = System.currentTimeMillis();
+		loadCheckpoint();
+		long skipped = 0;
+		if (finished) {
+			source.close();
+			return new BulkSendResult(0, 0, 0, true, 0);
+		}
+		failedWriter = new OutputStreamWriter(new FileOutputStream(failedFile, true), "UTF-8");
+		lastCheckpoint = System.currentTimeMillis();
+
+		final AtomicInteger threadSeq = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "alipay-bulk-" + threadSeq.incrementAndGet());
+					}
+				});
+		Semaphore permits = new Semaphore(concurrency);
+		boolean exhausted = false;
+		try {
+			long index = 0;
+			String userId;
+			while (!stopped) {
+				userId = source.next();
+				if (null == userId) {
+					exhausted = true;
+					break;
+				}
+				long i = index++;
+				if (isDone(i)) {
+					skipped++;
+					continue;
+				}
+				permits.acquire();
+				pool.execute(new SendTask(i, userId, permits));
+			}
+		} catch (InterruptedException e) {
+			stopped = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdown();
+			awaitQuietly(pool);
+			try {
+				source.close();
+			} finally {
+				synchronized (this) {
+					finished = exhausted && doneAbove.isEmpty() && !stopped;
+					writeCheckpoint();
+					failedWriter.close();
+				}
+			}
+		}
+		synchronized (this) {
+			return new BulkSendResult(sent, failed, skipped, finished, System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * 停止读取新的用户，等待进行中的发送结束后写入断点，{@link #run()} 随后返回
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * @return 本次运行已发送成功的用户数
+	 */
+	public synchronized long getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return 本次运行发送失败的用户数
+	 */
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	private synchronized boolean isDone(long index) {
+		return index < watermark || doneAbove.contains(index);
+	}
+
+	private synchronized void complete(long index, String userId, String failure) {
+		if (null == failure) {
+			sent++;
+			totalSent++;
+		} else {
+			failed++;
+			totalFailed++;
+			try {
+				failedWriter.write(userId + "\t" + failure + "\n");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (index == watermark) {
+			watermark++;
+			while (doneAbove.remove(watermark))
+				watermark++;
+		} else {
+			doneAbove.add(index);
+		}
+		sinceCheckpoint++;
+		if (sinceCheckpoint >= CHECKPOINT_EVERY || System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+			try {
+				writeCheckpoint();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void loadCheckpoint() throws IOException {
+		if (!checkpointFile.exists())
+			return;
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(checkpointFile);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		synchronized (this) {
+			watermark = Long.parseLong(properties.getProperty("watermark", "0"));
+			totalSent = Long.parseLong(properties.getProperty("sent", "0"));
+			totalFailed = Long.parseLong(properties.getProperty("failed", "0"));
+			finished = Boolean.parseBoolean(properties.getProperty("finished", "false"));
+			String done = properties.getProperty("done", "");
+			for (String range : done.split(",")) {
+				if (range.length() == 0)
+					continue;
+				int dash = range.indexOf('-');
+				long first = Long.parseLong(dash < 0 ? range : range.substring(0, dash));
+				long last = dash < 0 ? first : Long.parseLong(range.substring(dash + 1));
+				for (long index = first; index <= last; index++)
+					doneAbove.add(index);
+			}
+		}
+	}
+
+	/**
+	 * 先落盘失败记录，再写临时文件并原子替换断点文件
+	 */
+	private void writeCheckpoint() throws IOException {
+		failedWriter.flush();
+		StringBuilder done = new StringBuilder();
+		long first = -1;
+		long last = -1;
+		for (long index : doneAbove) {
+			if (index == last + 1 && first >= 0) {
+				last = index;
+				continue;
+			}
+			appendRange(done, first, last);
+			first = index;
+			last = index;
+		}
+		appendRange(done, first, last);
+		Properties properties = new Properties();
+		properties.setProperty("watermark", String.valueOf(watermark));
+		properties.setProperty("done", done.toString());
+		properties.setProperty("sent", String.valueOf(totalSent));
+		properties.setProperty("failed", String.valueOf(totalFailed));
+		properties.setProperty("finished", String.valueOf(finished));
+		File tmp = new File(checkpointFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, message.getMethod());
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		sinceCheckpoint = 0;
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	private static void appendRange(StringBuilder done, long first, long last) {
+		if (first < 0)
+			return;
+		if (done.length() > 0)
+			done.append(',');
+		done.append(first);
+		if (last > first)
+			done.append('-').append(last);
+	}
+
+	private static void awaitQuietly(ThreadPoolExecutor pool) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (pool.awaitTermination(1, TimeUnit.DAYS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static <T extends AlipayResponse> T execute(AlipayClient alipayClient, AlipayRequest<T> request) throws AlipayApiException {
+		return alipayClient.execute(request);
+	}
+
+	private final class SendTask implements Runnable {
+		private final long index;
+		private final String userId;
+		private final Semaphore permits;
+
+		SendTask(long index, String userId, Semaphore permits) {
+			this.index = index;
+			this.userId = userId;
+			this.permits = permits;
+		}
+
+		@Override
+		public void run() {
+			try {
+				String failure = send();
+				// 停止时放弃重试的用户不记录，下次运行重新发送
+				if (!ABANDONED.equals(failure))
+					complete(index, userId, failure);
+			} catch (Throwable t) {
+				// 按失败记录，否则断点越过该用户后既不会重发也不在失败记录中
+				t.printStackTrace();
+				complete(index, userId, "\t\t" + String.valueOf(t).replace('\n', ' ').replace('\r', ' '));
+			} finally {
+				permits.release();
+			}
+		}
+
+		/**
+		 * @return 成功返回null，失败返回失败说明
+		 */
+		private String send() {
+			int attempt = 0;
+			long backoff = 200;
+			long throttledWait = 0;
+			while (true) {
+				String failure;
+				boolean retry;
+				boolean counted = true;
+				try {
+					AlipayResponse response = execute(alipayClient, message.newRequest(userId));
+					if (null != response && response.isSuccess())
+						return null;
+					if (null == response) {
+						failure = "\t\t无响应";
+						retry = true;
+					} else {
+						String subCode = null == response.getSubCode() ? "" : response.getSubCode();
+						failure = response.getCode() + "\t" + subCode + "\t" + response.getSubMsg();
+						retry = "20000".equals(response.getCode()) || subCode.startsWith("isp.");
+					}
+				} catch (AlipayApiException e) {
+					failure = e.getErrCode() + "\t\t" + e.getErrMsg();
+					retry = true;
+					counted = !QuotaAlipayClient.QUOTA_EXCEEDED_CODE.equals(e.getErrCode())
+							&& !CircuitBreakerAlipayClient.CIRCUIT_OPEN_CODE.equals(e.getErrCode());
+				}
+				if (!retry)
+					return failure;
+				if (counted && ++attempt > MAX_RETRIES)
+					return failure;
+				if (!counted && (throttledWait += backoff) > MAX_THROTTLED_WAIT_MILLIS)
+					return failure;
+				if (stopped)
+					return ABANDONED;
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException e) {
+					return ABANDONED;
+				}
+				backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.alipay.bulk;
+
+/**
+ * 一次群发运行的结果
+ */
+public class BulkSendResult {
+
+	private final long sent;
+	private final long failed;
+	private final long skipped;
+	private final boolean finished;
+	private final long elapsedMillis;
+
+	BulkSendResult(long sent, long failed, long skipped, boolean finished, long elapsedMillis) {
+		this.sent = sent;
+		this.failed = failed;
+		this.skipped = skipped;
+		this.finished = finished;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return 本次运行发送成功的用户数
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return 本次运行发送失败的用户数，明细见失败记录文件
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return 之前的运行中已处理、本次跳过的用户数
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return 是否已处理完全部用户；为false时可用同一断点文件再次运行继续发送
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkSendResult{sent=" + sent + ", failed=" + failed + ", skipped=" + skipped + ", finished=" + finished + ", elapsedMillis="
+				+ elapsedMillis + "}";
+	}
+}
@@ -0,0 +1,211 @@
+package com.alipay.bulk;
+
+import com.alipay.api.response.AlipayOpenPublicFollowBatchqueryResponse;
+import com.alipay.client.FollowerConsumer;
+import com.alipay.dispatcher.SendRetryScheduler;
+import com.alipay.util.AliTool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务窗全部关注者的游标，自动传递 next_user_id 逐页拉取
+ * <p>
+ * 后台线程在调用方处理第N页时拉取第N+1页（最多预取 prefetchPages 页），拉取失败按 {@link SendRetryScheduler.FailureClass}
+ * 退避重试，失败的那一页整页丢弃重新拉取，不会返回重复或缺失的userId。调用方提前结束时 {@link #close()} 停止拉取。
+ * 只能由一个线程读取。
+ */
+public class FollowerCursor implements UserIdSource {
+
+	/**
+	 * 默认预取页数
+	 */
+	public static final int DEFAULT_PREFETCH_PAGES = 1;
+
+	private static final Page END = new Page(null, Collections.<String>emptyList(), null);
+
+	private final AliTool aliTool;
+	private final BlockingQueue<Page> pages;
+	private final Thread fetcher;
+	private volatile boolean closed;
+	private volatile long fetchedPages;
+	private volatile long retries;
+
+	private Page current;
+	private int position;
+	private long returned;
+
+	/**
+	 * 从第一页开始
+	 *
+	 * @param aliTool AliTool
+	 */
+	public FollowerCursor(AliTool aliTool) {
+		this(aliTool, null, DEFAULT_PREFETCH_PAGES);
+	}
+
+	/**
+	 * @param aliTool       AliTool
+	 * @param startUserId   从这个next_user_id开始拉取，如上次中断时 {@link #getPageStartUserId()} 的返回值；为空时从第一页开始
+	 * @param prefetchPages 最多预取的页数，每页最多10000个userId
+	 */
+	public FollowerCursor(AliTool aliTool, final String startUserId, int prefetchPages) {
+		if (prefetchPages < 1)
+			throw new IllegalArgumentException("prefetchPages必须大于0：" + prefetchPages);
+		this.aliTool = aliTool;
+		this.pages = new ArrayBlockingQueue<>(prefetchPages);
+		this.fetcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				fetchAll(startUserId);
+			}
+		}, "alipay-follower-cursor");
+		this.fetcher.setDaemon(true);
+		this.fetcher.start();
+	}
+
+	@Override
+	public String next() throws IOException {
+		while (null == current || position >= current.userIds.size()) {
+			if (current == END)
+				return null;
+			if (closed)
+				throw new IOException("关注者游标已关闭");
+			try {
+				current = pages.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("等待关注者列表时被中断");
+			}
+			position = 0;
+			if (null != current.error) {
+				Page failed = current;
+				current = END;
+				throw new IOException(failed.error);
+			}
+			if (current == END)
+				return null;
+		}
+		returned++;
+		return current.userIds.get(position++);
+	}
+
+	/**
+	 * 停止后台拉取，丢弃已预取的页
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		fetcher.interrupt();
+		pages.clear();
+	}
+
+	/**
+	 * @return 当前正在读取的页的 next_user_id，从这个值重新创建游标会从当前页的第一个userId重新开始，第一页或尚未读取时为null
+	 */
+	public String getPageStartUserId() {
+		return null == current ? null : current.startUserId;
+	}
+
+	/**
+	 * @return 已返回的userId数
+	 */
+	public long getReturnedCount() {
+		return returned;
+	}
+
+	/**
+	 * @return 已拉取的页数
+	 */
+	public long getFetchedPages() {
+		return fetchedPages;
+	}
+
+	/**
+	 * @return 拉取失败后重试的次数
+	 */
+	public long getRetries() {
+		return retries;
+	}
+
+	private void fetchAll(String nextUserId) {
+		try {
+			while (!closed) {
+				final List<String> userIds = new ArrayList<>(10000);
+				AlipayOpenPublicFollowBatchqueryResponse response = fetchPage(nextUserId, userIds);
+				if (null == response)
+					return;
+				fetchedPages++;
+				String startUserId = nextUserId;
+				nextUserId = response.getNextUserId();
+				boolean last = null == nextUserId || nextUserId.length() == 0 || userIds.isEmpty();
+				if (!userIds.isEmpty())
+					pages.put(new Page(startUserId, userIds, null));
+				if (last) {
+					pages.put(END);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// close()
+		} catch (Throwable t) {
+			// 意外异常（如解析响应时）也放入错误页，否则 next() 一直等待
+			t.printStackTrace();
+			try {
+				pages.put(new Page(nextUserId, Collections.<String>emptyList(), "获取关注者列表失败：" + t));
+			} catch (InterruptedException e) {
+				// close()
+			}
+		}
+	}
+
+	/**
+	 * 拉取一页，失败时整页丢弃并退避重试
+	 *
+	 * @return 成功的响应，重试次数用尽（已放入错误页）或已关闭时返回null
+	 */
+	private AlipayOpenPublicFollowBatchqueryResponse fetchPage(String nextUserId, final List<String> userIds) throws InterruptedException {
+		int attempts = 0;
+		while (!closed) {
+			userIds.clear();
+			AlipayOpenPublicFollowBatchqueryResponse response = aliTool.streamFollowlist(nextUserId, new FollowerConsumer() {
+				@Override
+				public void accept(String userId) {
+					userIds.add(userId);
+				}
+			});
+			if (null != response && response.isSuccess())
+				return response;
+			attempts++;
+			SendRetryScheduler.FailureClass failure = SendRetryScheduler.classify(response, null);
+			String reason = null == response ? "无响应" : response.getCode() + " " + response.getSubCode() + " " + response.getSubMsg();
+			if (attempts >= failure.getMaxAttempts()) {
+				userIds.clear();
+				pages.put(new Page(nextUserId, Collections.<String>emptyList(), "获取关注者列表失败（" + attempts + "次）：" + reason));
+				return null;
+			}
+			System.out.println("获取关注者列表失败，第" + attempts + "次 " + failure + "：" + reason);
+			retries++;
+			TimeUnit.MILLISECONDS.sleep(failure.delayMillis(attempts));
+		}
+		return null;
+	}
+
+	private static class Page {
+		final String startUserId;
+		final List<String> userIds;
+		final String error;
+
+		Page(String startUserId, List<String> userIds, String error) {
+			this.startUserId = startUserId;
+			this.userIds = userIds;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package com.alipay.bulk;
+
+import com.alipay.api.AlipayResponse;
+import com.alipay.api.domain.ErrorMatcher;
+import com.alipay.api.domain.Matcher;
+import com.alipay.api.response.AlipayOpenPublicMatchuserLabelCreateResponse;
+import com.alipay.api.response.AlipayOpenPublicMatchuserLabelDeleteResponse;
+import com.alipay.dispatcher.SendRetryScheduler;
+import com.alipay.index.LabelIndex;
+import com.alipay.index.Segment;
+import com.alipay.util.AliTool;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把一个标签值同步为指定的用户集合
+ * <p>
+ * 以 {@link LabelIndex} 中记录的上次同步结果为准，只对差异调用接口：集合中没有该标签值的用户打标，
+ * 有该标签值但不在集合中的用户取消打标。索引只在内存中，因此标签值须在索引中完整（{@link LabelIndex#isSeeded}）：
+ * 指定状态文件时，同步后把该标签值的用户写入文件，重启后第一次同步先用它补全索引；否则拒绝同步，
+ * 避免以空集合为基准重复打标且从不取消打标。差异按每批 {@link #MAX_MATCHERS} 个用户并发提交，调用受 AliTool 配额限制；
+ * 整批失败按 {@link SendRetryScheduler.FailureClass} 退避重试，error_matcher 中的用户不重试，记入结果。
+ * 成功的用户由 AliTool 写入索引，因此失败的用户在下次同步时会再次尝试。
+ */
+public class LabelSyncJob {
+
+	/**
+	 * 打标、取消打标接口每次最多的matcher数
+	 */
+	public static final int MAX_MATCHERS = 10;
+
+	private final AliTool aliTool;
+	private final String labelId;
+	private final String labelValue;
+	private final File stateFile;
+	private final int concurrency;
+
+	private long added;
+	private long removed;
+	private long failed;
+	private final List<LabelSyncResult.ChunkFailure> failures = new ArrayList<>();
+
+	/**
+	 * @param aliTool     已开启标签索引（{@link AliTool#enableLabelIndex()}）的AliTool
+	 * @param labelId     标签id
+	 * @param labelValue  标签值
+	 * @param concurrency 并发数
+	 */
+	public LabelSyncJob(AliTool aliTool, String labelId, String labelValue, int concurrency) {
+		this(aliTool, labelId, labelValue, null, concurrency);
+	}
+
+	/**
+	 * @param aliTool     已开启标签索引（{@link AliTool#enableLabelIndex()}）的AliTool
+	 * @param labelId     标签id
+	 * @param labelValue  标签值
+	 * @param stateFile   上次同步后该标签值的用户，每行一个；不存在且标签值不完整时拒绝同步，
+	 *                    确认支付宝上没有用户有该标签值时可以创建空文件；为null时不读写
+	 * @param concurrency 并发数
+	 */
+	public LabelSyncJob(AliTool aliTool, String labelId, String labelValue, File stateFile, int concurrency) {
+		if (null == aliTool.getLabelIndex())
+			throw new IllegalStateException("标签索引未开启，请先调用 enableLabelIndex");
+		this.aliTool = aliTool;
+		this.labelId = labelId;
+		this.labelValue = labelValue;
+		this.stateFile = stateFile;
+		this.concurrency = Math.max(1, concurrency);
+	}
+
+	/**
+	 * 执行同步，阻塞到全部批次完成
+	 *
+	 * @param desired 应当有该标签值的全部用户，读完后关闭
+	 * @return 同步结果
+	 * @throws IOException 读取用户或状态文件失败，此时未调用接口；或写入状态文件失败
+	 * @throws IllegalStateException 标签值在索引中不完整，且没有状态文件
+	 */
+	public LabelSyncResult run(UserIdSource desired) throws IOException {
+		long start = System.currentTimeMillis();
+		LabelIndex index = aliTool.getLabelIndex();
+		if (null != stateFile && stateFile.exists())
+			index.seed(labelId, labelValue, UserIdSources.fromFile(stateFile));
+		if (!index.isSeeded(labelId, labelValue)) {
+			desired.close();
+			throw new IllegalStateException("标签值在索引中不完整，不能作为同步基准：" + labelId + "=" + labelValue
+					+ "，请指定上次同步的状态文件或先调用 LabelIndex.seed");
+		}
+		Segment want = index.segmentOf(desired);
+		Segment have = index.segment(labelId, labelValue);
+
+		final AtomicInteger threadSeq = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "alipay-label-sync-" + threadSeq.incrementAndGet());
+					}
+				});
+		Semaphore permits = new Semaphore(concurrency * 2);
+		int chunks = 0;
+		try {
+			chunks += submit(pool, permits, true, want.andNot(have).userIds());
+			chunks += submit(pool, permits, false, have.andNot(want).userIds());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdown();
+			awaitQuietly(pool);
+		}
+		// 成功的用户已由 AliTool 写入索引，失败的保持原状
+		if (null != stateFile)
+			saveState(index.segment(labelId, labelValue));
+		synchronized (this) {
+			return new LabelSyncResult(added, removed, failed, chunks, failures, System.currentTimeMillis() - start);
+		}
+	}
+
+	private int submit(ThreadPoolExecutor pool, Semaphore permits, boolean add, UserIdSource userIds) throws IOException, InterruptedException {
+		int chunks = 0;
+		List<String> chunk = new ArrayList<>(MAX_MATCHERS);
+		String userId;
+		while (true) {
+			userId = userIds.next();
+			if (null != userId)
+				chunk.add(userId);
+			if (chunk.size() == MAX_MATCHERS || (null == userId && !chunk.isEmpty())) {
+				permits.acquire();
+				pool.execute(new ChunkTask(add, chunk, permits));
+				chunks++;
+				chunk = new ArrayList<>(MAX_MATCHERS);
+			}
+			if (null == userId)
+				return chunks;
+		}
+	}
+
+	private void saveState(Segment synced) throws IOException {
+		File tmp = new File(stateFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		UserIdSource userIds = synced.userIds();
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			writer.write("# " + labelId + "=" + labelValue + "\n");
+			String userId;
+			while (null != (userId = userIds.next()))
+				writer.write(userId + "\n");
+			writer.flush();
+			out.getFD().sync();
+		} finally {
+			userIds.close();
+			out.close();
+		}
+		Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void awaitQuietly(ThreadPoolExecutor pool) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (pool.awaitTermination(1, TimeUnit.DAYS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private final class ChunkTask implements Runnable {
+		private final boolean add;
+		private final List<String> userIds;
+		private final Semaphore permits;
+
+		ChunkTask(boolean add, List<String> userIds, Semaphore permits) {
+			this.add = add;
+			this.userIds = userIds;
+			this.permits = permits;
+		}
+
+		@Override
+		public void run() {
+			try {
+				List<Matcher> matchers = new ArrayList<>(userIds.size());
+				for (String userId : userIds) {
+					Matcher matcher = new Matcher();
+					matcher.setUserId(userId);
+					matchers.add(matcher);
+				}
+				int attempts = 0;
+				while (true) {
+					AlipayResponse response;
+					List<ErrorMatcher> errorMatchers;
+					if (add) {
+						AlipayOpenPublicMatchuserLabelCreateResponse r = aliTool.matchuserLabelAdd(labelId, labelValue, matchers);
+						response = r;
+						errorMatchers = null == r ? null : r.getErrorMatchers();
+					} else {
+						AlipayOpenPublicMatchuserLabelDeleteResponse r = aliTool.matchuserLabelDel(labelId, matchers);
+						response = r;
+						errorMatchers = null == r ? null : r.getErrorMatchers();
+					}
+					attempts++;
+					if (null != response && response.isSuccess()) {
+						succeeded(errorMatchers);
+						return;
+					}
+					SendRetryScheduler.FailureClass failure = SendRetryScheduler.classify(response, null);
+					if (attempts >= failure.getMaxAttempts()) {
+						String message = null == response ? "无响应" : null == response.getSubMsg() ? response.getMsg() : response.getSubMsg();
+						failed(null == response ? null : response.getCode(), null == response ? null : response.getSubCode(), message);
+						return;
+					}
+					Thread.sleep(failure.delayMillis(attempts));
+				}
+			} catch (InterruptedException e) {
+				failed(null, null, "同步被中断");
+			} finally {
+				permits.release();
+			}
+		}
+
+		private void succeeded(List<ErrorMatcher> errorMatchers) {
+			Map<String, String> userErrors = new LinkedHashMap<>();
+			if (null != errorMatchers)
+				for (ErrorMatcher error : errorMatchers)
+					if (null != error.getMatcher() && null != error.getMatcher().getUserId())
+						userErrors.put(error.getMatcher().getUserId(), error.getErrorMsg());
+			synchronized (LabelSyncJob.this) {
+				if (add)
+					added += userIds.size() - userErrors.size();
+				else
+					removed += userIds.size() - userErrors.size();
+				if (!userErrors.isEmpty()) {
+					failed += userErrors.size();
+					failures.add(new LabelSyncResult.ChunkFailure(add, userIds, null, null, null, userErrors));
+				}
+			}
+		}
+
+		private void failed(String code, String subCode, String message) {
+			synchronized (LabelSyncJob.this) {
+				failed += userIds.size();
+				failures.add(new LabelSyncResult.ChunkFailure(add, userIds, code, subCode, message, Collections.<String, String>emptyMap()));
+			}
+		}
+	}
+}
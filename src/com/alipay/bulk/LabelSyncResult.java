@@ -0,0 +1,136 @@
+package com.alipay.bulk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次标签同步的结果
+ */
+public class LabelSyncResult {
+
+	/**
+	 * 一批（最多 {@link LabelSyncJob#MAX_MATCHERS} 个用户）中失败的部分
+	 */
+	public static class ChunkFailure {
+		private final boolean add;
+		private final List<String> userIds;
+		private final String code;
+		private final String subCode;
+		private final String message;
+		private final Map<String, String> userErrors;
+
+		ChunkFailure(boolean add, List<String> userIds, String code, String subCode, String message, Map<String, String> userErrors) {
+			this.add = add;
+			this.userIds = userIds;
+			this.code = code;
+			this.subCode = subCode;
+			this.message = message;
+			this.userErrors = userErrors;
+		}
+
+		/**
+		 * @return 打标为true，取消打标为false
+		 */
+		public boolean isAdd() {
+			return add;
+		}
+
+		/**
+		 * @return 这一批的全部用户
+		 */
+		public List<String> getUserIds() {
+			return userIds;
+		}
+
+		/**
+		 * @return 整批失败时的网关返回码，部分失败时为null
+		 */
+		public String getCode() {
+			return code;
+		}
+
+		public String getSubCode() {
+			return subCode;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return 部分失败时失败的用户及原因（error_matcher），整批失败时为空
+		 */
+		public Map<String, String> getUserErrors() {
+			return userErrors;
+		}
+
+		@Override
+		public String toString() {
+			return "ChunkFailure{" + (add ? "add" : "remove") + ", users=" + userIds.size() + ", code=" + code + ", subCode=" + subCode + ", message="
+					+ message + ", userErrors=" + userErrors + "}";
+		}
+	}
+
+	private final long added;
+	private final long removed;
+	private final long failed;
+	private final int chunks;
+	private final List<ChunkFailure> failures;
+	private final long elapsedMillis;
+
+	LabelSyncResult(long added, long removed, long failed, int chunks, List<ChunkFailure> failures, long elapsedMillis) {
+		this.added = added;
+		this.removed = removed;
+		this.failed = failed;
+		this.chunks = chunks;
+		this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return 打标成功的用户数
+	 */
+	public long getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return 取消打标成功的用户数
+	 */
+	public long getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return 失败的用户数，明细见 {@link #getFailures()}，下次同步时会再次尝试
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return 调用接口的批数
+	 */
+	public int getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * @return 有失败的批
+	 */
+	public List<ChunkFailure> getFailures() {
+		return failures;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "LabelSyncResult{added=" + added + ", removed=" + removed + ", failed=" + failed + ", chunks=" + chunks + ", failedChunks="
+				+ failures.size() + ", elapsedMillis=" + elapsedMillis + "}";
+	}
+}
@@ -0,0 +1,18 @@
+package com.alipay.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 群发的用户id来源，按固定顺序逐个返回；断点续发按顺序号跳过已发送的用户，因此同一活动的多次运行须返回相同的顺序
+ *
+ * @see UserIdSources
+ */
+public interface UserIdSource extends Closeable {
+
+	/**
+	 * @return 下一个用户id，没有更多时返回null
+	 * @throws IOException 读取失败
+	 */
+	String next() throws IOException;
+}
@@ -0,0 +1,82 @@
+package com.alipay.bulk;
+
+import com.alipay.util.AliTool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * 常用的用户id来源
+ */
+public final class UserIdSources {
+
+	private UserIdSources() {
+	}
+
+	/**
+	 * @param userIds 用户id集合，按迭代顺序发送
+	 * @return UserIdSource
+	 */
+	public static UserIdSource of(Collection<String> userIds) {
+		final Iterator<String> it = userIds.iterator();
+		return new UserIdSource() {
+			@Override
+			public String next() {
+				return it.hasNext() ? it.next() : null;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * 从UTF-8文本文件读取，每行一个用户id（取第一个空白前的部分，因此可以直接使用群发的失败记录文件），
+	 * 忽略空行与#开头的行
+	 *
+	 * @param file 文件
+	 * @return UserIdSource
+	 * @throws IOException 文件无法打开
+	 */
+	public static UserIdSource fromFile(File file) throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		return new UserIdSource() {
+			@Override
+			public String next() throws IOException {
+				String line;
+				while (null != (line = reader.readLine())) {
+					line = line.trim();
+					if (line.length() == 0 || line.charAt(0) == '#')
+						continue;
+					int end = 0;
+					while (end < line.length() && !Character.isWhitespace(line.charAt(end)))
+						end++;
+					return line.substring(0, end);
+				}
+				return null;
+			}
+
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+
+	/**
+	 * 服务窗的全部关注者，按支付宝返回的顺序逐页拉取（每页最多10000个），处理当前页时后台预取下一页
+	 *
+	 * @param aliTool AliTool
+	 * @return UserIdSource
+	 * @see FollowerCursor
+	 */
+	public static UserIdSource followers(AliTool aliTool) {
+		return new FollowerCursor(aliTool);
+	}
+}
@@ -0,0 +1,369 @@
+package com.alipay.cache;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.request.AlipaySystemOauthTokenRequest;
+import com.alipay.api.request.AlipayUserUserinfoShareRequest;
+import com.alipay.api.response.AlipaySystemOauthTokenResponse;
+import com.alipay.api.response.AlipayUserUserinfoShareResponse;
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 网页授权的用户令牌与用户信息缓存，按userId保存
+ * <p>
+ * 每次授权跳转带来的auth_code只能换取一次令牌，且只有换取后才知道是哪个用户，因此每次登录都调用一次
+ * alipay.system.oauth.token；之后若该用户的信息仍在有效期内，不再调用 alipay.user.userinfo.share。
+ * 不按auth_code缓存：已用过的auth_code（如刷新页面、被截获后重放）由网关拒绝，不能从内存换到用户信息。
+ * <p>
+ * 后台线程定期检查：最近使用过的用户在access_token过期前用refresh_token换取新令牌，refresh_token过期或长期未使用的用户被移除。
+ * 按userId取用户信息与令牌见 {@link #userInfo(String)}、{@link #accessToken(String)}。
+ * 未关闭的实例（每个租户一个）共用一个Prometheus输出，构造时自动注册，{@link #close()} 后移除。线程安全。
+ */
+public class OauthTokenStore {
+
+	/**
+	 * 用refresh_token换取令牌的grant_type
+	 */
+	public static final String REFRESH_GRANT_TYPE = "refresh_token";
+
+	/**
+	 * access_token过期前提前刷新的毫秒数，不超过令牌有效期的一半
+	 */
+	public static final long REFRESH_AHEAD_MILLIS = 5 * 60 * 1000L;
+
+	/**
+	 * 超过此时间未使用的用户被移除
+	 */
+	public static final long IDLE_EVICT_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private static final long SWEEP_MILLIS = 30 * 1000L;
+
+	private static final String[][] FAMILIES = {
+			{"alipay_oauth_memory_hits_total", "counter", "直接从内存返回的用户信息数"},
+			{"alipay_oauth_token_exchanges_total", "counter", "auth_code换取令牌的次数"},
+			{"alipay_oauth_token_refreshes_total", "counter", "refresh_token刷新令牌的次数"},
+			{"alipay_oauth_token_refresh_failures_total", "counter", "刷新令牌失败的次数"},
+			{"alipay_oauth_userinfo_calls_total", "counter", "调用用户信息接口的次数"},
+			{"alipay_oauth_sessions", "gauge", "缓存令牌的用户数"}};
+
+	/**
+	 * 未关闭的实例，有实例时注册 {@link #METRICS}
+	 */
+	private static final List<OauthTokenStore> OPEN = new ArrayList<>();
+
+	/**
+	 * 全部租户的指标，每个指标只输出一次HELP与TYPE，每个租户一个样本
+	 */
+	private static final PrometheusCollector METRICS = new PrometheusCollector() {
+		@Override
+		public void writePrometheus(Appendable out) throws IOException {
+			List<OauthTokenStore> stores;
+			synchronized (OPEN) {
+				stores = new ArrayList<>(OPEN);
+			}
+			long[][] values = new long[stores.size()][];
+			for (int i = 0; i < values.length; i++) {
+				OauthTokenStore store = stores.get(i);
+				values[i] = new long[]{store.memoryHits.get(), store.exchanges.get(), store.refreshes.get(), store.refreshFailures.get(),
+						store.userInfoCalls.get(), store.sessions.size()};
+			}
+			for (int f = 0; f < FAMILIES.length; f++) {
+				MetricsRegistry.writeHeader(out, FAMILIES[f][0], FAMILIES[f][1], FAMILIES[f][2]);
+				for (int i = 0; i < values.length; i++)
+					out.append(FAMILIES[f][0]).append("{tenant=\"").append(stores.get(i).tenant).append("\"} ").append(String.valueOf(values[i][f]))
+							.append('\n');
+			}
+		}
+	};
+
+	private final String tenant;
+	private final AlipayClient alipayClient;
+	private final String grantType;
+	private final long userInfoTtlMillis;
+	private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService refresher;
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong exchanges = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong refreshFailures = new AtomicLong();
+	private final AtomicLong userInfoCalls = new AtomicLong();
+
+	/**
+	 * 构造函数，启动后台刷新线程并注册Prometheus输出
+	 *
+	 * @param tenant            租户，一般为appId，用于指标与线程名
+	 * @param alipayClient      调用网关的客户端
+	 * @param grantType         auth_code换取令牌的grant_type，一般为authorization_code
+	 * @param userInfoTtlMillis 用户信息的缓存毫秒数
+	 */
+	public OauthTokenStore(String tenant, AlipayClient alipayClient, String grantType, long userInfoTtlMillis) {
+		this.tenant = null == tenant ? "" : tenant;
+		this.alipayClient = alipayClient;
+		this.grantType = grantType;
+		this.userInfoTtlMillis = Math.max(0, userInfoTtlMillis);
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "alipay-oauth-refresh-" + OauthTokenStore.this.tenant);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sweep();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+		this.refresher = executor;
+		synchronized (OPEN) {
+			if (OPEN.isEmpty())
+				MetricsRegistry.getInstance().register(METRICS);
+			OPEN.add(this);
+		}
+	}
+
+	/**
+	 * 网页授权获取用户信息：经网关换取令牌后，该用户的信息在有效期内时直接返回缓存
+	 *
+	 * @param authCode Oauth认证返回的auth_code码
+	 * @return AlipayUserUserinfoShareResponse 对象
+	 * @throws AlipayApiException 换取令牌（包括auth_code已使用过）或获取用户信息失败
+	 */
+	public AlipayUserUserinfoShareResponse login(String authCode) throws AlipayApiException {
+		return exchange(authCode);
+	}
+
+	/**
+	 * 按userId获取用户信息：有效期内直接返回缓存，否则用保存的令牌（必要时先刷新）重新获取
+	 *
+	 * @param userId 用户userId
+	 * @return AlipayUserUserinfoShareResponse 对象，该用户未授权过或令牌已失效时返回null
+	 * @throws AlipayApiException 获取用户信息失败
+	 */
+	public AlipayUserUserinfoShareResponse userInfo(String userId) throws AlipayApiException {
+		Session session = sessions.get(userId);
+		if (null == session)
+			return null;
+		synchronized (session) {
+			session.lastAccess = System.currentTimeMillis();
+			if (session.userInfoExpiresAt > session.lastAccess) {
+				memoryHits.incrementAndGet();
+				return session.userInfo;
+			}
+			if (null == validToken(session))
+				return null;
+			return fetchUserInfo(session);
+		}
+	}
+
+	/**
+	 * 按userId获取未过期的access_token，已过期时用refresh_token同步刷新
+	 *
+	 * @param userId 用户userId
+	 * @return access_token，该用户未授权过或令牌已失效时返回null
+	 */
+	public String accessToken(String userId) {
+		Session session = sessions.get(userId);
+		if (null == session)
+			return null;
+		synchronized (session) {
+			session.lastAccess = System.currentTimeMillis();
+			return validToken(session);
+		}
+	}
+
+	/**
+	 * 移除用户的令牌与用户信息，如用户取消授权后
+	 *
+	 * @param userId 用户userId
+	 */
+	public void invalidate(String userId) {
+		sessions.remove(userId);
+	}
+
+	/**
+	 * @return 缓存的用户数
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	public long getUserInfoTtlMillis() {
+		return userInfoTtlMillis;
+	}
+
+	/**
+	 * 停止后台刷新线程并移除指标，已缓存的数据仍可读取
+	 */
+	public void close() {
+		refresher.shutdownNow();
+		synchronized (OPEN) {
+			if (OPEN.remove(this) && OPEN.isEmpty())
+				MetricsRegistry.getInstance().unregister(METRICS);
+		}
+	}
+
+	/**
+	 * 关闭全部未关闭的实例，Web应用卸载时由 AsyncDispatchContextListener 调用，避免刷新线程泄漏
+	 */
+	public static void closeAll() {
+		List<OauthTokenStore> stores;
+		synchronized (OPEN) {
+			stores = new ArrayList<>(OPEN);
+		}
+		for (OauthTokenStore store : stores)
+			store.close();
+	}
+
+	/**
+	 * 后台线程定期调用：提前刷新最近使用过的用户的令牌，移除失效与长期未使用的用户
+	 */
+	void sweep() {
+		long now = System.currentTimeMillis();
+		for (Session session : sessions.values()) {
+			synchronized (session) {
+				if (session.refreshExpiresAt <= now || session.lastAccess + IDLE_EVICT_MILLIS <= now) {
+					sessions.remove(session.userId, session);
+				} else if (session.refreshAt <= now && session.lastAccess > session.issuedAt) {
+					// 只刷新拿到当前令牌之后又使用过的用户，不再访问的用户等下次使用时再刷新
+					refresh(session);
+				}
+			}
+		}
+	}
+
+	private AlipayUserUserinfoShareResponse exchange(String authCode) throws AlipayApiException {
+		AlipaySystemOauthTokenRequest request = new AlipaySystemOauthTokenRequest();
+		request.setCode(authCode);
+		request.setGrantType(grantType);
+		AlipaySystemOauthTokenResponse response = alipayClient.execute(request);
+		exchanges.incrementAndGet();
+		if (null == response || !response.isSuccess())
+			throw new AlipayApiException("authCode换取authToken失败！");
+		String userId = null != response.getUserId() ? response.getUserId() : response.getAlipayUserId();
+		if (null == userId)
+			throw new AlipayApiException("authCode换取authToken未返回userId！");
+
+		Session session = sessions.get(userId);
+		if (null == session) {
+			Session created = new Session(userId);
+			session = sessions.putIfAbsent(userId, created);
+			if (null == session)
+				session = created;
+		}
+		synchronized (session) {
+			session.update(response);
+			session.lastAccess = System.currentTimeMillis();
+			// 换取期间可能被后台线程移除
+			sessions.putIfAbsent(userId, session);
+			if (session.userInfoExpiresAt > session.lastAccess) {
+				memoryHits.incrementAndGet();
+				return session.userInfo;
+			}
+			return fetchUserInfo(session);
+		}
+	}
+
+	/**
+	 * 调用时已持有session的锁
+	 */
+	private AlipayUserUserinfoShareResponse fetchUserInfo(Session session) throws AlipayApiException {
+		AlipayUserUserinfoShareResponse response = alipayClient.execute(new AlipayUserUserinfoShareRequest(), session.accessToken);
+		userInfoCalls.incrementAndGet();
+		if (null == response || !response.isSuccess())
+			throw new AlipayApiException("获取用户信息失败！");
+		session.userInfo = response;
+		session.userInfoExpiresAt = System.currentTimeMillis() + userInfoTtlMillis;
+		return response;
+	}
+
+	/**
+	 * 调用时已持有session的锁
+	 */
+	private String validToken(Session session) {
+		long now = System.currentTimeMillis();
+		if (session.accessExpiresAt <= now && session.refreshExpiresAt > now)
+			refresh(session);
+		return session.accessExpiresAt > now ? session.accessToken : null;
+	}
+
+	/**
+	 * 调用时已持有session的锁；网关明确拒绝时移除该用户，网络等异常保留，下次检查时重试
+	 */
+	private void refresh(Session session) {
+		AlipaySystemOauthTokenRequest request = new AlipaySystemOauthTokenRequest();
+		request.setGrantType(REFRESH_GRANT_TYPE);
+		request.setRefreshToken(session.refreshToken);
+		try {
+			AlipaySystemOauthTokenResponse response = alipayClient.execute(request);
+			if (null != response && response.isSuccess()) {
+				session.update(response);
+				refreshes.incrementAndGet();
+				return;
+			}
+			refreshFailures.incrementAndGet();
+			session.refreshExpiresAt = 0;
+			session.accessExpiresAt = 0;
+			sessions.remove(session.userId, session);
+		} catch (AlipayApiException e) {
+			refreshFailures.incrementAndGet();
+			e.printStackTrace();
+		}
+	}
+
+	private static long parseSeconds(String seconds) {
+		try {
+			return null == seconds ? 0 : Long.parseLong(seconds.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static class Session {
+		final String userId;
+		String accessToken;
+		String refreshToken;
+		long issuedAt;
+		long refreshAt;
+		long accessExpiresAt;
+		long refreshExpiresAt;
+		long lastAccess;
+		AlipayUserUserinfoShareResponse userInfo;
+		long userInfoExpiresAt;
+
+		Session(String userId) {
+			this.userId = userId;
+		}
+
+		void update(AlipaySystemOauthTokenResponse response) {
+			long now = System.currentTimeMillis();
+			long lifetime = parseSeconds(response.getExpiresIn()) * 1000;
+			long refreshLifetime = parseSeconds(response.getReExpiresIn()) * 1000;
+			accessToken = response.getAccessToken();
+			if (null != response.getRefreshToken())
+				refreshToken = response.getRefreshToken();
+			issuedAt = now;
+			accessExpiresAt = now + lifetime;
+			refreshAt = accessExpiresAt - Math.min(REFRESH_AHEAD_MILLIS, lifetime / 2);
+			refreshExpiresAt = now + Math.max(lifetime, refreshLifetime);
+		}
+	}
+}
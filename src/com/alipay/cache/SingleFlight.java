@@ -0,0 +1,73 @@
+package com.alipay.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 并发相同请求合并
+ * <p>
+ * 同一个key同一时刻只有一个线程（首个到达者）真正执行加载，其余并发调用者等待并共享其结果或异常；
+ * 加载结束后立即移出，之后的调用重新加载，因此不会引入额外的过期数据。
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * 执行或加入同key的进行中调用
+	 *
+	 * @param key    请求标识
+	 * @param loader 实际加载逻辑
+	 * @return 加载结果
+	 * @throws Exception loader抛出的异常原样抛出
+	 */
+	public V execute(K key, Callable<V> loader) throws Exception {
+		FutureTask<V> task = inFlight.get(key);
+		if (null == task) {
+			FutureTask<V> created = new FutureTask<>(loader);
+			task = inFlight.putIfAbsent(key, created);
+			if (null == task) {
+				task = created;
+				try {
+					created.run();
+				} finally {
+					inFlight.remove(key, created);
+				}
+			}
+		}
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		} catch (CancellationException e) {
+			throw new IllegalStateException("合并请求已被取消：" + key, e);
+		}
+	}
+
+	/**
+	 * 让之后到达的调用不再加入当前进行中的调用，用于数据被修改后
+	 *
+	 * @param key 请求标识
+	 */
+	public void forget(K key) {
+		inFlight.remove(key);
+	}
+
+	/**
+	 * 当前进行中的调用数
+	 *
+	 * @return 调用数
+	 */
+	public int inFlightCount() {
+		return inFlight.size();
+	}
+}
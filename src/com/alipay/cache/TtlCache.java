@@ -0,0 +1,135 @@
+package com.alipay.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带过期时间的本地缓存
+ * <p>
+ * 读取时发现过期即删除。为避免"读请求在写操作前发出、在失效后才写回"导致缓存旧数据，
+ * 加载前先通过 {@link #stamp()} 取得戳记，写回时用 {@link #put(Object, Object, long)}，
+ * 期间发生过任何失效则放弃写回。
+ */
+public class TtlCache<K, V> {
+
+	private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	private final AtomicLong generation = new AtomicLong();
+	private volatile long ttlMillis;
+
+	/**
+	 * 构造函数
+	 *
+	 * @param ttlMillis 缓存有效期（毫秒），小于等于0表示不缓存
+	 */
+	public TtlCache(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * 获取未过期的缓存值
+	 *
+	 * @param key 键
+	 * @return 缓存值，不存在或已过期返回null
+	 */
+	public V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (null == entry)
+			return null;
+		if (entry.expireAt <= System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * 取得当前戳记，加载数据前调用
+	 *
+	 * @return 戳记
+	 */
+	public long stamp() {
+		return generation.get();
+	}
+
+	/**
+	 * 写入缓存，若取得戳记后发生过失效则不写入
+	 *
+	 * @param key   键
+	 * @param value 值
+	 * @param stamp 加载前取得的戳记
+	 * @return 是否写入
+	 */
+	public boolean put(K key, V value, long stamp) {
+		long ttl = ttlMillis;
+		if (ttl <= 0 || null == value)
+			return false;
+		Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + ttl);
+		entries.put(key, entry);
+		if (generation.get() != stamp) {
+			entries.remove(key, entry);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 失效指定键
+	 *
+	 * @param key 键
+	 */
+	public void invalidate(K key) {
+		generation.incrementAndGet();
+		entries.remove(key);
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+
+	/**
+	 * 删除所有已过期的条目
+	 */
+	public void purgeExpired() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+			if (it.next().getValue().expireAt <= now)
+				it.remove();
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * 设置缓存有效期，小于等于0时同时清空缓存
+	 *
+	 * @param ttlMillis 缓存有效期（毫秒）
+	 */
+	public void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		if (ttlMillis <= 0)
+			invalidateAll();
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		final long expireAt;
+
+		Entry(V value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.alipay.client;
+
+/**
+ * 熔断器
+ * <p>
+ * 连续失败达到阈值后进入OPEN状态，期间所有调用直接失败；经过openMillis后进入HALF_OPEN状态，
+ * 仅放行少量探测请求，探测全部成功则恢复CLOSED，任一失败则重新进入OPEN。
+ * <p>
+ * 每次状态切换时代数加1，放行时返回当前代数作为凭证，结束时凭证一并传回；
+ * 早于当前代数放行的调用（如CLOSED时放行、熔断后才结束的调用）的结果被忽略，不影响探测计数。
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+
+	/**
+	 * 连续失败多少次后熔断
+	 */
+	private final int failureThreshold;
+
+	/**
+	 * 熔断持续时间（毫秒），之后进入半开状态
+	 */
+	private final long openMillis;
+
+	/**
+	 * 半开状态下放行的探测请求数
+	 */
+	private final int halfOpenProbes;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private int probesInFlight;
+	private int probeSuccesses;
+	private long generation;
+
+	/**
+	 * 构造函数
+	 *
+	 * @param name             熔断器名称，用于错误信息
+	 * @param failureThreshold 连续失败多少次后熔断
+	 * @param openMillis       熔断持续时间（毫秒）
+	 * @param halfOpenProbes   半开状态下放行的探测请求数
+	 */
+	public CircuitBreaker(String name, int failureThreshold, long openMillis, int halfOpenProbes) {
+		this.name = name;
+		this.failureThreshold = failureThreshold > 0 ? failureThreshold : 1;
+		this.openMillis = openMillis > 0 ? openMillis : 0;
+		this.halfOpenProbes = halfOpenProbes > 0 ? halfOpenProbes : 1;
+	}
+
+	/**
+	 * 判断本次调用是否放行；放行时调用方必须在结束后（包括抛出任何异常时）以返回的凭证调用
+	 * onSuccess、onFailure或onIgnored之一，一般放在finally中
+	 *
+	 * @return 放行时返回凭证（不小于0），不放行时返回-1
+	 */
+	public synchronized long allowRequest() {
+		if (state == State.CLOSED)
+			return generation;
+		if (state == State.OPEN) {
+			if (System.currentTimeMillis() - openedAt < openMillis)
+				return -1;
+			transition(State.HALF_OPEN);
+		}
+		// HALF_OPEN：限制探测请求数
+		if (probesInFlight + probeSuccesses >= halfOpenProbes)
+			return -1;
+		probesInFlight++;
+		return generation;
+	}
+
+	/**
+	 * 记录一次成功调用
+	 *
+	 * @param token {@link #allowRequest()} 返回的凭证
+	 */
+	public synchronized void onSuccess(long token) {
+		if (token != generation)
+			return;
+		if (state == State.HALF_OPEN) {
+			probesInFlight--;
+			if (++probeSuccesses >= halfOpenProbes)
+				transition(State.CLOSED);
+		} else if (state == State.CLOSED) {
+			consecutiveFailures = 0;
+		}
+	}
+
+	/**
+	 * 放行的调用因与网关无关的原因结束（如调用方回调抛出异常），既不算成功也不算失败，只归还半开状态的探测名额
+	 *
+	 * @param token {@link #allowRequest()} 返回的凭证
+	 */
+	public synchronized void onIgnored(long token) {
+		if (token == generation && state == State.HALF_OPEN)
+			probesInFlight--;
+	}
+
+	/**
+	 * 记录一次失败调用
+	 *
+	 * @param token {@link #allowRequest()} 返回的凭证
+	 */
+	public synchronized void onFailure(long token) {
+		if (token != generation)
+			return;
+		if (state == State.HALF_OPEN) {
+			trip();
+		} else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+			trip();
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * 距离进入半开状态的剩余毫秒数，非OPEN状态返回0
+	 *
+	 * @return 剩余毫秒数
+	 */
+	public synchronized long getRemainingOpenMillis() {
+		if (state != State.OPEN)
+			return 0;
+		return Math.max(0, openedAt + openMillis - System.currentTimeMillis());
+	}
+
+	private void trip() {
+		transition(State.OPEN);
+		openedAt = System.currentTimeMillis();
+	}
+
+	private void transition(State next) {
+		state = next;
+		generation++;
+		consecutiveFailures = 0;
+		probesInFlight = 0;
+		probeSuccesses = 0;
+	}
+}
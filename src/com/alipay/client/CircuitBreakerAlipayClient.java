@@ -0,0 +1,103 @@
+package com.alipay.client;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 带熔断的 AlipayClient
+ * <p>
+ * 每个租户（appId）的每个API方法各自持有一个熔断器。网关异常（网络异常、超时、验签失败、20000服务不可用）计为失败，
+ * 业务错误（如40004）说明网关本身正常，计为成功。熔断期间直接抛出错误码为 {@link #CIRCUIT_OPEN_CODE} 的
+ * AlipayApiException，不再占用线程等待超时。
+ */
+public class CircuitBreakerAlipayClient extends ForwardingAlipayClient {
+
+	/**
+	 * 熔断时抛出异常的错误码
+	 */
+	public static final String CIRCUIT_OPEN_CODE = "circuit-breaker-open";
+
+	/**
+	 * 网关服务不可用的返回码
+	 */
+	private static final String SERVICE_UNAVAILABLE_CODE = "20000";
+
+	private final String tenant;
+	private final int failureThreshold;
+	private final long openMillis;
+	private final int halfOpenProbes;
+	private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+	/**
+	 * 构造函数
+	 *
+	 * @param delegate         被装饰的AlipayClient
+	 * @param tenant           租户标识，一般为appId
+	 * @param failureThreshold 连续失败多少次后熔断
+	 * @param openMillis       熔断持续时间（毫秒）
+	 * @param halfOpenProbes   半开状态下放行的探测请求数
+	 */
+	public CircuitBreakerAlipayClient(AlipayClient delegate, String tenant, int failureThreshold, long openMillis, int halfOpenProbes) {
+		super(delegate);
+		this.tenant = tenant;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+		this.halfOpenProbes = halfOpenProbes;
+	}
+
+	@Override
+	public <T extends AlipayResponse> T execute(AlipayRequest<T> request, String accessToken, String appAuthToken) throws AlipayApiException {
+		CircuitBreaker breaker = getCircuitBreaker(request.getApiMethodName());
+		long token = breaker.allowRequest();
+		if (token < 0)
+			throw new AlipayApiException(CIRCUIT_OPEN_CODE, breaker.getName() + " 已熔断，" + breaker.getRemainingOpenMillis() + "ms后重试");
+		// null表示与网关无关的结束：调用方回调的异常、Error等，只归还探测名额
+		Boolean success = null;
+		try {
+			T response = delegate.execute(request, accessToken, appAuthToken);
+			success = null != response && !SERVICE_UNAVAILABLE_CODE.equals(response.getCode());
+			return response;
+		} catch (AlipayApiException e) {
+			success = false;
+			throw e;
+		} catch (ConsumerException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			success = false;
+			throw e;
+		} finally {
+			if (null == success)
+				breaker.onIgnored(token);
+			else if (success)
+				breaker.onSuccess(token);
+			else
+				breaker.onFailure(token);
+		}
+	}
+
+	/**
+	 * 获取API方法对应的熔断器
+	 *
+	 * @param apiMethodName API方法名，如 alipay.open.public.message.custom.send
+	 * @return CircuitBreaker 对象
+	 */
+	public CircuitBreaker getCircuitBreaker(String apiMethodName) {
+		CircuitBreaker breaker = breakers.get(apiMethodName);
+		if (null == breaker) {
+			CircuitBreaker created = new CircuitBreaker(tenant + "/" + apiMethodName, failureThreshold, openMillis, halfOpenProbes);
+			breaker = breakers.putIfAbsent(apiMethodName, created);
+			if (null == breaker)
+				breaker = created;
+		}
+		return breaker;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+}
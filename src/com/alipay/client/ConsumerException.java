@@ -0,0 +1,15 @@
+package com.alipay.client;
+
+/**
+ * 调用方回调（如 {@link FollowerConsumer}）抛出的异常
+ * <p>
+ * 回调在解码响应时执行，其异常与网关无关：{@link CircuitBreakerAlipayClient} 不把它计为失败，原样向上抛出。
+ */
+public class ConsumerException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ConsumerException(Throwable cause) {
+		super("回调处理失败：" + cause, cause);
+	}
+}
@@ -0,0 +1,442 @@
+package com.alipay.client;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.AlipayConstants;
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+import com.alipay.api.AlipayUploadRequest;
+import com.alipay.api.internal.util.AlipayHashMap;
+import com.alipay.api.internal.util.AlipaySignature;
+import com.alipay.api.internal.util.RequestParametersHolder;
+import com.alipay.api.internal.util.StringUtils;
+import com.alipay.api.internal.util.WebUtils;
+import com.alipay.api.internal.util.codec.Base64;
+import com.alipay.api.internal.util.json.JSONWriter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 对注册了 {@link ResponseDecoder} 的响应类型，自行签名、发送请求并解码响应的 AlipayClient
+ * <p>
+ * SDK 会把整个响应读成字符串，再经反射转换成响应对象，大响应（如一页1万个关注者）会在堆上同时存在多份拷贝。
+ * 这里把响应字节读入线程复用的缓冲区，直接在字节上验签，再用 JsonReader 交给解码器逐字段读取；
+ * {@link FollowListStreamRequest} 的userId边解析边回调，不生成列表也不保留body。
+ * <p>
+ * 仅处理JSON格式、UTF-8编码、不加密、非上传的请求，其余请求以及未注册解码器的响应类型交给被装饰的 AlipayClient。
+ */
+public class DirectAlipayClient extends ForwardingAlipayClient {
+
+	/**
+	 * 超过该容量的响应缓冲区用完后不再复用
+	 */
+	private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+	private static final ThreadLocal<ResponseBuffer> BUFFER = new ThreadLocal<ResponseBuffer>() {
+		@Override
+		protected ResponseBuffer initialValue() {
+			return new ResponseBuffer();
+		}
+	};
+
+	private final String serverUrl;
+	private final String appId;
+	private final String privateKey;
+	private final String format;
+	private final String charset;
+	private final String alipayPublicKey;
+	private final String signType;
+	private final ConcurrentMap<Class<?>, ResponseDecoder<?>> decoders = new ConcurrentHashMap<>(ResponseDecoders.defaults());
+	private volatile PublicKey verifyKey;
+	private int connectTimeout = 3000;
+	private int readTimeout = 15000;
+
+	/**
+	 * 构造函数，参数与 DefaultAlipayClient 相同
+	 *
+	 * @param delegate        不支持直接解码时使用的AlipayClient
+	 * @param serverUrl       支付宝网关
+	 * @param appId           应用appId
+	 * @param privateKey      应用私钥
+	 * @param format          请求数据格式
+	 * @param charset         字符编码
+	 * @param alipayPublicKey 支付宝公钥
+	 * @param signType        签名类型
+	 */
+	public DirectAlipayClient(AlipayClient delegate, String serverUrl, String appId, String privateKey, String format, String charset,
+							  String alipayPublicKey, String signType) {
+		super(delegate);
+		this.serverUrl = serverUrl;
+		this.appId = appId;
+		this.privateKey = privateKey;
+		this.format = StringUtils.isEmpty(format) ? AlipayConstants.FORMAT_JSON : format;
+		this.charset = StringUtils.isEmpty(charset) ? AlipayConstants.CHARSET_UTF8 : charset;
+		this.alipayPublicKey = alipayPublicKey;
+		this.signType = signType;
+	}
+
+	/**
+	 * 注册响应解码器，覆盖同类型的预置解码器
+	 *
+	 * @param responseClass 响应类型
+	 * @param decoder       解码器
+	 * @param <T>           响应类型
+	 */
+	public <T extends AlipayResponse> void registerDecoder(Class<T> responseClass, ResponseDecoder<T> decoder) {
+		decoders.put(responseClass, decoder);
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	@Override
+	public <T extends AlipayResponse> T execute(AlipayRequest<T> request, String accessToken, String appAuthToken) throws AlipayApiException {
+		ResponseDecoder<T> decoder = getDecoder(request);
+		if (null == decoder)
+			return delegate.execute(request, accessToken, appAuthToken);
+
+		RequestParametersHolder requestHolder = getRequestHolderWithSign(request, accessToken, appAuthToken);
+		ResponseBuffer buffer = ResponseBuffer.acquire();
+		try {
+			post(getRequestUrl(requestHolder), requestHolder.getApplicationParams(), buffer);
+			T response = decode(request, decoder, buffer);
+			if (!(request instanceof FollowListStreamRequest))
+				response.setBody(new String(buffer.array(), 0, buffer.size(), charset));
+			response.setParams(requestHolder.getApplicationParams());
+			return response;
+		} catch (IOException e) {
+			throw new AlipayApiException(e);
+		} finally {
+			buffer.release();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends AlipayResponse> ResponseDecoder<T> getDecoder(AlipayRequest<T> request) {
+		if (!AlipayConstants.FORMAT_JSON.equalsIgnoreCase(format) || !AlipayConstants.CHARSET_UTF8.equalsIgnoreCase(charset))
+			return null;
+		if (request.isNeedEncrypt() || request instanceof AlipayUploadRequest)
+			return null;
+		return (ResponseDecoder<T>) decoders.get(request.getResponseClass());
+	}
+
+	/**
+	 * 组装接口参数并签名，与 DefaultAlipayClient 一致
+	 */
+	private RequestParametersHolder getRequestHolderWithSign(AlipayRequest<?> request, String accessToken, String appAuthToken)
+			throws AlipayApiException {
+		RequestParametersHolder requestHolder = new RequestParametersHolder();
+		AlipayHashMap appParams = new AlipayHashMap(request.getTextParams());
+		if (StringUtils.isEmpty(appParams.get(AlipayConstants.BIZ_CONTENT_KEY)) && null != request.getBizModel())
+			appParams.put(AlipayConstants.BIZ_CONTENT_KEY, new JSONWriter().write(request.getBizModel(), true));
+		if (!StringUtils.isEmpty(appAuthToken))
+			appParams.put(AlipayConstants.APP_AUTH_TOKEN, appAuthToken);
+		requestHolder.setApplicationParams(appParams);
+
+		AlipayHashMap protocalMustParams = new AlipayHashMap();
+		protocalMustParams.put(AlipayConstants.METHOD, request.getApiMethodName());
+		protocalMustParams.put(AlipayConstants.VERSION, request.getApiVersion());
+		protocalMustParams.put(AlipayConstants.APP_ID, appId);
+		protocalMustParams.put(AlipayConstants.SIGN_TYPE, signType);
+		protocalMustParams.put(AlipayConstants.TERMINAL_TYPE, request.getTerminalType());
+		protocalMustParams.put(AlipayConstants.TERMINAL_INFO, request.getTerminalInfo());
+		protocalMustParams.put(AlipayConstants.NOTIFY_URL, request.getNotifyUrl());
+		protocalMustParams.put(AlipayConstants.RETURN_URL, request.getReturnUrl());
+		protocalMustParams.put(AlipayConstants.CHARSET, charset);
+		DateFormat df = new SimpleDateFormat(AlipayConstants.DATE_TIME_FORMAT);
+		df.setTimeZone(TimeZone.getTimeZone(AlipayConstants.DATE_TIMEZONE));
+		protocalMustParams.put(AlipayConstants.TIMESTAMP, df.format(new Date()));
+		requestHolder.setProtocalMustParams(protocalMustParams);
+
+		AlipayHashMap protocalOptParams = new AlipayHashMap();
+		protocalOptParams.put(AlipayConstants.FORMAT, format);
+		protocalOptParams.put(AlipayConstants.ACCESS_TOKEN, accessToken);
+		protocalOptParams.put(AlipayConstants.ALIPAY_SDK, AlipayConstants.SDK_VERSION);
+		protocalOptParams.put(AlipayConstants.PROD_CODE, request.getProdCode());
+		requestHolder.setProtocalOptParams(protocalOptParams);
+
+		if (StringUtils.isEmpty(signType)) {
+			protocalMustParams.put(AlipayConstants.SIGN, "");
+		} else {
+			String signContent = AlipaySignature.getSignatureContent(requestHolder);
+			protocalMustParams.put(AlipayConstants.SIGN, AlipaySignature.rsaSign(signContent, privateKey, charset, signType));
+		}
+		return requestHolder;
+	}
+
+	private String getRequestUrl(RequestParametersHolder requestHolder) throws AlipayApiException {
+		StringBuilder url = new StringBuilder(serverUrl);
+		try {
+			url.append('?').append(WebUtils.buildQuery(requestHolder.getProtocalMustParams(), charset));
+			String optQuery = WebUtils.buildQuery(requestHolder.getProtocalOptParams(), charset);
+			if (null != optQuery && optQuery.length() > 0)
+				url.append('&').append(optQuery);
+		} catch (IOException e) {
+			throw new AlipayApiException(e);
+		}
+		return url.toString();
+	}
+
+	/**
+	 * 发送请求，响应字节写入缓冲区。不调用disconnect，连接可被keep-alive复用
+	 */
+	private void post(String url, AlipayHashMap params, ResponseBuffer buffer) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoInput(true);
+		conn.setDoOutput(true);
+		conn.setConnectTimeout(connectTimeout);
+		conn.setReadTimeout(readTimeout);
+		conn.setRequestProperty("Accept", "text/xml,text/javascript,text/html");
+		conn.setRequestProperty("User-Agent", "aop-sdk-java");
+		conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=" + charset);
+		String query = WebUtils.buildQuery(params, charset);
+		OutputStream out = conn.getOutputStream();
+		try {
+			if (null != query)
+				out.write(query.getBytes(charset));
+		} finally {
+			out.close();
+		}
+		int status = conn.getResponseCode();
+		InputStream in = status >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+		if (null == in)
+			throw new IOException(status + ":" + conn.getResponseMessage());
+		try {
+			buffer.readFrom(in);
+		} finally {
+			in.close();
+		}
+		if (status >= HttpURLConnection.HTTP_BAD_REQUEST)
+			throw new IOException(status + ":" + new String(buffer.array(), 0, buffer.size(), charset));
+	}
+
+	private <T extends AlipayResponse> T decode(AlipayRequest<T> request, ResponseDecoder<T> decoder, ResponseBuffer buffer)
+			throws IOException, AlipayApiException {
+		byte[] data = buffer.array();
+		int length = buffer.size();
+		if (length == 0)
+			throw new AlipayApiException("sign check fail: Body is Empty!");
+		String rootNode = request.getApiMethodName().replace('.', '_') + AlipayConstants.RESPONSE_SUFFIX;
+		int rootIndex = indexOf(data, length, rootNode);
+		if (rootIndex < 0) {
+			rootNode = AlipayConstants.ERROR_RESPONSE;
+			rootIndex = indexOf(data, length, rootNode);
+		}
+		if (rootIndex < 0)
+			throw new AlipayApiException("响应中没有" + rootNode + "节点");
+		// 先验签再解码，未通过验签的数据不会交给回调
+		if (!StringUtils.isEmpty(alipayPublicKey))
+			checkResponseSign(data, length, rootNode, rootIndex);
+
+		T response = null;
+		JsonReader reader = newReader(data, length);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (rootNode.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT)
+				response = decoder.decode(request, reader);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		if (null == response)
+			throw new AlipayApiException("响应中没有" + rootNode + "节点");
+		return response;
+	}
+
+	/**
+	 * 验签，签名源串为响应节点的原始内容，规则与 SDK 的 JsonConverter 一致
+	 */
+	private void checkResponseSign(byte[] data, int length, String rootNode, int rootIndex) throws IOException, AlipayApiException {
+		int signIndex = lastIndexOf(data, length, "\"" + AlipayConstants.SIGN + "\"");
+		String sign = signIndex < 0 ? null : readSign(data, length, signIndex + AlipayConstants.SIGN.length() + 2);
+		if (StringUtils.isEmpty(sign)) {
+			// 与 SDK 相同：失败响应可以不带签名，成功响应必须验签
+			if (isSuccess(data, length, rootNode))
+				throw new AlipayApiException("sign check fail: check Sign and Data Fail!");
+			return;
+		}
+		int start = rootIndex + rootNode.length() + 2;
+		int end = signIndex - 1;
+		if (start >= end)
+			throw new AlipayApiException("sign check fail: check Sign and Data Fail!");
+		byte[] signBytes = Base64.decodeBase64(sign.getBytes("US-ASCII"));
+		if (verify(data, start, end - start, signBytes))
+			return;
+		// 针对JSON \/问题，替换/后再尝试做一次验证
+		if (indexOf(data, start, end, "\\/") >= 0) {
+			byte[] unescaped = new byte[end - start];
+			int n = 0;
+			for (int i = start; i < end; i++) {
+				if (data[i] == '\\' && i + 1 < end && data[i + 1] == '/')
+					continue;
+				unescaped[n++] = data[i];
+			}
+			if (verify(unescaped, 0, n, signBytes))
+				return;
+			throw new AlipayApiException("sign check fail: check Sign and Data Fail！JSON also！");
+		}
+		throw new AlipayApiException("sign check fail: check Sign and Data Fail!");
+	}
+
+	private boolean verify(byte[] data, int offset, int length, byte[] sign) throws AlipayApiException {
+		try {
+			Signature signature = Signature.getInstance(AlipayConstants.SIGN_TYPE_RSA2.equals(signType)
+					? AlipayConstants.SIGN_SHA256RSA_ALGORITHMS : AlipayConstants.SIGN_ALGORITHMS);
+			signature.initVerify(getVerifyKey());
+			signature.update(data, offset, length);
+			return signature.verify(sign);
+		} catch (Exception e) {
+			throw new AlipayApiException("sign check fail: " + e.getMessage(), e);
+		}
+	}
+
+	private PublicKey getVerifyKey() throws Exception {
+		PublicKey key = verifyKey;
+		if (null == key) {
+			byte[] encoded = Base64.decodeBase64(alipayPublicKey.getBytes("US-ASCII"));
+			key = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+			verifyKey = key;
+		}
+		return key;
+	}
+
+	/**
+	 * 读取签名字段的字符串值
+	 */
+	private static String readSign(byte[] data, int length, int from) {
+		int i = from;
+		while (i < length && (data[i] == ':' || data[i] == ' '))
+			i++;
+		if (i >= length || data[i] != '"')
+			return null;
+		StringBuilder sign = new StringBuilder(350);
+		for (i++; i < length && data[i] != '"'; i++) {
+			if (data[i] != '\\')
+				sign.append((char) data[i]);
+		}
+		return sign.toString();
+	}
+
+	/**
+	 * 只读取响应节点中的sub_code判断是否成功
+	 */
+	private boolean isSuccess(byte[] data, int length, String rootNode) throws IOException {
+		JsonReader reader = newReader(data, length);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!rootNode.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("sub_code".equals(reader.nextName()) && reader.peek() == JsonToken.STRING)
+					return StringUtils.isEmpty(reader.nextString());
+				reader.skipValue();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private JsonReader newReader(byte[] data, int length) {
+		return new JsonReader(new InputStreamReader(new ByteArrayInputStream(data, 0, length), Charset.forName(charset)));
+	}
+
+	private static int indexOf(byte[] data, int length, String pattern) {
+		return indexOf(data, 0, length, pattern);
+	}
+
+	private static int indexOf(byte[] data, int from, int to, String pattern) {
+		int n = pattern.length();
+		outer:
+		for (int i = from; i <= to - n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (data[i + j] != pattern.charAt(j))
+					continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] data, int length, String pattern) {
+		int n = pattern.length();
+		outer:
+		for (int i = length - n; i >= 0; i--) {
+			for (int j = 0; j < n; j++) {
+				if (data[i + j] != pattern.charAt(j))
+					continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * 线程复用的响应缓冲区。回调中再次调用网关时当前缓冲区仍在使用，此时临时新建一个
+	 */
+	private static final class ResponseBuffer extends ByteArrayOutputStream {
+		private boolean inUse;
+
+		ResponseBuffer() {
+			super(8192);
+		}
+
+		static ResponseBuffer acquire() {
+			ResponseBuffer buffer = BUFFER.get();
+			if (buffer.inUse)
+				buffer = new ResponseBuffer();
+			buffer.inUse = true;
+			return buffer;
+		}
+
+		void release() {
+			inUse = false;
+			if (buf.length > MAX_RETAINED_BUFFER) {
+				if (BUFFER.get() == this)
+					BUFFER.remove();
+			} else {
+				reset();
+			}
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+		void readFrom(InputStream in) throws IOException {
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = in.read(chunk)) != -1)
+				write(chunk, 0, n);
+		}
+	}
+}
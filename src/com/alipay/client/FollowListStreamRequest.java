@@ -0,0 +1,25 @@
+package com.alipay.client;
+
+import com.alipay.api.request.AlipayOpenPublicFollowBatchqueryRequest;
+
+/**
+ * 流式读取关注者列表的请求
+ * <p>
+ * 经 {@link DirectAlipayClient} 执行时，user_id_list 中的userId边解析边交给 {@link FollowerConsumer}，
+ * 返回的响应对象只包含count、next_user_id，userIdList与body均为空，不在堆上保留整页数据。
+ * 其他 AlipayClient 执行时按普通请求处理，userIdList照常返回。
+ */
+public class FollowListStreamRequest extends AlipayOpenPublicFollowBatchqueryRequest {
+
+	private final FollowerConsumer consumer;
+
+	public FollowListStreamRequest(FollowerConsumer consumer) {
+		if (null == consumer)
+			throw new IllegalArgumentException("consumer不能为空！");
+		this.consumer = consumer;
+	}
+
+	public FollowerConsumer getConsumer() {
+		return consumer;
+	}
+}
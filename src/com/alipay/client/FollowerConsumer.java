@@ -0,0 +1,14 @@
+package com.alipay.client;
+
+/**
+ * 关注者userId回调，用于流式读取关注者列表
+ */
+public interface FollowerConsumer {
+
+	/**
+	 * 每读到一个关注者userId回调一次
+	 *
+	 * @param userId 关注者userId
+	 */
+	void accept(String userId);
+}
@@ -0,0 +1,65 @@
+package com.alipay.client;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+
+import java.util.Map;
+
+/**
+ * AlipayClient 装饰器基类
+ * <p>
+ * 三个 execute 重载统一转到 {@link #execute(AlipayRequest, String, String)}，子类只需覆盖该方法即可拦截所有访问网关的调用；
+ * pageExecute、sdkExecute、parseAppSyncResult 只在本地组装或解析报文，不访问网关，直接转发。
+ */
+public abstract class ForwardingAlipayClient implements AlipayClient {
+
+	protected final AlipayClient delegate;
+
+	protected ForwardingAlipayClient(AlipayClient delegate) {
+		if (null == delegate)
+			throw new IllegalArgumentException("delegate不能为空！");
+		this.delegate = delegate;
+	}
+
+	public AlipayClient getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public <T extends AlipayResponse> T execute(AlipayRequest<T> request) throws AlipayApiException {
+		return execute(request, null, null);
+	}
+
+	@Override
+	public <T extends AlipayResponse> T execute(AlipayRequest<T> request, String authToken) throws AlipayApiException {
+		return execute(request, authToken, null);
+	}
+
+	@Override
+	public <T extends AlipayResponse> T execute(AlipayRequest<T> request, String accessToken, String appAuthToken) throws AlipayApiException {
+		return delegate.execute(request, accessToken, appAuthToken);
+	}
+
+	@Override
+	public <T extends AlipayResponse> T pageExecute(AlipayRequest<T> request) throws AlipayApiException {
+		return delegate.pageExecute(request);
+	}
+
+	@Override
+	public <T extends AlipayResponse> T sdkExecute(AlipayRequest<T> request) throws AlipayApiException {
+		return delegate.sdkExecute(request);
+	}
+
+	@Override
+	public <T extends AlipayResponse> T pageExecute(AlipayRequest<T> request, String method) throws AlipayApiException {
+		return delegate.pageExecute(request, method);
+	}
+
+	@Override
+	public <TR extends AlipayResponse, T extends AlipayRequest<TR>> TR parseAppSyncResult(Map<String, String> result, Class<T> requsetClazz)
+			throws AlipayApiException {
+		return delegate.parseAppSyncResult(result, requsetClazz);
+	}
+}
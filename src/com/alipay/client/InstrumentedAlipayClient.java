@@ -0,0 +1,106 @@
+package com.alipay.client;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+import com.alipay.metrics.ApiMetrics;
+import com.alipay.metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 记录调用指标的 AlipayClient
+ * <p>
+ * 按API方法记录耗时、并发数、请求与响应字节数，以及按 code/sub_code 分类的调用次数。位于装饰链最外层时，
+ * 配额排队与熔断拒绝也会计入（code分别为 quota-exceeded、circuit-breaker-open）；网络异常的code为exception，
+ * sub_code为异常类名，便于区分耗时来自本地、网络还是支付宝。
+ */
+public class InstrumentedAlipayClient extends ForwardingAlipayClient {
+
+	private static final String EXCEPTION_CODE = "exception";
+
+	private final String tenant;
+	private final MetricsRegistry registry;
+	private final ConcurrentMap<String, ApiMetrics> metrics = new ConcurrentHashMap<>();
+
+	/**
+	 * 构造函数
+	 *
+	 * @param delegate 被装饰的AlipayClient
+	 * @param tenant   租户标识，一般为appId
+	 * @param registry 指标注册表
+	 */
+	public InstrumentedAlipayClient(AlipayClient delegate, String tenant, MetricsRegistry registry) {
+		super(delegate);
+		this.tenant = tenant;
+		this.registry = registry;
+	}
+
+	@Override
+	public <T extends AlipayResponse> T execute(AlipayRequest<T> request, String accessToken, String appAuthToken) throws AlipayApiException {
+		ApiMetrics apiMetrics = getMetrics(request.getApiMethodName());
+		long out = requestBytes(request);
+		long start = apiMetrics.begin();
+		T response;
+		try {
+			response = delegate.execute(request, accessToken, appAuthToken);
+		} catch (AlipayApiException e) {
+			String code = null == e.getErrCode() || e.getErrCode().length() == 0 ? EXCEPTION_CODE : e.getErrCode();
+			Throwable cause = null == e.getCause() ? e : e.getCause();
+			apiMetrics.end(start, code, cause.getClass().getSimpleName(), false, 0, out);
+			throw e;
+		} catch (RuntimeException e) {
+			apiMetrics.end(start, EXCEPTION_CODE, e.getClass().getSimpleName(), false, 0, out);
+			throw e;
+		}
+		if (null == response)
+			apiMetrics.end(start, EXCEPTION_CODE, "null", false, 0, out);
+		else
+			apiMetrics.end(start, response.getCode(), response.getSubCode(), response.isSuccess(), utf8Length(response.getBody()), out);
+		return response;
+	}
+
+	private ApiMetrics getMetrics(String method) {
+		ApiMetrics apiMetrics = metrics.get(method);
+		if (null == apiMetrics) {
+			apiMetrics = registry.get(tenant, method);
+			metrics.put(method, apiMetrics);
+		}
+		return apiMetrics;
+	}
+
+	/**
+	 * 业务参数的字节数，不含签名等公共参数
+	 */
+	private static long requestBytes(AlipayRequest<?> request) {
+		Map<String, String> params = request.getTextParams();
+		if (null == params)
+			return 0;
+		long bytes = 0;
+		for (Map.Entry<String, String> entry : params.entrySet())
+			bytes += entry.getKey().length() + utf8Length(entry.getValue()) + 2;
+		return bytes;
+	}
+
+	private static long utf8Length(String s) {
+		if (null == s)
+			return 0;
+		long bytes = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				bytes++;
+			else if (c < 0x800)
+				bytes += 2;
+			else if (Character.isHighSurrogate(c)) {
+				bytes += 4;
+				i++;
+			} else
+				bytes += 3;
+		}
+		return bytes;
+	}
+}
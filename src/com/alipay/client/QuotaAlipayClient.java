@@ -0,0 +1,45 @@
+package com.alipay.client;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+
+/**
+ * 带配额的 AlipayClient，超出配额的调用排队或被拒绝
+ * <p>
+ * 被拒绝时抛出错误码为 {@link #QUOTA_EXCEEDED_CODE} 的 AlipayApiException，请求不会发往网关。
+ */
+public class QuotaAlipayClient extends ForwardingAlipayClient {
+
+	/**
+	 * 超出配额时抛出异常的错误码
+	 */
+	public static final String QUOTA_EXCEEDED_CODE = "quota-exceeded";
+
+	private final QuotaManager quotaManager;
+
+	public QuotaAlipayClient(AlipayClient delegate, QuotaManager quotaManager) {
+		super(delegate);
+		this.quotaManager = quotaManager;
+	}
+
+	@Override
+	public <T extends AlipayResponse> T execute(AlipayRequest<T> request, String accessToken, String appAuthToken) throws AlipayApiException {
+		String apiMethodName = request.getApiMethodName();
+		boolean acquired;
+		try {
+			acquired = quotaManager.acquire(apiMethodName);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AlipayApiException(QUOTA_EXCEEDED_CODE, apiMethodName + " 排队等待配额时被中断");
+		}
+		if (!acquired)
+			throw new AlipayApiException(QUOTA_EXCEEDED_CODE, apiMethodName + " 超出调用配额");
+		return delegate.execute(request, accessToken, appAuthToken);
+	}
+
+	public QuotaManager getQuotaManager() {
+		return quotaManager;
+	}
+}
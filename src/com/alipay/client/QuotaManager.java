@@ -0,0 +1,98 @@
+package com.alipay.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按API方法限流的配额管理器
+ * <p>
+ * 每个API方法一个令牌桶，按配置的速率补充令牌，最多积攒burst个。令牌不足时调用者预约下一个令牌并排队等待，
+ * 需要等待的时间超过maxWaitMillis则直接拒绝，避免把注定被支付宝限流的请求发出去。未配置的API方法不限流。
+ */
+public class QuotaManager {
+
+	private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * 设置API方法的配额
+	 *
+	 * @param apiMethodName    API方法名，如 alipay.open.public.message.custom.send
+	 * @param permitsPerSecond 每秒允许的调用次数，小于等于0表示取消限流
+	 * @param burst            最多可积攒的调用次数，小于1时按1处理
+	 * @param maxWaitMillis    超出速率时最多排队等待的毫秒数，0表示不等待直接拒绝
+	 */
+	public void setQuota(String apiMethodName, double permitsPerSecond, int burst, long maxWaitMillis) {
+		if (permitsPerSecond <= 0)
+			buckets.remove(apiMethodName);
+		else
+			buckets.put(apiMethodName, new Bucket(permitsPerSecond, Math.max(1, burst), Math.max(0, maxWaitMillis)));
+	}
+
+	/**
+	 * 获取一次调用许可，必要时阻塞排队
+	 *
+	 * @param apiMethodName API方法名
+	 * @return 是否获得许可，false表示超出配额被拒绝
+	 * @throws InterruptedException 排队时线程被中断
+	 */
+	public boolean acquire(String apiMethodName) throws InterruptedException {
+		Bucket bucket = buckets.get(apiMethodName);
+		if (null == bucket)
+			return true;
+		long waitMillis = bucket.reserve();
+		if (waitMillis < 0)
+			return false;
+		if (waitMillis > 0)
+			Thread.sleep(waitMillis);
+		return true;
+	}
+
+	/**
+	 * 是否对该API方法限流
+	 *
+	 * @param apiMethodName API方法名
+	 * @return 是否限流
+	 */
+	public boolean isLimited(String apiMethodName) {
+		return buckets.containsKey(apiMethodName);
+	}
+
+	/**
+	 * 令牌桶，令牌数允许为负，表示已被排队的调用预约
+	 */
+	private static final class Bucket {
+		private final double permitsPerMilli;
+		private final int burst;
+		private final long maxWaitMillis;
+		private double tokens;
+		private long lastRefill;
+
+		Bucket(double permitsPerSecond, int burst, long maxWaitMillis) {
+			this.permitsPerMilli = permitsPerSecond / 1000d;
+			this.burst = burst;
+			this.maxWaitMillis = maxWaitMillis;
+			this.tokens = burst;
+			this.lastRefill = System.currentTimeMillis();
+		}
+
+		/**
+		 * 预约一个令牌
+		 *
+		 * @return 需要等待的毫秒数，-1表示拒绝
+		 */
+		synchronized long reserve() {
+			long now = System.currentTimeMillis();
+			tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerMilli);
+			lastRefill = now;
+			if (tokens >= 1) {
+				tokens -= 1;
+				return 0;
+			}
+			long waitMillis = (long) Math.ceil((1 - tokens) / permitsPerMilli);
+			if (waitMillis > maxWaitMillis)
+				return -1;
+			tokens -= 1;
+			return waitMillis;
+		}
+	}
+}
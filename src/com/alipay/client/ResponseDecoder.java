@@ -0,0 +1,25 @@
+package com.alipay.client;
+
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * 预先编写的响应解码器，直接从 JsonReader 读取响应节点，不经过 SDK 的反射转换
+ *
+ * @param <T> 响应类型
+ */
+public interface ResponseDecoder<T extends AlipayResponse> {
+
+	/**
+	 * 解码响应节点
+	 *
+	 * @param request 请求
+	 * @param reader  位于响应节点（xxx_response 或 error_response）对象开始处的 JsonReader，解码后须读完该对象
+	 * @return 响应对象
+	 * @throws IOException 读取或格式错误
+	 */
+	T decode(AlipayRequest<T> request, JsonReader reader) throws IOException;
+}
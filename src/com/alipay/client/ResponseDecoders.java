@@ -0,0 +1,200 @@
+package com.alipay.client;
+
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
+import com.alipay.api.response.AlipayOpenPublicFollowBatchqueryResponse;
+import com.alipay.api.response.AlipayOpenPublicMessageCustomSendResponse;
+import com.alipay.api.response.AlipayOpenPublicMessageGroupSendResponse;
+import com.alipay.api.response.AlipayOpenPublicMessageLabelSendResponse;
+import com.alipay.api.response.AlipayOpenPublicMessageSingleSendResponse;
+import com.alipay.api.response.AlipayOpenPublicMessageTotalSendResponse;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 高频响应的预置解码器
+ * <p>
+ * 消息发送类接口（客服、模板、标签、群发）调用量最大、响应最小，关注者列表响应最大，都改为手写解码。
+ */
+public final class ResponseDecoders {
+
+	private static final Map<Class<?>, ResponseDecoder<?>> DEFAULTS;
+
+	static {
+		Map<Class<?>, ResponseDecoder<?>> decoders = new HashMap<>();
+		decoders.put(AlipayOpenPublicMessageCustomSendResponse.class, new BaseDecoder<AlipayOpenPublicMessageCustomSendResponse>() {
+			@Override
+			protected AlipayOpenPublicMessageCustomSendResponse newResponse() {
+				return new AlipayOpenPublicMessageCustomSendResponse();
+			}
+		});
+		decoders.put(AlipayOpenPublicMessageSingleSendResponse.class, new BaseDecoder<AlipayOpenPublicMessageSingleSendResponse>() {
+			@Override
+			protected AlipayOpenPublicMessageSingleSendResponse newResponse() {
+				return new AlipayOpenPublicMessageSingleSendResponse();
+			}
+		});
+		decoders.put(AlipayOpenPublicMessageLabelSendResponse.class, new BaseDecoder<AlipayOpenPublicMessageLabelSendResponse>() {
+			@Override
+			protected AlipayOpenPublicMessageLabelSendResponse newResponse() {
+				return new AlipayOpenPublicMessageLabelSendResponse();
+			}
+		});
+		decoders.put(AlipayOpenPublicMessageTotalSendResponse.class, new BaseDecoder<AlipayOpenPublicMessageTotalSendResponse>() {
+			@Override
+			protected AlipayOpenPublicMessageTotalSendResponse newResponse() {
+				return new AlipayOpenPublicMessageTotalSendResponse();
+			}
+
+			@Override
+			protected boolean readField(AlipayOpenPublicMessageTotalSendResponse response, String name, JsonReader reader) throws IOException {
+				if (!"message_id".equals(name))
+					return false;
+				response.setMessageId(reader.nextString());
+				return true;
+			}
+		});
+		decoders.put(AlipayOpenPublicMessageGroupSendResponse.class, new BaseDecoder<AlipayOpenPublicMessageGroupSendResponse>() {
+			@Override
+			protected AlipayOpenPublicMessageGroupSendResponse newResponse() {
+				return new AlipayOpenPublicMessageGroupSendResponse();
+			}
+
+			@Override
+			protected boolean readField(AlipayOpenPublicMessageGroupSendResponse response, String name, JsonReader reader) throws IOException {
+				if (!"message_id".equals(name))
+					return false;
+				response.setMessageId(reader.nextString());
+				return true;
+			}
+		});
+		decoders.put(AlipayOpenPublicFollowBatchqueryResponse.class, new FollowBatchqueryDecoder());
+		DEFAULTS = Collections.unmodifiableMap(decoders);
+	}
+
+	private ResponseDecoders() {
+	}
+
+	/**
+	 * 获取全部预置解码器
+	 *
+	 * @return 响应类型到解码器的映射
+	 */
+	public static Map<Class<?>, ResponseDecoder<?>> defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * 读取 code、msg、sub_code、sub_msg 的解码器基类，子类只需处理自己的字段
+	 *
+	 * @param <T> 响应类型
+	 */
+	public static abstract class BaseDecoder<T extends AlipayResponse> implements ResponseDecoder<T> {
+
+		@Override
+		public T decode(AlipayRequest<T> request, JsonReader reader) throws IOException {
+			T response = newResponse();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (reader.peek() == JsonToken.NULL) {
+					reader.nextNull();
+				} else if ("code".equals(name)) {
+					response.setCode(reader.nextString());
+				} else if ("msg".equals(name)) {
+					response.setMsg(reader.nextString());
+				} else if ("sub_code".equals(name)) {
+					response.setSubCode(reader.nextString());
+				} else if ("sub_msg".equals(name)) {
+					response.setSubMsg(reader.nextString());
+				} else if (!readField(request, response, name, reader)) {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return response;
+		}
+
+		/**
+		 * 创建响应对象
+		 *
+		 * @return 响应对象
+		 */
+		protected abstract T newResponse();
+
+		/**
+		 * 读取响应特有的字段
+		 *
+		 * @param request  请求
+		 * @param response 响应对象
+		 * @param name     字段名
+		 * @param reader   位于字段值处的 JsonReader
+		 * @return 是否已读取该字段，false则跳过
+		 * @throws IOException 读取错误
+		 */
+		protected boolean readField(AlipayRequest<T> request, T response, String name, JsonReader reader) throws IOException {
+			return readField(response, name, reader);
+		}
+
+		protected boolean readField(T response, String name, JsonReader reader) throws IOException {
+			return false;
+		}
+	}
+
+	/**
+	 * 关注者列表解码器，请求为 {@link FollowListStreamRequest} 时user_id_list逐个回调，不生成列表
+	 */
+	private static final class FollowBatchqueryDecoder extends BaseDecoder<AlipayOpenPublicFollowBatchqueryResponse> {
+
+		@Override
+		protected AlipayOpenPublicFollowBatchqueryResponse newResponse() {
+			return new AlipayOpenPublicFollowBatchqueryResponse();
+		}
+
+		@Override
+		protected boolean readField(AlipayRequest<AlipayOpenPublicFollowBatchqueryResponse> request, AlipayOpenPublicFollowBatchqueryResponse response,
+									String name, JsonReader reader) throws IOException {
+			if ("count".equals(name)) {
+				response.setCount(reader.nextString());
+			} else if ("next_user_id".equals(name)) {
+				response.setNextUserId(reader.nextString());
+			} else if ("user_id_list".equals(name)) {
+				FollowerConsumer consumer = request instanceof FollowListStreamRequest ? ((FollowListStreamRequest) request).getConsumer() : null;
+				List<String> userIds = null == consumer ? new ArrayList<String>() : null;
+				reader.beginArray();
+				while (reader.hasNext()) {
+					String userId = reader.nextString();
+					if (null == consumer)
+						userIds.add(userId);
+					else
+						accept(consumer, userId);
+				}
+				reader.endArray();
+				response.setUserIdList(userIds);
+			} else {
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 回调的异常包装为 {@link ConsumerException}，不计入熔断
+	 */
+	static void accept(FollowerConsumer consumer, String userId) {
+		try {
+			consumer.accept(userId);
+		} catch (ConsumerException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new ConsumerException(e);
+		}
+	}
+}
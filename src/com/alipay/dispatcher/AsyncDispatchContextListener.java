@@ -0,0 +1,48 @@
+package com.alipay.dispatcher;
+
+import com.alipay.cache.OauthTokenStore;
+import com.alipay.index.FollowerIndex;
+import com.alipay.journal.DeadLetterStore;
+import com.alipay.journal.OutboundJournal;
+import com.alipay.scheduler.MessageScheduler;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Web应用卸载时先关闭聊天消息合并窗口（处理等待中的消息）、授权令牌缓存的刷新线程、延时消息调度器（已开启时）与发送重试，
+ * 再关闭异步发送线程池，等待已提交的任务执行完，
+ * 然后关闭发送日志、死信库与关注者索引（已开启时）
+ * <p>
+ * 在 web.xml 中配置：
+ * <pre>
+ * &lt;listener&gt;
+ *     &lt;listener-class&gt;com.alipay.dispatcher.AsyncDispatchContextListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * 可选的context-param：alipay.async.shutdownTimeoutMillis，等待任务执行完的最长毫秒数，默认30000
+ */
+public class AsyncDispatchContextListener implements ServletContextListener {
+
+	private static final String TIMEOUT_PARAM = "alipay.async.shutdownTimeoutMillis";
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		long timeout = 30000;
+		String value = event.getServletContext().getInitParameter(TIMEOUT_PARAM);
+		if (null != value && value.trim().length() > 0)
+			timeout = Long.parseLong(value.trim());
+		ChatCoalescer.closeAll();
+		OauthTokenStore.closeAll();
+		MessageScheduler.closeInstance();
+		SendRetryScheduler.shutdownInstance();
+		AsyncDispatchService.shutdownInstance(timeout);
+		OutboundJournal.closeInstance();
+		DeadLetterStore.closeInstance();
+		FollowerIndex.closeInstance();
+	}
+}
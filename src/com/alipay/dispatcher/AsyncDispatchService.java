@@ -0,0 +1,549 @@
+package com.alipay.dispatcher;
+
+import com.alipay.metrics.LatencyHistogram;
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 执行器共用的异步发送线程池，按key分通道
+ * <p>
+ * 线程池由N个通道组成，每个通道一个线程和一个有界队列；任务按key（一般为FromUserId）的哈希值分配到固定通道，
+ * 因此同一用户的消息按提交顺序发送，不同用户的消息在各通道间并行。不指定key的任务轮流分配。
+ * 通道队列满时按 {@link RejectPolicy} 处理，指定key的任务不会在提交线程中执行，以免打乱上述顺序；线程命名为 name-通道号，空闲超时后回收；
+ * 关闭时先停止接收新任务，等待队列中的任务执行完，超时后再中断。
+ * 队列深度、活跃线程数、拒绝数、排队时间与执行时间（整体及各通道）通过JMX（com.alipay.dispatcher:type=AsyncDispatchService,name=...）
+ * 以及 {@link MetricsRegistry} 的Prometheus输出暴露。
+ * <p>
+ * 全局实例在第一次使用时按默认参数创建，可在此之前调用 {@link #configure} 修改；Web应用中配置
+ * {@link AsyncDispatchContextListener}，在应用卸载时关闭线程池，避免重新部署后线程泄漏。
+ */
+public class AsyncDispatchService implements AsyncDispatchServiceMXBean, PrometheusCollector {
+
+	/**
+	 * 队列满时的处理策略
+	 */
+	public enum RejectPolicy {
+		/**
+		 * 提交任务的线程（即处理支付宝推送的线程）等待通道队列有空位，推送响应变慢，形成背压，保持同一key的顺序
+		 */
+		BLOCK,
+		/**
+		 * 不指定key的任务由提交任务的线程直接执行，形成背压；指定key的任务按 {@link #BLOCK} 处理，
+		 * 否则该任务会先于同一key已排队的任务执行，多个提交线程也可能同时执行同一key的任务
+		 */
+		CALLER_RUNS,
+		/**
+		 * 抛出 RejectedExecutionException
+		 */
+		ABORT,
+		/**
+		 * 丢弃新任务，实现 {@link DiscardAware} 的任务会得到通知
+		 */
+		DISCARD,
+		/**
+		 * 丢弃队列中最早的任务，再提交新任务，实现 {@link DiscardAware} 的任务会得到通知
+		 */
+		DISCARD_OLDEST
+	}
+
+	/**
+	 * 需要知道自己被丢弃的任务，如已写入日志、需要另行标记完成的消息
+	 */
+	public interface DiscardAware {
+		/**
+		 * 任务按 {@link RejectPolicy#DISCARD} 或 {@link RejectPolicy#DISCARD_OLDEST} 被丢弃，不会再执行；在提交任务的线程中调用
+		 *
+		 * @param reason 原因
+		 */
+		void discarded(String reason);
+	}
+
+	private static final Object LOCK = new Object();
+	private static int defaultLanes = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+	private static int defaultLaneQueueCapacity = 1000;
+	private static RejectPolicy defaultRejectPolicy = RejectPolicy.BLOCK;
+	private static AsyncDispatchService instance;
+
+	private final String name;
+	private final Lane[] lanes;
+	private final RejectPolicy rejectPolicy;
+	private final AtomicInteger nextLane = new AtomicInteger();
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram taskTime = new LatencyHistogram();
+	private Thread shutdownHook;
+	private ObjectName objectName;
+
+	/**
+	 * 构造函数
+	 *
+	 * @param name              线程池名称，用作线程名前缀
+	 * @param lanes             通道数，即最大线程数
+	 * @param laneQueueCapacity 每个通道的队列容量
+	 * @param rejectPolicy      通道队列满时的处理策略
+	 */
+	public AsyncDispatchService(String name, int lanes, int laneQueueCapacity, RejectPolicy rejectPolicy) {
+		this.name = name;
+		this.rejectPolicy = rejectPolicy;
+		this.lanes = new Lane[Math.max(1, lanes)];
+		for (int i = 0; i < this.lanes.length; i++)
+			this.lanes[i] = new Lane(i, Math.max(1, laneQueueCapacity));
+	}
+
+	/**
+	 * 修改全局实例的参数，全局实例已创建时不生效
+	 *
+	 * @param lanes             通道数 默认：CPU核数的2倍，至少8
+	 * @param laneQueueCapacity 每个通道的队列容量 默认：1000
+	 * @param rejectPolicy      通道队列满时的处理策略 默认：BLOCK
+	 * @return 是否生效
+	 */
+	public static boolean configure(int lanes, int laneQueueCapacity, RejectPolicy rejectPolicy) {
+		synchronized (LOCK) {
+			if (null != instance)
+				return false;
+			defaultLanes = lanes;
+			defaultLaneQueueCapacity = laneQueueCapacity;
+			defaultRejectPolicy = rejectPolicy;
+			return true;
+		}
+	}
+
+	/**
+	 * 获取全局实例，不存在或已关闭时创建，并注册JVM关闭钩子、JMX与Prometheus输出
+	 *
+	 * @return AsyncDispatchService
+	 */
+	public static AsyncDispatchService getInstance() {
+		synchronized (LOCK) {
+			if (null == instance || instance.isShutdown()) {
+				AsyncDispatchService service = new AsyncDispatchService("alipay-async", defaultLanes, defaultLaneQueueCapacity, defaultRejectPolicy);
+				service.registerShutdownHook();
+				service.registerMetrics();
+				instance = service;
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * 关闭全局实例
+	 *
+	 * @param timeoutMillis 等待队列中任务执行完的最长毫秒数
+	 * @return 超时后未执行的任务数
+	 */
+	public static int shutdownInstance(long timeoutMillis) {
+		AsyncDispatchService service;
+		synchronized (LOCK) {
+			service = instance;
+			instance = null;
+		}
+		return null == service ? 0 : service.shutdown(timeoutMillis);
+	}
+
+	/**
+	 * 提交异步任务，轮流分配到各通道，不保证顺序
+	 *
+	 * @param tenant 租户，一般为appId，用于记录排队时间
+	 * @param method 任务中调用的API方法名，用于记录排队时间
+	 * @param task   任务
+	 * @throws RejectedExecutionException 策略为ABORT且通道队列已满，或线程池已关闭
+	 */
+	public void execute(String tenant, String method, Runnable task) {
+		execute(tenant, method, null, task);
+	}
+
+	/**
+	 * 提交异步任务，相同key的任务按提交顺序在同一通道执行；key不为null时，策略 {@link RejectPolicy#CALLER_RUNS} 按
+	 * {@link RejectPolicy#BLOCK} 处理，保持顺序
+	 *
+	 * @param tenant 租户，一般为appId，用于记录排队时间
+	 * @param method 任务中调用的API方法名，用于记录排队时间
+	 * @param key    分通道的key，一般为FromUserId，为null时轮流分配
+	 * @param task   任务
+	 * @throws RejectedExecutionException 策略为ABORT且通道队列已满，或线程池已关闭
+	 */
+	public void execute(String tenant, String method, String key, Runnable task) {
+		Lane lane = lanes[laneOf(key)];
+		lane.executor.execute(new TimedTask(lane, null != key, task, MetricsRegistry.getInstance().timeQueue(tenant, method, task)));
+	}
+
+	/**
+	 * 提交异步任务，不按 {@link RejectPolicy} 处理：通道队列已满时立即返回false，既不等待也不在当前线程执行。
+	 * 供重试、延时消息、合并窗口等内部后台线程使用，避免一个已满的通道阻塞这些线程上其他用户的任务
+	 *
+	 * @param tenant 租户，一般为appId，用于记录排队时间
+	 * @param method 任务中调用的API方法名，用于记录排队时间
+	 * @param key    分通道的key，一般为FromUserId，为null时轮流分配
+	 * @param task   任务
+	 * @return 已加入通道队列时返回true，队列已满时返回false（计入拒绝数）
+	 * @throws RejectedExecutionException 线程池已关闭
+	 */
+	public boolean offer(String tenant, String method, String key, Runnable task) {
+		Lane lane = lanes[laneOf(key)];
+		if (lane.executor.isShutdown())
+			throw new RejectedExecutionException(name + " 已关闭");
+		Runnable timed = new TimedTask(lane, null != key, task, MetricsRegistry.getInstance().timeQueue(tenant, method, task));
+		if (!lane.queue.offer(timed)) {
+			lane.rejected.incrementAndGet();
+			return false;
+		}
+		if (lane.executor.isShutdown() && lane.executor.remove(timed))
+			throw new RejectedExecutionException(name + " 已关闭");
+		lane.executor.prestartCoreThread();
+		return true;
+	}
+
+	/**
+	 * @param key 分通道的key
+	 * @return key对应的通道号
+	 */
+	public int laneOf(String key) {
+		if (null == key)
+			return (nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length;
+		int h = key.hashCode();
+		return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % lanes.length;
+	}
+
+	/**
+	 * 停止接收新任务，等待队列中的任务执行完
+	 *
+	 * @param timeoutMillis 最长等待毫秒数，超时后中断正在执行的任务
+	 * @return 超时后未执行的任务数
+	 */
+	public int shutdown(long timeoutMillis) {
+		for (Lane lane : lanes)
+			lane.executor.shutdown();
+		int dropped = 0;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		try {
+			for (Lane lane : lanes) {
+				if (!lane.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+					dropped += lane.executor.shutdownNow().size();
+			}
+		} catch (InterruptedException e) {
+			for (Lane lane : lanes)
+				dropped += lane.executor.shutdownNow().size();
+			Thread.currentThread().interrupt();
+		}
+		if (dropped > 0)
+			System.out.println(name + " 关闭超时，丢弃" + dropped + "个未执行的任务");
+		unregister();
+		return dropped;
+	}
+
+	private boolean isShutdown() {
+		return lanes[0].executor.isShutdown();
+	}
+
+	private void registerShutdownHook() {
+		shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				shutdown(30000);
+			}
+		}, name + "-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	private void registerMetrics() {
+		MetricsRegistry.getInstance().register(this);
+		try {
+			objectName = new ObjectName("com.alipay.dispatcher:type=AsyncDispatchService,name=" + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 移除关闭钩子、JMX与Prometheus输出，避免Web应用卸载后类加载器无法回收
+	 */
+	private void unregister() {
+		MetricsRegistry.getInstance().unregister(this);
+		if (null != objectName) {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if (server.isRegistered(objectName))
+					server.unregisterMBean(objectName);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			objectName = null;
+		}
+		if (null != shutdownHook && Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// JVM正在关闭
+			}
+			shutdownHook = null;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getRejectPolicy() {
+		return rejectPolicy.name();
+	}
+
+	@Override
+	public int getLanes() {
+		return lanes.length;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Lane lane : lanes)
+			depth += lane.queue.size();
+		return depth;
+	}
+
+	@Override
+	public int getMaxLaneQueueDepth() {
+		int max = 0;
+		for (Lane lane : lanes)
+			max = Math.max(max, lane.queue.size());
+		return max;
+	}
+
+	@Override
+	public int[] getLaneQueueDepths() {
+		int[] depths = new int[lanes.length];
+		for (int i = 0; i < lanes.length; i++)
+			depths[i] = lanes[i].queue.size();
+		return depths;
+	}
+
+	@Override
+	public int getQueueCapacity() {
+		int capacity = 0;
+		for (Lane lane : lanes)
+			capacity += lane.queue.size() + lane.queue.remainingCapacity();
+		return capacity;
+	}
+
+	@Override
+	public int getActiveThreads() {
+		int active = 0;
+		for (Lane lane : lanes)
+			active += lane.executor.getActiveCount();
+		return active;
+	}
+
+	@Override
+	public int getPoolSize() {
+		int size = 0;
+		for (Lane lane : lanes)
+			size += lane.executor.getPoolSize();
+		return size;
+	}
+
+	@Override
+	public long getCompletedTasks() {
+		long completed = 0;
+		for (Lane lane : lanes)
+			completed += lane.executor.getCompletedTaskCount();
+		return completed;
+	}
+
+	@Override
+	public long getRejectedTasks() {
+		long rejected = 0;
+		for (Lane lane : lanes)
+			rejected += lane.rejected.get();
+		return rejected;
+	}
+
+	@Override
+	public double getQueueWaitP99Millis() {
+		return queueWait.percentileMicros(99) / 1000d;
+	}
+
+	@Override
+	public double getQueueWaitMaxMillis() {
+		return queueWait.getMaxMicros() / 1000d;
+	}
+
+	@Override
+	public double getTaskP99Millis() {
+		return taskTime.percentileMicros(99) / 1000d;
+	}
+
+	@Override
+	public double getTaskMaxMillis() {
+		return taskTime.getMaxMicros() / 1000d;
+	}
+
+	@Override
+	public void writePrometheus(Appendable out) throws IOException {
+		String labels = "pool=\"" + name + "\"";
+		MetricsRegistry.writeSample(out, "alipay_async_queue_depth", "gauge", "异步发送队列中等待的任务数", labels, getQueueDepth());
+		MetricsRegistry.writeSample(out, "alipay_async_queue_capacity", "gauge", "异步发送队列容量", labels, getQueueCapacity());
+		MetricsRegistry.writeSample(out, "alipay_async_active_threads", "gauge", "正在执行任务的线程数", labels, getActiveThreads());
+		MetricsRegistry.writeSample(out, "alipay_async_completed_total", "counter", "已执行完的任务数", labels, getCompletedTasks());
+		MetricsRegistry.writeSample(out, "alipay_async_rejected_total", "counter", "通道队列满的次数", labels, getRejectedTasks());
+		out.append("# HELP alipay_async_queue_wait_seconds 任务排队时间\n# TYPE alipay_async_queue_wait_seconds summary\n");
+		MetricsRegistry.writeSummary(out, "alipay_async_queue_wait_seconds", labels, queueWait);
+		out.append("# HELP alipay_async_task_seconds 任务执行时间\n# TYPE alipay_async_task_seconds summary\n");
+		MetricsRegistry.writeSummary(out, "alipay_async_task_seconds", labels, taskTime);
+
+		MetricsRegistry.writeHeader(out, "alipay_async_lane_queue_depth", "gauge", "各通道队列中等待的任务数");
+		for (Lane lane : lanes)
+			laneSample(out, "alipay_async_lane_queue_depth", lane, lane.queue.size());
+		MetricsRegistry.writeHeader(out, "alipay_async_lane_completed_total", "counter", "各通道已执行完的任务数");
+		for (Lane lane : lanes)
+			laneSample(out, "alipay_async_lane_completed_total", lane, lane.executor.getCompletedTaskCount());
+		MetricsRegistry.writeHeader(out, "alipay_async_lane_rejected_total", "counter", "各通道队列满的次数");
+		for (Lane lane : lanes)
+			laneSample(out, "alipay_async_lane_rejected_total", lane, lane.rejected.get());
+		MetricsRegistry.writeHeader(out, "alipay_async_lane_queue_wait_seconds", "summary", "各通道任务排队时间");
+		for (Lane lane : lanes)
+			MetricsRegistry.writeSummary(out, "alipay_async_lane_queue_wait_seconds", labels + ",lane=\"" + lane.index + "\"", lane.queueWait);
+	}
+
+	private void laneSample(Appendable out, String metric, Lane lane, long value) throws IOException {
+		out.append(metric).append("{pool=\"").append(name).append("\",lane=\"").append(String.valueOf(lane.index)).append("\"} ")
+				.append(String.valueOf(value)).append('\n');
+	}
+
+	/**
+	 * 通道：单线程、有界队列
+	 */
+	private final class Lane {
+		private final int index;
+		private final ArrayBlockingQueue<Runnable> queue;
+		private final ThreadPoolExecutor executor;
+		private final AtomicLong rejected = new AtomicLong();
+		private final LatencyHistogram queueWait = new LatencyHistogram();
+
+		Lane(int index, int queueCapacity) {
+			this.index = index;
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+			this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, queue,
+					new NamedThreadFactory(name + "-" + index), new RejectionHandler(this));
+			this.executor.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	/**
+	 * 记录排队时间与执行时间的任务
+	 */
+	private final class TimedTask implements Runnable {
+		private final Lane lane;
+		/**
+		 * 是否指定了key，需要保持顺序
+		 */
+		private final boolean keyed;
+		private final Runnable original;
+		private final Runnable task;
+		private final long submitted = System.nanoTime();
+
+		TimedTask(Lane lane, boolean keyed, Runnable original, Runnable task) {
+			this.lane = lane;
+			this.keyed = keyed;
+			this.original = original;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			queueWait.recordNanos(start - submitted);
+			lane.queueWait.recordNanos(start - submitted);
+			try {
+				task.run();
+			} finally {
+				taskTime.recordNanos(System.nanoTime() - start);
+			}
+		}
+	}
+
+	private final class RejectionHandler implements RejectedExecutionHandler {
+		private final Lane lane;
+
+		RejectionHandler(Lane lane) {
+			this.lane = lane;
+		}
+
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+			if (pool.isShutdown())
+				throw new RejectedExecutionException(name + " 已关闭");
+			lane.rejected.incrementAndGet();
+			RejectPolicy policy = rejectPolicy;
+			// 在提交线程中执行会先于同一key已排队的任务
+			if (RejectPolicy.CALLER_RUNS == policy && task instanceof TimedTask && ((TimedTask) task).keyed)
+				policy = RejectPolicy.BLOCK;
+			switch (policy) {
+				case BLOCK:
+					try {
+						pool.getQueue().put(task);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException(name + " 等待通道队列时被中断");
+					}
+					if (pool.isShutdown() && pool.remove(task))
+						throw new RejectedExecutionException(name + " 已关闭");
+					pool.prestartCoreThread();
+					break;
+				case CALLER_RUNS:
+					task.run();
+					break;
+				case DISCARD:
+					System.out.println(name + " 队列已满，丢弃任务");
+					discarded(task, name + " 队列已满，丢弃任务");
+					break;
+				case DISCARD_OLDEST:
+					Runnable oldest = pool.getQueue().poll();
+					System.out.println(name + " 队列已满，丢弃最早的任务");
+					discarded(oldest, name + " 队列已满，丢弃最早的任务");
+					pool.execute(task);
+					break;
+				default:
+					throw new RejectedExecutionException(name + " 队列已满");
+			}
+		}
+
+		private void discarded(Runnable task, String reason) {
+			if (task instanceof TimedTask && ((TimedTask) task).original instanceof DiscardAware)
+				((DiscardAware) ((TimedTask) task).original).discarded(reason);
+		}
+	}
+
+	private static final class NamedThreadFactory implements ThreadFactory {
+		private final String threadName;
+
+		NamedThreadFactory(String threadName) {
+			this.threadName = threadName;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, threadName);
+			thread.setDaemon(false);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.alipay.dispatcher;
+
+/**
+ * 异步发送线程池的运行状态，通过JMX暴露，时间单位为毫秒
+ */
+public interface AsyncDispatchServiceMXBean {
+
+	String getName();
+
+	String getRejectPolicy();
+
+	int getLanes();
+
+	int getQueueDepth();
+
+	int getMaxLaneQueueDepth();
+
+	int[] getLaneQueueDepths();
+
+	int getQueueCapacity();
+
+	int getActiveThreads();
+
+	int getPoolSize();
+
+	long getCompletedTasks();
+
+	long getRejectedTasks();
+
+	double getQueueWaitP99Millis();
+
+	double getQueueWaitMaxMillis();
+
+	double getTaskP99Millis();
+
+	double getTaskMaxMillis();
+}
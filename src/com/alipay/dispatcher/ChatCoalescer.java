@@ -0,0 +1,280 @@
+package com.alipay.dispatcher;
+
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天消息合并窗口
+ * <p>
+ * 用户连续发送多条短文本时，同一FromUserId在窗口期内的文本合并为一次 {@link Handler} 调用，只回复一次。
+ * 窗口从该用户的第一条消息开始计时（固定窗口，回复最多延迟一个窗口），达到最大条数时立即处理。
+ * <p>
+ * 每个等待中的用户只占一个小对象，挂在时间轮的槽位链表上；时间轮每个刻度由一个后台线程推进，
+ * 到期槽位上的用户整体取出后调用 Handler，调用在后台线程中进行，Handler 不应阻塞（发送客服消息时使用 {@link CustomSendTask#offer}）。{@link #close()} 时立即处理全部等待中的消息；
+ * 进程异常退出时最多丢失一个窗口内尚未回复的消息。
+ * 未关闭的实例（每个租户一个）共用一个Prometheus输出，构造时自动注册，{@link #close()} 后移除。
+ */
+public class ChatCoalescer {
+
+	/**
+	 * 合并后的消息处理
+	 */
+	public interface Handler {
+
+		/**
+		 * @param fromUserId 发送消息的用户
+		 * @param contents   窗口内按到达顺序排列的文本内容
+		 */
+		void handle(String fromUserId, List<String> contents);
+	}
+
+	/**
+	 * 未关闭的实例，有实例时注册 {@link #METRICS}
+	 */
+	private static final List<ChatCoalescer> OPEN = new ArrayList<>();
+
+	/**
+	 * 全部租户的指标，每个指标只输出一次HELP与TYPE，每个租户一个样本
+	 */
+	private static final PrometheusCollector METRICS = new PrometheusCollector() {
+		@Override
+		public void writePrometheus(Appendable out) throws IOException {
+			List<ChatCoalescer> coalescers;
+			synchronized (OPEN) {
+				coalescers = new ArrayList<>(OPEN);
+			}
+			long[][] values = new long[coalescers.size()][];
+			for (int i = 0; i < values.length; i++) {
+				ChatCoalescer c = coalescers.get(i);
+				synchronized (c) {
+					values[i] = new long[]{c.offered, c.handled, c.pending.size()};
+				}
+			}
+			family(out, coalescers, values, 0, "alipay_chat_coalesce_messages_total", "counter", "进入合并窗口的文本消息数");
+			family(out, coalescers, values, 1, "alipay_chat_coalesce_replies_total", "counter", "合并后的处理次数");
+			family(out, coalescers, values, 2, "alipay_chat_coalesce_pending_users", "gauge", "合并窗口中等待的用户数");
+		}
+	};
+
+	private final String tenant;
+	private final Handler handler;
+	private final long windowMillis;
+	private final int maxMessages;
+	private final long tickNanos;
+	private final int windowTicks;
+	private final int mask;
+	private final Pending[] wheel;
+	private final Map<String, Pending> pending = new HashMap<>();
+	private final Thread ticker;
+	private long currentTick;
+	private long offered;
+	private long handled;
+	private boolean closed;
+
+	/**
+	 * 构造函数，启动后台线程
+	 *
+	 * @param tenant       租户，一般为appId，用于指标与线程名
+	 * @param windowMillis 合并窗口毫秒数
+	 * @param maxMessages  一个窗口内最多合并的消息数，达到后立即处理
+	 * @param handler      合并后的消息处理
+	 */
+	public ChatCoalescer(String tenant, long windowMillis, int maxMessages, Handler handler) {
+		this.tenant = null == tenant ? "" : tenant;
+		this.handler = handler;
+		this.windowMillis = Math.max(1, windowMillis);
+		this.maxMessages = Math.max(1, maxMessages);
+		// 每个窗口约16个刻度，刻度不小于5毫秒
+		long tickMillis = Math.max(5, this.windowMillis / 16);
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.windowTicks = (int) Math.max(1, (this.windowMillis + tickMillis - 1) / tickMillis);
+		int size = Integer.highestOneBit(windowTicks) << 1;
+		this.mask = size - 1;
+		this.wheel = new Pending[size];
+		this.ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				tickLoop();
+			}
+		}, "alipay-chat-coalescer-" + this.tenant);
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+		synchronized (OPEN) {
+			if (OPEN.isEmpty())
+				MetricsRegistry.getInstance().register(METRICS);
+			OPEN.add(this);
+		}
+	}
+
+	/**
+	 * 加入一条文本消息
+	 *
+	 * @param fromUserId 发送消息的用户
+	 * @param content    文本内容
+	 * @return 是否已加入；已关闭时返回false，由调用方直接处理
+	 */
+	public boolean offer(String fromUserId, String content) {
+		Pending full = null;
+		synchronized (this) {
+			if (closed)
+				return false;
+			offered++;
+			Pending p = pending.get(fromUserId);
+			if (null == p) {
+				p = new Pending(fromUserId, content);
+				int slot = (int) ((currentTick + windowTicks) & mask);
+				p.next = wheel[slot];
+				wheel[slot] = p;
+				pending.put(fromUserId, p);
+			} else {
+				p.add(content);
+			}
+			if (p.count >= maxMessages) {
+				// 槽位链表中的节点在到期时跳过
+				pending.remove(fromUserId);
+				p.fired = true;
+				full = p;
+			}
+		}
+		if (null != full)
+			fire(full);
+		return true;
+	}
+
+	/**
+	 * 停止后台线程并移除指标，立即处理全部等待中的消息
+	 */
+	public void close() {
+		List<Pending> remaining;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			remaining = new ArrayList<>(pending.values());
+			pending.clear();
+			Arrays.fill(wheel, null);
+		}
+		synchronized (OPEN) {
+			if (OPEN.remove(this) && OPEN.isEmpty())
+				MetricsRegistry.getInstance().unregister(METRICS);
+		}
+		ticker.interrupt();
+		for (Pending p : remaining)
+			fire(p);
+	}
+
+	/**
+	 * 关闭全部未关闭的实例，Web应用卸载时由 {@link AsyncDispatchContextListener} 在关闭发送线程池之前调用
+	 */
+	public static void closeAll() {
+		List<ChatCoalescer> coalescers;
+		synchronized (OPEN) {
+			coalescers = new ArrayList<>(OPEN);
+		}
+		for (ChatCoalescer coalescer : coalescers)
+			coalescer.close();
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	/**
+	 * @return 等待中的用户数
+	 */
+	public synchronized int getPendingUsers() {
+		return pending.size();
+	}
+
+	private static void family(Appendable out, List<ChatCoalescer> coalescers, long[][] values, int index, String name, String type, String help)
+			throws IOException {
+		MetricsRegistry.writeHeader(out, name, type, help);
+		for (int i = 0; i < values.length; i++)
+			out.append(name).append("{tenant=\"").append(coalescers.get(i).tenant).append("\"} ").append(String.valueOf(values[i][index])).append('\n');
+	}
+
+	private void tickLoop() {
+		long next = System.nanoTime() + tickNanos;
+		while (true) {
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			next += tickNanos;
+			Pending expired;
+			synchronized (this) {
+				if (closed)
+					return;
+				currentTick++;
+				int slot = (int) (currentTick & mask);
+				expired = wheel[slot];
+				wheel[slot] = null;
+				for (Pending p = expired; null != p; p = p.next) {
+					if (!p.fired)
+						pending.remove(p.fromUserId);
+				}
+			}
+			for (Pending p = expired; null != p; p = p.next) {
+				if (!p.fired)
+					fire(p);
+			}
+		}
+	}
+
+	private void fire(Pending p) {
+		synchronized (this) {
+			handled++;
+		}
+		try {
+			handler.handle(p.fromUserId, p.contents());
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+
+	/**
+	 * 一个用户窗口内的消息，单条时不创建列表
+	 */
+	private static final class Pending {
+		private final String fromUserId;
+		private final String first;
+		private List<String> rest;
+		private int count = 1;
+		private boolean fired;
+		private Pending next;
+
+		Pending(String fromUserId, String first) {
+			this.fromUserId = fromUserId;
+			this.first = first;
+		}
+
+		void add(String content) {
+			if (null == rest)
+				rest = new ArrayList<>(4);
+			rest.add(content);
+			count++;
+		}
+
+		List<String> contents() {
+			if (null == rest)
+				return Collections.singletonList(first);
+			List<String> all = new ArrayList<>(count);
+			all.add(first);
+			all.addAll(rest);
+			return all;
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package com.alipay.dispatcher;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayClient;
+import com.alipay.api.request.AlipayOpenPublicMessageCustomSendRequest;
+import com.alipay.api.response.AlipayOpenPublicMessageCustomSendResponse;
+import com.alipay.journal.DeadLetter;
+import com.alipay.journal.DeadLetterStore;
+import com.alipay.journal.JournalEntry;
+import com.alipay.journal.OutboundJournal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 异步发送客服消息的任务
+ * <p>
+ * 开启 {@link OutboundJournal} 时，消息在提交到 {@link AsyncDispatchService} 之前写入日志，发送完成后标记完成；
+ * 进程退出时未完成的消息在下次启动时重发。
+ * <p>
+ * 发送失败时按 {@link SendRetryScheduler.FailureClass} 退避后重新提交到原通道，发送次数写入日志，重启后继续累计；
+ * 退避期间同一用户之后的消息在内存中排队，待重试有结果后再按提交顺序发送。支付宝明确拒绝的消息（非系统错误）不重试。
+ * 重试与 {@link #offer} 在后台线程中提交，通道队列已满时不等待，按THROTTLED的退避时间推迟提交，不计入发送次数。
+ * 不再重试的消息（业务错误、重试次数用尽、被线程池拒绝或丢弃）写入 {@link DeadLetterStore}（已开启时），可以查看、重新提交或清除，
+ * 未开启死信库时输出消息内容；两种情况都在日志中标记完成，日志中只保留尚未有结果的消息。
+ */
+public class CustomSendTask implements Runnable, AsyncDispatchService.DiscardAware {
+
+	/**
+	 * 客服消息API方法名
+	 */
+	public static final String METHOD = "alipay.open.public.message.custom.send";
+
+	/**
+	 * 正在退避重试的用户，key为 租户 + '\n' + toUserId
+	 */
+	private static final Map<String, Hold> HOLDS = new HashMap<>();
+
+	private final AlipayClient alipayClient;
+	private final String tenant;
+	private final String toUserId;
+	private final String bizContent;
+	private final OutboundJournal journal;
+	private final long journalId;
+	private final int attempts;
+
+	private CustomSendTask(AlipayClient alipayClient, String tenant, String toUserId, String bizContent, OutboundJournal journal, long journalId,
+			int attempts) {
+		this.alipayClient = alipayClient;
+		this.tenant = tenant;
+		this.toUserId = toUserId;
+		this.bizContent = bizContent;
+		this.journal = journal;
+		this.journalId = journalId;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * 写入日志（已开启时）并提交异步发送，同一用户的消息按提交顺序发送
+	 *
+	 * @param alipayClient AlipayClient
+	 * @param tenant       租户，一般为appId
+	 * @param toUserId     接收消息的用户，用于分通道保持顺序
+	 * @param bizContent   客服消息业务参数
+	 */
+	public static void submit(AlipayClient alipayClient, String tenant, String toUserId, String bizContent) {
+		dispatch(create(alipayClient, tenant, toUserId, bizContent));
+	}
+
+	/**
+	 * 在后台线程（延时消息、合并窗口等）中提交：与 {@link #submit} 相同，但通道队列已满时不等待，退避后再提交，
+	 * 不会因为一个已满的通道阻塞后台线程上其他用户的消息
+	 *
+	 * @param alipayClient AlipayClient
+	 * @param tenant       租户，一般为appId
+	 * @param toUserId     接收消息的用户，用于分通道保持顺序
+	 * @param bizContent   客服消息业务参数
+	 */
+	public static void offer(AlipayClient alipayClient, String tenant, String toUserId, String bizContent) {
+		offer(create(alipayClient, tenant, toUserId, bizContent), 0);
+	}
+
+	/**
+	 * 写入日志（已开启时）并创建任务
+	 */
+	private static CustomSendTask create(AlipayClient alipayClient, String tenant, String toUserId, String bizContent) {
+		OutboundJournal journal = OutboundJournal.getInstance();
+		long journalId = -1;
+		if (null != journal) {
+			try {
+				journalId = journal.append(tenant, METHOD, toUserId, bizContent, 0);
+			} catch (IOException e) {
+				// 日志不可用时仍然发送，只是不再保证重启后重发
+				e.printStackTrace();
+				journal = null;
+			}
+		}
+		return new CustomSendTask(alipayClient, tenant, toUserId, bizContent, journal, journalId, 0);
+	}
+
+	/**
+	 * 重发日志中上次运行未完成的消息
+	 *
+	 * @param alipayClient AlipayClient
+	 * @param journal      日志
+	 * @param entry        {@link OutboundJournal#recover(String)} 返回的消息，按其中的发送次数继续重试
+	 */
+	public static void resubmit(AlipayClient alipayClient, OutboundJournal journal, JournalEntry entry) {
+		dispatch(new CustomSendTask(alipayClient, entry.getTenant(), entry.getKey(), entry.getBizContent(), journal, entry.getId(),
+				entry.getAttempt()));
+	}
+
+	/**
+	 * 提交到发送线程池，被拒绝（策略为ABORT且队列已满，或线程池已关闭）时不再重试，改为提交同一用户等待中的下一条消息
+	 */
+	private static void dispatch(CustomSendTask task) {
+		while (null != task) {
+			try {
+				AsyncDispatchService.getInstance().execute(task.tenant, METHOD, task.toUserId, task);
+				return;
+			} catch (RejectedExecutionException e) {
+				task = task.abandon("提交失败：" + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * 不等待地提交到发送线程池，通道队列已满时由重试线程退避后再提交；重试线程已关闭（应用正在停止）时改为等待提交。
+	 * 新消息推迟期间，同一用户之后提交的消息可能先发送
+	 *
+	 * @param task 任务
+	 * @param busy 已因通道队列已满推迟的次数
+	 */
+	private static void offer(final CustomSendTask task, final int busy) {
+		try {
+			if (AsyncDispatchService.getInstance().offer(task.tenant, METHOD, task.toUserId, task))
+				return;
+		} catch (RejectedExecutionException e) {
+			dispatch(task.abandon("提交失败：" + e.getMessage()));
+			return;
+		}
+		boolean scheduled = SendRetryScheduler.getInstance().schedule(SendRetryScheduler.FailureClass.THROTTLED.delayMillis(busy + 1), new Runnable() {
+			@Override
+			public void run() {
+				offer(task, busy + 1);
+			}
+		});
+		if (!scheduled)
+			dispatch(task);
+	}
+
+	/**
+	 * 重新提交租户的死信：先写入日志并提交发送，再从死信库删除
+	 *
+	 * @param alipayClient AlipayClient
+	 * @param store        死信库
+	 * @param tenant       租户，一般为appId
+	 * @param max          最多重新提交的条数
+	 * @return 重新提交的条数
+	 * @throws IOException 读取死信库失败
+	 */
+	public static int requeueDeadLetters(AlipayClient alipayClient, DeadLetterStore store, String tenant, int max) throws IOException {
+		List<DeadLetter> letters = store.list(tenant, max);
+		int count = 0;
+		for (DeadLetter letter : letters) {
+			if (!METHOD.equals(letter.getMethod()))
+				continue;
+			submit(alipayClient, letter.getTenant(), letter.getKey(), letter.getBizContent());
+			store.remove(letter.getId());
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public void run() {
+		if (deferIfHeld())
+			return;
+		// 本任务有结果后，依次发送同一用户等待中的消息，直到某条消息进入退避重试
+		for (CustomSendTask task = this; null != task && !task.send(); )
+			task = task.releaseHold();
+	}
+
+	/**
+	 * 发送一次
+	 *
+	 * @return 已安排退避重试时返回true，此时用户的发送顺序由重试任务持有
+	 */
+	private boolean send() {
+		AlipayOpenPublicMessageCustomSendResponse response = null;
+		AlipayApiException error = null;
+		try {
+			AlipayOpenPublicMessageCustomSendRequest request = new AlipayOpenPublicMessageCustomSendRequest();
+			request.setBizContent(bizContent);
+
+			response = alipayClient.execute(request);
+		} catch (AlipayApiException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			// 如网络、解析响应时的意外异常，按系统错误重试
+			e.printStackTrace();
+			error = new AlipayApiException(e);
+		}
+		if (null != response && response.isSuccess()) {
+			markDone();
+			return false;
+		}
+
+		String code, subCode, message;
+		if (null != error) {
+			code = error.getErrCode();
+			subCode = null;
+			message = null == error.getErrMsg() ? error.getMessage() : error.getErrMsg();
+		} else if (null == response) {
+			code = null;
+			subCode = null;
+			message = "无响应";
+		} else {
+			code = response.getCode();
+			subCode = response.getSubCode();
+			message = null == response.getSubMsg() ? response.getMsg() : response.getSubMsg();
+		}
+		int sent = attempts + 1;
+		SendRetryScheduler.FailureClass failure = SendRetryScheduler.classify(response, error);
+		System.out.println("异步发送失败 to_user_id=" + toUserId + " 第" + sent + "次 " + failure + " code=" + code + " sub_code=" + subCode + " msg："
+				+ message);
+
+		// 重试任务先持有用户的发送顺序再安排，避免重试先于持有执行
+		final CustomSendTask retry = sent < failure.getMaxAttempts() ? hold(new CustomSendTask(alipayClient, tenant, toUserId, bizContent, journal,
+				recordAttempt(sent), sent)) : null;
+		boolean scheduled = SendRetryScheduler.getInstance().schedule(failure, sent, new Runnable() {
+			@Override
+			public void run() {
+				offer(retry, 0);
+			}
+		});
+		if (scheduled)
+			return true;
+		if (null != retry) {
+			// 重试线程已关闭（应用正在停止），消息保留在日志中，下次启动时重发
+			hold(this);
+			System.out.println("重试线程已关闭，未重试 to_user_id=" + toUserId);
+			return false;
+		}
+		giveUp(sent, code, subCode, message);
+		return false;
+	}
+
+	@Override
+	public void discarded(String reason) {
+		dispatch(abandon(reason));
+	}
+
+	/**
+	 * 被线程池拒绝或丢弃：不再重试，并把用户的发送顺序交给下一条等待中的消息
+	 *
+	 * @param reason 原因
+	 * @return 需要提交的下一条消息，没有时返回null
+	 */
+	private CustomSendTask abandon(String reason) {
+		giveUp(attempts, null, null, reason);
+		return releaseHold();
+	}
+
+	/**
+	 * 在日志中记录已发送的次数
+	 *
+	 * @param sent 已发送的次数
+	 * @return 重试使用的日志编号
+	 */
+	private long recordAttempt(int sent) {
+		if (null == journal)
+			return journalId;
+		try {
+			return journal.recordAttempt(journalId, tenant, METHOD, toUserId, bizContent, sent);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return journalId;
+		}
+	}
+
+	private String holdKey() {
+		return tenant + '\n' + toUserId;
+	}
+
+	/**
+	 * 由owner持有用户的发送顺序，同一用户之后的消息排在owner之后
+	 *
+	 * @param owner 持有的任务
+	 * @return owner
+	 */
+	private static CustomSendTask hold(CustomSendTask owner) {
+		if (null == owner.toUserId)
+			return owner;
+		synchronized (HOLDS) {
+			Hold hold = HOLDS.get(owner.holdKey());
+			if (null == hold) {
+				hold = new Hold();
+				HOLDS.put(owner.holdKey(), hold);
+			}
+			hold.owner = owner;
+		}
+		return owner;
+	}
+
+	/**
+	 * 用户的发送顺序由其他任务持有时，排到等待队列中
+	 *
+	 * @return 已排队时返回true
+	 */
+	private boolean deferIfHeld() {
+		if (null == toUserId)
+			return false;
+		synchronized (HOLDS) {
+			Hold hold = HOLDS.get(holdKey());
+			if (null == hold || hold.owner == this)
+				return false;
+			hold.waiting.add(this);
+			return true;
+		}
+	}
+
+	/**
+	 * 本任务已有结果，把用户的发送顺序交给下一条等待中的消息，没有等待的消息时解除持有
+	 *
+	 * @return 下一条消息，本任务未持有或没有等待的消息时返回null
+	 */
+	private CustomSendTask releaseHold() {
+		if (null == toUserId)
+			return null;
+		synchronized (HOLDS) {
+			String key = holdKey();
+			Hold hold = HOLDS.get(key);
+			if (null == hold || hold.owner != this)
+				return null;
+			CustomSendTask next = hold.waiting.poll();
+			if (null == next)
+				HOLDS.remove(key);
+			else
+				hold.owner = next;
+			return next;
+		}
+	}
+
+	/**
+	 * 不再重试：写入死信库（已开启时），否则输出消息内容；然后在日志中标记完成
+	 */
+	private void giveUp(int sent, String code, String subCode, String message) {
+		DeadLetterStore store = DeadLetterStore.getInstance();
+		if (null != store) {
+			try {
+				store.add(tenant, METHOD, toUserId, bizContent, sent, code, subCode, message);
+				markDone();
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		System.out.println("放弃发送 to_user_id=" + toUserId + " 已发送" + sent + "次 code=" + code + " sub_code=" + subCode + " msg：" + message
+				+ " biz_content：" + bizContent);
+		markDone();
+	}
+
+	private void markDone() {
+		if (null != journal)
+			journal.markDone(journalId);
+	}
+
+	/**
+	 * 用户的发送顺序：持有的任务与排在其后的消息
+	 */
+	private static final class Hold {
+		private CustomSendTask owner;
+		private final ArrayDeque<CustomSendTask> waiting = new ArrayDeque<>();
+	}
+}
@@ -35,6 +35,7 @@ public class Dispatcher {
     private AlipayClient alipayClient = null;
     private String PUBLIC_KEY = null;
     private String APP_ID;
+    private ChatCoalescer chatCoalescer = null;
 
     public Dispatcher(AlipayClient alipayClient, String PUBLIC_KEY, String APP_ID) {
         this.alipayClient = alipayClient;
@@ -42,6 +43,11 @@ public class Dispatcher {
         this.APP_ID = APP_ID;
     }
 
+    public Dispatcher(AlipayClient alipayClient, String PUBLIC_KEY, String APP_ID, ChatCoalescer chatCoalescer) {
+        this(alipayClient, PUBLIC_KEY, APP_ID);
+        this.chatCoalescer = chatCoalescer;
+    }
+
     /**
      * 根据业务参数获取业务执行器
      * 
@@ -74,7 +80,7 @@ public class Dispatcher {
         //  2.1 纯文本聊天类型
         if ("text".equals(msgType)) {
 
-            return new InAlipayChatTextExecutor(bizContentJson, alipayClient, APP_ID);
+            return new InAlipayChatTextExecutor(bizContentJson, alipayClient, APP_ID, chatCoalescer);
 
             // 2.2 事件类型
         } else if ("event".equals(msgType)) {
@@ -0,0 +1,203 @@
+package com.alipay.dispatcher;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayResponse;
+import com.alipay.client.CircuitBreakerAlipayClient;
+import com.alipay.client.QuotaAlipayClient;
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 异步发送失败后的延时重试
+ * <p>
+ * 按失败类型决定退避时间与最多发送次数：配额不足与熔断（THROTTLED）等待较长、次数较多；网络异常、无响应与支付宝系统错误
+ * （TRANSIENT：20000、isp.*）指数退避；其他业务错误（PERMANENT）不重试。等待期间不占用发送通道，
+ * 到期后重新提交到原通道。重试只保存在内存中，进程退出时未到期的重试由 OutboundJournal（已开启时）在下次启动时重发。
+ */
+public class SendRetryScheduler implements PrometheusCollector {
+
+	/**
+	 * 失败类型
+	 */
+	public enum FailureClass {
+		/**
+		 * 本地配额不足或熔断
+		 */
+		THROTTLED(8, 2000, 60000),
+		/**
+		 * 网络异常、无响应、支付宝系统错误
+		 */
+		TRANSIENT(5, 1000, 60000),
+		/**
+		 * 业务错误，重试也不会成功
+		 */
+		PERMANENT(1, 0, 0);
+
+		private final int maxAttempts;
+		private final long baseDelayMillis;
+		private final long maxDelayMillis;
+
+		FailureClass(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+			this.maxAttempts = maxAttempts;
+			this.baseDelayMillis = baseDelayMillis;
+			this.maxDelayMillis = maxDelayMillis;
+		}
+
+		/**
+		 * @return 最多发送次数，含首次发送
+		 */
+		public int getMaxAttempts() {
+			return maxAttempts;
+		}
+
+		/**
+		 * 第 attempts 次发送失败后的等待时间：基数乘以2的 attempts-1 次方，不超过上限，加减20%的随机抖动
+		 *
+		 * @param attempts 已发送的次数
+		 * @return 毫秒数
+		 */
+		public long delayMillis(int attempts) {
+			long delay = baseDelayMillis << Math.min(20, Math.max(0, attempts - 1));
+			delay = Math.min(maxDelayMillis, delay);
+			return delay - delay / 5 + ThreadLocalRandom.current().nextLong(delay / 5 * 2 + 1);
+		}
+	}
+
+	private static final Object LOCK = new Object();
+	private static SendRetryScheduler instance;
+
+	private final ScheduledThreadPoolExecutor timer;
+	private final AtomicLongArray retries = new AtomicLongArray(FailureClass.values().length);
+	private final AtomicLongArray exhausted = new AtomicLongArray(FailureClass.values().length);
+
+	public SendRetryScheduler() {
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "alipay-send-retry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * 获取全局实例，不存在时创建，并注册Prometheus输出
+	 *
+	 * @return SendRetryScheduler
+	 */
+	public static SendRetryScheduler getInstance() {
+		synchronized (LOCK) {
+			if (null == instance) {
+				instance = new SendRetryScheduler();
+				MetricsRegistry.getInstance().register(instance);
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * 关闭全局实例，丢弃未到期的重试，之后失败的发送不再重试（保留在日志中），应在异步发送线程池关闭之前调用
+	 *
+	 * @return 丢弃的重试数
+	 */
+	public static int shutdownInstance() {
+		SendRetryScheduler scheduler;
+		synchronized (LOCK) {
+			scheduler = instance;
+			if (null == scheduler || scheduler.timer.isShutdown())
+				return 0;
+			scheduler.timer.shutdown();
+		}
+		MetricsRegistry.getInstance().unregister(scheduler);
+		int dropped = scheduler.timer.shutdownNow().size();
+		if (dropped > 0)
+			System.out.println("alipay-send-retry 关闭，丢弃" + dropped + "个未到期的重试");
+		return dropped;
+	}
+
+	/**
+	 * 判断失败类型
+	 *
+	 * @param response 响应，异常时为null
+	 * @param error    异常，没有时为null
+	 * @return 失败类型
+	 */
+	public static FailureClass classify(AlipayResponse response, AlipayApiException error) {
+		if (null != error) {
+			String code = error.getErrCode();
+			if (QuotaAlipayClient.QUOTA_EXCEEDED_CODE.equals(code) || CircuitBreakerAlipayClient.CIRCUIT_OPEN_CODE.equals(code))
+				return FailureClass.THROTTLED;
+			return FailureClass.TRANSIENT;
+		}
+		if (null == response || "20000".equals(response.getCode()) || (null != response.getSubCode() && response.getSubCode().startsWith("isp.")))
+			return FailureClass.TRANSIENT;
+		return FailureClass.PERMANENT;
+	}
+
+	/**
+	 * 在退避时间后执行重试
+	 *
+	 * @param failure  失败类型
+	 * @param attempts 已发送的次数
+	 * @param task     重试任务
+	 * @return 已达到最多发送次数或已关闭时返回false
+	 */
+	public boolean schedule(FailureClass failure, int attempts, Runnable task) {
+		if (attempts >= failure.getMaxAttempts()) {
+			exhausted.incrementAndGet(failure.ordinal());
+			return false;
+		}
+		if (!schedule(failure.delayMillis(attempts), task))
+			return false;
+		retries.incrementAndGet(failure.ordinal());
+		return true;
+	}
+
+	/**
+	 * 在指定时间后执行任务，不计入重试次数，如通道队列已满时推迟提交
+	 *
+	 * @param delayMillis 等待毫秒数
+	 * @param task        任务
+	 * @return 已关闭时返回false
+	 */
+	public boolean schedule(long delayMillis, Runnable task) {
+		if (timer.isShutdown())
+			return false;
+		try {
+			timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return 等待中的重试数
+	 */
+	public int getPendingCount() {
+		return timer.getQueue().size();
+	}
+
+	@Override
+	public void writePrometheus(Appendable out) throws IOException {
+		MetricsRegistry.writeHeader(out, "alipay_send_retries_total", "counter", "按失败类型安排的发送重试数");
+		for (FailureClass failure : FailureClass.values())
+			out.append("alipay_send_retries_total{class=\"").append(failure.name()).append("\"} ").append(String.valueOf(retries.get(failure.ordinal())))
+					.append('\n');
+		MetricsRegistry.writeHeader(out, "alipay_send_retries_exhausted_total", "counter", "按失败类型不再重试的发送数");
+		for (FailureClass failure : FailureClass.values())
+			out.append("alipay_send_retries_exhausted_total{class=\"").append(failure.name()).append("\"} ")
+					.append(String.valueOf(exhausted.get(failure.ordinal()))).append('\n');
+		MetricsRegistry.writeSample(out, "alipay_send_retries_pending", "gauge", "等待中的发送重试数", "", getPendingCount());
+	}
+}
@@ -4,16 +4,12 @@
  */
 package com.alipay.executor;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import net.sf.json.JSONObject;
 
 import com.alipay.api.AlipayClient;
 import com.alipay.api.request.AlipayMobilePublicMessageCustomSendRequest;
-import com.alipay.api.request.AlipayOpenPublicMessageCustomSendRequest;
 import com.alipay.api.response.AlipayMobilePublicMessageCustomSendResponse;
-import com.alipay.api.response.AlipayOpenPublicMessageCustomSendResponse;
+import com.alipay.dispatcher.CustomSendTask;
 import com.alipay.factory.AlipayAPIClientFactory;
 import com.alipay.util.AlipayMsgBuildUtil;
 
@@ -25,9 +21,6 @@ import com.alipay.util.AlipayMsgBuildUtil;
  */
 public class InAlipayAsyncMsgSendExecutor implements ActionExecutor {
 
-    /** 线程池 */
-    private static ExecutorService executors = Executors.newSingleThreadExecutor();
-
     /** 业务参数 */
     private JSONObject             bizContent;
     private AlipayClient alipayClient = null;
@@ -52,30 +45,10 @@ public class InAlipayAsyncMsgSendExecutor implements ActionExecutor {
         //1. 首先同步响应一个消息
         String syncResponseMsg = AlipayMsgBuildUtil.buildBaseAckMsg(fromUserId, APP_ID);
 
-        //2. 异步发送消息
-        executors.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    // 2.1 构建一个业务响应消息，开发者根据自行业务构建，这里只是一个简单的样例
-                    String requestMsg = AlipayMsgBuildUtil.buildSingleImgTextMsg(fromUserId);
-                    AlipayOpenPublicMessageCustomSendRequest request = new AlipayOpenPublicMessageCustomSendRequest();
-                    request.setBizContent(requestMsg);
-
-                    // 2.2 使用SDK接口类发送响应
-                    AlipayOpenPublicMessageCustomSendResponse response = alipayClient
-                        .execute(request);
-
-                    // 2.3 开发者根据响应结果处理结果
-                    //这里只是简单的打印，请开发者根据实际情况自行进行处理
-                    if (null == response || response.isSuccess() == false) {
-                        throw new Exception("异步发送失败 code=" + response.getCode() + "msg："  + response.getMsg());
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        });
+        //2. 异步发送消息，构建一个业务响应消息，开发者根据自行业务构建，这里只是一个简单的样例
+        //   开启发送日志时先写入日志，进程重启后未发送成功的消息会重发
+        String requestMsg = AlipayMsgBuildUtil.buildSingleImgTextMsg(fromUserId);
+        CustomSendTask.submit(alipayClient, APP_ID, fromUserId, requestMsg);
 
         return syncResponseMsg;
     }
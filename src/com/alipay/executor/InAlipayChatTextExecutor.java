@@ -4,16 +4,16 @@
  */
 package com.alipay.executor;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import com.alipay.api.AlipayClient;
-import com.alipay.api.request.AlipayOpenPublicMessageCustomSendRequest;
-import com.alipay.api.response.AlipayOpenPublicMessageCustomSendResponse;
 import com.alipay.common.MyException;
+import com.alipay.dispatcher.ChatCoalescer;
+import com.alipay.dispatcher.CustomSendTask;
 import com.alipay.factory.AlipayAPIClientFactory;
 import com.alipay.util.AlipayMsgBuildUtil;
 
+import java.util.Collections;
+import java.util.List;
+
 import net.sf.json.JSONObject;
 
 /**
@@ -24,20 +24,27 @@ import net.sf.json.JSONObject;
  */
 public class InAlipayChatTextExecutor implements ActionExecutor {
 
-    /** 线程池 */
-    private static ExecutorService executors = Executors.newSingleThreadExecutor();
     private AlipayClient alipayClient = null;
     private String APP_ID;
 
     /** 业务参数 */
     private JSONObject             bizContent;
 
+    /** 聊天消息合并窗口，为null时每条消息单独回复 */
+    private ChatCoalescer          chatCoalescer;
+
     public InAlipayChatTextExecutor(JSONObject bizContent, AlipayClient alipayClient, String APP_ID) {
         this.bizContent = bizContent;
         this.alipayClient = alipayClient;
         this.APP_ID = APP_ID;
     }
 
+    public InAlipayChatTextExecutor(JSONObject bizContent, AlipayClient alipayClient, String APP_ID,
+                                    ChatCoalescer chatCoalescer) {
+        this(bizContent, alipayClient, APP_ID);
+        this.chatCoalescer = chatCoalescer;
+    }
+
     public InAlipayChatTextExecutor() {
         super();
     }
@@ -55,36 +62,61 @@ public class InAlipayChatTextExecutor implements ActionExecutor {
         //1. 首先同步构建ACK响应
         String syncResponseMsg = AlipayMsgBuildUtil.buildBaseAckMsg(fromUserId, APP_ID);
 
-        //2. 异步发送消息
-        executors.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    // 2.1 构建一个业务响应消息，商户根据自行业务构建，这里只是一个简单的样例
-                    String requestMsg = AlipayMsgBuildUtil.buildSingleImgTextMsg(fromUserId);
-
-                    AlipayOpenPublicMessageCustomSendRequest request = new AlipayOpenPublicMessageCustomSendRequest();
-                    request.setBizContent(requestMsg);
-
-                    // 2.2 使用SDK接口类发送响应
-                    AlipayOpenPublicMessageCustomSendResponse response = alipayClient
-                        .execute(request);
-
-                    // 2.3 商户根据响应结果处理结果
-                    //这里只是简单的打印，请商户根据实际情况自行进行处理
-                    if (null != response && response.isSuccess()) {
-
-                    } else {
-                        throw new Exception("异步发送失败 code=" + response.getCode() + "msg：" + response.getMsg());
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        });
+        //2. 异步回复消息；开启合并窗口时，同一用户窗口期内的消息合并后只回复一次
+        String content = getContent();
+        if (null == chatCoalescer || !chatCoalescer.offer(fromUserId, content)) {
+            reply(alipayClient, APP_ID, fromUserId, Collections.singletonList(content));
+        }
 
         // 3.返回同步的ACK响应
         return syncResponseMsg;
     }
 
+    /**
+     * 异步回复用户的文本消息
+     * 
+     * @param alipayClient AlipayClient
+     * @param APP_ID       应用的appId
+     * @param fromUserId   发送消息的用户
+     * @param contents     用户发送的文本，合并窗口内可能有多条
+     */
+    public static void reply(AlipayClient alipayClient, String APP_ID, String fromUserId, List<String> contents) {
+        // 开启发送日志时先写入日志，进程重启后未发送成功的消息会重发
+        CustomSendTask.submit(alipayClient, APP_ID, fromUserId, buildReply(fromUserId, contents));
+    }
+
+    /**
+     * 构建一个业务响应消息，商户根据自行业务构建，这里只是一个简单的样例
+     */
+    private static String buildReply(String fromUserId, List<String> contents) {
+        return AlipayMsgBuildUtil.buildSingleImgTextMsg(fromUserId);
+    }
+
+    /**
+     * 取得文本消息内容
+     */
+    private String getContent() {
+        JSONObject text = bizContent.optJSONObject("Text");
+        return null == text ? "" : text.optString("Content");
+    }
+
+    /**
+     * 合并窗口到期后回复的处理器，在合并窗口的后台线程中调用，经 {@link CustomSendTask#offer} 提交，通道队列已满时不阻塞其他用户
+     */
+    public static class ReplyHandler implements ChatCoalescer.Handler {
+
+        private final AlipayClient alipayClient;
+        private final String       APP_ID;
+
+        public ReplyHandler(AlipayClient alipayClient, String APP_ID) {
+            this.alipayClient = alipayClient;
+            this.APP_ID = APP_ID;
+        }
+
+        @Override
+        public void handle(String fromUserId, List<String> contents) {
+            CustomSendTask.offer(alipayClient, APP_ID, fromUserId, buildReply(fromUserId, contents));
+        }
+    }
+
 }
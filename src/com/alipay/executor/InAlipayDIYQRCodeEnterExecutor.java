@@ -4,13 +4,9 @@
  */
 package com.alipay.executor;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import com.alipay.api.AlipayClient;
-import com.alipay.api.request.AlipayOpenPublicMessageCustomSendRequest;
-import com.alipay.api.response.AlipayOpenPublicMessageCustomSendResponse;
 import com.alipay.common.MyException;
+import com.alipay.dispatcher.CustomSendTask;
 import com.alipay.factory.AlipayAPIClientFactory;
 import com.alipay.util.AlipayMsgBuildUtil;
 
@@ -24,9 +20,6 @@ import net.sf.json.JSONObject;
  */
 public class InAlipayDIYQRCodeEnterExecutor implements ActionExecutor {
 
-    /** 线程池 */
-    private static ExecutorService executors = Executors.newSingleThreadExecutor();
-
     /** 业务参数 */
     private JSONObject             bizContent;
     private AlipayClient alipayClient = null;
@@ -62,66 +55,18 @@ public class InAlipayDIYQRCodeEnterExecutor implements ActionExecutor {
             syncResponseMsg = AlipayMsgBuildUtil.buildBaseAckMsg(fromUserId, APP_ID);
             
             //2. 异步发送消息，根据不同的sceneId推送不同的消息（这里的sceneId的意义由商户自己定义）
+            //   开启发送日志时先写入日志，进程重启后未发送成功的消息会重发
             if("1".equals(sceneId)){
-            	
-            	executors.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-
-                            // 2.1 构建一个业务响应消息，开发者根据自行业务构建，这里只是一个简单的样例
-                            String requestMsg = "{'msg_type':'text','text':{'content':'通过sceneId为1的二维码关注服务窗'}, 'to_user_id':'" + fromUserId + "'}";
-
-
-                            AlipayOpenPublicMessageCustomSendRequest request = new AlipayOpenPublicMessageCustomSendRequest();
-                            request.setBizContent(requestMsg);
 
-                            // 2.2 使用SDK接口类发送响应
-                            AlipayOpenPublicMessageCustomSendResponse response = alipayClient
-                                .execute(request);
+                // 2.1 构建一个业务响应消息，开发者根据自行业务构建，这里只是一个简单的样例
+                String requestMsg = AlipayMsgBuildUtil.buildSingleTextMsg(fromUserId, "通过sceneId为1的二维码关注服务窗");
+                CustomSendTask.submit(alipayClient, APP_ID, fromUserId, requestMsg);
 
-                            // 2.3 开发者根据响应结果处理结果
-                            //这里只是简单的打印，请开发者根据实际情况自行进行处理
-                            if (null != response && response.isSuccess()) {
-                                System.out.println("异步发送成功，结果为：" + response.getBody());
-                            } else {
-                                System.out.println("异步发送失败 code=" + response.getCode() + "msg：" + response.getMsg());
-                            }
-                        } catch (Exception e) {
-                            System.out.println("异步发送失败");
-                        }
-                    }
-                });
             }else if ("2".equals(sceneId)) {
-            	
-            	executors.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-
-                            // 2.1 构建一个业务响应消息，开发者根据自行业务构建，这里只是一个简单的样例
-                            String requestMsg = "{'msg_type':'text','text':{'content':'通过sceneId为2的二维码关注服务窗'}, 'to_user_id':'" + fromUserId + "'}";
-
-
-                            AlipayOpenPublicMessageCustomSendRequest request = new AlipayOpenPublicMessageCustomSendRequest();
-                            request.setBizContent(requestMsg);
-
-                            // 2.2 使用SDK接口类发送响应
-                            AlipayOpenPublicMessageCustomSendResponse response = alipayClient
-                                .execute(request);
 
-                            // 2.3 开发者根据响应结果处理结果
-                            //这里只是简单的打印，请开发者根据实际情况自行进行处理
-                            if (null != response && response.isSuccess()) {
-                                System.out.println("异步发送成功，结果为：" + response.getBody());
-                            } else {
-                                System.out.println("异步发送失败 code=" + response.getCode() + "msg：" + response.getMsg());
-                            }
-                        } catch (Exception e) {
-                            System.out.println("异步发送失败");
-                        }
-                    }
-                });
+                // 2.1 构建一个业务响应消息，开发者根据自行业务构建，这里只是一个简单的样例
+                String requestMsg = AlipayMsgBuildUtil.buildSingleTextMsg(fromUserId, "通过sceneId为2的二维码关注服务窗");
+                CustomSendTask.submit(alipayClient, APP_ID, fromUserId, requestMsg);
 			}
         } catch (Exception exception) {
             throw new MyException("转换json错误，检查数据格式");
@@ -4,8 +4,11 @@
  */
 package com.alipay.executor;
 
+import java.io.IOException;
+
 import net.sf.json.JSONObject;
 
+import com.alipay.index.FollowerIndex;
 import com.alipay.util.AlipayMsgBuildUtil;
 
 /**
@@ -37,6 +40,16 @@ public class InAlipayFollowExecutor implements ActionExecutor {
         // 直接构造简单响应结果返回
         final String fromUserId = bizContent.getString("FromUserId");
 
+        //记入关注者索引（已开启时）
+        FollowerIndex index = FollowerIndex.getInstance();
+        if (null != index) {
+            try {
+                index.add(APP_ID, fromUserId);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
         return AlipayMsgBuildUtil.buildBaseAckMsg(fromUserId, APP_ID);
     }
 }
@@ -4,8 +4,12 @@
  */
 package com.alipay.executor;
 
+import java.io.IOException;
+
 import net.sf.json.JSONObject;
 
+import com.alipay.index.FollowerIndex;
+import com.alipay.scheduler.MessageScheduler;
 import com.alipay.util.AlipayMsgBuildUtil;
 
 /**
@@ -38,6 +42,21 @@ public class InAlipayUnFollowExecutor implements ActionExecutor {
         //TODO 根据支付宝请求参数，开发者可以删除之前保存的本地支付宝UID-服务窗ID的关注关系
         // 这里只是个样例程序，所以这步省略。
 
+        //从关注者索引中删除（已开启时）
+        FollowerIndex index = FollowerIndex.getInstance();
+        if (null != index) {
+            try {
+                index.remove(APP_ID, fromUserId);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        //取消发给该用户、尚未发送的延时消息
+        MessageScheduler scheduler = MessageScheduler.getInstance();
+        if (null != scheduler)
+            scheduler.cancelUser(APP_ID, fromUserId);
+
         return AlipayMsgBuildUtil.buildBaseAckMsg(fromUserId, APP_ID);
     }
 }
@@ -0,0 +1,373 @@
+package com.alipay.index;
+
+import com.alipay.bulk.UserIdSource;
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+import com.alipay.store.DirectoryInstance;
+import com.alipay.store.DirectoryLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按租户保存的关注者索引，回答“这个用户是否关注了服务窗”
+ * <p>
+ * 支付宝userId是2088开头的16位数字，索引中按long保存在映射文件 followers-租户.idx 的开放寻址表里（{@link LongHashSet}），
+ * 每个关注者约占11～21字节、不在Java堆上，判断时不计算字符串hash；重启后直接映射文件，无需重新拉取关注者列表。
+ * 关注、取消关注事件增量更新，{@link #load(String, UserIdSource)} 从关注者列表整体重建，
+ * {@link FollowerReconciler} 只修正与关注者列表不一致的部分。
+ * 写入先进入操作系统页缓存，进程崩溃不丢失，{@link #flush()} 与关闭时落盘。同一目录同时只能打开一次。
+ */
+public class FollowerIndex implements PrometheusCollector {
+
+	private static final String FILE_PREFIX = "followers-";
+	private static final String FILE_SUFFIX = ".idx";
+
+	private static final DirectoryInstance<FollowerIndex> INSTANCE = new DirectoryInstance<>("关注者索引");
+
+	private final File dir;
+	private final DirectoryLock lock;
+	private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+	private volatile boolean closed;
+
+	/**
+	 * 打开索引目录，已有的租户索引在首次使用时映射
+	 *
+	 * @param dir 索引目录，不存在时创建
+	 * @throws IOException 目录无法创建或已被打开
+	 */
+	public FollowerIndex(File dir) throws IOException {
+		this.dir = dir;
+		this.lock = new DirectoryLock(dir, "followers.lock", "索引");
+	}
+
+	/**
+	 * 打开全局索引，已打开时直接返回，并注册Prometheus输出
+	 *
+	 * @param dir 索引目录
+	 * @return FollowerIndex
+	 * @throws IOException 打开失败
+	 */
+	public static FollowerIndex openInstance(File dir) throws IOException {
+		return INSTANCE.open(dir, new DirectoryInstance.Opener<FollowerIndex>() {
+			@Override
+			public FollowerIndex open(File dir) throws IOException {
+				return new FollowerIndex(dir);
+			}
+		});
+	}
+
+	/**
+	 * @return 全局索引，未打开时返回null
+	 */
+	public static FollowerIndex getInstance() {
+		return INSTANCE.get();
+	}
+
+	/**
+	 * 关闭全局索引
+	 */
+	public static void closeInstance() {
+		FollowerIndex index = INSTANCE.take();
+		if (null != index)
+			index.close();
+	}
+
+	/**
+	 * 把userId转换为索引中的long
+	 *
+	 * @param userId 支付宝userId
+	 * @return 不是1～18位数字或为0时返回0
+	 */
+	public static long toKey(String userId) {
+		if (null == userId || userId.length() == 0 || userId.length() > 18)
+			return 0;
+		long key = 0;
+		for (int i = 0; i < userId.length(); i++) {
+			char c = userId.charAt(i);
+			if (c < '0' || c > '9')
+				return 0;
+			key = key * 10 + (c - '0');
+		}
+		return key;
+	}
+
+	/**
+	 * 记录关注
+	 *
+	 * @param tenant 租户，一般为appId
+	 * @param userId 关注者userId
+	 * @return 原来不在索引中时返回true，userId不是数字时返回false
+	 * @throws IOException 索引文件读写失败
+	 */
+	public boolean add(String tenant, String userId) throws IOException {
+		long key = toKey(userId);
+		if (key == 0)
+			return false;
+		Tenant t = tenant(tenant);
+		synchronized (t) {
+			if (null != t.pending)
+				t.pending.add(key);
+			return t.set.add(key);
+		}
+	}
+
+	/**
+	 * 记录取消关注
+	 *
+	 * @param tenant 租户，一般为appId
+	 * @param userId 取消关注的userId
+	 * @return 原来在索引中时返回true
+	 * @throws IOException 索引文件读写失败
+	 */
+	public boolean remove(String tenant, String userId) throws IOException {
+		long key = toKey(userId);
+		if (key == 0)
+			return false;
+		Tenant t = tenant(tenant);
+		synchronized (t) {
+			if (null != t.pending)
+				t.pending.add(-key);
+			return t.set.remove(key);
+		}
+	}
+
+	/**
+	 * @param tenant 租户，一般为appId
+	 * @param userId 用户userId
+	 * @return 是否在关注者索引中
+	 * @throws IOException 索引文件读写失败
+	 */
+	public boolean contains(String tenant, String userId) throws IOException {
+		long key = toKey(userId);
+		if (key == 0)
+			return false;
+		Tenant t = tenant(tenant);
+		synchronized (t) {
+			return t.set.contains(key);
+		}
+	}
+
+	/**
+	 * @param tenant 租户，一般为appId
+	 * @return 关注者数
+	 * @throws IOException 索引文件读写失败
+	 */
+	public int size(String tenant) throws IOException {
+		Tenant t = tenant(tenant);
+		synchronized (t) {
+			return t.set.size();
+		}
+	}
+
+	/**
+	 * @param tenant 租户，一般为appId
+	 * @return 全部关注者的long形式，升序
+	 * @throws IOException 索引文件读写失败
+	 */
+	public long[] toSortedArray(String tenant) throws IOException {
+		long[] keys;
+		Tenant t = tenant(tenant);
+		synchronized (t) {
+			keys = t.set.toArray();
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * 从关注者列表重建租户的索引：先写入临时文件，完成后替换原索引；重建期间的关注、取消关注事件在替换前补上，
+	 * 期间查询仍然使用原索引
+	 *
+	 * @param tenant 租户，一般为appId
+	 * @param source 关注者来源，如 UserIdSources.followers，读完后关闭
+	 * @return 索引中的关注者数
+	 * @throws IOException 来源读取失败或索引文件读写失败，原索引不变
+	 */
+	public int load(String tenant, UserIdSource source) throws IOException {
+		Tenant t = track(tenant);
+		File tmp = new File(dir, fileName(tenant) + ".loading");
+		LongHashSet fresh = null;
+		boolean done = false;
+		try {
+			if (tmp.exists() && !tmp.delete())
+				throw new IOException("无法删除上次未完成的重建文件：" + tmp);
+			fresh = LongHashSet.open(tmp, 0);
+			String userId;
+			while (null != (userId = source.next())) {
+				long key = toKey(userId);
+				if (key != 0)
+					fresh.add(key);
+			}
+			synchronized (t) {
+				for (long key : t.pending) {
+					if (key > 0)
+						fresh.add(key);
+					else
+						fresh.remove(-key);
+				}
+				fresh.moveTo(t.file);
+				t.set = fresh;
+				done = true;
+				return fresh.size();
+			}
+		} finally {
+			source.close();
+			untrack(t);
+			if (!done && null != fresh) {
+				fresh.close();
+				if (!tmp.delete())
+					tmp.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * 开始记录租户的关注、取消关注事件，同一时刻只能有一个重建或核对
+	 */
+	Tenant track(String tenant) throws IOException {
+		Tenant t = tenant(tenant);
+		synchronized (t) {
+			if (null != t.pending)
+				throw new IllegalStateException("租户的关注者索引正在重建或核对：" + tenant);
+			t.pending = new ArrayList<>();
+		}
+		return t;
+	}
+
+	/**
+	 * 停止记录事件
+	 */
+	void untrack(Tenant t) {
+		synchronized (t) {
+			t.pending = null;
+		}
+	}
+
+	/**
+	 * 应用核对出的差异，跳过 {@link #track} 之后收到过事件的用户（事件比核对时拉取的列表新），然后停止记录事件
+	 *
+	 * @param t       {@link #track} 返回的租户
+	 * @param adds    需要加入的用户
+	 * @param removes 需要删除的用户
+	 * @return 实际加入、删除的用户
+	 */
+	long[][] apply(Tenant t, long[] adds, long[] removes) throws IOException {
+		synchronized (t) {
+			Set<Long> touched = new HashSet<>();
+			for (long key : t.pending)
+				touched.add(Math.abs(key));
+			t.pending = null;
+			return new long[][]{applyTo(t.set, adds, touched, true), applyTo(t.set, removes, touched, false)};
+		}
+	}
+
+	private static long[] applyTo(LongHashSet set, long[] keys, Set<Long> touched, boolean add) throws IOException {
+		long[] applied = new long[keys.length];
+		int n = 0;
+		for (long key : keys) {
+			if (touched.contains(key))
+				continue;
+			if (add ? set.add(key) : set.remove(key))
+				applied[n++] = key;
+		}
+		return Arrays.copyOf(applied, n);
+	}
+
+	/**
+	 * 把全部租户的索引落盘
+	 */
+	public void flush() {
+		for (Tenant t : tenants.values()) {
+			synchronized (t) {
+				t.set.force();
+			}
+		}
+	}
+
+	/**
+	 * 标记正常关闭并落盘，释放目录
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		for (Tenant t : tenants.values()) {
+			synchronized (t) {
+				t.set.close();
+			}
+		}
+		try {
+			lock.release();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void writePrometheus(Appendable out) throws IOException {
+		Map<String, long[]> stats = new TreeMap<>();
+		for (Map.Entry<String, Tenant> e : tenants.entrySet()) {
+			Tenant t = e.getValue();
+			synchronized (t) {
+				stats.put(e.getKey(), new long[]{t.set.size(), t.set.byteSize()});
+			}
+		}
+		MetricsRegistry.writeHeader(out, "alipay_follower_index_size", "gauge", "关注者索引中的关注者数");
+		for (Map.Entry<String, long[]> e : stats.entrySet())
+			out.append("alipay_follower_index_size{tenant=\"").append(e.getKey()).append("\"} ").append(String.valueOf(e.getValue()[0])).append('\n');
+		MetricsRegistry.writeHeader(out, "alipay_follower_index_bytes", "gauge", "关注者索引映射文件的字节数");
+		for (Map.Entry<String, long[]> e : stats.entrySet())
+			out.append("alipay_follower_index_bytes{tenant=\"").append(e.getKey()).append("\"} ").append(String.valueOf(e.getValue()[1])).append('\n');
+	}
+
+	private Tenant tenant(String tenant) throws IOException {
+		Tenant t = tenants.get(tenant);
+		if (null != t)
+			return t;
+		synchronized (this) {
+			if (closed)
+				throw new IOException("关注者索引已关闭");
+			t = tenants.get(tenant);
+			if (null == t) {
+				File file = new File(dir, fileName(tenant));
+				t = new Tenant(file, LongHashSet.open(file, 0));
+				tenants.put(tenant, t);
+			}
+			return t;
+		}
+	}
+
+	private static String fileName(String tenant) {
+		StringBuilder name = new StringBuilder(FILE_PREFIX);
+		for (int i = 0; i < tenant.length(); i++) {
+			char c = tenant.charAt(i);
+			name.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+		}
+		return name.append(FILE_SUFFIX).toString();
+	}
+
+	static class Tenant {
+		final File file;
+		LongHashSet set;
+		/**
+		 * 重建期间的事件，正数为关注、负数为取消关注
+		 */
+		List<Long> pending;
+
+		Tenant(File file, LongHashSet set) {
+			this.file = file;
+			this.set = set;
+		}
+	}
+}
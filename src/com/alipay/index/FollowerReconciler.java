@@ -0,0 +1,155 @@
+package com.alipay.index;
+
+import com.alipay.bulk.UserIdSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 按支付宝的关注者列表核对 {@link FollowerIndex}，补上丢失的关注、取消关注事件
+ * <p>
+ * 本地索引先取一份升序的long快照，逐个读取关注者列表在快照中二分查找并在位图中标记；找不到的是需要加入的用户，
+ * 读完后未标记的是需要删除的用户。关注者列表不保存在内存中，额外内存为快照（每个关注者8字节）、
+ * 位图（每个关注者1位）与差异本身。核对期间收到事件的用户以事件为准，不会被核对结果覆盖。
+ * 一个实例只能运行一次。
+ */
+public class FollowerReconciler {
+
+	/**
+	 * 核对出的差异回调，在差异写入索引之后调用
+	 */
+	public interface Listener {
+
+		/**
+		 * 用户已关注但索引中没有，已加入
+		 *
+		 * @param tenant 租户
+		 * @param userId 用户userId
+		 */
+		void onFollow(String tenant, String userId);
+
+		/**
+		 * 索引中有但用户已不再关注，已删除
+		 *
+		 * @param tenant 租户
+		 * @param userId 用户userId
+		 */
+		void onUnfollow(String tenant, String userId);
+	}
+
+	private final FollowerIndex index;
+	private final String tenant;
+	private final Listener listener;
+	private long remoteCount;
+	private int localCount;
+	private int addedCount;
+	private int removedCount;
+
+	/**
+	 * @param index    关注者索引
+	 * @param tenant   租户，一般为appId
+	 * @param listener 差异回调，可以为null
+	 */
+	public FollowerReconciler(FollowerIndex index, String tenant, Listener listener) {
+		this.index = index;
+		this.tenant = tenant;
+		this.listener = listener;
+	}
+
+	/**
+	 * 读取关注者列表并修正索引
+	 *
+	 * @param source 关注者来源，如 UserIdSources.followers，读完后关闭
+	 * @throws IOException 来源读取失败（索引不变）或索引文件读写失败
+	 */
+	public void run(UserIdSource source) throws IOException {
+		FollowerIndex.Tenant t;
+		try {
+			t = index.track(tenant);
+		} catch (IOException | RuntimeException e) {
+			source.close();
+			throw e;
+		}
+		long[] adds, removes;
+		boolean applied = false;
+		try {
+			long[] local = index.toSortedArray(tenant);
+			localCount = local.length;
+			BitSet seen = new BitSet(local.length);
+			long[] missing = new long[16];
+			int missingCount = 0;
+			String userId;
+			while (null != (userId = source.next())) {
+				remoteCount++;
+				long key = FollowerIndex.toKey(userId);
+				if (key == 0)
+					continue;
+				int i = Arrays.binarySearch(local, key);
+				if (i >= 0) {
+					seen.set(i);
+				} else {
+					if (missingCount == missing.length)
+						missing = Arrays.copyOf(missing, missingCount << 1);
+					missing[missingCount++] = key;
+				}
+			}
+			adds = Arrays.copyOf(missing, missingCount);
+			removes = new long[local.length - seen.cardinality()];
+			int n = 0;
+			for (int i = seen.nextClearBit(0); i < local.length; i = seen.nextClearBit(i + 1))
+				removes[n++] = local[i];
+
+			long[][] result = index.apply(t, adds, removes);
+			applied = true;
+			adds = result[0];
+			removes = result[1];
+		} finally {
+			source.close();
+			if (!applied)
+				index.untrack(t);
+		}
+		addedCount = adds.length;
+		removedCount = removes.length;
+		if (null != listener) {
+			for (long key : adds)
+				listener.onFollow(tenant, String.valueOf(key));
+			for (long key : removes)
+				listener.onUnfollow(tenant, String.valueOf(key));
+		}
+	}
+
+	/**
+	 * @return 关注者列表中的用户数
+	 */
+	public long getRemoteCount() {
+		return remoteCount;
+	}
+
+	/**
+	 * @return 核对开始时索引中的用户数
+	 */
+	public int getLocalCount() {
+		return localCount;
+	}
+
+	/**
+	 * @return 加入索引的用户数
+	 */
+	public int getAddedCount() {
+		return addedCount;
+	}
+
+	/**
+	 * @return 从索引删除的用户数
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	@Override
+	public String toString() {
+		return "FollowerReconciler{tenant=" + tenant + ", remote=" + remoteCount + ", local=" + localCount + ", added=" + addedCount + ", removed="
+				+ removedCount + "}";
+	}
+}
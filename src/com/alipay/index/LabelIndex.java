@@ -0,0 +1,339 @@
+package com.alipay.index;
+
+import com.alipay.bulk.UserIdSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 服务窗用户标签的本地索引，回答“有标签X与Y但没有Z的用户”这类问题
+ * <p>
+ * 每个用户第一次出现时分配一个连续的序号，每个标签、每个标签值各有一个以序号为元素的压缩位图（{@link OrdinalBitmap}），
+ * 组合查询在位图之间做与、或、差运算，百万用户也只需毫秒级。一个用户在同一标签上只有一个值，打上新值时从旧值中移除。
+ * 只保存在内存中，由 AliTool 的标签接口调用成功后更新。开启索引前已有的标签关系不在索引中，
+ * 因此只有本进程中新建的标签、或已用 {@link #seed} 补全的标签值是完整的，可以作为标签同步的基准。线程安全。
+ */
+public class LabelIndex {
+
+	private final Map<String, Label> labels = new LinkedHashMap<>();
+	/**
+	 * userId -&gt; 序号，开放寻址，0表示空槽
+	 */
+	private long[] slotKeys = new long[1024];
+	private int[] slotOrdinals = new int[1024];
+	/**
+	 * 序号 -&gt; userId，只追加，已取出的数组引用中已分配的序号不会改变
+	 */
+	private long[] userIds = new long[1024];
+	private int ordinals;
+
+	/**
+	 * 记录新建的标签
+	 *
+	 * @param labelId   标签id
+	 * @param labelName 标签名
+	 */
+	public synchronized void createLabel(String labelId, String labelName) {
+		Label label = labels.get(labelId);
+		if (null == label) {
+			label = new Label(labelName);
+			labels.put(labelId, label);
+		} else {
+			label.name = labelName;
+		}
+		// 新建的标签没有用户，之后的变化都经过索引
+		label.created = true;
+	}
+
+	/**
+	 * 用已知的全部用户（如上次同步保存的集合）补全标签值，之后该标签值是完整的；已完整的标签值忽略
+	 *
+	 * @param labelId    标签id
+	 * @param labelValue 标签值
+	 * @param userIds    该标签值的全部用户，读完后关闭；没有用户时传入空来源
+	 * @throws IOException 读取失败，此时索引不变
+	 */
+	public void seed(String labelId, String labelValue, UserIdSource userIds) throws IOException {
+		List<String> users = new ArrayList<>();
+		try {
+			String userId;
+			while (null != (userId = userIds.next()))
+				users.add(userId);
+		} finally {
+			userIds.close();
+		}
+		synchronized (this) {
+			if (isSeeded(labelId, labelValue))
+				return;
+			addUsers(labelId, labelValue, users);
+			label(labelId).seededValues.add(labelValue);
+		}
+	}
+
+	/**
+	 * @param labelId    标签id
+	 * @param labelValue 标签值
+	 * @return 标签值在索引中是否完整：标签在本进程中新建，或已用 {@link #seed} 补全
+	 */
+	public synchronized boolean isSeeded(String labelId, String labelValue) {
+		Label label = labels.get(labelId);
+		return null != label && (label.created || label.seededValues.contains(labelValue));
+	}
+
+	/**
+	 * 删除标签及其全部用户
+	 *
+	 * @param labelId 标签id
+	 */
+	public synchronized void deleteLabel(String labelId) {
+		labels.remove(labelId);
+	}
+
+	/**
+	 * 给用户打上标签值，原来在该标签上的其他值被替换
+	 *
+	 * @param labelId    标签id
+	 * @param labelValue 标签值
+	 * @param userIds    用户userId，不是数字的忽略
+	 * @return 新打上标签（原来没有该标签）的用户数
+	 */
+	public synchronized int addUsers(String labelId, String labelValue, Collection<String> userIds) {
+		Label label = label(labelId);
+		OrdinalBitmap valueBitmap = label.values.get(labelValue);
+		if (null == valueBitmap) {
+			valueBitmap = new OrdinalBitmap();
+			label.values.put(labelValue, valueBitmap);
+		}
+		int added = 0;
+		for (String userId : userIds) {
+			long key = FollowerIndex.toKey(userId);
+			if (key == 0)
+				continue;
+			int ordinal = ordinal(key);
+			if (label.all.add(ordinal)) {
+				added++;
+			} else if (!valueBitmap.contains(ordinal)) {
+				for (OrdinalBitmap other : label.values.values())
+					other.remove(ordinal);
+			}
+			valueBitmap.add(ordinal);
+		}
+		return added;
+	}
+
+	/**
+	 * 去掉用户的标签
+	 *
+	 * @param labelId 标签id
+	 * @param userIds 用户userId
+	 * @return 原来有该标签的用户数
+	 */
+	public synchronized int removeUsers(String labelId, Collection<String> userIds) {
+		Label label = labels.get(labelId);
+		if (null == label)
+			return 0;
+		int removed = 0;
+		for (String userId : userIds) {
+			int ordinal = find(FollowerIndex.toKey(userId));
+			if (ordinal < 0 || !label.all.remove(ordinal))
+				continue;
+			removed++;
+			for (OrdinalBitmap value : label.values.values())
+				value.remove(ordinal);
+		}
+		return removed;
+	}
+
+	/**
+	 * @param labelId 标签id
+	 * @return 有该标签（任意值）的用户，标签不存在时为空
+	 */
+	public synchronized Segment segment(String labelId) {
+		Label label = labels.get(labelId);
+		return new Segment(this, null == label ? new OrdinalBitmap() : label.all.copy());
+	}
+
+	/**
+	 * @param labelId    标签id
+	 * @param labelValue 标签值
+	 * @return 该标签为该值的用户，不存在时为空
+	 */
+	public synchronized Segment segment(String labelId, String labelValue) {
+		Label label = labels.get(labelId);
+		OrdinalBitmap value = null == label ? null : label.values.get(labelValue);
+		return new Segment(this, null == value ? new OrdinalBitmap() : value.copy());
+	}
+
+	/**
+	 * 把任意用户集合转换为可与标签组合运算的Segment，如标签同步时期望的用户集合
+	 *
+	 * @param userIds 用户来源，读完后关闭；不是数字的userId忽略
+	 * @return Segment
+	 * @throws IOException 读取失败
+	 */
+	public Segment segmentOf(UserIdSource userIds) throws IOException {
+		OrdinalBitmap bitmap = new OrdinalBitmap();
+		try {
+			String userId;
+			while (null != (userId = userIds.next())) {
+				long key = FollowerIndex.toKey(userId);
+				if (key == 0)
+					continue;
+				synchronized (this) {
+					bitmap.add(ordinal(key));
+				}
+			}
+		} finally {
+			userIds.close();
+		}
+		return new Segment(this, bitmap);
+	}
+
+	/**
+	 * @param userId 用户userId
+	 * @return 用户的标签：标签id -&gt; 标签值
+	 */
+	public synchronized Map<String, String> labelsOf(String userId) {
+		Map<String, String> result = new LinkedHashMap<>();
+		int ordinal = find(FollowerIndex.toKey(userId));
+		if (ordinal < 0)
+			return result;
+		for (Map.Entry<String, Label> e : labels.entrySet()) {
+			if (!e.getValue().all.contains(ordinal))
+				continue;
+			for (Map.Entry<String, OrdinalBitmap> v : e.getValue().values.entrySet()) {
+				if (v.getValue().contains(ordinal)) {
+					result.put(e.getKey(), v.getKey());
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return 已知的标签id
+	 */
+	public synchronized List<String> labelIds() {
+		return new ArrayList<>(labels.keySet());
+	}
+
+	/**
+	 * @param labelId 标签id
+	 * @return 标签名，未知时为null
+	 */
+	public synchronized String labelName(String labelId) {
+		Label label = labels.get(labelId);
+		return null == label ? null : label.name;
+	}
+
+	/**
+	 * @return 出现过的用户数
+	 */
+	public synchronized int userCount() {
+		return ordinals;
+	}
+
+	/**
+	 * @return 位图与用户序号估算的占用字节数
+	 */
+	public synchronized long byteSize() {
+		long bytes = 12L * slotKeys.length + 8L * userIds.length;
+		for (Label label : labels.values()) {
+			bytes += label.all.byteSize();
+			for (OrdinalBitmap value : label.values.values())
+				bytes += value.byteSize();
+		}
+		return bytes;
+	}
+
+	synchronized int ordinalOf(String userId) {
+		return find(FollowerIndex.toKey(userId));
+	}
+
+	synchronized long[] userIdArray() {
+		return userIds;
+	}
+
+	private Label label(String labelId) {
+		Label label = labels.get(labelId);
+		if (null == label) {
+			label = new Label(null);
+			labels.put(labelId, label);
+		}
+		return label;
+	}
+
+	private static int slot(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	private int find(long key) {
+		if (key == 0)
+			return -1;
+		int mask = slotKeys.length - 1;
+		for (int i = slot(key, mask); slotKeys[i] != 0; i = (i + 1) & mask)
+			if (slotKeys[i] == key)
+				return slotOrdinals[i];
+		return -1;
+	}
+
+	private int ordinal(long key) {
+		int mask = slotKeys.length - 1;
+		int i = slot(key, mask);
+		for (; slotKeys[i] != 0; i = (i + 1) & mask)
+			if (slotKeys[i] == key)
+				return slotOrdinals[i];
+		int ordinal = ordinals++;
+		if (ordinal == userIds.length) {
+			long[] grown = new long[ordinal << 1];
+			System.arraycopy(userIds, 0, grown, 0, ordinal);
+			userIds = grown;
+		}
+		userIds[ordinal] = key;
+		slotKeys[i] = key;
+		slotOrdinals[i] = ordinal;
+		if (ordinals > slotKeys.length / 4 * 3)
+			rehash();
+		return ordinal;
+	}
+
+	private void rehash() {
+		long[] oldKeys = slotKeys;
+		int[] oldOrdinals = slotOrdinals;
+		slotKeys = new long[oldKeys.length << 1];
+		slotOrdinals = new int[slotKeys.length];
+		int mask = slotKeys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == 0)
+				continue;
+			int i = slot(oldKeys[j], mask);
+			while (slotKeys[i] != 0)
+				i = (i + 1) & mask;
+			slotKeys[i] = oldKeys[j];
+			slotOrdinals[i] = oldOrdinals[j];
+		}
+	}
+
+	private static class Label {
+		String name;
+		boolean created;
+		final Set<String> seededValues = new HashSet<>();
+		final OrdinalBitmap all = new OrdinalBitmap();
+		final Map<String, OrdinalBitmap> values = new HashMap<>();
+
+		Label(String name) {
+			this.name = name;
+		}
+	}
+}
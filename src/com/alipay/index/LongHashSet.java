@@ -0,0 +1,285 @@
+package com.alipay.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 堆外的long集合，开放寻址、线性探测，删除时向前移动后续元素而不留墓碑；0表示空槽，不能作为元素
+ * <p>
+ * 文件格式：16字节头（magic、正常关闭标记、容量、元素数）之后是容量个long槽位，整个文件映射到内存直接读写，
+ * 打开时无需解析；未正常关闭（标记为0）时重新散列一遍以修复写到一半的槽位。负载超过3/4时容量加倍，
+ * 写入同目录的临时文件后替换原文件。不是线程安全的，由调用方加锁。
+ */
+final class LongHashSet {
+
+	private static final int MAGIC = 0x414C4631;
+	private static final int HEADER_BYTES = 16;
+	private static final int MIN_CAPACITY = 1024;
+	/**
+	 * 映射区不能超过2GB
+	 */
+	private static final int MAX_CAPACITY = 1 << 27;
+
+	private File file;
+	private ByteBuffer buf;
+	private int capacity;
+	private int mask;
+	private int size;
+
+	private LongHashSet(File file, ByteBuffer buf, int capacity, int size) {
+		this.file = file;
+		this.buf = buf;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.size = size;
+	}
+
+	/**
+	 * 打开或创建映射文件
+	 *
+	 * @param file     文件
+	 * @param expected 新建时预计的元素数
+	 * @return LongHashSet
+	 * @throws IOException 读写失败或文件损坏
+	 */
+	static LongHashSet open(File file, int expected) throws IOException {
+		if (!file.exists() || file.length() == 0)
+			return create(file, capacityFor(expected));
+		ByteBuffer buf = map(file, -1);
+		if (buf.capacity() < HEADER_BYTES || buf.getInt(0) != MAGIC)
+			throw new IOException("索引文件格式错误：" + file);
+		int capacity = buf.getInt(8);
+		if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1 || buf.capacity() != HEADER_BYTES + 8L * capacity)
+			throw new IOException("索引文件长度错误：" + file);
+		LongHashSet set = new LongHashSet(file, buf, capacity, buf.getInt(12));
+		if (buf.getInt(4) == 0)
+			set.rehashInPlace();
+		buf.putInt(4, 0);
+		return set;
+	}
+
+	/**
+	 * @param expected 预计的元素数
+	 * @return 不写文件的集合，分配在直接内存中
+	 */
+	static LongHashSet allocate(int expected) {
+		int capacity = capacityFor(expected);
+		ByteBuffer buf = ByteBuffer.allocateDirect(HEADER_BYTES + 8 * capacity);
+		buf.putInt(0, MAGIC).putInt(8, capacity);
+		return new LongHashSet(null, buf, capacity, 0);
+	}
+
+	private static LongHashSet create(File file, int capacity) throws IOException {
+		ByteBuffer buf = map(file, HEADER_BYTES + 8L * capacity);
+		buf.putInt(0, MAGIC).putInt(4, 0).putInt(8, capacity).putInt(12, 0);
+		return new LongHashSet(file, buf, capacity, 0);
+	}
+
+	private static ByteBuffer map(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (length >= 0)
+				raf.setLength(length);
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		} finally {
+			// 映射在通道关闭后仍然有效
+			raf.close();
+		}
+	}
+
+	private static int capacityFor(int expected) {
+		long capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expected)
+			capacity <<= 1;
+		if (capacity > MAX_CAPACITY)
+			throw new IllegalArgumentException("元素过多：" + expected);
+		return (int) capacity;
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private long slot(int index) {
+		return buf.getLong(HEADER_BYTES + (index << 3));
+	}
+
+	private void slot(int index, long key) {
+		buf.putLong(HEADER_BYTES + (index << 3), key);
+	}
+
+	/**
+	 * @param key 元素，非0
+	 * @return 不存在并已加入时返回true
+	 * @throws IOException 扩容时写文件失败
+	 */
+	boolean add(long key) throws IOException {
+		if (key == 0)
+			throw new IllegalArgumentException("元素不能为0");
+		if (size + 1 > capacity / 4 * 3)
+			resize(capacity << 1);
+		int i = hash(key) & mask;
+		long k;
+		while ((k = slot(i)) != 0) {
+			if (k == key)
+				return false;
+			i = (i + 1) & mask;
+		}
+		slot(i, key);
+		buf.putInt(12, ++size);
+		return true;
+	}
+
+	/**
+	 * @param key 元素
+	 * @return 存在并已删除时返回true
+	 */
+	boolean remove(long key) {
+		int i = hash(key) & mask;
+		long k;
+		while ((k = slot(i)) != key) {
+			if (k == 0)
+				return false;
+			i = (i + 1) & mask;
+		}
+		// 后续同一探测链上的元素前移填补空位
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			k = slot(j);
+			if (k == 0)
+				break;
+			int ideal = hash(k) & mask;
+			if (((j - ideal) & mask) >= ((j - i) & mask)) {
+				slot(i, k);
+				i = j;
+			}
+		}
+		slot(i, 0);
+		buf.putInt(12, --size);
+		return true;
+	}
+
+	boolean contains(long key) {
+		int i = hash(key) & mask;
+		long k;
+		while ((k = slot(i)) != 0) {
+			if (k == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return 占用的字节数
+	 */
+	long byteSize() {
+		return HEADER_BYTES + 8L * capacity;
+	}
+
+	/**
+	 * @return 全部元素，无序
+	 */
+	long[] toArray() {
+		long[] keys = new long[size];
+		int n = 0;
+		for (int i = 0; i < capacity && n < keys.length; i++) {
+			long k = slot(i);
+			if (k != 0)
+				keys[n++] = k;
+		}
+		return keys;
+	}
+
+	/**
+	 * 把映射文件改名，用于临时文件写完后替换正式文件
+	 */
+	void moveTo(File target) throws IOException {
+		force();
+		Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		file = target;
+	}
+
+	/**
+	 * 落盘，不写文件的集合忽略
+	 */
+	void force() {
+		if (buf instanceof MappedByteBuffer)
+			((MappedByteBuffer) buf).force();
+	}
+
+	/**
+	 * 标记正常关闭并落盘，之后不能再使用
+	 */
+	void close() {
+		buf.putInt(4, 1);
+		force();
+	}
+
+	private void resize(int newCapacity) throws IOException {
+		if (newCapacity > MAX_CAPACITY)
+			throw new IOException("索引已满：" + size);
+		LongHashSet bigger;
+		if (null == file) {
+			bigger = allocate(newCapacity / 4 * 3);
+		} else {
+			File tmp = new File(file.getPath() + ".resize");
+			bigger = create(tmp, newCapacity);
+		}
+		for (int i = 0; i < capacity; i++) {
+			long k = slot(i);
+			if (k != 0)
+				bigger.add(k);
+		}
+		if (null != file)
+			bigger.moveTo(file);
+		buf = bigger.buf;
+		file = bigger.file;
+		capacity = bigger.capacity;
+		mask = bigger.mask;
+		size = bigger.size;
+	}
+
+	private void rehashInPlace() {
+		int n = 0;
+		for (int i = 0; i < capacity; i++)
+			if (slot(i) != 0)
+				n++;
+		long[] keys = new long[n];
+		n = 0;
+		for (int i = 0; i < capacity; i++) {
+			long k = slot(i);
+			if (k != 0) {
+				keys[n++] = k;
+				slot(i, 0);
+			}
+		}
+		size = 0;
+		buf.putInt(12, 0);
+		for (long key : keys) {
+			int i = hash(key) & mask;
+			long k;
+			while ((k = slot(i)) != 0 && k != key)
+				i = (i + 1) & mask;
+			if (k == 0) {
+				slot(i, key);
+				size++;
+			}
+		}
+		buf.putInt(12, size);
+	}
+}
@@ -0,0 +1,378 @@
+package com.alipay.index;
+
+import java.util.Arrays;
+
+/**
+ * 压缩的int位图：按高16位分块，每块元素不超过4096个时保存为有序char数组，超过时保存为65536位的long数组，
+ * 稀疏与稠密的集合都接近最小内存。不是线程安全的。
+ */
+final class OrdinalBitmap {
+
+	private static final int ARRAY_MAX = 4096;
+	private static final int WORDS = 1024;
+
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int size;
+
+	boolean add(int x) {
+		char hi = (char) (x >>> 16);
+		int i = find(hi);
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, hi, new Container());
+		}
+		return containers[i].add((char) x);
+	}
+
+	boolean remove(int x) {
+		int i = find((char) (x >>> 16));
+		if (i < 0 || !containers[i].remove((char) x))
+			return false;
+		if (containers[i].card == 0) {
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			containers[--size] = null;
+		}
+		return true;
+	}
+
+	boolean contains(int x) {
+		int i = find((char) (x >>> 16));
+		return i >= 0 && containers[i].contains((char) x);
+	}
+
+	long cardinality() {
+		long card = 0;
+		for (int i = 0; i < size; i++)
+			card += containers[i].card;
+		return card;
+	}
+
+	/**
+	 * @return 估算的占用字节数
+	 */
+	long byteSize() {
+		long bytes = 16L + 10L * keys.length;
+		for (int i = 0; i < size; i++)
+			bytes += null != containers[i].bits ? 8 * WORDS : 2 * containers[i].array.length;
+		return bytes;
+	}
+
+	OrdinalBitmap copy() {
+		OrdinalBitmap copy = new OrdinalBitmap();
+		copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+		copy.containers = new Container[copy.keys.length];
+		for (int i = 0; i < size; i++)
+			copy.containers[i] = containers[i].copy();
+		copy.size = size;
+		return copy;
+	}
+
+	static OrdinalBitmap and(OrdinalBitmap a, OrdinalBitmap b) {
+		OrdinalBitmap result = new OrdinalBitmap();
+		int i = 0, j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				result.append(a.keys[i], Container.and(a.containers[i], b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	static OrdinalBitmap or(OrdinalBitmap a, OrdinalBitmap b) {
+		OrdinalBitmap result = new OrdinalBitmap();
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size) {
+			if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				result.append(a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (i >= a.size || a.keys[i] > b.keys[j]) {
+				result.append(b.keys[j], b.containers[j].copy());
+				j++;
+			} else {
+				result.append(a.keys[i], Container.or(a.containers[i], b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	static OrdinalBitmap andNot(OrdinalBitmap a, OrdinalBitmap b) {
+		OrdinalBitmap result = new OrdinalBitmap();
+		int j = 0;
+		for (int i = 0; i < a.size; i++) {
+			while (j < b.size && b.keys[j] < a.keys[i])
+				j++;
+			if (j < b.size && b.keys[j] == a.keys[i])
+				result.append(a.keys[i], Container.andNot(a.containers[i], b.containers[j]));
+			else
+				result.append(a.keys[i], a.containers[i].copy());
+		}
+		return result;
+	}
+
+	/**
+	 * @return 按升序遍历的游标
+	 */
+	Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * 升序遍历，遍历期间位图不能修改
+	 */
+	final class Cursor {
+		private int block;
+		private int position;
+
+		/**
+		 * @return 下一个元素，没有更多时返回-1
+		 */
+		int next() {
+			while (block < size) {
+				Container c = containers[block];
+				int base = keys[block] << 16;
+				if (null == c.bits) {
+					if (position < c.card)
+						return base | c.array[position++];
+				} else {
+					while (position < WORDS * 64) {
+						long word = c.bits[position >>> 6] & (-1L << position);
+						if (word != 0) {
+							int bit = (position & ~63) + Long.numberOfTrailingZeros(word);
+							position = bit + 1;
+							return base | bit;
+						}
+						position = (position | 63) + 1;
+					}
+				}
+				block++;
+				position = 0;
+			}
+			return -1;
+		}
+	}
+
+	private int find(char hi) {
+		int low = 0, high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid] < hi)
+				low = mid + 1;
+			else if (keys[mid] > hi)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	private void insert(int i, char hi, Container c) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size << 1);
+			containers = Arrays.copyOf(containers, size << 1);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = hi;
+		containers[i] = c;
+		size++;
+	}
+
+	private void append(char hi, Container c) {
+		if (null != c && c.card > 0)
+			insert(size, hi, c);
+	}
+
+	private static final class Container {
+		char[] array = new char[4];
+		long[] bits;
+		int card;
+
+		boolean add(char lo) {
+			if (null != bits) {
+				long mask = 1L << lo;
+				if ((bits[lo >>> 6] & mask) != 0)
+					return false;
+				bits[lo >>> 6] |= mask;
+				card++;
+				return true;
+			}
+			int i = Arrays.binarySearch(array, 0, card, lo);
+			if (i >= 0)
+				return false;
+			if (card == ARRAY_MAX) {
+				bits = toBits();
+				array = null;
+				return add(lo);
+			}
+			i = -i - 1;
+			if (card == array.length)
+				array = Arrays.copyOf(array, Math.min(ARRAY_MAX, card << 1));
+			System.arraycopy(array, i, array, i + 1, card - i);
+			array[i] = lo;
+			card++;
+			return true;
+		}
+
+		boolean remove(char lo) {
+			if (null != bits) {
+				long mask = 1L << lo;
+				if ((bits[lo >>> 6] & mask) == 0)
+					return false;
+				bits[lo >>> 6] &= ~mask;
+				if (--card <= ARRAY_MAX) {
+					array = toArray(bits, card);
+					bits = null;
+				}
+				return true;
+			}
+			int i = Arrays.binarySearch(array, 0, card, lo);
+			if (i < 0)
+				return false;
+			System.arraycopy(array, i + 1, array, i, card - i - 1);
+			card--;
+			return true;
+		}
+
+		boolean contains(char lo) {
+			if (null != bits)
+				return (bits[lo >>> 6] & (1L << lo)) != 0;
+			return Arrays.binarySearch(array, 0, card, lo) >= 0;
+		}
+
+		Container copy() {
+			Container c = new Container();
+			c.card = card;
+			if (null != bits) {
+				c.bits = bits.clone();
+				c.array = null;
+			} else {
+				c.array = Arrays.copyOf(array, Math.max(4, card));
+			}
+			return c;
+		}
+
+		long[] toBits() {
+			if (null != bits)
+				return bits;
+			long[] words = new long[WORDS];
+			for (int i = 0; i < card; i++)
+				words[array[i] >>> 6] |= 1L << array[i];
+			return words;
+		}
+
+		static char[] toArray(long[] words, int card) {
+			char[] values = new char[Math.max(4, card)];
+			int n = 0;
+			for (int w = 0; w < WORDS; w++) {
+				long word = words[w];
+				while (word != 0) {
+					values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return values;
+		}
+
+		static Container fromBits(long[] words) {
+			int card = 0;
+			for (long word : words)
+				card += Long.bitCount(word);
+			Container c = new Container();
+			c.card = card;
+			if (card > ARRAY_MAX) {
+				c.bits = words;
+				c.array = null;
+			} else {
+				c.array = toArray(words, card);
+			}
+			return c;
+		}
+
+		static Container and(Container a, Container b) {
+			if (null == a.bits && null == b.bits) {
+				Container c = new Container();
+				c.array = new char[Math.max(4, Math.min(a.card, b.card))];
+				int i = 0, j = 0;
+				while (i < a.card && j < b.card) {
+					if (a.array[i] < b.array[j]) {
+						i++;
+					} else if (a.array[i] > b.array[j]) {
+						j++;
+					} else {
+						c.array[c.card++] = a.array[i];
+						i++;
+						j++;
+					}
+				}
+				return c;
+			}
+			if (null == a.bits || null == b.bits) {
+				// 数组逐个查位图
+				Container array = null == a.bits ? a : b;
+				Container bitmap = null == a.bits ? b : a;
+				Container c = new Container();
+				c.array = new char[Math.max(4, array.card)];
+				for (int i = 0; i < array.card; i++)
+					if (bitmap.contains(array.array[i]))
+						c.array[c.card++] = array.array[i];
+				return c;
+			}
+			long[] words = new long[WORDS];
+			for (int w = 0; w < WORDS; w++)
+				words[w] = a.bits[w] & b.bits[w];
+			return fromBits(words);
+		}
+
+		static Container or(Container a, Container b) {
+			if (null == a.bits && null == b.bits && a.card + b.card <= ARRAY_MAX) {
+				Container c = new Container();
+				c.array = new char[Math.max(4, a.card + b.card)];
+				int i = 0, j = 0;
+				while (i < a.card || j < b.card) {
+					char v;
+					if (j >= b.card || (i < a.card && a.array[i] < b.array[j])) {
+						v = a.array[i++];
+					} else if (i >= a.card || a.array[i] > b.array[j]) {
+						v = b.array[j++];
+					} else {
+						v = a.array[i++];
+						j++;
+					}
+					c.array[c.card++] = v;
+				}
+				return c;
+			}
+			long[] words = a.toBits().clone();
+			long[] other = b.toBits();
+			for (int w = 0; w < WORDS; w++)
+				words[w] |= other[w];
+			return fromBits(words);
+		}
+
+		static Container andNot(Container a, Container b) {
+			if (null == a.bits) {
+				Container c = new Container();
+				c.array = new char[Math.max(4, a.card)];
+				for (int i = 0; i < a.card; i++)
+					if (!b.contains(a.array[i]))
+						c.array[c.card++] = a.array[i];
+				return c;
+			}
+			long[] words = a.bits.clone();
+			long[] other = b.toBits();
+			for (int w = 0; w < WORDS; w++)
+				words[w] &= ~other[w];
+			return fromBits(words);
+		}
+	}
+}
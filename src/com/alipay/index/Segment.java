@@ -0,0 +1,88 @@
+package com.alipay.index;
+
+import com.alipay.bulk.UserIdSource;
+
+/**
+ * {@link LabelIndex} 查询出的用户集合，创建后不随索引变化；组合运算返回新的集合
+ * <p>
+ * 例：有标签X与Y但没有Z的用户 {@code index.segment(x).and(index.segment(y)).andNot(index.segment(z))}，
+ * 结果经 {@link #userIds()} 直接用于群发
+ */
+public final class Segment {
+
+	private final LabelIndex index;
+	private final OrdinalBitmap bitmap;
+
+	Segment(LabelIndex index, OrdinalBitmap bitmap) {
+		this.index = index;
+		this.bitmap = bitmap;
+	}
+
+	/**
+	 * @param other 同一索引的集合
+	 * @return 两个集合都有的用户
+	 */
+	public Segment and(Segment other) {
+		return new Segment(index, OrdinalBitmap.and(bitmap, same(other).bitmap));
+	}
+
+	/**
+	 * @param other 同一索引的集合
+	 * @return 任一集合中的用户
+	 */
+	public Segment or(Segment other) {
+		return new Segment(index, OrdinalBitmap.or(bitmap, same(other).bitmap));
+	}
+
+	/**
+	 * @param other 同一索引的集合
+	 * @return 在本集合但不在other中的用户
+	 */
+	public Segment andNot(Segment other) {
+		return new Segment(index, OrdinalBitmap.andNot(bitmap, same(other).bitmap));
+	}
+
+	/**
+	 * @return 用户数
+	 */
+	public long size() {
+		return bitmap.cardinality();
+	}
+
+	/**
+	 * @param userId 用户userId
+	 * @return 是否在集合中
+	 */
+	public boolean contains(String userId) {
+		int ordinal = index.ordinalOf(userId);
+		return ordinal >= 0 && bitmap.contains(ordinal);
+	}
+
+	/**
+	 * 按用户首次进入索引的顺序逐个返回，同一个Segment多次调用顺序相同，可用于 AliTool.bulkSend；
+	 * 断点续发时须使用同一个Segment，重新查询的结果可能因标签变化而顺序不同
+	 *
+	 * @return UserIdSource
+	 */
+	public UserIdSource userIds() {
+		final long[] userIds = index.userIdArray();
+		final OrdinalBitmap.Cursor cursor = bitmap.cursor();
+		return new UserIdSource() {
+			@Override
+			public String next() {
+				int ordinal = cursor.next();
+				return ordinal < 0 ? null : String.valueOf(userIds[ordinal]);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	private Segment same(Segment other) {
+		if (other.index != index)
+			throw new IllegalArgumentException("不能组合不同索引的用户集合");
+		return other;
+	}
+}
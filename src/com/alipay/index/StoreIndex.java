@@ -0,0 +1,296 @@
+package com.alipay.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 门店坐标的内存网格索引，按用户位置查找最近的K个门店
+ * <p>
+ * 经纬度按固定度数划分网格，门店按网格排序后存放在连续数组中；查询从用户所在网格向外逐圈扩展，
+ * 当下一圈网格到用户的最小距离已超过第K近的门店时停止，结果按球面距离精确排序。
+ * 门店列表整体替换（如从数据库重新加载），替换不影响进行中的查询。网格不跨越180度经线。线程安全。
+ */
+public class StoreIndex {
+
+	/**
+	 * 地球平均半径（米）
+	 */
+	public static final double EARTH_RADIUS_METERS = 6371008.8;
+
+	/**
+	 * 默认网格边长（度），约5.5公里
+	 */
+	public static final double DEFAULT_CELL_DEGREES = 0.05;
+
+	/**
+	 * 门店
+	 */
+	public static class Store {
+		private final String id;
+		private final double latitude;
+		private final double longitude;
+
+		/**
+		 * @param id        门店id
+		 * @param latitude  纬度
+		 * @param longitude 经度
+		 */
+		public Store(String id, double latitude, double longitude) {
+			if (Double.isNaN(latitude) || latitude < -90 || latitude > 90 || Double.isNaN(longitude) || longitude < -180 || longitude > 180)
+				throw new IllegalArgumentException("门店坐标不合法：" + id + " " + latitude + "," + longitude);
+			this.id = id;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public double getLatitude() {
+			return latitude;
+		}
+
+		public double getLongitude() {
+			return longitude;
+		}
+
+		@Override
+		public String toString() {
+			return "Store{" + id + ", " + latitude + "," + longitude + "}";
+		}
+	}
+
+	/**
+	 * 查询结果：门店与距离
+	 */
+	public static class Nearby {
+		private final Store store;
+		private final double distanceMeters;
+
+		Nearby(Store store, double distanceMeters) {
+			this.store = store;
+			this.distanceMeters = distanceMeters;
+		}
+
+		public Store getStore() {
+			return store;
+		}
+
+		/**
+		 * @return 球面距离（米）
+		 */
+		public double getDistanceMeters() {
+			return distanceMeters;
+		}
+
+		@Override
+		public String toString() {
+			return store.getId() + "@" + Math.round(distanceMeters) + "m";
+		}
+	}
+
+	private final double cellDegrees;
+	private volatile Grid grid;
+
+	public StoreIndex() {
+		this(DEFAULT_CELL_DEGREES);
+	}
+
+	/**
+	 * @param cellDegrees 网格边长（度），宜与门店的平均间距相当
+	 */
+	public StoreIndex(double cellDegrees) {
+		if (!(cellDegrees > 0 && cellDegrees <= 10))
+			throw new IllegalArgumentException("网格边长须在(0,10]度之间：" + cellDegrees);
+		this.cellDegrees = cellDegrees;
+		this.grid = new Grid(cellDegrees, Collections.<Store>emptyList());
+	}
+
+	/**
+	 * 整体替换门店列表
+	 *
+	 * @param stores 全部门店
+	 */
+	public void setStores(Collection<Store> stores) {
+		this.grid = new Grid(cellDegrees, stores);
+	}
+
+	/**
+	 * @return 门店数
+	 */
+	public int size() {
+		return grid.stores.length;
+	}
+
+	/**
+	 * 查找最近的门店
+	 *
+	 * @param latitude  用户纬度
+	 * @param longitude 用户经度
+	 * @param k         最多返回的门店数
+	 * @return 按距离由近到远排列
+	 */
+	public List<Nearby> nearest(double latitude, double longitude, int k) {
+		return nearest(latitude, longitude, k, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * 查找指定距离内最近的门店
+	 *
+	 * @param latitude          用户纬度
+	 * @param longitude         用户经度
+	 * @param k                 最多返回的门店数
+	 * @param maxDistanceMeters 最大距离（米）
+	 * @return 按距离由近到远排列
+	 */
+	public List<Nearby> nearest(double latitude, double longitude, int k, double maxDistanceMeters) {
+		Grid g = this.grid;
+		if (k <= 0 || g.stores.length == 0 || Double.isNaN(latitude) || Double.isNaN(longitude))
+			return new ArrayList<>();
+		k = Math.min(k, g.stores.length);
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double cosLat = Math.cos(lat);
+		// 按距离升序的前k个，用球面距离的半正矢值比较，避免每个候选都开方
+		int[] best = new int[k];
+		double[] bestHav = new double[k];
+		int found = 0;
+		double maxHav = maxDistanceMeters >= Math.PI * EARTH_RADIUS_METERS ? 1 : hav(maxDistanceMeters / EARTH_RADIUS_METERS);
+
+		int cx = g.cellX(longitude);
+		int cy = g.cellY(latitude);
+		double cellRadians = Math.toRadians(cellDegrees);
+		for (int r = 0; ; r++) {
+			if (r > 0) {
+				// 第r圈的网格与用户所在网格至少相隔r-1格，用该圈内纬度绝对值的上限估算最小距离
+				double poleward = Math.min(Math.PI / 2, Math.abs(lat) + (r + 1) * cellRadians);
+				double s = Math.cos(poleward) * Math.sin((r - 1) * cellRadians / 2);
+				double bound = s * s;
+				double limit = found == k ? Math.min(bestHav[k - 1], maxHav) : maxHav;
+				if (bound > limit)
+					break;
+				if (cx - r < g.minX && cx + r > g.maxX && cy - r < g.minY && cy + r > g.maxY)
+					break;
+			}
+			for (int y = Math.max(cy - r, g.minY), yEnd = Math.min(cy + r, g.maxY); y <= yEnd; y++) {
+				boolean edge = y == cy - r || y == cy + r;
+				int step = edge || r == 0 ? 1 : 2 * r;
+				int x = edge ? Math.max(cx - r, g.minX) : cx - r;
+				int xEnd = edge ? Math.min(cx + r, g.maxX) : cx + r;
+				for (; x <= xEnd; x += step) {
+					if (x < g.minX || x > g.maxX)
+						continue;
+					int cell = Arrays.binarySearch(g.cellKeys, Grid.key(x, y));
+					if (cell < 0)
+						continue;
+					for (int i = g.cellStart[cell]; i < g.cellStart[cell + 1]; i++) {
+						double dLat = g.lat[i] - lat;
+						double dLon = g.lon[i] - lon;
+						double sinLat = Math.sin(dLat / 2);
+						double sinLon = Math.sin(dLon / 2);
+						double h = sinLat * sinLat + cosLat * g.cosLat[i] * sinLon * sinLon;
+						if (h > maxHav || (found == k && h >= bestHav[k - 1]))
+							continue;
+						int j = found < k ? found++ : k - 1;
+						while (j > 0 && bestHav[j - 1] > h) {
+							bestHav[j] = bestHav[j - 1];
+							best[j] = best[j - 1];
+							j--;
+						}
+						bestHav[j] = h;
+						best[j] = i;
+					}
+				}
+			}
+		}
+		List<Nearby> result = new ArrayList<>(found);
+		for (int i = 0; i < found; i++)
+			result.add(new Nearby(g.stores[best[i]], 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(Math.min(1, bestHav[i])))));
+		return result;
+	}
+
+	private static double hav(double radians) {
+		double s = Math.sin(radians / 2);
+		return s * s;
+	}
+
+	/**
+	 * 一次加载的不可变索引
+	 */
+	private static final class Grid {
+		final double cellDegrees;
+		final Store[] stores;
+		final double[] lat;
+		final double[] lon;
+		final double[] cosLat;
+		/**
+		 * 有门店的网格，升序；第i个网格的门店为 [cellStart[i], cellStart[i+1])
+		 */
+		final long[] cellKeys;
+		final int[] cellStart;
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+
+		Grid(double cellDegrees, Collection<Store> source) {
+			this.cellDegrees = cellDegrees;
+			int n = source.size();
+			final long[] keys = new long[n];
+			Store[] unsorted = source.toArray(new Store[n]);
+			Integer[] order = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				int x = cellX(unsorted[i].getLongitude());
+				int y = cellY(unsorted[i].getLatitude());
+				keys[i] = key(x, y);
+				order[i] = i;
+				minX = Math.min(minX, x);
+				maxX = Math.max(maxX, x);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(keys[a], keys[b]);
+				}
+			});
+			stores = new Store[n];
+			lat = new double[n];
+			lon = new double[n];
+			cosLat = new double[n];
+			long[] cells = new long[n];
+			int[] starts = new int[n + 1];
+			int cellCount = 0;
+			for (int i = 0; i < n; i++) {
+				Store store = unsorted[order[i]];
+				stores[i] = store;
+				lat[i] = Math.toRadians(store.getLatitude());
+				lon[i] = Math.toRadians(store.getLongitude());
+				cosLat[i] = Math.cos(lat[i]);
+				long k = keys[order[i]];
+				if (cellCount == 0 || cells[cellCount - 1] != k) {
+					cells[cellCount] = k;
+					starts[cellCount++] = i;
+				}
+			}
+			starts[cellCount] = n;
+			cellKeys = Arrays.copyOf(cells, cellCount);
+			cellStart = Arrays.copyOf(starts, cellCount + 1);
+		}
+
+		int cellX(double longitude) {
+			return (int) Math.floor((longitude + 180) / cellDegrees);
+		}
+
+		int cellY(double latitude) {
+			return (int) Math.floor((latitude + 90) / cellDegrees);
+		}
+
+		static long key(int x, int y) {
+			return ((long) y << 32) | (x & 0xffffffffL);
+		}
+	}
+}
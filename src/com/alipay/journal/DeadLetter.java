@@ -0,0 +1,105 @@
+package com.alipay.journal;
+
+/**
+ * 死信库中一条重试后仍然发送失败的消息
+ */
+public class DeadLetter {
+
+	private final long id;
+	private final long time;
+	private final String tenant;
+	private final String method;
+	private final String key;
+	private final String bizContent;
+	private final int attempts;
+	private final String code;
+	private final String subCode;
+	private final String message;
+
+	DeadLetter(long id, long time, String tenant, String method, String key, String bizContent, int attempts, String code, String subCode,
+			String message) {
+		this.id = id;
+		this.time = time;
+		this.tenant = tenant;
+		this.method = method;
+		this.key = key;
+		this.bizContent = bizContent;
+		this.attempts = attempts;
+		this.code = code;
+		this.subCode = subCode;
+		this.message = message;
+	}
+
+	/**
+	 * @return 死信编号，用于 {@link DeadLetterStore#remove(long)}
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return 进入死信库的时间，毫秒时间戳
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return 租户，一般为appId
+	 */
+	public String getTenant() {
+		return tenant;
+	}
+
+	/**
+	 * @return API方法名
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return 分通道的key，一般为接收消息的用户，可能为null
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public String getBizContent() {
+		return bizContent;
+	}
+
+	/**
+	 * @return 已发送的次数
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * @return 最后一次失败的网关返回码或异常码，可能为null
+	 */
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * @return 最后一次失败的业务返回码，可能为null
+	 */
+	public String getSubCode() {
+		return subCode;
+	}
+
+	/**
+	 * @return 最后一次失败的说明，可能为null
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return "DeadLetter{id=" + id + ", tenant=" + tenant + ", method=" + method + ", key=" + key + ", attempts=" + attempts + ", code=" + code
+				+ ", subCode=" + subCode + ", message=" + message + "}";
+	}
+}
@@ -0,0 +1,312 @@
+package com.alipay.journal;
+
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+import com.alipay.store.DirectoryInstance;
+import com.alipay.store.DirectoryLock;
+import com.alipay.store.RecordLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 重试后仍然发送失败的消息的死信库
+ * <p>
+ * 死信追加写入单个 {@link RecordLog} 文件（dead-letters.log），删除时追加一条删除记录；内存中只保存编号到文件偏移的索引，内容按需从文件读取。
+ * 每次写入都落盘，死信很少，不影响正常发送。文件超过1MB且删除的记录过半时重写为只包含现存死信的新文件。
+ * 同一目录同时只能打开一次。
+ */
+public class DeadLetterStore implements PrometheusCollector {
+
+	private static final long COMPACT_BYTES = 1024 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x414C4431;
+	private static final int RECORD_HEADER_BYTES = RecordLog.RECORD_HEADER_BYTES;
+	private static final byte TYPE_ADD = 1;
+	private static final byte TYPE_REMOVE = 2;
+	private static final String FILE_NAME = "dead-letters.log";
+
+	private static final DirectoryInstance<DeadLetterStore> INSTANCE = new DirectoryInstance<>("死信库");
+
+	private final DirectoryLock lock;
+	private final RecordLog log;
+	/**
+	 * 编号 -&gt; 文件偏移，按进入死信库的顺序
+	 */
+	private final TreeMap<Long, Long> index = new TreeMap<>();
+	private long nextId = 1;
+	private long added;
+	private long removed;
+	private boolean closed;
+
+	/**
+	 * 打开死信库目录
+	 *
+	 * @param dir 目录，不存在时创建
+	 * @throws IOException 目录无法创建、已被打开或文件读写错误
+	 */
+	public DeadLetterStore(File dir) throws IOException {
+		lock = new DirectoryLock(dir, "dead-letters.lock", "死信");
+		RecordLog opened = null;
+		try {
+			opened = new RecordLog(new File(dir, FILE_NAME), MAGIC, "死信");
+			opened.recover(new RecordLog.Visitor() {
+				@Override
+				public void visit(long offset, ByteBuffer body) {
+					byte type = body.get();
+					long id = body.getLong();
+					if (type == TYPE_ADD)
+						index.put(id, offset);
+					else if (type == TYPE_REMOVE)
+						index.remove(id);
+					nextId = Math.max(nextId, id + 1);
+				}
+			});
+		} catch (IOException e) {
+			if (null != opened)
+				opened.close();
+			lock.release();
+			throw e;
+		}
+		log = opened;
+	}
+
+	/**
+	 * 打开全局死信库，已打开时直接返回，并注册Prometheus输出
+	 *
+	 * @param dir 目录
+	 * @return DeadLetterStore
+	 * @throws IOException 打开失败
+	 */
+	public static DeadLetterStore openInstance(File dir) throws IOException {
+		return INSTANCE.open(dir, new DirectoryInstance.Opener<DeadLetterStore>() {
+			@Override
+			public DeadLetterStore open(File dir) throws IOException {
+				return new DeadLetterStore(dir);
+			}
+		});
+	}
+
+	/**
+	 * @return 全局死信库，未打开时返回null
+	 */
+	public static DeadLetterStore getInstance() {
+		return INSTANCE.get();
+	}
+
+	/**
+	 * 关闭全局死信库
+	 */
+	public static void closeInstance() {
+		DeadLetterStore store = INSTANCE.take();
+		if (null != store)
+			store.close();
+	}
+
+	/**
+	 * 写入一条死信并落盘
+	 *
+	 * @param tenant     租户，一般为appId
+	 * @param method     API方法名
+	 * @param key        分通道的key，一般为接收消息的用户，可以为null
+	 * @param bizContent 业务参数
+	 * @param attempts   已发送的次数
+	 * @param code       最后一次失败的返回码，可以为null
+	 * @param subCode    最后一次失败的业务返回码，可以为null
+	 * @param message    最后一次失败的说明，可以为null
+	 * @return 死信编号
+	 * @throws IOException 死信库已关闭或写入失败
+	 */
+	public synchronized long add(String tenant, String method, String key, String bizContent, int attempts, String code, String subCode,
+			String message) throws IOException {
+		if (closed)
+			throw new IOException("死信库已关闭");
+		long id = nextId++;
+		long offset = log.append(encodeAdd(id, System.currentTimeMillis(), null == tenant ? "" : tenant, method, key, bizContent, attempts, code,
+				subCode, message));
+		log.force();
+		index.put(id, offset);
+		added++;
+		return id;
+	}
+
+	/**
+	 * @return 死信数
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * 按进入死信库的顺序列出死信
+	 *
+	 * @param tenant 租户，为null时列出全部
+	 * @param max    最多返回的条数
+	 * @return 死信
+	 * @throws IOException 读取失败
+	 */
+	public synchronized List<DeadLetter> list(String tenant, int max) throws IOException {
+		List<DeadLetter> result = new ArrayList<>(Math.min(max, index.size()));
+		for (Long offset : index.values()) {
+			if (result.size() >= max)
+				break;
+			DeadLetter letter = read(offset);
+			if (null != letter && (null == tenant || tenant.equals(letter.getTenant())))
+				result.add(letter);
+		}
+		return result;
+	}
+
+	/**
+	 * @param id 死信编号
+	 * @return 死信，不存在时返回null
+	 * @throws IOException 读取失败
+	 */
+	public synchronized DeadLetter get(long id) throws IOException {
+		Long offset = index.get(id);
+		return null == offset ? null : read(offset);
+	}
+
+	/**
+	 * 删除一条死信，如重新提交发送之后
+	 *
+	 * @param id 死信编号
+	 * @return 存在并删除时返回true
+	 */
+	public synchronized boolean remove(long id) {
+		if (closed || null == index.remove(id))
+			return false;
+		try {
+			log.append(encodeRemove(id));
+			removed++;
+			if (log.size() > COMPACT_BYTES && (long) index.size() * 2 < log.records())
+				compact();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 * 清除死信
+	 *
+	 * @param tenant 租户，为null时清除全部
+	 * @return 清除的条数
+	 * @throws IOException 读取失败
+	 */
+	public synchronized int purge(String tenant) throws IOException {
+		List<Long> ids = new ArrayList<>();
+		for (Map.Entry<Long, Long> entry : index.entrySet()) {
+			if (null == tenant) {
+				ids.add(entry.getKey());
+			} else {
+				DeadLetter letter = read(entry.getValue());
+				if (null == letter || tenant.equals(letter.getTenant()))
+					ids.add(entry.getKey());
+			}
+		}
+		for (Long id : ids)
+			remove(id);
+		return ids.size();
+	}
+
+	/**
+	 * 关闭文件并释放目录锁
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			log.close();
+			lock.release();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void writePrometheus(Appendable out) throws IOException {
+		long addedCount, removedCount;
+		int size;
+		synchronized (this) {
+			addedCount = added;
+			removedCount = removed;
+			size = index.size();
+		}
+		MetricsRegistry.writeSample(out, "alipay_dead_letters_added_total", "counter", "进入死信库的消息数", "", addedCount);
+		MetricsRegistry.writeSample(out, "alipay_dead_letters_removed_total", "counter", "从死信库删除的消息数", "", removedCount);
+		MetricsRegistry.writeSample(out, "alipay_dead_letters", "gauge", "死信库中的消息数", "", size);
+	}
+
+	private DeadLetter read(long offset) throws IOException {
+		ByteBuffer body = log.read(offset);
+		if (null == body || body.get() != TYPE_ADD)
+			return null;
+		return decodeAdd(body);
+	}
+
+	/**
+	 * 只把现存的死信复制到新文件，原子替换
+	 */
+	private void compact() throws IOException {
+		TreeMap<Long, Long> moved = new TreeMap<>();
+		RecordLog.Rewrite rewrite = log.rewrite();
+		try {
+			for (Map.Entry<Long, Long> entry : index.entrySet())
+				moved.put(entry.getKey(), rewrite.copy(entry.getValue()));
+			rewrite.commit();
+		} finally {
+			rewrite.abort();
+		}
+		index.putAll(moved);
+	}
+
+	private static DeadLetter decodeAdd(ByteBuffer reader) {
+		long id = reader.getLong();
+		long time = reader.getLong();
+		int attempts = reader.getInt();
+		String tenant = RecordLog.readString(reader);
+		String method = RecordLog.readString(reader);
+		String key = RecordLog.readString(reader);
+		String bizContent = RecordLog.readString(reader);
+		String code = RecordLog.readString(reader);
+		String subCode = RecordLog.readString(reader);
+		String message = RecordLog.readString(reader);
+		return new DeadLetter(id, time, tenant, method, key, bizContent, attempts, code, subCode, message);
+	}
+
+	private static byte[] encodeAdd(long id, long time, String tenant, String method, String key, String bizContent, int attempts, String code,
+			String subCode, String message) {
+		String[] values = {tenant, method, key, bizContent, code, subCode, message};
+		byte[][] bytes = new byte[values.length][];
+		int size = RECORD_HEADER_BYTES + 1 + 8 + 8 + 4;
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = null == values[i] ? null : values[i].getBytes(UTF8);
+			size += 4 + (null == bytes[i] ? 0 : bytes[i].length);
+		}
+		ByteBuffer record = ByteBuffer.allocate(size);
+		record.position(RECORD_HEADER_BYTES);
+		record.put(TYPE_ADD).putLong(id).putLong(time).putInt(attempts);
+		for (byte[] value : bytes) {
+			if (null == value)
+				record.putInt(-1);
+			else
+				record.putInt(value.length).put(value);
+		}
+		return RecordLog.seal(record);
+	}
+
+	private static byte[] encodeRemove(long id) {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + 1 + 8);
+		record.position(RECORD_HEADER_BYTES);
+		record.put(TYPE_REMOVE).putLong(id);
+		return RecordLog.seal(record);
+	}
+}
@@ -0,0 +1,67 @@
+package com.alipay.journal;
+
+/**
+ * 日志中一条未完成的消息
+ */
+public class JournalEntry {
+
+	private final long id;
+	private final String tenant;
+	private final String method;
+	private final String key;
+	private final String bizContent;
+	private final int attempt;
+
+	JournalEntry(long id, String tenant, String method, String key, String bizContent, int attempt) {
+		this.id = id;
+		this.tenant = tenant;
+		this.method = method;
+		this.key = key;
+		this.bizContent = bizContent;
+		this.attempt = attempt;
+	}
+
+	/**
+	 * @return 日志编号，发送成功后传给 {@link OutboundJournal#markDone(long)}
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return 租户，一般为appId
+	 */
+	public String getTenant() {
+		return tenant;
+	}
+
+	/**
+	 * @return API方法名
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return 分通道的key，一般为FromUserId，可能为null
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public String getBizContent() {
+		return bizContent;
+	}
+
+	/**
+	 * @return 已发送的次数（含上次运行退出时可能正在进行的一次），从未发送为0
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	@Override
+	public String toString() {
+		return "JournalEntry{id=" + id + ", tenant=" + tenant + ", method=" + method + ", attempt=" + attempt + "}";
+	}
+}
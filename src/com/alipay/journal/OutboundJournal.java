@@ -0,0 +1,664 @@
+package com.alipay.journal;
+
+import com.alipay.metrics.LatencyHistogram;
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 异步发送消息的持久化日志
+ * <p>
+ * 消息在提交到线程池之前追加写入内存映射的段文件（outbound-序号.journal），发送成功后追加一条完成记录。
+ * 进程重启后扫描全部段文件，未完成的消息由 {@link #recover(String)} 取出重发。
+ * <p>
+ * 写入只是一次内存拷贝，进程崩溃时已写入的数据仍在操作系统页缓存中；落盘由后台线程统一调用
+ * {@link MappedByteBuffer#force()} 完成（group commit），同一次落盘期间到达的写入合并到下一次，
+ * syncCommit 为true时追加方等待自己的记录落盘后才返回，断电也不会丢失。
+ * <p>
+ * 段文件写满后切换到新段；每个段记录自己未完成的消息数，以及其中的完成记录指向哪些更早的段，
+ * 段内消息全部完成、且它指向的段都已删除后即可删除，不必等待更早的段，个别长期未完成的消息只会保留它所在的段。
+ * 完成记录可能晚于消息落盘，因此重启后个别消息可能重复发送（至少一次）。
+ * 同一目录同时只能打开一次。
+ */
+public class OutboundJournal implements PrometheusCollector {
+
+	/**
+	 * 默认段文件大小 64MB
+	 */
+	public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * 默认最多发送次数（含重启前的发送），与限流失败最多的发送次数一致
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x414C4A31;
+	private static final int HEADER_BYTES = 16;
+	private static final int RECORD_HEADER_BYTES = 8;
+	private static final byte TYPE_APPEND = 1;
+	private static final byte TYPE_DONE = 2;
+	private static final byte TYPE_APPEND_KEYED = 3;
+	private static final String SEGMENT_PREFIX = "outbound-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	private static final Object LOCK = new Object();
+	private static OutboundJournal instance;
+
+	private final File dir;
+	private final int segmentBytes;
+	private final boolean syncCommit;
+	private final int maxAttempts;
+	private final RandomAccessFile lockFile;
+	private final FileLock fileLock;
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	private final Set<Segment> dirty = new LinkedHashSet<>();
+	private final Map<Long, JournalEntry> recovered = new LinkedHashMap<>();
+	private final LatencyHistogram commitTime = new LatencyHistogram();
+	private final Thread flusher;
+	private Segment active;
+	private long writeSeq;
+	private long committedSeq;
+	private int pending;
+	private long appends;
+	private long dones;
+	private long commits;
+	private boolean closed;
+
+	/**
+	 * 打开日志目录，扫描已有的段文件
+	 *
+	 * @param dir          日志目录，不存在时创建
+	 * @param segmentBytes 段文件大小
+	 * @param syncCommit   追加时是否等待落盘
+	 * @param maxAttempts  最多发送次数，达到后 {@link #recover(String)} 不再重发该消息
+	 * @throws IOException 目录无法创建、已被打开或文件读写错误
+	 */
+	public OutboundJournal(File dir, int segmentBytes, boolean syncCommit, int maxAttempts) throws IOException {
+		this.dir = dir;
+		this.segmentBytes = Math.max(segmentBytes, 4096);
+		this.syncCommit = syncCommit;
+		this.maxAttempts = maxAttempts;
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("无法创建日志目录：" + dir);
+		lockFile = new RandomAccessFile(new File(dir, "journal.lock"), "rw");
+		FileLock lock;
+		try {
+			lock = lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (null == lock) {
+			lockFile.close();
+			throw new IOException("日志目录已被使用：" + dir);
+		}
+		fileLock = lock;
+
+		try {
+			long lastSeq = 0;
+			for (File file : listSegments(dir)) {
+				long seq = segmentSeq(file);
+				lastSeq = Math.max(lastSeq, seq);
+				Segment segment = openSegment(file, seq);
+				if (null != segment)
+					segments.put(seq, segment);
+			}
+			for (JournalEntry entry : recovered.values()) {
+				segments.get(entry.getId() >>> 32).pending++;
+				pending++;
+			}
+			active = createSegment(lastSeq + 1);
+			compact();
+		} catch (IOException e) {
+			fileLock.release();
+			lockFile.close();
+			throw e;
+		}
+
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "alipay-journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * 打开全局日志，已打开时直接返回，并注册Prometheus输出；追加不等待落盘（group commit），
+	 * 进程崩溃不丢失消息，操作系统崩溃或断电时可能丢失最近一次落盘之后的消息
+	 *
+	 * @param dir 日志目录
+	 * @return OutboundJournal
+	 * @throws IOException 打开失败
+	 */
+	public static OutboundJournal openInstance(File dir) throws IOException {
+		return openInstance(dir, false);
+	}
+
+	/**
+	 * 打开全局日志，已打开时直接返回，并注册Prometheus输出
+	 *
+	 * @param dir        日志目录
+	 * @param syncCommit 追加时是否等待落盘：为true时断电也不丢失，但每次追加（即处理推送的线程）都要等待一次
+	 *                   {@link MappedByteBuffer#force()}，通常为毫秒级
+	 * @return OutboundJournal
+	 * @throws IOException 打开失败
+	 */
+	public static OutboundJournal openInstance(File dir, boolean syncCommit) throws IOException {
+		synchronized (LOCK) {
+			if (null != instance) {
+				if (!instance.dir.getAbsoluteFile().equals(dir.getAbsoluteFile()))
+					throw new IllegalStateException("日志已在其他目录打开：" + instance.dir);
+				return instance;
+			}
+			instance = new OutboundJournal(dir, DEFAULT_SEGMENT_BYTES, syncCommit, DEFAULT_MAX_ATTEMPTS);
+			MetricsRegistry.getInstance().register(instance);
+			return instance;
+		}
+	}
+
+	/**
+	 * @return 全局日志，未打开时返回null
+	 */
+	public static OutboundJournal getInstance() {
+		synchronized (LOCK) {
+			return instance;
+		}
+	}
+
+	/**
+	 * 关闭全局日志，应在异步发送线程池关闭之后调用
+	 */
+	public static void closeInstance() {
+		OutboundJournal journal;
+		synchronized (LOCK) {
+			journal = instance;
+			instance = null;
+		}
+		if (null != journal) {
+			MetricsRegistry.getInstance().unregister(journal);
+			journal.close();
+		}
+	}
+
+	/**
+	 * 追加一条待发送的消息
+	 *
+	 * @param tenant     租户，一般为appId
+	 * @param method     API方法名
+	 * @param key        分通道的key，一般为FromUserId，重发时按该key保持顺序，可以为null
+	 * @param bizContent 业务参数
+	 * @param attempt    已发送的次数
+	 * @return 日志编号
+	 * @throws IOException 日志已关闭或消息超过段文件大小
+	 */
+	public long append(String tenant, String method, String key, String bizContent, int attempt) throws IOException {
+		byte[] record = encodeAppend(null == tenant ? "" : tenant, method, key, bizContent, attempt);
+		synchronized (this) {
+			if (closed)
+				throw new IOException("日志已关闭");
+			long id = appendLocked(record);
+			if (syncCommit)
+				awaitCommitLocked(writeSeq);
+			return id;
+		}
+	}
+
+	/**
+	 * 记录一次失败的发送：以新的发送次数重新追加消息，并将原记录标记为完成，重启后按新的次数继续重试
+	 *
+	 * @param id         原日志编号
+	 * @param tenant     租户，一般为appId
+	 * @param method     API方法名
+	 * @param key        分通道的key，可以为null
+	 * @param bizContent 业务参数
+	 * @param attempt    已发送的次数
+	 * @return 新的日志编号，原编号不能再使用
+	 * @throws IOException 日志已关闭或写入失败，此时原编号仍然有效
+	 */
+	public long recordAttempt(long id, String tenant, String method, String key, String bizContent, int attempt) throws IOException {
+		byte[] record = encodeAppend(null == tenant ? "" : tenant, method, key, bizContent, attempt);
+		synchronized (this) {
+			if (closed)
+				throw new IOException("日志已关闭");
+			long next = appendLocked(record);
+			// 完成记录写在新记录之后，两者按顺序落盘
+			doneLocked(id);
+			if (syncCommit)
+				awaitCommitLocked(writeSeq);
+			return next;
+		}
+	}
+
+	/**
+	 * 标记消息已完成，不等待落盘；每个编号只能调用一次
+	 *
+	 * @param id {@link #append} 返回的日志编号
+	 */
+	public synchronized void markDone(long id) {
+		if (closed)
+			return;
+		try {
+			doneLocked(id);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 取出租户在上次运行中未完成的消息：以发送次数加1重新追加（上次运行退出时可能正在发送），并将原记录标记为完成，
+	 * 发送次数达到上限的消息移入 {@link DeadLetterStore}（已开启时），否则丢弃
+	 *
+	 * @param tenant 租户，一般为appId
+	 * @return 需要重发的消息，发送成功后调用 {@link #markDone(long)}
+	 * @throws IOException 写入失败
+	 */
+	public synchronized List<JournalEntry> recover(String tenant) throws IOException {
+		if (closed)
+			throw new IOException("日志已关闭");
+		String key = null == tenant ? "" : tenant;
+		List<JournalEntry> previous = new ArrayList<>();
+		for (Iterator<JournalEntry> it = recovered.values().iterator(); it.hasNext(); ) {
+			JournalEntry entry = it.next();
+			if (entry.getTenant().equals(key)) {
+				previous.add(entry);
+				it.remove();
+			}
+		}
+
+		List<JournalEntry> result = new ArrayList<>(previous.size());
+		for (JournalEntry entry : previous) {
+			if (entry.getAttempt() >= maxAttempts) {
+				DeadLetterStore store = DeadLetterStore.getInstance();
+				if (null != store) {
+					store.add(key, entry.getMethod(), entry.getKey(), entry.getBizContent(), entry.getAttempt(), null, null, "重启后发送次数已达上限");
+					System.out.println("消息发送次数已达上限，移入死信库：" + entry);
+				} else {
+					System.out.println("消息发送次数已达上限，丢弃：" + entry + " biz_content=" + entry.getBizContent());
+				}
+				continue;
+			}
+			int attempt = entry.getAttempt() + 1;
+			long id = appendLocked(encodeAppend(key, entry.getMethod(), entry.getKey(), entry.getBizContent(), attempt));
+			result.add(new JournalEntry(id, key, entry.getMethod(), entry.getKey(), entry.getBizContent(), attempt));
+		}
+		// 新记录落盘后再标记原记录完成
+		awaitCommitLocked(writeSeq);
+		for (JournalEntry entry : previous)
+			doneLocked(entry.getId());
+		return result;
+	}
+
+	/**
+	 * 停止后台落盘线程，落盘全部已写入的记录并释放目录锁
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		try {
+			flusher.join(10000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			fileLock.release();
+			lockFile.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return 未完成的消息数
+	 */
+	public synchronized int getPendingCount() {
+		return pending;
+	}
+
+	/**
+	 * @return 段文件数
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return 落盘次数
+	 */
+	public synchronized long getCommitCount() {
+		return commits;
+	}
+
+	@Override
+	public void writePrometheus(Appendable out) throws IOException {
+		long appendCount, doneCount, commitCount;
+		int pendingCount, segmentCount;
+		synchronized (this) {
+			appendCount = appends;
+			doneCount = dones;
+			commitCount = commits;
+			pendingCount = pending;
+			segmentCount = segments.size();
+		}
+		MetricsRegistry.writeSample(out, "alipay_journal_appends_total", "counter", "写入日志的消息数", "", appendCount);
+		MetricsRegistry.writeSample(out, "alipay_journal_done_total", "counter", "标记完成的消息数", "", doneCount);
+		MetricsRegistry.writeSample(out, "alipay_journal_pending", "gauge", "日志中未完成的消息数", "", pendingCount);
+		MetricsRegistry.writeSample(out, "alipay_journal_segments", "gauge", "日志段文件数", "", segmentCount);
+		MetricsRegistry.writeSample(out, "alipay_journal_commits_total", "counter", "日志落盘次数", "", commitCount);
+		out.append("# HELP alipay_journal_commit_seconds 日志落盘耗时\n# TYPE alipay_journal_commit_seconds summary\n");
+		MetricsRegistry.writeSummary(out, "alipay_journal_commit_seconds", "", commitTime);
+	}
+
+	private long appendLocked(byte[] record) throws IOException {
+		long id = writeLocked(record);
+		active.pending++;
+		pending++;
+		appends++;
+		return id;
+	}
+
+	private void doneLocked(long id) throws IOException {
+		Segment segment = segments.get(id >>> 32);
+		if (null == segment)
+			return;
+		writeLocked(encodeDone(id));
+		if (segment != active)
+			active.targets.add(segment.seq);
+		segment.pending--;
+		pending--;
+		dones++;
+		if (segment.pending == 0)
+			compact();
+	}
+
+	/**
+	 * 写入一条记录，先写内容再写长度，写入中途崩溃时扫描会在此处停止
+	 *
+	 * @return 记录编号：段序号左移32位加上段内偏移
+	 */
+	private long writeLocked(byte[] record) throws IOException {
+		if (record.length > segmentBytes - HEADER_BYTES)
+			throw new IOException("记录过大：" + record.length + "字节");
+		if (active.position + record.length > segmentBytes) {
+			active.sealed = true;
+			active = createSegment(active.seq + 1);
+			compact();
+		}
+		int offset = active.position;
+		ByteBuffer writer = active.writer;
+		writer.position(offset + 4);
+		writer.put(record, 4, record.length - 4);
+		writer.putInt(offset, record.length - RECORD_HEADER_BYTES);
+		active.position += record.length;
+		dirty.add(active);
+		writeSeq++;
+		return (active.seq << 32) | offset;
+	}
+
+	private void awaitCommitLocked(long seq) throws InterruptedIOException {
+		notifyAll();
+		while (committedSeq < seq && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("等待日志落盘时被中断");
+			}
+		}
+	}
+
+	private void flushLoop() {
+		while (true) {
+			List<Segment> toForce;
+			long target;
+			synchronized (this) {
+				while (!closed && writeSeq == committedSeq) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (writeSeq == committedSeq)
+					return;
+				target = writeSeq;
+				toForce = new ArrayList<>(dirty);
+				dirty.clear();
+			}
+			long start = System.nanoTime();
+			for (Segment segment : toForce)
+				segment.buffer.force();
+			commitTime.recordNanos(System.nanoTime() - start);
+			synchronized (this) {
+				committedSeq = target;
+				commits++;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * 删除已写满、消息全部完成、且其中的完成记录指向的段都已删除的段，保证完成记录不会先于对应的消息被删除；
+	 * 按从早到晚的顺序检查，删除一个段后指向它的更晚的段在同一轮中即可删除
+	 */
+	private void compact() {
+		for (Iterator<Segment> it = segments.values().iterator(); it.hasNext(); ) {
+			Segment segment = it.next();
+			if (!segment.sealed || segment.pending > 0)
+				continue;
+			boolean referencing = false;
+			for (Long target : segment.targets) {
+				if (segments.containsKey(target)) {
+					referencing = true;
+					break;
+				}
+			}
+			if (referencing)
+				continue;
+			it.remove();
+			dirty.remove(segment);
+			if (!segment.file.delete())
+				System.out.println("无法删除日志段文件：" + segment.file);
+		}
+	}
+
+	private Segment createSegment(long seq) throws IOException {
+		File file = new File(dir, SEGMENT_PREFIX + String.format("%016d", seq) + SEGMENT_SUFFIX);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		MappedByteBuffer buffer;
+		try {
+			raf.setLength(segmentBytes);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		} finally {
+			raf.close();
+		}
+		buffer.putInt(0, MAGIC);
+		buffer.putLong(4, seq);
+		Segment segment = new Segment(seq, file, buffer);
+		segment.position = HEADER_BYTES;
+		segments.put(seq, segment);
+		dirty.add(segment);
+		return segment;
+	}
+
+	/**
+	 * 扫描已有段文件，遇到长度或校验和不正确的记录时停止
+	 *
+	 * @return 段，文件头不正确时返回null（保留文件不删除）
+	 */
+	private Segment openSegment(File file, long seq) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getLong(4) != seq) {
+			System.out.println("日志段文件头不正确，跳过：" + file);
+			return null;
+		}
+		Segment segment = new Segment(seq, file, buffer);
+		segment.sealed = true;
+		ByteBuffer reader = buffer.duplicate();
+		CRC32 crc = new CRC32();
+		int offset = HEADER_BYTES;
+		while (offset + RECORD_HEADER_BYTES < buffer.limit()) {
+			int length = buffer.getInt(offset);
+			if (length <= 0 || length > buffer.limit() - offset - RECORD_HEADER_BYTES)
+				break;
+			reader.limit(offset + RECORD_HEADER_BYTES + length);
+			reader.position(offset + RECORD_HEADER_BYTES);
+			crc.reset();
+			crc.update(reader);
+			if ((int) crc.getValue() != buffer.getInt(offset + 4))
+				break;
+			reader.position(offset + RECORD_HEADER_BYTES);
+			byte type = reader.get();
+			if (type == TYPE_APPEND || type == TYPE_APPEND_KEYED) {
+				int attempt = reader.getInt();
+				String tenant = readString(reader);
+				String method = readString(reader);
+				String key = null;
+				if (type == TYPE_APPEND_KEYED) {
+					if (reader.remaining() < 4)
+						break;
+					if (reader.getInt(reader.position()) < 0)
+						reader.getInt();
+					else if (null == (key = readString(reader)))
+						break;
+				}
+				String bizContent = readString(reader);
+				if (null == tenant || null == method || null == bizContent)
+					break;
+				long id = (seq << 32) | offset;
+				recovered.put(id, new JournalEntry(id, tenant, method, key, bizContent, attempt));
+			} else if (type == TYPE_DONE && reader.remaining() >= 8) {
+				long id = reader.getLong();
+				recovered.remove(id);
+				if (id >>> 32 != seq)
+					segment.targets.add(id >>> 32);
+			} else {
+				break;
+			}
+			reader.limit(buffer.limit());
+			offset += RECORD_HEADER_BYTES + length;
+		}
+		segment.position = offset;
+		return segment;
+	}
+
+	private static String readString(ByteBuffer reader) {
+		if (reader.remaining() < 4)
+			return null;
+		int length = reader.getInt();
+		if (length < 0 || length > reader.remaining())
+			return null;
+		byte[] bytes = new byte[length];
+		reader.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static byte[] encodeAppend(String tenant, String method, String key, String bizContent, int attempt) {
+		byte[] t = tenant.getBytes(UTF8);
+		byte[] m = method.getBytes(UTF8);
+		byte[] k = null == key ? new byte[0] : key.getBytes(UTF8);
+		byte[] b = bizContent.getBytes(UTF8);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + 1 + 4 + 16 + t.length + m.length + k.length + b.length);
+		record.position(RECORD_HEADER_BYTES);
+		record.put(TYPE_APPEND_KEYED).putInt(attempt);
+		record.putInt(t.length).put(t);
+		record.putInt(m.length).put(m);
+		record.putInt(null == key ? -1 : k.length).put(k);
+		record.putInt(b.length).put(b);
+		return seal(record);
+	}
+
+	private static byte[] encodeDone(long id) {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + 1 + 8);
+		record.position(RECORD_HEADER_BYTES);
+		record.put(TYPE_DONE).putLong(id);
+		return seal(record);
+	}
+
+	private static byte[] seal(ByteBuffer record) {
+		byte[] bytes = record.array();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, RECORD_HEADER_BYTES, bytes.length - RECORD_HEADER_BYTES);
+		record.putInt(0, bytes.length - RECORD_HEADER_BYTES);
+		record.putInt(4, (int) crc.getValue());
+		return bytes;
+	}
+
+	private static File[] listSegments(File dir) {
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String name = file.getName();
+				return file.isFile() && name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+						&& name.length() == SEGMENT_PREFIX.length() + 16 + SEGMENT_SUFFIX.length()
+						&& name.substring(SEGMENT_PREFIX.length(), SEGMENT_PREFIX.length() + 16).matches("\\d+");
+			}
+		});
+		if (null == files)
+			return new File[0];
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static long segmentSeq(File file) {
+		return Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), SEGMENT_PREFIX.length() + 16));
+	}
+
+	/**
+	 * 段文件
+	 */
+	private static final class Segment {
+		private final long seq;
+		private final File file;
+		private final MappedByteBuffer buffer;
+		private final ByteBuffer writer;
+		private int position;
+		private int pending;
+		private boolean sealed;
+		/**
+		 * 本段中的完成记录所指向的更早的段
+		 */
+		private final Set<Long> targets = new HashSet<>();
+
+		Segment(long seq, File file, MappedByteBuffer buffer) {
+			this.seq = seq;
+			this.file = file;
+			this.buffer = buffer;
+			this.writer = buffer.duplicate();
+		}
+	}
+}
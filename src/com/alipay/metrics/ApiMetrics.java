@@ -0,0 +1,232 @@
+package com.alipay.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个租户单个API方法的调用指标
+ * <p>
+ * 记录操作只涉及原子变量与无锁直方图，可在每次网关调用上使用。
+ */
+public class ApiMetrics implements ApiMetricsMXBean {
+
+	private final String tenant;
+	private final String method;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong maxInFlight = new AtomicLong();
+	private final ConcurrentMap<Outcome, AtomicLong> outcomes = new ConcurrentHashMap<>();
+
+	public ApiMetrics(String tenant, String method) {
+		this.tenant = tenant;
+		this.method = method;
+	}
+
+	/**
+	 * 调用开始
+	 *
+	 * @return 开始时间（纳秒），传给 {@link #end}
+	 */
+	public long begin() {
+		long current = inFlight.incrementAndGet();
+		long max = maxInFlight.get();
+		while (current > max && !maxInFlight.compareAndSet(max, current))
+			max = maxInFlight.get();
+		return System.nanoTime();
+	}
+
+	/**
+	 * 调用结束
+	 *
+	 * @param startNanos {@link #begin} 的返回值
+	 * @param code       返回码，异常时为异常错误码
+	 * @param subCode    明细返回码，异常时为异常类名
+	 * @param success    是否成功
+	 * @param in         响应字节数
+	 * @param out        请求字节数
+	 */
+	public void end(long startNanos, String code, String subCode, boolean success, long in, long out) {
+		latency.recordNanos(System.nanoTime() - startNanos);
+		inFlight.decrementAndGet();
+		if (!success)
+			failures.incrementAndGet();
+		if (in > 0)
+			bytesIn.addAndGet(in);
+		if (out > 0)
+			bytesOut.addAndGet(out);
+		Outcome outcome = new Outcome(null == code ? "" : code, null == subCode ? "" : subCode);
+		AtomicLong count = outcomes.get(outcome);
+		if (null == count) {
+			AtomicLong created = new AtomicLong();
+			count = outcomes.putIfAbsent(outcome, created);
+			if (null == count)
+				count = created;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * 记录任务在线程池中排队等待的时间
+	 *
+	 * @param nanos 等待纳秒数
+	 */
+	public void recordQueueWait(long nanos) {
+		queueWait.recordNanos(nanos);
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * @return 按 code、sub_code 统计的调用次数
+	 */
+	public Map<Outcome, AtomicLong> getOutcomeCounts() {
+		return outcomes;
+	}
+
+	@Override
+	public String getTenant() {
+		return tenant;
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public long getCalls() {
+		return latency.getCount();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public long getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getMaxInFlight() {
+		return maxInFlight.get();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		return latency.getMeanMicros() / 1000d;
+	}
+
+	@Override
+	public double getP50Millis() {
+		return latency.percentileMicros(50) / 1000d;
+	}
+
+	@Override
+	public double getP90Millis() {
+		return latency.percentileMicros(90) / 1000d;
+	}
+
+	@Override
+	public double getP99Millis() {
+		return latency.percentileMicros(99) / 1000d;
+	}
+
+	@Override
+	public double getP999Millis() {
+		return latency.percentileMicros(99.9) / 1000d;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return latency.getMaxMicros() / 1000d;
+	}
+
+	@Override
+	public long getQueueWaits() {
+		return queueWait.getCount();
+	}
+
+	@Override
+	public double getQueueWaitP99Millis() {
+		return queueWait.percentileMicros(99) / 1000d;
+	}
+
+	@Override
+	public double getQueueWaitMaxMillis() {
+		return queueWait.getMaxMicros() / 1000d;
+	}
+
+	@Override
+	public Map<String, Long> getOutcomes() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<Outcome, AtomicLong> entry : outcomes.entrySet())
+			result.put(entry.getKey().toString(), entry.getValue().get());
+		return result;
+	}
+
+	/**
+	 * 调用结果分类
+	 */
+	public static final class Outcome {
+		private final String code;
+		private final String subCode;
+
+		Outcome(String code, String subCode) {
+			this.code = code;
+			this.subCode = subCode;
+		}
+
+		public String getCode() {
+			return code;
+		}
+
+		public String getSubCode() {
+			return subCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Outcome))
+				return false;
+			Outcome other = (Outcome) o;
+			return code.equals(other.code) && subCode.equals(other.subCode);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * code.hashCode() + subCode.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return subCode.length() == 0 ? code : code + "/" + subCode;
+		}
+	}
+}
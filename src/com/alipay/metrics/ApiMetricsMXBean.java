@@ -0,0 +1,48 @@
+package com.alipay.metrics;
+
+import java.util.Map;
+
+/**
+ * 单个租户单个API方法的调用指标，通过JMX暴露，时间单位为毫秒
+ */
+public interface ApiMetricsMXBean {
+
+	String getTenant();
+
+	String getMethod();
+
+	long getCalls();
+
+	long getFailures();
+
+	long getInFlight();
+
+	long getMaxInFlight();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	double getMeanMillis();
+
+	double getP50Millis();
+
+	double getP90Millis();
+
+	double getP99Millis();
+
+	double getP999Millis();
+
+	double getMaxMillis();
+
+	long getQueueWaits();
+
+	double getQueueWaitP99Millis();
+
+	double getQueueWaitMaxMillis();
+
+	/**
+	 * @return 按 code/sub_code 统计的调用次数，异常时code为异常错误码或exception，sub_code为异常类名
+	 */
+	Map<String, Long> getOutcomes();
+}
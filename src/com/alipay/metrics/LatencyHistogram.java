@@ -0,0 +1,157 @@
+package com.alipay.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数-线性分桶的延迟直方图（与HdrHistogram相同的分桶思路），以微秒记录，相对误差约6%
+ * <p>
+ * 记录操作无锁，可多线程并发写入；读取百分位时为近似快照。
+ */
+public class LatencyHistogram {
+
+	/**
+	 * 每个2的幂区间内的线性子桶数
+	 */
+	private static final int SUB_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * 小于该值的延迟每微秒一个桶
+	 */
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+	/**
+	 * 最大可记录约2^40微秒（约12天）
+	 */
+	private static final int MAX_EXPONENT = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * 记录一次延迟
+	 *
+	 * @param nanos 延迟纳秒数
+	 */
+	public void recordNanos(long nanos) {
+		recordMicros(Math.max(0, nanos / 1000));
+	}
+
+	/**
+	 * 记录一次延迟
+	 *
+	 * @param micros 延迟微秒数
+	 */
+	public void recordMicros(long micros) {
+		counts.incrementAndGet(indexOf(micros));
+		totalCount.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max = maxMicros.get();
+		while (micros > max && !maxMicros.compareAndSet(max, micros))
+			max = maxMicros.get();
+	}
+
+	/**
+	 * 获取百分位延迟
+	 *
+	 * @param percentile 百分位，如99.9
+	 * @return 延迟微秒数（所在桶的上界）
+	 */
+	public long percentileMicros(double percentile) {
+		long total = totalCount.get();
+		if (total == 0)
+			return 0;
+		long target = (long) Math.ceil(total * percentile / 100d);
+		if (target < 1)
+			target = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target)
+				return Math.min(upperBoundOf(i), maxMicros.get());
+		}
+		return maxMicros.get();
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	public long getTotalMicros() {
+		return totalMicros.get();
+	}
+
+	public double getMeanMicros() {
+		long total = totalCount.get();
+		return total == 0 ? 0 : (double) totalMicros.get() / total;
+	}
+
+	/**
+	 * 把另一个直方图的数据累加到本直方图
+	 *
+	 * @param other 另一个直方图
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length(); i++) {
+			long count = other.counts.get(i);
+			if (count > 0)
+				counts.addAndGet(i, count);
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalMicros.addAndGet(other.totalMicros.get());
+		long otherMax = other.maxMicros.get();
+		long max = maxMicros.get();
+		while (otherMax > max && !maxMicros.compareAndSet(max, otherMax))
+			max = maxMicros.get();
+	}
+
+	/**
+	 * 清空
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		totalCount.set(0);
+		totalMicros.set(0);
+		maxMicros.set(0);
+	}
+
+	/**
+	 * 格式化为一行摘要
+	 *
+	 * @return 摘要
+	 */
+	public String summary() {
+		return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms", getCount(), getMeanMicros() / 1000d,
+				percentileMicros(50) / 1000d, percentileMicros(90) / 1000d, percentileMicros(99) / 1000d, percentileMicros(99.9) / 1000d,
+				getMaxMicros() / 1000d);
+	}
+
+	private static int indexOf(long micros) {
+		if (micros < LINEAR_LIMIT)
+			return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent >= MAX_EXPONENT)
+			return LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + SUB_BUCKETS - 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		int sub = (int) (micros >>> shift) - SUB_BUCKETS;
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBoundOf(int index) {
+		if (index < LINEAR_LIMIT)
+			return index;
+		int offset = index - LINEAR_LIMIT;
+		int exponent = offset / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int sub = offset % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (((long) (sub + SUB_BUCKETS + 1)) << shift) - 1;
+	}
+}
@@ -0,0 +1,307 @@
+package com.alipay.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 网关调用指标注册表，按租户（appId）和API方法汇总
+ * <p>
+ * 每组指标首次创建时注册为JMX MBean（com.alipay.metrics:type=ApiMetrics,tenant=...,method=...），
+ * 同时可通过 {@link #writePrometheus(Appendable)} 输出Prometheus文本格式，见 {@link PrometheusExporter}。
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry INSTANCE = new MetricsRegistry(true);
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private final ConcurrentMap<String, ApiMetrics> metrics = new ConcurrentHashMap<>();
+	private final List<PrometheusCollector> collectors = new CopyOnWriteArrayList<>();
+	private final boolean jmxEnabled;
+
+	/**
+	 * 构造函数
+	 *
+	 * @param jmxEnabled 是否注册JMX MBean
+	 */
+	public MetricsRegistry(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * 获取全局注册表
+	 *
+	 * @return MetricsRegistry
+	 */
+	public static MetricsRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * 获取或创建指标
+	 *
+	 * @param tenant 租户，一般为appId
+	 * @param method API方法名
+	 * @return ApiMetrics
+	 */
+	public ApiMetrics get(String tenant, String method) {
+		if (null == tenant)
+			tenant = "";
+		String key = tenant + "/" + method;
+		ApiMetrics apiMetrics = metrics.get(key);
+		if (null != apiMetrics)
+			return apiMetrics;
+		ApiMetrics created = new ApiMetrics(tenant, method);
+		apiMetrics = metrics.putIfAbsent(key, created);
+		if (null != apiMetrics)
+			return apiMetrics;
+		if (jmxEnabled)
+			registerMBean(created);
+		return created;
+	}
+
+	/**
+	 * 记录任务在线程池中排队等待的时间
+	 *
+	 * @param tenant 租户
+	 * @param method 任务中调用的API方法名
+	 * @param nanos  等待纳秒数
+	 */
+	public void recordQueueWait(String tenant, String method, long nanos) {
+		get(tenant, method).recordQueueWait(nanos);
+	}
+
+	/**
+	 * 包装任务，任务开始执行时记录它的排队时间
+	 *
+	 * @param tenant 租户
+	 * @param method 任务中调用的API方法名
+	 * @param task   任务
+	 * @return 包装后的任务
+	 */
+	public Runnable timeQueue(String tenant, String method, final Runnable task) {
+		final ApiMetrics apiMetrics = get(tenant, method);
+		final long submitted = System.nanoTime();
+		return new Runnable() {
+			@Override
+			public void run() {
+				apiMetrics.recordQueueWait(System.nanoTime() - submitted);
+				task.run();
+			}
+		};
+	}
+
+	/**
+	 * 注册额外的指标输出
+	 *
+	 * @param collector 指标输出
+	 */
+	public void register(PrometheusCollector collector) {
+		collectors.add(collector);
+	}
+
+	/**
+	 * 取消注册额外的指标输出
+	 *
+	 * @param collector 指标输出
+	 */
+	public void unregister(PrometheusCollector collector) {
+		collectors.remove(collector);
+	}
+
+	public Collection<ApiMetrics> getAll() {
+		return Collections.unmodifiableCollection(metrics.values());
+	}
+
+	/**
+	 * 以Prometheus文本格式（0.0.4）输出全部指标
+	 *
+	 * @param out 输出
+	 * @throws IOException 写入错误
+	 */
+	public void writePrometheus(Appendable out) throws IOException {
+		List<ApiMetrics> all = new ArrayList<>(metrics.values());
+		Collections.sort(all, new Comparator<ApiMetrics>() {
+			@Override
+			public int compare(ApiMetrics a, ApiMetrics b) {
+				int c = a.getTenant().compareTo(b.getTenant());
+				return c != 0 ? c : a.getMethod().compareTo(b.getMethod());
+			}
+		});
+
+		header(out, "alipay_api_calls_total", "counter", "网关调用次数，按返回码分类");
+		for (ApiMetrics m : all) {
+			for (Map.Entry<ApiMetrics.Outcome, AtomicLong> entry : m.getOutcomeCounts().entrySet()) {
+				out.append("alipay_api_calls_total");
+				labels(out, m, "code", entry.getKey().getCode(), "sub_code", entry.getKey().getSubCode(), null, null);
+				out.append(' ').append(String.valueOf(entry.getValue().get())).append('\n');
+			}
+		}
+
+		header(out, "alipay_api_failures_total", "counter", "失败的网关调用次数");
+		for (ApiMetrics m : all)
+			sample(out, "alipay_api_failures_total", m, m.getFailures());
+
+		summary(out, all, "alipay_api_latency_seconds", "网关调用耗时", false);
+		summary(out, all, "alipay_api_queue_wait_seconds", "异步任务在线程池中的排队时间", true);
+
+		header(out, "alipay_api_in_flight", "gauge", "正在进行的网关调用数");
+		for (ApiMetrics m : all)
+			sample(out, "alipay_api_in_flight", m, m.getInFlight());
+
+		header(out, "alipay_api_request_bytes_total", "counter", "请求参数字节数");
+		for (ApiMetrics m : all)
+			sample(out, "alipay_api_request_bytes_total", m, m.getBytesOut());
+
+		header(out, "alipay_api_response_bytes_total", "counter", "响应字节数");
+		for (ApiMetrics m : all)
+			sample(out, "alipay_api_response_bytes_total", m, m.getBytesIn());
+
+		for (PrometheusCollector collector : collectors)
+			collector.writePrometheus(out);
+	}
+
+	/**
+	 * 输出指标的HELP与TYPE行
+	 *
+	 * @param out  输出
+	 * @param name 指标名
+	 * @param type counter、gauge 或 summary
+	 * @param help 说明
+	 * @throws IOException 写入错误
+	 */
+	public static void writeHeader(Appendable out, String name, String type, String help) throws IOException {
+		header(out, name, type, help);
+	}
+
+	/**
+	 * 输出一个只有单个样本的指标，含HELP与TYPE
+	 *
+	 * @param out    输出
+	 * @param name   指标名
+	 * @param type   counter 或 gauge
+	 * @param help   说明
+	 * @param labels 标签，不含花括号，如 pool="alipay-async"
+	 * @param value  值
+	 * @throws IOException 写入错误
+	 */
+	public static void writeSample(Appendable out, String name, String type, String help, String labels, long value) throws IOException {
+		writeHeader(out, name, type, help);
+		out.append(name).append('{').append(labels).append("} ").append(String.valueOf(value)).append('\n');
+	}
+
+	/**
+	 * 输出一个summary类型指标的各分位数、_sum、_count，单位为秒
+	 *
+	 * @param out       输出
+	 * @param name      指标名
+	 * @param labels    标签，不含花括号，如 pool="alipay-async"
+	 * @param histogram 直方图
+	 * @throws IOException 写入错误
+	 */
+	public static void writeSummary(Appendable out, String name, String labels, LatencyHistogram histogram) throws IOException {
+		String prefix = labels.length() == 0 ? "{" : "{" + labels + ",";
+		for (double quantile : QUANTILES) {
+			out.append(name).append(prefix).append("quantile=\"").append(String.valueOf(quantile)).append("\"} ")
+					.append(seconds(histogram.percentileMicros(quantile * 100))).append('\n');
+		}
+		out.append(name).append("_sum{").append(labels).append("} ").append(seconds(histogram.getTotalMicros())).append('\n');
+		out.append(name).append("_count{").append(labels).append("} ").append(String.valueOf(histogram.getCount())).append('\n');
+	}
+
+	private static void summary(Appendable out, List<ApiMetrics> all, String name, String help, boolean queueWait) throws IOException {
+		header(out, name, "summary", help);
+		for (ApiMetrics m : all) {
+			LatencyHistogram histogram = queueWait ? m.getQueueWait() : m.getLatency();
+			if (queueWait && histogram.getCount() == 0)
+				continue;
+			for (double quantile : QUANTILES) {
+				out.append(name);
+				labels(out, m, "quantile", String.valueOf(quantile), null, null, null, null);
+				out.append(' ').append(seconds(histogram.percentileMicros(quantile * 100))).append('\n');
+			}
+			out.append(name).append("_sum");
+			labels(out, m, null, null, null, null, null, null);
+			out.append(' ').append(seconds(histogram.getTotalMicros())).append('\n');
+			sample(out, name + "_count", m, histogram.getCount());
+		}
+	}
+
+	private static void header(Appendable out, String name, String type, String help) throws IOException {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(Appendable out, String name, ApiMetrics m, long value) throws IOException {
+		out.append(name);
+		labels(out, m, null, null, null, null, null, null);
+		out.append(' ').append(String.valueOf(value)).append('\n');
+	}
+
+	private static void labels(Appendable out, ApiMetrics m, String k1, String v1, String k2, String v2, String k3, String v3) throws IOException {
+		out.append("{tenant=\"");
+		escape(out, m.getTenant());
+		out.append("\",method=\"");
+		escape(out, m.getMethod());
+		out.append('"');
+		label(out, k1, v1);
+		label(out, k2, v2);
+		label(out, k3, v3);
+		out.append('}');
+	}
+
+	private static void label(Appendable out, String key, String value) throws IOException {
+		if (null == key)
+			return;
+		out.append(',').append(key).append("=\"");
+		escape(out, value);
+		out.append('"');
+	}
+
+	private static void escape(Appendable out, String value) throws IOException {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\')
+				out.append("\\\\");
+			else if (c == '"')
+				out.append("\\\"");
+			else if (c == '\n')
+				out.append("\\n");
+			else
+				out.append(c);
+		}
+	}
+
+	private static String seconds(long micros) {
+		return String.valueOf(micros / 1000000d);
+	}
+
+	private static void registerMBean(ApiMetrics apiMetrics) {
+		try {
+			Hashtable<String, String> properties = new Hashtable<>();
+			properties.put("type", "ApiMetrics");
+			properties.put("tenant", ObjectName.quote(apiMetrics.getTenant()));
+			properties.put("method", ObjectName.quote(apiMetrics.getMethod()));
+			ObjectName name = new ObjectName("com.alipay.metrics", properties);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (!server.isRegistered(name))
+				server.registerMBean(apiMetrics, name);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package com.alipay.metrics;
+
+import java.io.IOException;
+
+/**
+ * 向 {@link MetricsRegistry} 注册的额外指标，随 {@link MetricsRegistry#writePrometheus(Appendable)} 一起输出
+ */
+public interface PrometheusCollector {
+
+	/**
+	 * 以Prometheus文本格式输出指标，包括 # HELP 与 # TYPE 行
+	 *
+	 * @param out 输出
+	 * @throws IOException 写入错误
+	 */
+	void writePrometheus(Appendable out) throws IOException;
+}
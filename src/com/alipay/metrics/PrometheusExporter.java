@@ -0,0 +1,73 @@
+package com.alipay.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * 以Prometheus文本格式暴露网关调用指标的HTTP端点，路径为 /metrics
+ *
+ * <pre>
+ * new PrometheusExporter(MetricsRegistry.getInstance(), new InetSocketAddress(9404)).start();
+ * </pre>
+ */
+public class PrometheusExporter {
+
+	private final MetricsRegistry registry;
+	private final InetSocketAddress address;
+	private HttpServer server;
+
+	public PrometheusExporter(MetricsRegistry registry, InetSocketAddress address) {
+		this.registry = registry;
+		this.address = address;
+	}
+
+	/**
+	 * 启动HTTP端点
+	 *
+	 * @throws IOException 端口绑定失败
+	 */
+	public synchronized void start() throws IOException {
+		if (null != server)
+			return;
+		server = HttpServer.create(address, 16);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				StringBuilder text = new StringBuilder(8192);
+				registry.writePrometheus(text);
+				byte[] body = text.toString().getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * 停止HTTP端点
+	 */
+	public synchronized void stop() {
+		if (null != server) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	/**
+	 * @return 实际监听的端口，构造时端口为0时由系统分配
+	 */
+	public synchronized int getPort() {
+		return null == server ? address.getPort() : server.getAddress().getPort();
+	}
+}
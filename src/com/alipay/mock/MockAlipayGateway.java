@@ -0,0 +1,545 @@
+package com.alipay.mock;
+
+import com.alipay.api.AlipayApiException;
+import com.alipay.api.AlipayConstants;
+import com.alipay.api.internal.util.AlipaySignature;
+import com.alipay.api.internal.util.codec.Base64;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地模拟支付宝开放平台网关，用于离线压测
+ * <p>
+ * 启动时生成两对测试密钥：应用密钥（AliTool用其私钥签名请求，本网关用公钥验签）和支付宝密钥（本网关用其私钥签名响应，
+ * AliTool用其公钥验签），因此SDK的签名与验签逻辑会被真实执行。将 {@link #getGatewayUrl()} 作为AliTool的alipayGateway即可。
+ * <p>
+ * 可注入固定/随机延迟、错误率（20000服务不可用）、限流率以及按API方法的QPS上限，被限流的请求返回 {@link #THROTTLED_SUB_CODE}。
+ * 未内置的API方法返回通用成功响应，也可以通过 {@link #setResponder(String, Responder)} 自定义。
+ *
+ * <pre>
+ * MockAlipayGateway gateway = new MockAlipayGateway(0);
+ * gateway.start();
+ * AliTool tool = new AliTool(MockAlipayGateway.APP_ID, gateway.getAppPrivateKey(), gateway.getAppPublicKey(),
+ *         gateway.getAlipayPublicKey(), "", null, null, null, gateway.getGatewayUrl(), null);
+ * </pre>
+ */
+public class MockAlipayGateway {
+
+	public static final String APP_ID = "2017000000000000";
+
+	/**
+	 * 限流时返回的业务码
+	 */
+	public static final String THROTTLED_CODE = "40004";
+	public static final String THROTTLED_SUB_CODE = "isp.call-limited";
+
+	/**
+	 * 注入错误时返回的业务码
+	 */
+	public static final String ERROR_CODE = "20000";
+	public static final String ERROR_SUB_CODE = "isp.unknow-error";
+
+	/**
+	 * 关注者列表每页的最大用户数
+	 */
+	private static final int FOLLOW_PAGE_SIZE = 10000;
+
+	/**
+	 * 模拟关注者的userId起始值
+	 */
+	private static final long FOLLOWER_ID_BASE = 2088000000000000L;
+
+	/**
+	 * 自定义响应
+	 */
+	public interface Responder {
+
+		/**
+		 * 生成响应节点内容
+		 *
+		 * @param method     API方法名
+		 * @param params     请求的所有参数
+		 * @param bizContent 请求的biz_content，没有时为空对象
+		 * @return 响应节点内容，不包含code、msg时自动补充成功码
+		 */
+		JsonObject respond(String method, Map<String, String> params, JsonObject bizContent);
+	}
+
+	private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+	private final int port;
+	private final String appPrivateKey;
+	private final String appPublicKey;
+	private final String alipayPrivateKey;
+	private final String alipayPublicKey;
+	private final ConcurrentMap<String, Responder> responders = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, QpsWindow> qpsLimits = new ConcurrentHashMap<>();
+	private final AtomicLong tradeSeq = new AtomicLong();
+
+	private volatile long latencyMillis;
+	private volatile long latencyJitterMillis;
+	private volatile double errorRate;
+	private volatile double throttleRate;
+	private volatile boolean verifyRequestSign = true;
+	private volatile int followerCount = 25000;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * 构造函数
+	 *
+	 * @param port 监听端口，0表示随机端口
+	 */
+	public MockAlipayGateway(int port) {
+		this.port = port;
+		KeyPair appKeyPair = generateKeyPair();
+		KeyPair alipayKeyPair = generateKeyPair();
+		this.appPrivateKey = encodeKey(appKeyPair.getPrivate().getEncoded());
+		this.appPublicKey = encodeKey(appKeyPair.getPublic().getEncoded());
+		this.alipayPrivateKey = encodeKey(alipayKeyPair.getPrivate().getEncoded());
+		this.alipayPublicKey = encodeKey(alipayKeyPair.getPublic().getEncoded());
+	}
+
+	/**
+	 * 启动网关
+	 *
+	 * @throws IOException 端口监听失败
+	 */
+	public synchronized void start() throws IOException {
+		if (null != server)
+			return;
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger seq = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "mock-alipay-gateway-" + seq.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/gateway.do", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRequest(exchange);
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * 停止网关
+	 */
+	public synchronized void stop() {
+		if (null == server)
+			return;
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+		executor = null;
+	}
+
+	public String getGatewayUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/gateway.do";
+	}
+
+	public String getAppPrivateKey() {
+		return appPrivateKey;
+	}
+
+	public String getAppPublicKey() {
+		return appPublicKey;
+	}
+
+	public String getAlipayPublicKey() {
+		return alipayPublicKey;
+	}
+
+	/**
+	 * 以支付宝的身份对参数签名，供压测工具模拟支付宝推送到开发者网关的消息，开发者网关用 {@link #getAlipayPublicKey()} 验签
+	 *
+	 * @param params   待签名参数
+	 * @param charset  字符编码
+	 * @param signType 签名类型
+	 * @return 签名
+	 * @throws AlipayApiException 签名失败
+	 */
+	public String signAsAlipay(Map<String, String> params, String charset, String signType) throws AlipayApiException {
+		return AlipaySignature.rsaSign(AlipaySignature.getSignCheckContentV2(params), alipayPrivateKey, charset, signType);
+	}
+
+	/**
+	 * 设置每个请求的处理延迟
+	 *
+	 * @param latencyMillis 固定延迟（毫秒）
+	 * @param jitterMillis  在固定延迟之上叠加的随机延迟上限（毫秒）
+	 */
+	public void setLatency(long latencyMillis, long jitterMillis) {
+		this.latencyMillis = Math.max(0, latencyMillis);
+		this.latencyJitterMillis = Math.max(0, jitterMillis);
+	}
+
+	/**
+	 * 设置返回20000服务不可用的比例
+	 *
+	 * @param errorRate 0~1
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * 设置随机返回限流错误的比例
+	 *
+	 * @param throttleRate 0~1
+	 */
+	public void setThrottleRate(double throttleRate) {
+		this.throttleRate = throttleRate;
+	}
+
+	/**
+	 * 设置API方法每秒最多成功处理的请求数，超出的请求返回限流错误
+	 *
+	 * @param method API方法名
+	 * @param qps    每秒请求数，小于等于0表示不限
+	 */
+	public void setQpsLimit(String method, int qps) {
+		if (qps <= 0)
+			qpsLimits.remove(method);
+		else
+			qpsLimits.put(method, new QpsWindow(qps));
+	}
+
+	/**
+	 * 是否校验请求签名，默认校验
+	 *
+	 * @param verifyRequestSign 是否校验
+	 */
+	public void setVerifyRequestSign(boolean verifyRequestSign) {
+		this.verifyRequestSign = verifyRequestSign;
+	}
+
+	/**
+	 * 设置模拟的关注者总数，关注者列表按每页10000分页返回
+	 *
+	 * @param followerCount 关注者总数
+	 */
+	public void setFollowerCount(int followerCount) {
+		this.followerCount = Math.max(0, followerCount);
+	}
+
+	/**
+	 * 自定义API方法的响应
+	 *
+	 * @param method    API方法名
+	 * @param responder 响应生成器，为null时恢复内置响应
+	 */
+	public void setResponder(String method, Responder responder) {
+		if (null == responder)
+			responders.remove(method);
+		else
+			responders.put(method, responder);
+	}
+
+	/**
+	 * 获取API方法收到的请求数
+	 *
+	 * @param method API方法名
+	 * @return 请求数
+	 */
+	public long getRequestCount(String method) {
+		AtomicLong count = requestCounts.get(method);
+		return null == count ? 0 : count.get();
+	}
+
+	/**
+	 * 清零所有请求计数
+	 */
+	public void resetRequestCounts() {
+		requestCounts.clear();
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException {
+		String charset = AlipayConstants.CHARSET_UTF8;
+		String body;
+		try {
+			Map<String, String> params = new HashMap<String, String>();
+			String rawQuery = exchange.getRequestURI().getRawQuery();
+			String query = null == rawQuery ? "" : rawQuery;
+			String form = new String(readAll(exchange.getRequestBody()), "ISO-8859-1");
+			String declared = findParam(query, AlipayConstants.CHARSET);
+			if (null != declared && declared.length() > 0)
+				charset = declared;
+			parseForm(query, charset, params);
+			parseForm(form, charset, params);
+			body = respond(params, charset);
+		} catch (Exception e) {
+			body = "{\"error_response\":{\"code\":\"20000\",\"msg\":\"Service Currently Unavailable\",\"sub_code\":\"isp.unknow-error\",\"sub_msg\":\""
+					+ String.valueOf(e.getMessage()).replace("\"", "'") + "\"}}";
+		}
+		byte[] bytes = body.getBytes(charset);
+		exchange.getResponseHeaders().set("Content-Type", "application/json;charset=" + charset);
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private String respond(Map<String, String> params, String charset) throws Exception {
+		String method = params.get(AlipayConstants.METHOD);
+		if (null == method || method.length() == 0)
+			throw new IllegalArgumentException("缺少method参数");
+		String signType = params.get(AlipayConstants.SIGN_TYPE);
+		if (null == signType || signType.length() == 0)
+			signType = AlipayConstants.SIGN_TYPE_RSA;
+		count(method);
+
+		long delay = latencyMillis;
+		if (latencyJitterMillis > 0)
+			delay += ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1);
+		if (delay > 0)
+			Thread.sleep(delay);
+
+		JsonObject content;
+		if (verifyRequestSign && !AlipaySignature.rsaCheckV2(params, appPublicKey, charset, signType)) {
+			content = error("40002", "Invalid Arguments", "isv.invalid-signature", "验签出错");
+		} else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			content = error(ERROR_CODE, "Service Currently Unavailable", ERROR_SUB_CODE, "系统繁忙");
+		} else if (isThrottled(method)) {
+			content = error(THROTTLED_CODE, "Business Failed", THROTTLED_SUB_CODE, "调用频率超限");
+		} else {
+			String bizContent = params.get(AlipayConstants.BIZ_CONTENT_KEY);
+			JsonObject biz = null == bizContent || bizContent.trim().length() == 0 ? new JsonObject()
+					: new JsonParser().parse(bizContent).getAsJsonObject();
+			Responder responder = responders.get(method);
+			content = null != responder ? responder.respond(method, params, biz) : builtinResponse(method, params, biz);
+			if (!content.has("code")) {
+				content.addProperty("code", "10000");
+				content.addProperty("msg", "Success");
+			}
+		}
+
+		String contentJson = gson.toJson(content);
+		String sign = AlipaySignature.rsaSign(contentJson, alipayPrivateKey, charset, signType);
+		return "{\"" + method.replace('.', '_') + AlipayConstants.RESPONSE_SUFFIX + "\":" + contentJson + ",\"sign\":\"" + sign + "\"}";
+	}
+
+	private JsonObject builtinResponse(String method, Map<String, String> params, JsonObject biz) {
+		JsonObject content = success();
+		if ("alipay.open.public.message.total.send".equals(method)) {
+			content.addProperty("message_id", "mock" + tradeSeq.incrementAndGet());
+		} else if ("alipay.open.public.follow.batchquery".equals(method)) {
+			long start = 0;
+			if (biz.has("next_user_id"))
+				start = Long.parseLong(biz.get("next_user_id").getAsString()) - FOLLOWER_ID_BASE;
+			long end = Math.min(followerCount, start + FOLLOW_PAGE_SIZE);
+			JsonArray ids = new JsonArray();
+			for (long i = start; i < end; i++)
+				ids.add(String.valueOf(FOLLOWER_ID_BASE + i));
+			content.addProperty("count", String.valueOf(followerCount));
+			content.add("user_id_list", ids);
+			if (end < followerCount)
+				content.addProperty("next_user_id", String.valueOf(FOLLOWER_ID_BASE + end));
+		} else if ("alipay.trade.create".equals(method) || "alipay.trade.pay".equals(method)) {
+			content.addProperty("out_trade_no", biz.has("out_trade_no") ? biz.get("out_trade_no").getAsString() : "");
+			content.addProperty("trade_no", "2017" + String.format("%024d", tradeSeq.incrementAndGet()));
+			if ("alipay.trade.pay".equals(method)) {
+				content.addProperty("buyer_logon_id", "mock***@alipay.com");
+				content.addProperty("total_amount", biz.has("total_amount") ? biz.get("total_amount").getAsString() : "0.00");
+				content.addProperty("receipt_amount", biz.has("total_amount") ? biz.get("total_amount").getAsString() : "0.00");
+				content.addProperty("gmt_payment", "2017-08-29 14:26:30");
+				content.addProperty("buyer_user_id", String.valueOf(FOLLOWER_ID_BASE + 1));
+			}
+		} else if ("alipay.system.oauth.token".equals(method)) {
+			String userId = String.valueOf(FOLLOWER_ID_BASE + Math.abs(String.valueOf(params.get("code") + params.get("refresh_token")).hashCode() % 1000000));
+			content.addProperty("access_token", "mockAccessToken" + tradeSeq.incrementAndGet());
+			content.addProperty("alipay_user_id", userId);
+			content.addProperty("user_id", userId);
+			content.addProperty("expires_in", "3600");
+			content.addProperty("re_expires_in", "2592000");
+			content.addProperty("refresh_token", "mockRefreshToken" + tradeSeq.incrementAndGet());
+		} else if ("alipay.user.userinfo.share".equals(method)) {
+			content.addProperty("user_id", String.valueOf(FOLLOWER_ID_BASE + 1));
+			content.addProperty("nick_name", "mock");
+			content.addProperty("user_type_value", "2");
+			content.addProperty("user_status", "T");
+		} else if ("alipay.open.public.gis.query".equals(method)) {
+			content.addProperty("latitude", "30.2741");
+			content.addProperty("longitude", "120.1551");
+			content.addProperty("accuracy", "30.0");
+			content.addProperty("province", "浙江省");
+			content.addProperty("city", "杭州市");
+		} else if ("alipay.open.public.info.query".equals(method)) {
+			content.addProperty("app_name", "mock生活号");
+			content.addProperty("logo_url", "https://mock/logo.png");
+			content.addProperty("public_greeting", "欢迎");
+		} else if ("alipay.open.public.menu.batchquery".equals(method)) {
+			content.addProperty("count", "0");
+			content.add("menus", new JsonArray());
+		} else if ("alipay.open.public.life.label.create".equals(method)) {
+			content.addProperty("label_id", String.valueOf(tradeSeq.incrementAndGet()));
+			content.addProperty("label_name", biz.has("label_name") ? biz.get("label_name").getAsString() : "");
+		} else if ("alipay.open.public.life.label.batchquery".equals(method)) {
+			content.add("label_list", new JsonArray());
+		} else if ("alipay.open.public.personalized.menu.create".equals(method)) {
+			content.addProperty("menu_key", "mock" + tradeSeq.incrementAndGet());
+		} else if ("alipay.open.public.personalized.extension.batchquery".equals(method)) {
+			content.add("extensions", new JsonArray());
+		} else if ("alipay.open.public.account.query".equals(method)) {
+			content.add("public_bind_accounts", new JsonArray());
+		}
+		return content;
+	}
+
+	private boolean isThrottled(String method) {
+		if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate)
+			return true;
+		QpsWindow window = qpsLimits.get(method);
+		return null != window && !window.tryAcquire();
+	}
+
+	private void count(String method) {
+		AtomicLong count = requestCounts.get(method);
+		if (null == count) {
+			AtomicLong created = new AtomicLong();
+			count = requestCounts.putIfAbsent(method, created);
+			if (null == count)
+				count = created;
+		}
+		count.incrementAndGet();
+	}
+
+	private static JsonObject success() {
+		JsonObject content = new JsonObject();
+		content.addProperty("code", "10000");
+		content.addProperty("msg", "Success");
+		return content;
+	}
+
+	private static JsonObject error(String code, String msg, String subCode, String subMsg) {
+		JsonObject content = new JsonObject();
+		content.addProperty("code", code);
+		content.addProperty("msg", msg);
+		content.addProperty("sub_code", subCode);
+		content.addProperty("sub_msg", subMsg);
+		return content;
+	}
+
+	private static String findParam(String form, String name) throws UnsupportedEncodingException {
+		for (String pair : form.split("&")) {
+			int idx = pair.indexOf('=');
+			if (idx > 0 && pair.substring(0, idx).equals(name))
+				return URLDecoder.decode(pair.substring(idx + 1), "ISO-8859-1");
+		}
+		return null;
+	}
+
+	private static void parseForm(String form, String charset, Map<String, String> params) throws UnsupportedEncodingException {
+		if (form.length() == 0)
+			return;
+		for (String pair : form.split("&")) {
+			int idx = pair.indexOf('=');
+			if (idx <= 0)
+				continue;
+			params.put(URLDecoder.decode(pair.substring(0, idx), charset), URLDecoder.decode(pair.substring(idx + 1), charset));
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+
+	private static String encodeKey(byte[] encoded) {
+		try {
+			return new String(Base64.encodeBase64(encoded), "US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static KeyPair generateKeyPair() {
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(2048);
+			return generator.generateKeyPair();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 按秒计数的QPS窗口
+	 */
+	private static final class QpsWindow {
+		private final int qps;
+		private long second;
+		private int count;
+
+		QpsWindow(int qps) {
+			this.qps = qps;
+		}
+
+		synchronized boolean tryAcquire() {
+			long now = System.currentTimeMillis() / 1000;
+			if (now != second) {
+				second = now;
+				count = 0;
+			}
+			return ++count <= qps;
+		}
+	}
+
+	/**
+	 * 独立启动模拟网关
+	 *
+	 * @param args [端口]
+	 * @throws Exception 启动失败
+	 */
+	public static void main(String[] args) throws Exception {
+		MockAlipayGateway gateway = new MockAlipayGateway(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+		gateway.start();
+		System.out.println("gateway : " + gateway.getGatewayUrl());
+		System.out.println("appId : " + APP_ID);
+		System.out.println("appPrivateKey : " + gateway.getAppPrivateKey());
+		System.out.println("appPublicKey : " + gateway.getAppPublicKey());
+		System.out.println("alipayPublicKey : " + gateway.getAlipayPublicKey());
+	}
+}
@@ -0,0 +1,99 @@
+package com.alipay.scheduler;
+
+/**
+ * long到int的开放寻址哈希表，键不能为0，删除时把后续条目前移（backward shift），不留删除标记
+ * <p>
+ * 每个槽位12字节，装载因子不超过3/4，不为单个条目创建对象。非线程安全，由调用方加锁。
+ */
+final class LongIntMap {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys = new long[MIN_CAPACITY];
+	private int[] values = new int[MIN_CAPACITY];
+	private int size;
+
+	/**
+	 * @return 键对应的值，不存在时返回-1
+	 */
+	int get(long key) {
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask)
+			if (keys[i] == key)
+				return values[i];
+		return -1;
+	}
+
+	/**
+	 * 添加或覆盖
+	 */
+	void put(long key, int value) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		for (; keys[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size > keys.length / 4 * 3)
+			rehash(keys.length << 1);
+	}
+
+	/**
+	 * @return 键存在时返回true
+	 */
+	boolean remove(long key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != key) {
+			if (keys[i] == 0)
+				return false;
+			i = (i + 1) & mask;
+		}
+		// 后续条目的起始槽位不在 (i, j] 之间时前移到空出的位置
+		for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = 0;
+		size--;
+		if (keys.length > MIN_CAPACITY && size < keys.length / 8)
+			rehash(keys.length >> 1);
+		return true;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private static int slot(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[capacity];
+		values = new int[capacity];
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == 0)
+				continue;
+			int i = slot(oldKeys[j], mask);
+			while (keys[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+}
@@ -0,0 +1,591 @@
+package com.alipay.scheduler;
+
+import com.alipay.api.AlipayClient;
+import com.alipay.dispatcher.CustomSendTask;
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+import com.alipay.store.DirectoryInstance;
+import com.alipay.store.DirectoryLock;
+import com.alipay.store.RecordLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 延时发送客服消息的调度器
+ * <p>
+ * 待发送的消息追加写入 {@link RecordLog} 日志文件（scheduled.log），内存中只在 {@link TimingWheel} 里保存编号、到期时间与文件偏移，
+ * 每条约40字节（时间轮24字节，编号索引约16字节），百万条待发送消息只占几十MB；到期时从文件读出消息，经 {@link CustomSendTask#offer} 走正常的异步发送
+ * （开启 OutboundJournal 时同样先写入发送日志）。进程重启后扫描日志文件恢复未发送的消息，停机期间到期的消息在启动后立即发送。
+ * <p>
+ * 写入先进入操作系统页缓存，后台线程每个tick统一落盘一次；进程崩溃不会丢失，断电最多丢失最后一个tick内的调度。
+ * 发送提交后才追加完成记录，因此重启后个别消息可能重复发送（至少一次）。
+ * 日志文件超过阈值且已完成的记录过半时，后台线程只把未完成的消息复制到新文件并替换。
+ * 同一目录同时只能打开一次。
+ */
+public class MessageScheduler implements PrometheusCollector {
+
+	/**
+	 * 默认tick 100毫秒
+	 */
+	public static final long DEFAULT_TICK_MILLIS = 100;
+
+	/**
+	 * 默认压缩阈值 64MB
+	 */
+	public static final long DEFAULT_COMPACT_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * 到期时租户尚未 {@link #register} 的消息推迟的毫秒数
+	 */
+	private static final long UNREGISTERED_RETRY_MILLIS = 10000;
+
+	/**
+	 * 到期时读取或提交失败的消息推迟的毫秒数
+	 */
+	private static final long FAILED_RETRY_MILLIS = 10000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x414C5331;
+	private static final int RECORD_HEADER_BYTES = RecordLog.RECORD_HEADER_BYTES;
+	private static final byte TYPE_SCHEDULE = 1;
+	private static final byte TYPE_DONE = 2;
+	private static final byte TYPE_CANCEL_USER = 3;
+	private static final String LOG_NAME = "scheduled.log";
+
+	private static final DirectoryInstance<MessageScheduler> INSTANCE = new DirectoryInstance<>("调度器");
+
+	private final long tickMillis;
+	private final long compactBytes;
+	private final DirectoryLock lock;
+	private final RecordLog log;
+	private final TimingWheel wheel;
+	private final Map<String, AlipayClient> clients = new ConcurrentHashMap<>();
+	/**
+	 * 已从时间轮取出、尚未提交发送的编号
+	 */
+	private final Set<Long> expiring = new HashSet<>();
+	/**
+	 * 在 {@link #expiring} 中被取消的编号，提交发送时跳过
+	 */
+	private final Set<Long> cancelled = new HashSet<>();
+	/**
+	 * 按用户取消：租户+用户 -&gt; 取消时的下一个编号，编号小于该值的消息不再发送
+	 */
+	private final Map<String, Long> userCancels = new HashMap<>();
+	private final Thread worker;
+	private long nextId = 1;
+	private boolean dirty;
+	private boolean closed;
+	private long scheduledCount;
+	private long deliveredCount;
+	private long cancelledCount;
+	private long compactions;
+
+	/**
+	 * 打开调度目录，恢复未发送的消息
+	 *
+	 * @param dir          调度目录，不存在时创建
+	 * @param tickMillis   时间精度，消息最多延后一个tick发送
+	 * @param compactBytes 日志文件超过该大小且已完成的记录过半时压缩
+	 * @throws IOException 目录无法创建、已被打开或文件读写错误
+	 */
+	public MessageScheduler(File dir, long tickMillis, long compactBytes) throws IOException {
+		this.tickMillis = Math.max(1, tickMillis);
+		this.compactBytes = compactBytes;
+		lock = new DirectoryLock(dir, "scheduler.lock", "调度");
+
+		wheel = new TimingWheel(this.tickMillis, System.currentTimeMillis());
+		RecordLog opened = null;
+		try {
+			opened = new RecordLog(new File(dir, LOG_NAME), MAGIC, "调度日志");
+			recover(opened);
+		} catch (IOException e) {
+			if (null != opened)
+				opened.close();
+			lock.release();
+			throw e;
+		}
+		log = opened;
+
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runLoop();
+			}
+		}, "alipay-message-scheduler");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * 打开全局调度器，已打开时直接返回，并注册Prometheus输出
+	 *
+	 * @param dir 调度目录
+	 * @return MessageScheduler
+	 * @throws IOException 打开失败
+	 */
+	public static MessageScheduler openInstance(File dir) throws IOException {
+		return INSTANCE.open(dir, new DirectoryInstance.Opener<MessageScheduler>() {
+			@Override
+			public MessageScheduler open(File dir) throws IOException {
+				return new MessageScheduler(dir, DEFAULT_TICK_MILLIS, DEFAULT_COMPACT_BYTES);
+			}
+		});
+	}
+
+	/**
+	 * @return 全局调度器，未打开时返回null
+	 */
+	public static MessageScheduler getInstance() {
+		return INSTANCE.get();
+	}
+
+	/**
+	 * 关闭全局调度器，应在异步发送线程池关闭之前调用
+	 */
+	public static void closeInstance() {
+		MessageScheduler scheduler = INSTANCE.take();
+		if (null != scheduler)
+			scheduler.close();
+	}
+
+	/**
+	 * 注册租户的 AlipayClient，该租户的消息到期后才能发送；未注册时消息推迟10秒再检查
+	 *
+	 * @param tenant       租户，一般为appId
+	 * @param alipayClient AlipayClient
+	 */
+	public void register(String tenant, AlipayClient alipayClient) {
+		clients.put(tenant, alipayClient);
+	}
+
+	/**
+	 * 延时发送客服消息
+	 *
+	 * @param tenant      租户，一般为appId
+	 * @param toUserId    接收消息的用户
+	 * @param bizContent  客服消息业务参数
+	 * @param delayMillis 延时毫秒数
+	 * @return 调度编号，用于 {@link #cancel(long)}
+	 * @throws IOException 调度器已关闭或写入失败
+	 */
+	public long schedule(String tenant, String toUserId, String bizContent, long delayMillis) throws IOException {
+		return scheduleAt(tenant, toUserId, bizContent, System.currentTimeMillis() + Math.max(0, delayMillis));
+	}
+
+	/**
+	 * 定时发送客服消息
+	 *
+	 * @param tenant     租户，一般为appId
+	 * @param toUserId   接收消息的用户
+	 * @param bizContent 客服消息业务参数
+	 * @param dueAt      发送时间，毫秒时间戳，已过去时立即发送
+	 * @return 调度编号，用于 {@link #cancel(long)}
+	 * @throws IOException 调度器已关闭或写入失败
+	 */
+	public long scheduleAt(String tenant, String toUserId, String bizContent, long dueAt) throws IOException {
+		byte[] t = tenant.getBytes(UTF8);
+		byte[] u = toUserId.getBytes(UTF8);
+		byte[] b = bizContent.getBytes(UTF8);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + 1 + 16 + 12 + t.length + u.length + b.length);
+		record.position(RECORD_HEADER_BYTES);
+		record.put(TYPE_SCHEDULE).putLong(0).putLong(dueAt);
+		record.putInt(t.length).put(t);
+		record.putInt(u.length).put(u);
+		record.putInt(b.length).put(b);
+		synchronized (this) {
+			if (closed)
+				throw new IOException("调度器已关闭");
+			long id = nextId++;
+			record.putLong(RECORD_HEADER_BYTES + 1, id);
+			long offset = writeLocked(RecordLog.seal(record));
+			wheel.add(id, dueAt, offset);
+			scheduledCount++;
+			return id;
+		}
+	}
+
+	/**
+	 * 取消一条未发送的消息，已发送、已取消或已按用户取消的编号忽略；需要遍历时间轮，耗时与未发送的消息数成正比
+	 *
+	 * @param id {@link #schedule} 返回的调度编号
+	 */
+	public synchronized void cancel(long id) {
+		if (closed || id <= 0 || id >= nextId)
+			return;
+		if (wheel.remove(id))
+			cancelledCount++;
+		else if (!expiring.contains(id) || !cancelled.add(id))
+			return;
+		try {
+			writeLocked(encodeDone(id));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 取消用户在此之前调度的全部消息，如用户取消关注时
+	 *
+	 * @param tenant   租户，一般为appId
+	 * @param toUserId 接收消息的用户
+	 */
+	public synchronized void cancelUser(String tenant, String toUserId) {
+		if (closed)
+			return;
+		userCancels.put(userKey(tenant, toUserId), nextId);
+		try {
+			writeLocked(encodeCancelUser(nextId, tenant, toUserId));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 停止后台线程，落盘全部已写入的记录并释放目录锁；未到期的消息保留到下次打开
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		try {
+			worker.join(10000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				log.force();
+				log.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			try {
+				lock.release();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return 未到期的消息数，不含已取消的单条消息
+	 */
+	public synchronized int getPendingCount() {
+		return wheel.size();
+	}
+
+	/**
+	 * @return 日志文件字节数
+	 */
+	public synchronized long getFileSize() {
+		return log.size();
+	}
+
+	/**
+	 * @return 压缩次数
+	 */
+	public synchronized long getCompactionCount() {
+		return compactions;
+	}
+
+	@Override
+	public void writePrometheus(Appendable out) throws IOException {
+		long scheduled, delivered, cancelledTotal, size;
+		int pending;
+		synchronized (this) {
+			scheduled = scheduledCount;
+			delivered = deliveredCount;
+			cancelledTotal = cancelledCount;
+			size = log.size();
+			pending = wheel.size();
+		}
+		MetricsRegistry.writeSample(out, "alipay_scheduler_scheduled_total", "counter", "调度的延时消息数", "", scheduled);
+		MetricsRegistry.writeSample(out, "alipay_scheduler_delivered_total", "counter", "到期提交发送的延时消息数", "", delivered);
+		MetricsRegistry.writeSample(out, "alipay_scheduler_cancelled_total", "counter", "已取消的延时消息数", "", cancelledTotal);
+		MetricsRegistry.writeSample(out, "alipay_scheduler_pending", "gauge", "未发送的延时消息数", "", pending);
+		MetricsRegistry.writeSample(out, "alipay_scheduler_file_bytes", "gauge", "调度日志文件字节数", "", size);
+	}
+
+	private void runLoop() {
+		final long[][] expired = {new long[64]};
+		final int[] count = new int[1];
+		TimingWheel.Sink sink = new TimingWheel.Sink() {
+			@Override
+			public void expire(long id, long dueMillis, long ref) {
+				if (count[0] + 2 > expired[0].length)
+					expired[0] = Arrays.copyOf(expired[0], expired[0].length * 2);
+				expired[0][count[0]++] = id;
+				expired[0][count[0]++] = ref;
+				expiring.add(id);
+			}
+		};
+		while (true) {
+			synchronized (this) {
+				if (!closed) {
+					try {
+						wait(tickMillis - System.currentTimeMillis() % tickMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (closed)
+					return;
+				count[0] = 0;
+				wheel.advance(System.currentTimeMillis(), sink);
+			}
+			for (int i = 0; i < count[0]; i += 2) {
+				try {
+					deliver(expired[0][i], expired[0][i + 1]);
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
+			if (expired[0].length > 4096)
+				expired[0] = new long[64];
+			synchronized (this) {
+				try {
+					if (dirty) {
+						log.force();
+						dirty = false;
+					}
+					if (log.size() > compactBytes && (long) (wheel.size() + userCancels.size()) * 2 < log.records())
+						compactLocked();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void deliver(long id, long offset) throws IOException {
+		synchronized (this) {
+			expiring.remove(id);
+			if (cancelled.remove(id)) {
+				cancelledCount++;
+				return;
+			}
+		}
+		ScheduledMessage message;
+		try {
+			message = read(offset);
+		} catch (IOException e) {
+			retryLater(id, offset, e);
+			return;
+		}
+		synchronized (this) {
+			// 只有记录本身损坏时才丢弃
+			if (null == message || message.id != id) {
+				System.out.println("延时消息记录损坏，丢弃：id=" + id + " offset=" + offset);
+				writeLocked(encodeDone(id));
+				return;
+			}
+			Long cancelledBefore = userCancels.get(userKey(message.tenant, message.toUserId));
+			if (null != cancelledBefore && id < cancelledBefore) {
+				writeLocked(encodeDone(id));
+				cancelledCount++;
+				return;
+			}
+		}
+		AlipayClient alipayClient = clients.get(message.tenant);
+		if (null == alipayClient) {
+			synchronized (this) {
+				wheel.add(id, System.currentTimeMillis() + UNREGISTERED_RETRY_MILLIS, offset);
+			}
+			return;
+		}
+		try {
+			CustomSendTask.offer(alipayClient, message.tenant, message.toUserId, message.bizContent);
+		} catch (Throwable t) {
+			retryLater(id, offset, t);
+			return;
+		}
+		synchronized (this) {
+			writeLocked(encodeDone(id));
+			deliveredCount++;
+		}
+	}
+
+	/**
+	 * 读取或提交失败：放回时间轮稍后重试，否则既不在时间轮中也没有完成记录，压缩后丢失
+	 */
+	private void retryLater(long id, long offset, Throwable t) {
+		System.out.println("延时消息发送失败，" + FAILED_RETRY_MILLIS + "ms后重试：id=" + id + " " + t);
+		t.printStackTrace();
+		synchronized (this) {
+			wheel.add(id, System.currentTimeMillis() + FAILED_RETRY_MILLIS, offset);
+		}
+	}
+
+	/**
+	 * 只由后台线程调用，与压缩不会同时进行
+	 */
+	private ScheduledMessage read(long offset) throws IOException {
+		ByteBuffer body = log.read(offset);
+		if (null == body || body.get() != TYPE_SCHEDULE)
+			return null;
+		long id = body.getLong();
+		body.getLong();
+		String tenant = RecordLog.readString(body);
+		String toUserId = RecordLog.readString(body);
+		String bizContent = RecordLog.readString(body);
+		if (null == tenant || null == toUserId || null == bizContent)
+			return null;
+		return new ScheduledMessage(id, tenant, toUserId, bizContent);
+	}
+
+	private long writeLocked(byte[] record) throws IOException {
+		dirty = true;
+		return log.append(record);
+	}
+
+	/**
+	 * 扫描日志文件两遍：先收集完成记录与按用户取消，再把未完成的消息放入时间轮；在第一条损坏的记录处截断
+	 */
+	private void recover(RecordLog opened) throws IOException {
+		final long[][] done = {new long[1024]};
+		final int[] doneCount = new int[1];
+		final long[] maxId = new long[1];
+		opened.scan(new RecordLog.Visitor() {
+			@Override
+			public void visit(long offset, ByteBuffer body) {
+				byte type = body.get();
+				if (type == TYPE_DONE) {
+					if (doneCount[0] == done[0].length)
+						done[0] = Arrays.copyOf(done[0], done[0].length * 2);
+					done[0][doneCount[0]++] = body.getLong();
+				} else if (type == TYPE_CANCEL_USER) {
+					long seq = body.getLong();
+					String tenant = RecordLog.readString(body);
+					String toUserId = RecordLog.readString(body);
+					if (null != tenant && null != toUserId) {
+						String key = userKey(tenant, toUserId);
+						Long previous = userCancels.get(key);
+						if (null == previous || previous < seq)
+							userCancels.put(key, seq);
+					}
+					maxId[0] = Math.max(maxId[0], seq - 1);
+				} else if (type == TYPE_SCHEDULE) {
+					maxId[0] = Math.max(maxId[0], body.getLong());
+				}
+			}
+		});
+		final long[] sortedDone = Arrays.copyOf(done[0], doneCount[0]);
+		Arrays.sort(sortedDone);
+		opened.recover(new RecordLog.Visitor() {
+			@Override
+			public void visit(long offset, ByteBuffer body) {
+				if (body.get() != TYPE_SCHEDULE)
+					return;
+				long id = body.getLong();
+				long dueAt = body.getLong();
+				if (Arrays.binarySearch(sortedDone, id) < 0)
+					wheel.add(id, dueAt, offset);
+			}
+		});
+		nextId = maxId[0] + 1;
+	}
+
+	/**
+	 * 把时间轮中未完成的消息与仍然有效的按用户取消复制到新文件，原子替换后更新时间轮中的偏移
+	 */
+	private void compactLocked() throws IOException {
+		final long[][] offsets = {new long[Math.max(16, wheel.size())]};
+		final int[] count = new int[1];
+		final long[] minLiveId = {Long.MAX_VALUE};
+		final RecordLog.Rewrite rewrite = log.rewrite();
+		try {
+			final IOException[] failure = new IOException[1];
+			// 第一遍只复制，遍历顺序与第二遍相同；失败时时间轮保持不变
+			wheel.forEach(new TimingWheel.Visitor() {
+				@Override
+				public long visit(long id, long dueMillis, long ref) {
+					if (null != failure[0])
+						return ref;
+					try {
+						if (count[0] == offsets[0].length)
+							offsets[0] = Arrays.copyOf(offsets[0], offsets[0].length * 2);
+						offsets[0][count[0]++] = rewrite.copy(ref);
+						minLiveId[0] = Math.min(minLiveId[0], id);
+					} catch (IOException e) {
+						failure[0] = e;
+					}
+					return ref;
+				}
+			});
+			if (null != failure[0])
+				throw failure[0];
+			for (Iterator<Map.Entry<String, Long>> it = userCancels.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String, Long> entry = it.next();
+				if (entry.getValue() <= minLiveId[0]) {
+					it.remove();
+					continue;
+				}
+				int split = entry.getKey().indexOf('\u0001');
+				rewrite.append(encodeCancelUser(entry.getValue(), entry.getKey().substring(0, split), entry.getKey().substring(split + 1)));
+			}
+			rewrite.commit();
+		} finally {
+			rewrite.abort();
+		}
+
+		final int[] index = new int[1];
+		wheel.forEach(new TimingWheel.Visitor() {
+			@Override
+			public long visit(long id, long dueMillis, long ref) {
+				return offsets[0][index[0]++];
+			}
+		});
+		dirty = false;
+		compactions++;
+	}
+
+	private static String userKey(String tenant, String toUserId) {
+		return tenant + '\u0001' + toUserId;
+	}
+
+	private static byte[] encodeDone(long id) {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + 1 + 8);
+		record.position(RECORD_HEADER_BYTES);
+		record.put(TYPE_DONE).putLong(id);
+		return RecordLog.seal(record);
+	}
+
+	private static byte[] encodeCancelUser(long seq, String tenant, String toUserId) {
+		byte[] t = tenant.getBytes(UTF8);
+		byte[] u = toUserId.getBytes(UTF8);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + 1 + 8 + 8 + t.length + u.length);
+		record.position(RECORD_HEADER_BYTES);
+		record.put(TYPE_CANCEL_USER).putLong(seq);
+		record.putInt(t.length).put(t);
+		record.putInt(u.length).put(u);
+		return RecordLog.seal(record);
+	}
+
+	private static final class ScheduledMessage {
+		private final long id;
+		private final String tenant;
+		private final String toUserId;
+		private final String bizContent;
+
+		ScheduledMessage(long id, String tenant, String toUserId, String bizContent) {
+			this.id = id;
+			this.tenant = tenant;
+			this.toUserId = toUserId;
+			this.bizContent = bizContent;
+		}
+	}
+}
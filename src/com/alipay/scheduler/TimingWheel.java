@@ -0,0 +1,195 @@
+package com.alipay.scheduler;
+
+/**
+ * 分层时间轮，4层，每层256个槽，第k层每个槽跨 256^k 个tick
+ * <p>
+ * 每个条目只占三个long（编号、到期时间、引用），按槽存放在 long 数组中，不为单个条目创建对象。
+ * 推进到某个tick时，低位全部为0的上层槽先整体下放到下层，再取出第0层当前槽中的条目；
+ * 条目不会早于到期时间取出，最多晚一个tick。超出 256^4 个tick的到期时间按最大值处理。
+ * 另外按编号记录条目所在的槽（{@link LongIntMap}），删除时只查找一个槽。编号必须大于0且不重复。
+ * 非线程安全，由调用方加锁。
+ */
+final class TimingWheel {
+
+	private static final int LEVELS = 4;
+	private static final int BITS = 8;
+	private static final int SIZE = 1 << BITS;
+	private static final int MASK = SIZE - 1;
+	private static final int ENTRY_LONGS = 3;
+	private static final int RETAINED_LONGS = 3 * 1024;
+
+	/**
+	 * 取出到期条目的回调
+	 */
+	interface Sink {
+		void expire(long id, long dueMillis, long ref);
+	}
+
+	/**
+	 * 遍历条目的回调
+	 */
+	interface Visitor {
+		/**
+		 * @return 新的引用，返回负数时删除该条目
+		 */
+		long visit(long id, long dueMillis, long ref);
+	}
+
+	private final long tickMillis;
+	private final long[][] slots = new long[LEVELS * SIZE][];
+	private final int[] lengths = new int[LEVELS * SIZE];
+	/**
+	 * 编号到槽下标
+	 */
+	private final LongIntMap slotOf = new LongIntMap();
+	/**
+	 * 已处理到的tick
+	 */
+	private long currentTick;
+	private int size;
+
+	TimingWheel(long tickMillis, long nowMillis) {
+		this.tickMillis = tickMillis;
+		this.currentTick = nowMillis / tickMillis;
+	}
+
+	/**
+	 * 添加条目，已到期的条目在下一个tick取出
+	 */
+	void add(long id, long dueMillis, long ref) {
+		long dueTick = dueMillis / tickMillis + (dueMillis % tickMillis == 0 ? 0 : 1);
+		place(id, dueMillis, ref, Math.max(dueTick, currentTick + 1));
+		size++;
+	}
+
+	/**
+	 * 推进到当前时间，依次取出到期的条目
+	 */
+	void advance(long nowMillis, Sink sink) {
+		long targetTick = nowMillis / tickMillis;
+		if (size == 0 && targetTick > currentTick) {
+			currentTick = targetTick;
+			return;
+		}
+		while (currentTick < targetTick) {
+			long tick = ++currentTick;
+			for (int level = LEVELS - 1; level > 0; level--) {
+				if ((tick & ((1L << (BITS * level)) - 1)) == 0)
+					cascade(level * SIZE + (int) ((tick >>> (BITS * level)) & MASK));
+			}
+			int index = (int) (tick & MASK);
+			long[] entries = slots[index];
+			int length = lengths[index];
+			if (length == 0)
+				continue;
+			lengths[index] = 0;
+			if (entries.length > RETAINED_LONGS)
+				slots[index] = null;
+			size -= length / ENTRY_LONGS;
+			for (int i = 0; i < length; i += ENTRY_LONGS)
+				slotOf.remove(entries[i]);
+			for (int i = 0; i < length; i += ENTRY_LONGS)
+				sink.expire(entries[i], entries[i + 1], entries[i + 2]);
+			if (size == 0 && targetTick > currentTick)
+				currentTick = targetTick;
+		}
+	}
+
+	/**
+	 * 遍历全部条目，可以修改引用或删除条目
+	 */
+	void forEach(Visitor visitor) {
+		for (int index = 0; index < slots.length; index++) {
+			long[] entries = slots[index];
+			int length = lengths[index];
+			int kept = 0;
+			for (int i = 0; i < length; i += ENTRY_LONGS) {
+				long ref = visitor.visit(entries[i], entries[i + 1], entries[i + 2]);
+				if (ref < 0) {
+					slotOf.remove(entries[i]);
+					continue;
+				}
+				entries[kept] = entries[i];
+				entries[kept + 1] = entries[i + 1];
+				entries[kept + 2] = ref;
+				kept += ENTRY_LONGS;
+			}
+			lengths[index] = kept;
+			size -= (length - kept) / ENTRY_LONGS;
+		}
+	}
+
+	/**
+	 * 删除编号对应的条目，只查找条目所在的槽
+	 *
+	 * @return 条目存在时返回true
+	 */
+	boolean remove(long id) {
+		int index = slotOf.get(id);
+		if (index < 0)
+			return false;
+		slotOf.remove(id);
+		long[] entries = slots[index];
+		int length = lengths[index];
+		for (int i = 0; i < length; i += ENTRY_LONGS) {
+			if (entries[i] != id)
+				continue;
+			System.arraycopy(entries, i + ENTRY_LONGS, entries, i, length - i - ENTRY_LONGS);
+			lengths[index] = length - ENTRY_LONGS;
+			size--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return 条目数
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * 把上层槽中的条目按剩余时间重新放入下层；下放的条目不会回到同一个槽
+	 */
+	private void cascade(int index) {
+		long[] entries = slots[index];
+		int length = lengths[index];
+		if (length == 0)
+			return;
+		lengths[index] = 0;
+		if (entries.length > RETAINED_LONGS)
+			slots[index] = null;
+		for (int i = 0; i < length; i += ENTRY_LONGS) {
+			long dueMillis = entries[i + 1];
+			long dueTick = dueMillis / tickMillis + (dueMillis % tickMillis == 0 ? 0 : 1);
+			place(entries[i], dueMillis, entries[i + 2], Math.max(dueTick, currentTick));
+		}
+	}
+
+	private void place(long id, long dueMillis, long ref, long dueTick) {
+		long delta = dueTick - currentTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1)))
+			level++;
+		if (level == LEVELS - 1 && delta >= 1L << (BITS * LEVELS))
+			dueTick = currentTick + (1L << (BITS * LEVELS)) - 1;
+		int index = level * SIZE + (int) ((dueTick >>> (BITS * level)) & MASK);
+		long[] entries = slots[index];
+		int length = lengths[index];
+		if (null == entries) {
+			entries = new long[ENTRY_LONGS * 4];
+			slots[index] = entries;
+		} else if (length + ENTRY_LONGS > entries.length) {
+			long[] grown = new long[entries.length * 2];
+			System.arraycopy(entries, 0, grown, 0, length);
+			entries = grown;
+			slots[index] = entries;
+		}
+		entries[length] = id;
+		entries[length + 1] = dueMillis;
+		entries[length + 2] = ref;
+		lengths[index] = length + ENTRY_LONGS;
+		slotOf.put(id, index);
+	}
+}
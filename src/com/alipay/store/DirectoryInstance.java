@@ -0,0 +1,76 @@
+package com.alipay.store;
+
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.metrics.PrometheusCollector;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 按目录打开的全局实例，如死信库、延时消息调度器、关注者索引：同时只有一个，打开时注册Prometheus输出，取出关闭时移除
+ *
+ * @param <T> 实例类型
+ */
+public final class DirectoryInstance<T extends PrometheusCollector> {
+
+	/**
+	 * 打开实例
+	 *
+	 * @param <T> 实例类型
+	 */
+	public interface Opener<T> {
+		T open(File dir) throws IOException;
+	}
+
+	private final String name;
+	private T instance;
+	private File dir;
+
+	/**
+	 * @param name 用于异常信息，如“死信库”
+	 */
+	public DirectoryInstance(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * 打开全局实例，已在同一目录打开时直接返回
+	 *
+	 * @param dir    目录
+	 * @param opener 打开实例
+	 * @return 全局实例
+	 * @throws IOException           打开失败
+	 * @throws IllegalStateException 已在其他目录打开
+	 */
+	public synchronized T open(File dir, Opener<T> opener) throws IOException {
+		if (null != instance) {
+			if (!this.dir.getAbsoluteFile().equals(dir.getAbsoluteFile()))
+				throw new IllegalStateException(name + "已在其他目录打开：" + this.dir);
+			return instance;
+		}
+		instance = opener.open(dir);
+		this.dir = dir;
+		MetricsRegistry.getInstance().register(instance);
+		return instance;
+	}
+
+	/**
+	 * @return 全局实例，未打开时返回null
+	 */
+	public synchronized T get() {
+		return instance;
+	}
+
+	/**
+	 * 取出全局实例并移除Prometheus输出，由调用方关闭
+	 *
+	 * @return 全局实例，未打开时返回null
+	 */
+	public synchronized T take() {
+		T taken = instance;
+		instance = null;
+		if (null != taken)
+			MetricsRegistry.getInstance().unregister(taken);
+		return taken;
+	}
+}
@@ -0,0 +1,51 @@
+package com.alipay.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * 数据目录的独占锁，同一目录同时只能被一个实例打开（同一进程或其他进程）
+ */
+public final class DirectoryLock {
+
+	private final RandomAccessFile lockFile;
+	private final FileLock fileLock;
+
+	/**
+	 * 创建目录（不存在时）并锁定
+	 *
+	 * @param dir      目录
+	 * @param lockName 目录中的锁文件名
+	 * @param name     用于异常信息，如“死信”
+	 * @throws IOException 目录无法创建或已被使用
+	 */
+	public DirectoryLock(File dir, String lockName, String name) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("无法创建" + name + "目录：" + dir);
+		lockFile = new RandomAccessFile(new File(dir, lockName), "rw");
+		FileLock lock;
+		try {
+			lock = lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (null == lock) {
+			lockFile.close();
+			throw new IOException(name + "目录已被使用：" + dir);
+		}
+		fileLock = lock;
+	}
+
+	/**
+	 * 释放目录
+	 *
+	 * @throws IOException 释放失败
+	 */
+	public void release() throws IOException {
+		fileLock.release();
+		lockFile.close();
+	}
+}
@@ -0,0 +1,382 @@
+package com.alipay.store;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * 带校验的追加写记录文件，死信库与延时消息调度器共用
+ * <p>
+ * 文件头8字节（magic、版本号1），之后每条记录为 长度（4字节）、CRC32（4字节）、内容，内容的第一个字节一般为记录类型。
+ * 打开后由 {@link #recover} 从头扫描，在第一条不完整或校验失败的记录处截断；
+ * 压缩时经 {@link #rewrite()} 把仍然需要的记录复制到临时文件，落盘后原子替换原文件。
+ * 非线程安全，由调用方加锁。
+ */
+public final class RecordLog {
+
+	/**
+	 * 记录头字节数：长度与CRC32，编码记录时在内容之前预留
+	 */
+	public static final int RECORD_HEADER_BYTES = 8;
+
+	private static final int HEADER_BYTES = 8;
+	private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * 扫描记录的回调
+	 */
+	public interface Visitor {
+		/**
+		 * @param offset 记录在文件中的偏移
+		 * @param body   记录内容，从第一个字节开始读
+		 */
+		void visit(long offset, ByteBuffer body);
+	}
+
+	private final File file;
+	private final int magic;
+	private final String name;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long size;
+	private long records;
+
+	/**
+	 * 打开文件，不存在或为空时写入文件头；之后调用 {@link #recover} 读取已有的记录
+	 *
+	 * @param file  文件
+	 * @param magic 文件头中的magic
+	 * @param name  用于日志与异常信息，如“死信”
+	 * @throws IOException 文件读写错误
+	 */
+	public RecordLog(File file, int magic, String name) throws IOException {
+		this.file = file;
+		this.magic = magic;
+		this.name = name;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		try {
+			if (channel.size() == 0) {
+				channel.write(header(magic), 0);
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		size = HEADER_BYTES;
+	}
+
+	/**
+	 * 按顺序扫描全部完整的记录，不修改文件
+	 *
+	 * @param visitor 回调
+	 * @return 最后一条完整记录的结束位置
+	 * @throws IOException 文件头不正确或读取失败
+	 */
+	public long scan(Visitor visitor) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		try {
+			DataInputStream data = new DataInputStream(in);
+			if (data.readInt() != magic)
+				throw new IOException(name + "文件头不正确：" + file);
+			data.readInt();
+			long offset = HEADER_BYTES;
+			records = 0;
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				int checksum;
+				byte[] body;
+				try {
+					length = data.readInt();
+					checksum = data.readInt();
+					if (length <= 0 || length > MAX_RECORD_BYTES)
+						break;
+					body = new byte[length];
+					data.readFully(body);
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(body, 0, length);
+				if ((int) crc.getValue() != checksum)
+					break;
+				visitor.visit(offset, ByteBuffer.wrap(body));
+				offset += RECORD_HEADER_BYTES + length;
+				records++;
+			}
+			return offset;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 扫描全部完整的记录，并截断末尾不完整或损坏的部分，之后才能追加
+	 *
+	 * @param visitor 回调
+	 * @throws IOException 文件头不正确或读写失败
+	 */
+	public void recover(Visitor visitor) throws IOException {
+		long end = scan(visitor);
+		if (end < channel.size()) {
+			System.out.println(name + "文件末尾有不完整的记录，截断：" + file + " " + channel.size() + " -> " + end);
+			channel.truncate(end);
+		}
+		size = end;
+	}
+
+	/**
+	 * 追加一条记录，不落盘
+	 *
+	 * @param record {@link #seal} 后的记录
+	 * @return 记录的偏移
+	 * @throws IOException 写入失败
+	 */
+	public long append(byte[] record) throws IOException {
+		long offset = size;
+		write(channel, record, offset);
+		size += record.length;
+		records++;
+		return offset;
+	}
+
+	/**
+	 * 读取一条记录的内容
+	 *
+	 * @param offset 记录的偏移
+	 * @return 记录内容，从第一个字节开始读；长度或校验不正确时返回null
+	 * @throws IOException 读取失败
+	 */
+	public ByteBuffer read(long offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		readFully(header, offset);
+		int length = header.getInt(0);
+		if (length <= 0 || offset + RECORD_HEADER_BYTES + length > size)
+			return null;
+		ByteBuffer body = ByteBuffer.allocate(length);
+		readFully(body, offset + RECORD_HEADER_BYTES);
+		CRC32 crc = new CRC32();
+		crc.update(body.array(), 0, length);
+		if ((int) crc.getValue() != header.getInt(4))
+			return null;
+		body.flip();
+		return body;
+	}
+
+	/**
+	 * 落盘
+	 *
+	 * @throws IOException 写入失败
+	 */
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * @return 文件字节数
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return 文件中的记录数，含已失效的记录
+	 */
+	public long records() {
+		return records;
+	}
+
+	/**
+	 * 关闭文件，不落盘
+	 *
+	 * @throws IOException 关闭失败
+	 */
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * 开始压缩：把仍然需要的记录复制到临时文件，{@link Rewrite#commit()} 后替换原文件。用法：
+	 * <pre>
+	 * Rewrite rewrite = log.rewrite();
+	 * try {
+	 *     ...
+	 *     rewrite.commit();
+	 * } finally {
+	 *     rewrite.abort();
+	 * }
+	 * </pre>
+	 *
+	 * @return 压缩
+	 * @throws IOException 无法创建临时文件
+	 */
+	public Rewrite rewrite() throws IOException {
+		return new Rewrite(new File(file.getPath() + ".compact"));
+	}
+
+	/**
+	 * 填写记录头：内容从 {@link #RECORD_HEADER_BYTES} 开始，写满整个数组
+	 *
+	 * @param record 预留了记录头的记录
+	 * @return 记录的字节数组
+	 */
+	public static byte[] seal(ByteBuffer record) {
+		byte[] bytes = record.array();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, RECORD_HEADER_BYTES, bytes.length - RECORD_HEADER_BYTES);
+		record.putInt(0, bytes.length - RECORD_HEADER_BYTES);
+		record.putInt(4, (int) crc.getValue());
+		return bytes;
+	}
+
+	/**
+	 * 读取长度（4字节）加UTF-8内容的字符串，长度为-1表示null
+	 *
+	 * @param reader 记录内容
+	 * @return 字符串，为null或长度超出记录时返回null
+	 */
+	public static String readString(ByteBuffer reader) {
+		if (reader.remaining() < 4)
+			return null;
+		int length = reader.getInt();
+		if (length < 0 || length > reader.remaining())
+			return null;
+		byte[] bytes = new byte[length];
+		reader.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException();
+		}
+	}
+
+	private static ByteBuffer header(int magic) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(0, magic).putInt(4, 1);
+		return header;
+	}
+
+	private static void write(FileChannel target, byte[] record, long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		while (buffer.hasRemaining())
+			target.write(buffer, offset + buffer.position());
+	}
+
+	/**
+	 * 进行中的压缩
+	 */
+	public final class Rewrite {
+		private final File tmp;
+		private final RandomAccessFile out;
+		private final FileChannel target;
+		private long position = HEADER_BYTES;
+		private long count;
+		private ByteBuffer copy = ByteBuffer.allocate(4096);
+		private boolean finished;
+
+		private Rewrite(File tmp) throws IOException {
+			this.tmp = tmp;
+			this.out = new RandomAccessFile(tmp, "rw");
+			this.target = out.getChannel();
+			try {
+				target.truncate(0);
+				target.write(header(magic), 0);
+			} catch (IOException e) {
+				abort();
+				throw e;
+			}
+		}
+
+		/**
+		 * 从原文件复制一条记录
+		 *
+		 * @param offset 记录在原文件中的偏移
+		 * @return 记录在新文件中的偏移
+		 * @throws IOException 读写失败
+		 */
+		public long copy(long offset) throws IOException {
+			ByteBuffer buffer = copy;
+			buffer.clear().limit(RECORD_HEADER_BYTES);
+			readFully(buffer, offset);
+			int length = RECORD_HEADER_BYTES + buffer.getInt(0);
+			if (length > buffer.capacity()) {
+				buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+				copy = buffer;
+			}
+			buffer.clear().limit(length);
+			readFully(buffer, offset);
+			buffer.flip();
+			long newOffset = position;
+			while (buffer.hasRemaining())
+				target.write(buffer, newOffset + buffer.position());
+			position += length;
+			count++;
+			return newOffset;
+		}
+
+		/**
+		 * 向新文件追加一条记录
+		 *
+		 * @param record {@link #seal} 后的记录
+		 * @return 记录在新文件中的偏移
+		 * @throws IOException 写入失败
+		 */
+		public long append(byte[] record) throws IOException {
+			long newOffset = position;
+			write(target, record, newOffset);
+			position += record.length;
+			count++;
+			return newOffset;
+		}
+
+		/**
+		 * 新文件落盘后原子替换原文件，之后的读写都在新文件上进行
+		 *
+		 * @throws IOException 写入或替换失败，原文件保持不变
+		 */
+		public void commit() throws IOException {
+			target.force(false);
+			out.close();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			finished = true;
+			raf.close();
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+			size = position;
+			records = count;
+		}
+
+		/**
+		 * 未提交时放弃并删除临时文件，已提交时不做任何事
+		 */
+		public void abort() {
+			if (finished)
+				return;
+			finished = true;
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (!tmp.delete())
+				System.out.println("无法删除临时文件：" + tmp);
+		}
+	}
+}
@@ -3,23 +3,65 @@ package com.alipay.util;
 import com.alipay.api.AlipayApiException;
 import com.alipay.api.AlipayClient;
 import com.alipay.api.AlipayConstants;
+import com.alipay.api.AlipayRequest;
+import com.alipay.api.AlipayResponse;
 import com.alipay.api.FileItem;
 import com.alipay.api.domain.*;
 import com.alipay.api.internal.util.AlipaySignature;
 import com.alipay.api.internal.util.StringUtils;
+import com.alipay.api.internal.util.json.JSONWriter;
 import com.alipay.api.request.*;
 import com.alipay.api.response.*;
+import com.alipay.bulk.BulkMessage;
+import com.alipay.bulk.BulkSendCampaign;
+import com.alipay.bulk.BulkSendResult;
+import com.alipay.bulk.FollowerCursor;
+import com.alipay.bulk.LabelSyncJob;
+import com.alipay.bulk.LabelSyncResult;
+import com.alipay.bulk.UserIdSource;
+import com.alipay.bulk.UserIdSources;
+import com.alipay.cache.OauthTokenStore;
+import com.alipay.cache.SingleFlight;
+import com.alipay.cache.TtlCache;
+import com.alipay.client.CircuitBreakerAlipayClient;
+import com.alipay.client.ConsumerException;
+import com.alipay.client.DirectAlipayClient;
+import com.alipay.client.FollowListStreamRequest;
+import com.alipay.client.FollowerConsumer;
+import com.alipay.client.InstrumentedAlipayClient;
+import com.alipay.client.QuotaAlipayClient;
+import com.alipay.client.QuotaManager;
+import com.alipay.dispatcher.ChatCoalescer;
+import com.alipay.dispatcher.CustomSendTask;
 import com.alipay.dispatcher.Dispatcher;
 import com.alipay.domain.AlipayColorValue;
 import com.alipay.domain.AlipayImageTextMessage;
 import com.alipay.executor.ActionExecutor;
+import com.alipay.executor.InAlipayChatTextExecutor;
 import com.alipay.factory.AlipayAPIClientFactory;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
-import java.util.HashMap;
+import com.alipay.index.FollowerIndex;
+import com.alipay.index.FollowerReconciler;
+import com.alipay.index.LabelIndex;
+import com.alipay.index.Segment;
+import com.alipay.index.StoreIndex;
+import com.alipay.journal.DeadLetter;
+import com.alipay.journal.DeadLetterStore;
+import com.alipay.journal.JournalEntry;
+import com.alipay.journal.OutboundJournal;
+import com.alipay.metrics.MetricsRegistry;
+import com.alipay.scheduler.MessageScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AliTool {
 	/**
@@ -69,9 +111,82 @@ public class AliTool {
 	 */
 	private String GRANT_TYPE = "authorization_code";
 
+	/**
+	 * 熔断阈值-同一API连续失败多少次后熔断
+	 */
+	private int CIRCUIT_FAILURE_THRESHOLD = 5;
+
+	/**
+	 * 熔断持续时间（毫秒），之后放行探测请求
+	 */
+	private long CIRCUIT_OPEN_MILLIS = 30000;
+
+	/**
+	 * 半开状态下放行的探测请求数
+	 */
+	private int CIRCUIT_HALF_OPEN_PROBES = 1;
+
+	/**
+	 * 可缓存的配置类查询接口，对应的修改接口调用后失效
+	 */
+	private static final String INFO_QUERY_METHOD = "alipay.open.public.info.query";
+	private static final String MENU_BATCHQUERY_METHOD = "alipay.open.public.menu.batchquery";
+	private static final String LIFE_LABEL_BATCHQUERY_METHOD = "alipay.open.public.life.label.batchquery";
+	private static final String EXTENSION_BATCHQUERY_METHOD = "alipay.open.public.personalized.extension.batchquery";
+
 	private Map<String, AlipayClient> clientMap;
 
-	private Gson googleGson;
+	/**
+	 * 按API方法的调用配额，默认不限流
+	 */
+	private QuotaManager quotaManager;
+
+	/**
+	 * 配置类查询接口的响应缓存 默认有效期：60秒
+	 */
+	private TtlCache<String, AlipayResponse> responseCache;
+
+	/**
+	 * 进行中的查询请求，并发的相同查询只向网关发送一次
+	 */
+	private SingleFlight<String, AlipayResponse> inFlightReads;
+
+	/**
+	 * 用户地理位置缓存 默认有效期：30秒
+	 */
+	private TtlCache<String, AlipayResponse> locationCache;
+
+	/**
+	 * 位置查询次数，每 {@link #LOCATION_PURGE_INTERVAL} 次清理一次过期的位置缓存
+	 */
+	private AtomicLong locationReads;
+
+	private static final int LOCATION_PURGE_INTERVAL = 4096;
+
+	/**
+	 * 门店坐标索引，默认为空
+	 */
+	private volatile StoreIndex storeIndex;
+
+	/**
+	 * 聊天消息合并窗口，默认不合并
+	 */
+	private volatile ChatCoalescer chatCoalescer;
+
+	/**
+	 * 按模板ID缓存的模板消息渲染器
+	 */
+	private Map<String, TemplateMessageRenderer> templateRenderers;
+
+	/**
+	 * 用户标签的本地索引，默认不开启
+	 */
+	private volatile LabelIndex labelIndex;
+
+	/**
+	 * 网页授权的令牌与用户信息缓存，默认不开启
+	 */
+	private volatile OauthTokenStore oauthTokenStore;
 
 	/**
 	 * 构造函数
@@ -86,8 +201,13 @@ public class AliTool {
 		this.PRIVATE_KEY = privateKey;
 		this.PUBLIC_KEY = publicKey;
 		this.ALIPAY_PUBLIC_KEY = alipayPublickkey;
-		this.clientMap = new HashMap<>();
-		this.googleGson = null;
+		this.clientMap = new ConcurrentHashMap<>();
+		this.quotaManager = new QuotaManager();
+		this.responseCache = new TtlCache<>(60000);
+		this.inFlightReads = new SingleFlight<>();
+		this.locationCache = new TtlCache<>(30000);
+		this.locationReads = new AtomicLong();
+		this.templateRenderers = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -142,6 +262,281 @@ public class AliTool {
 		return PARTNER;
 	}
 
+	/**
+	 * 设置调用支付宝网关的熔断参数，按API方法分别熔断
+	 *
+	 * @param failureThreshold 同一API连续失败多少次后熔断 默认：5
+	 * @param openMillis       熔断持续时间（毫秒），之后放行探测请求 默认：30000
+	 * @param halfOpenProbes   半开状态下放行的探测请求数，全部成功后恢复 默认：1
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openMillis, int halfOpenProbes) {
+		if (failureThreshold > 0)
+			this.CIRCUIT_FAILURE_THRESHOLD = failureThreshold;
+		if (openMillis > 0)
+			this.CIRCUIT_OPEN_MILLIS = openMillis;
+		if (halfOpenProbes > 0)
+			this.CIRCUIT_HALF_OPEN_PROBES = halfOpenProbes;
+		this.clientMap.clear();
+	}
+
+	/**
+	 * 设置API方法的调用配额（支付宝按应用对每个API限制QPS），超出速率的调用先排队，排队超时则直接失败，不再发往网关
+	 *
+	 * @param apiMethodName    API方法名，如 alipay.open.public.message.custom.send、alipay.open.public.message.total.send
+	 * @param permitsPerSecond 每秒允许的调用次数，小于等于0表示取消限流
+	 * @param burst            最多可积攒的调用次数
+	 * @param maxWaitMillis    超出速率时最多排队等待的毫秒数，0表示直接拒绝
+	 */
+	public void setApiQuota(String apiMethodName, double permitsPerSecond, int burst, long maxWaitMillis) {
+		this.quotaManager.setQuota(apiMethodName, permitsPerSecond, burst, maxWaitMillis);
+	}
+
+	public QuotaManager getQuotaManager() {
+		return quotaManager;
+	}
+
+	/**
+	 * 设置配置类查询接口（基础信息、菜单、自定义标签、扩展区）的缓存有效期；
+	 * 通过本对象调用对应的修改接口后缓存立即失效
+	 *
+	 * @param ttlMillis 缓存有效期（毫秒），小于等于0表示不缓存 默认：60000
+	 */
+	public void setResponseCacheTtl(long ttlMillis) {
+		this.responseCache.setTtlMillis(ttlMillis);
+	}
+
+	/**
+	 * 设置用户地理位置的缓存有效期，有效期内同一用户的位置查询不再调用接口
+	 *
+	 * @param ttlMillis 缓存有效期（毫秒），小于等于0表示不缓存 默认：30000
+	 */
+	public void setUserLocationCacheTtl(long ttlMillis) {
+		this.locationCache.setTtlMillis(ttlMillis);
+		if (ttlMillis <= 0)
+			this.locationCache.invalidateAll();
+	}
+
+	/**
+	 * 设置聊天消息合并窗口：同一用户在窗口期内连续发送的文本消息合并后只回复一次，回复最多延迟一个窗口
+	 *
+	 * @param windowMillis 合并窗口毫秒数，小于等于0表示不合并
+	 * @param maxMessages  一个窗口内最多合并的消息数，达到后立即回复
+	 */
+	public void setChatCoalesceWindow(long windowMillis, int maxMessages) {
+		setChatCoalesceWindow(windowMillis, maxMessages, new InAlipayChatTextExecutor.ReplyHandler(getAlipayClient("JSON"), APP_ID));
+	}
+
+	/**
+	 * 设置聊天消息合并窗口，使用自定义的合并后处理
+	 *
+	 * @param windowMillis 合并窗口毫秒数，小于等于0表示不合并
+	 * @param maxMessages  一个窗口内最多合并的消息数，达到后立即处理
+	 * @param handler      合并后的消息处理
+	 */
+	public synchronized void setChatCoalesceWindow(long windowMillis, int maxMessages, ChatCoalescer.Handler handler) {
+		ChatCoalescer previous = this.chatCoalescer;
+		this.chatCoalescer = windowMillis > 0 ? new ChatCoalescer(APP_ID, windowMillis, maxMessages, handler) : null;
+		if (null != previous)
+			previous.close();
+	}
+
+	/**
+	 * 开启异步客服消息的发送日志，并重发本应用上次运行中未发送成功的消息（同一用户的消息保持原顺序）；
+	 * 开启后消息先写入日志再异步发送，进程崩溃或重新部署不会丢失待发送的回复。
+	 * 写入不等待落盘（group commit），不增加推送的响应时间，但操作系统崩溃或断电时可能丢失最近几毫秒的消息；
+	 * 需要断电也不丢失时使用 {@link #enableOutboundJournal(String, boolean)}。
+	 * 同一进程内的多个应用共用同一个日志目录
+	 *
+	 * @param journalDir 日志目录
+	 * @return 重发的消息数
+	 * @throws IOException 日志目录无法打开
+	 */
+	public int enableOutboundJournal(String journalDir) throws IOException {
+		return enableOutboundJournal(journalDir, false);
+	}
+
+	/**
+	 * 开启异步客服消息的发送日志，并重发本应用上次运行中未发送成功的消息
+	 *
+	 * @param journalDir 日志目录
+	 * @param syncCommit 是否等待落盘：为true时断电也不丢失，但处理推送的线程每写入一条消息都要等待一次刷盘（通常为毫秒级），
+	 *                   推送的响应时间相应增加；同一进程内以第一次打开时的设置为准
+	 * @return 重发的消息数
+	 * @throws IOException 日志目录无法打开
+	 */
+	public int enableOutboundJournal(String journalDir, boolean syncCommit) throws IOException {
+		OutboundJournal journal = OutboundJournal.openInstance(new File(journalDir), syncCommit);
+		List<JournalEntry> entries = journal.recover(APP_ID);
+		AlipayClient alipayClient = getAlipayClient("JSON");
+		for (JournalEntry entry : entries)
+			CustomSendTask.resubmit(alipayClient, journal, entry);
+		return entries.size();
+	}
+
+	/**
+	 * 按用户逐个群发消息，阻塞到发送完毕；调用受 {@link #setApiQuota(String, double, int, long)} 的配额限制，
+	 * 中断后使用同一断点文件再次调用会跳过已发送的用户继续发送
+	 *
+	 * @param message        消息模板
+	 * @param source         用户id来源，如 {@link UserIdSources#followers(AliTool)}
+	 * @param checkpointFile 断点文件路径
+	 * @param concurrency    并发数
+	 * @return BulkSendResult 对象
+	 * @throws IOException 断点文件或来源读写失败
+	 */
+	public BulkSendResult bulkSend(BulkMessage message, UserIdSource source, String checkpointFile, int concurrency) throws IOException {
+		return new BulkSendCampaign(getAlipayClient("JSON"), message, source, new File(checkpointFile), concurrency).run();
+	}
+
+	/**
+	 * 开启死信库：重试后仍然发送失败的异步消息写入死信库，而不是只打印日志；同一进程内的多个应用共用同一个目录
+	 *
+	 * @param deadLetterDir 死信目录
+	 * @throws IOException 死信目录无法打开
+	 */
+	public void enableDeadLetterStore(String deadLetterDir) throws IOException {
+		DeadLetterStore.openInstance(new File(deadLetterDir));
+	}
+
+	/**
+	 * 列出本应用的死信
+	 *
+	 * @param max 最多返回的条数
+	 * @return 死信，按进入死信库的顺序
+	 * @throws IOException 读取失败
+	 */
+	public List<DeadLetter> listDeadLetters(int max) throws IOException {
+		return requireDeadLetterStore().list(APP_ID, max);
+	}
+
+	/**
+	 * 重新发送本应用的死信，提交后从死信库删除
+	 *
+	 * @param max 最多重新发送的条数
+	 * @return 重新发送的条数
+	 * @throws IOException 读取失败
+	 */
+	public int requeueDeadLetters(int max) throws IOException {
+		return CustomSendTask.requeueDeadLetters(getAlipayClient("JSON"), requireDeadLetterStore(), APP_ID, max);
+	}
+
+	/**
+	 * 清除本应用的全部死信
+	 *
+	 * @return 清除的条数
+	 * @throws IOException 读取失败
+	 */
+	public int purgeDeadLetters() throws IOException {
+		return requireDeadLetterStore().purge(APP_ID);
+	}
+
+	private static DeadLetterStore requireDeadLetterStore() {
+		DeadLetterStore store = DeadLetterStore.getInstance();
+		if (null == store)
+			throw new IllegalStateException("死信库未开启，请先调用 enableDeadLetterStore");
+		return store;
+	}
+
+	/**
+	 * 开启延时消息调度器并注册本应用，恢复上次运行中未发送的延时消息；同一进程内的多个应用共用同一个调度目录
+	 *
+	 * @param schedulerDir 调度目录
+	 * @throws IOException 调度目录无法打开
+	 */
+	public void enableMessageScheduler(String schedulerDir) throws IOException {
+		MessageScheduler.openInstance(new File(schedulerDir)).register(APP_ID, getAlipayClient("JSON"));
+	}
+
+	/**
+	 * 延时发送客服消息，到期后与其他异步消息一样发送；需先调用 {@link #enableMessageScheduler(String)}
+	 *
+	 * @param toUserId    消息接收用户的userid
+	 * @param bizContent  客服消息业务参数，如 {@link CustomMessageBuilder} 构造的消息
+	 * @param delayMillis 延时毫秒数
+	 * @return 调度编号，用于 {@link #cancelScheduledMessage(long)}
+	 * @throws IOException 写入调度日志失败
+	 */
+	public long scheduleCustomSend(String toUserId, String bizContent, long delayMillis) throws IOException {
+		return requireScheduler().schedule(APP_ID, toUserId, bizContent, delayMillis);
+	}
+
+	/**
+	 * 取消一条延时消息
+	 *
+	 * @param id {@link #scheduleCustomSend(String, String, long)} 返回的调度编号
+	 */
+	public void cancelScheduledMessage(long id) {
+		requireScheduler().cancel(id);
+	}
+
+	/**
+	 * 取消发给该用户的全部延时消息
+	 *
+	 * @param toUserId 消息接收用户的userid
+	 */
+	public void cancelScheduledMessages(String toUserId) {
+		requireScheduler().cancelUser(APP_ID, toUserId);
+	}
+
+	private static MessageScheduler requireScheduler() {
+		MessageScheduler scheduler = MessageScheduler.getInstance();
+		if (null == scheduler)
+			throw new IllegalStateException("延时消息调度器未开启，请先调用 enableMessageScheduler");
+		return scheduler;
+	}
+
+	/**
+	 * 开启关注者索引：关注、取消关注事件自动更新本应用的索引，用于 {@link #isFollower(String)}；同一进程内的多个应用共用同一个目录。
+	 * 首次开启或索引可能与支付宝不一致时调用 {@link #loadFollowerIndex()} 重建
+	 *
+	 * @param indexDir 索引目录
+	 * @throws IOException 索引目录无法打开
+	 */
+	public void enableFollowerIndex(String indexDir) throws IOException {
+		FollowerIndex.openInstance(new File(indexDir));
+	}
+
+	/**
+	 * 拉取全部关注者重建本应用的关注者索引，重建期间仍可查询
+	 *
+	 * @return 关注者数
+	 * @throws IOException 拉取关注者列表失败或索引文件读写失败，原索引不变
+	 */
+	public int loadFollowerIndex() throws IOException {
+		return requireFollowerIndex().load(APP_ID, new FollowerCursor(this));
+	}
+
+	/**
+	 * 拉取全部关注者核对本应用的关注者索引，只修正不一致的部分，用于补上丢失的关注、取消关注事件
+	 *
+	 * @param listener 差异回调，可以为null
+	 * @return 核对结果
+	 * @throws IOException 拉取关注者列表失败或索引文件读写失败
+	 */
+	public FollowerReconciler reconcileFollowerIndex(FollowerReconciler.Listener listener) throws IOException {
+		FollowerReconciler reconciler = new FollowerReconciler(requireFollowerIndex(), APP_ID, listener);
+		reconciler.run(new FollowerCursor(this));
+		return reconciler;
+	}
+
+	/**
+	 * 根据关注者索引判断用户是否关注了本服务窗，不调用支付宝接口
+	 *
+	 * @param userId 用户的userId
+	 * @return 是否关注
+	 * @throws IOException 索引文件读写失败
+	 */
+	public boolean isFollower(String userId) throws IOException {
+		return requireFollowerIndex().contains(APP_ID, userId);
+	}
+
+	private static FollowerIndex requireFollowerIndex() {
+		FollowerIndex index = FollowerIndex.getInstance();
+		if (null == index)
+			throw new IllegalStateException("关注者索引未开启，请先调用 enableFollowerIndex");
+		return index;
+	}
+
 	// FIXME   绑定商户会员号接口
 
 	/**
@@ -232,7 +627,6 @@ public class AliTool {
 	 * @return AlipayOpenPublicAccountQueryResponse 对象
 	 */
 	public AlipayOpenPublicAccountQueryResponse accountQuery(String userId, String format) {
-		AlipayClient alipayClient = getAlipayClient(format);
 		AlipayOpenPublicAccountQueryRequest request = new AlipayOpenPublicAccountQueryRequest();
 		AlipayOpenPublicAccountQueryModel model = new AlipayOpenPublicAccountQueryModel();
 		AlipayOpenPublicAccountQueryResponse response = null;
@@ -242,7 +636,7 @@ public class AliTool {
 			else throw new AlipayApiException("查询绑定商户会员号时userId必须要有");
 			request.setBizModel(model);
 			// 使用SDK，调用交易下单接口
-			response = alipayClient.execute(request);
+			response = executeShared(request, format);
 
 		} catch (AlipayApiException e) {
 			e.printStackTrace();
@@ -380,11 +774,10 @@ public class AliTool {
 	 * @return AlipayOpenPublicInfoQueryResponse 对象
 	 */
 	public AlipayOpenPublicInfoQueryResponse appInfoQuery(String format) {
-		AlipayClient alipayClient = getAlipayClient(format);
 		AlipayOpenPublicInfoQueryRequest request = new AlipayOpenPublicInfoQueryRequest();
 		AlipayOpenPublicInfoQueryResponse response = null;
 		try {
-			response = alipayClient.execute(request);
+			response = executeCached(request, format);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -452,6 +845,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(INFO_QUERY_METHOD);
 		}
 		return response;
 	}
@@ -682,6 +1077,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(EXTENSION_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -717,6 +1114,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(EXTENSION_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -754,6 +1153,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(EXTENSION_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -775,11 +1176,10 @@ public class AliTool {
 	 * @return AlipayOpenPublicPersonalizedExtensionBatchqueryResponse 对象
 	 */
 	public AlipayOpenPublicPersonalizedExtensionBatchqueryResponse batchQueryExtensions(String format) {
-		AlipayClient alipayClient = getAlipayClient(format);
 		AlipayOpenPublicPersonalizedExtensionBatchqueryRequest request = new AlipayOpenPublicPersonalizedExtensionBatchqueryRequest();
 		AlipayOpenPublicPersonalizedExtensionBatchqueryResponse response = null;
 		try {
-			response = alipayClient.execute(request);
+			response = executeCached(request, format);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -820,8 +1220,13 @@ public class AliTool {
 			model.setDataType(dataType);
 			request.setBizModel(model);
 			response = alipayClient.execute(request);
+			LabelIndex index = labelIndex;
+			if (null != index && response.isSuccess())
+				index.createLabel(response.getLabelId(), labelName);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(LIFE_LABEL_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -861,6 +1266,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(LIFE_LABEL_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -883,11 +1290,10 @@ public class AliTool {
 	 * @return AlipayOpenPublicLifeLabelBatchqueryResponse 对象
 	 */
 	public AlipayOpenPublicLifeLabelBatchqueryResponse lifeLabelBatchQuery(String format) {
-		AlipayClient alipayClient = getAlipayClient(format);
 		AlipayOpenPublicLifeLabelBatchqueryRequest request = new AlipayOpenPublicLifeLabelBatchqueryRequest();
 		AlipayOpenPublicLifeLabelBatchqueryResponse response = null;
 		try {
-			response = alipayClient.execute(request);
+			response = executeCached(request, format);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -915,8 +1321,13 @@ public class AliTool {
 			else throw new Exception("删除自定义标签时labelId不能为空！");
 			request.setBizModel(model);
 			response = alipayClient.execute(request);
+			LabelIndex index = labelIndex;
+			if (null != index && response.isSuccess())
+				index.deleteLabel(labelId);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(LIFE_LABEL_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -951,6 +1362,9 @@ public class AliTool {
 			model.setMatchers(matchers);
 			request.setBizModel(model);
 			response = alipayClient.execute(request);
+			LabelIndex index = labelIndex;
+			if (null != index && response.isSuccess())
+				index.addUsers(labelId, labelValue, matchedUserIds(matchers, response.getErrorMatchers()));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -991,6 +1405,9 @@ public class AliTool {
 			model.setMatchers(matchers);
 			request.setBizModel(model);
 			response = alipayClient.execute(request);
+			LabelIndex index = labelIndex;
+			if (null != index && response.isSuccess())
+				index.removeUsers(labelId, matchedUserIds(matchers, response.getErrorMatchers()));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -1008,6 +1425,74 @@ public class AliTool {
 		return matchuserLabelDel(labelId, matchers, "JSON");
 	}
 
+	/**
+	 * 开启用户标签的本地索引：之后创建、删除标签与用户打标、取消打标成功后（按user_id匹配的用户）同步更新索引，
+	 * 用于组合查询与按标签群发。索引只保存在内存中，开启前已有的标签关系不在索引中，可用 {@link LabelIndex#seed} 补全
+	 *
+	 * @return LabelIndex
+	 */
+	public synchronized LabelIndex enableLabelIndex() {
+		if (null == labelIndex)
+			labelIndex = new LabelIndex();
+		return labelIndex;
+	}
+
+	/**
+	 * @return 用户标签的本地索引，未开启时返回null
+	 */
+	public LabelIndex getLabelIndex() {
+		return labelIndex;
+	}
+
+	/**
+	 * 把标签值同步为指定的用户集合：与上次同步的结果比较，只对差异按每批10个用户并发打标、取消打标，调用受
+	 * {@link #setApiQuota(String, double, int, long)} 的配额限制；需先调用 {@link #enableLabelIndex()}，
+	 * 且标签在本进程中新建或已用 {@link LabelIndex#seed} 补全，否则抛出 IllegalStateException；
+	 * 跨重启同步使用 {@link #syncLabel(String, String, UserIdSource, String, int)}
+	 *
+	 * @param labelId     标签id
+	 * @param labelValue  标签值
+	 * @param desired     应当有该标签值的全部用户，如 {@link Segment#userIds()}
+	 * @param concurrency 并发数
+	 * @return LabelSyncResult 对象，含每批的失败明细
+	 * @throws IOException 读取用户失败
+	 */
+	public LabelSyncResult syncLabel(String labelId, String labelValue, UserIdSource desired, int concurrency) throws IOException {
+		return new LabelSyncJob(this, labelId, labelValue, concurrency).run(desired);
+	}
+
+	/**
+	 * 把标签值同步为指定的用户集合，同步后的用户保存在状态文件中，重启后的第一次同步以它为基准
+	 *
+	 * @param labelId     标签id
+	 * @param labelValue  标签值
+	 * @param desired     应当有该标签值的全部用户，如 {@link Segment#userIds()}
+	 * @param stateFile   状态文件路径；第一次同步前如支付宝上没有用户有该标签值，可以创建空文件
+	 * @param concurrency 并发数
+	 * @return LabelSyncResult 对象，含每批的失败明细
+	 * @throws IOException 读取用户或读写状态文件失败
+	 */
+	public LabelSyncResult syncLabel(String labelId, String labelValue, UserIdSource desired, String stateFile, int concurrency)
+			throws IOException {
+		return new LabelSyncJob(this, labelId, labelValue, new File(stateFile), concurrency).run(desired);
+	}
+
+	/**
+	 * 按user_id匹配且未出现在失败列表中的用户
+	 */
+	private static List<String> matchedUserIds(List<Matcher> matchers, List<ErrorMatcher> errorMatchers) {
+		Set<String> failed = new HashSet<>();
+		if (null != errorMatchers)
+			for (ErrorMatcher error : errorMatchers)
+				if (null != error.getMatcher() && null != error.getMatcher().getUserId())
+					failed.add(error.getMatcher().getUserId());
+		List<String> userIds = new ArrayList<>(matchers.size());
+		for (Matcher matcher : matchers)
+			if (null != matcher.getUserId() && !failed.contains(matcher.getUserId()))
+				userIds.add(matcher.getUserId());
+		return userIds;
+	}
+
 
 	// FIXME 服务窗菜单相关接口
 
@@ -1035,6 +1520,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(MENU_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -1074,6 +1561,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(MENU_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -1118,6 +1607,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(MENU_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -1154,6 +1645,8 @@ public class AliTool {
 			response = alipayClient.execute(request);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			invalidateCache(MENU_BATCHQUERY_METHOD);
 		}
 		return response;
 	}
@@ -1175,11 +1668,10 @@ public class AliTool {
 	 * @return AlipayOpenPublicMenuBatchqueryResponse 对象
 	 */
 	public AlipayOpenPublicMenuBatchqueryResponse menuBatchQuery(String format) {
-		AlipayClient alipayClient = getAlipayClient(format);
 		AlipayOpenPublicMenuBatchqueryRequest request = new AlipayOpenPublicMenuBatchqueryRequest();
 		AlipayOpenPublicMenuBatchqueryResponse response = null;
 		try {
-			response = alipayClient.execute(request);
+			response = executeCached(request, format);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -1211,10 +1703,9 @@ public class AliTool {
 		AlipayImageTextMessage message = new AlipayImageTextMessage();
 		AlipayOpenPublicMessageTotalSendResponse response = null;
 		try {
-			Gson gson = getGson();
 			message.setMsg_type("image-text");
 			message.setArticles(articles);
-			request.setBizContent(gson.toJson(message));
+			request.setBizContent(BizContentJson.toJson(message));
 			response = alipayClient.execute(request);
 		} catch (AlipayApiException e) {
 			e.printStackTrace();
@@ -1245,10 +1736,9 @@ public class AliTool {
 		AlipayImageTextMessage message = new AlipayImageTextMessage();
 		AlipayOpenPublicMessageTotalSendResponse response = null;
 		try {
-			Gson gson = getGson();
 			message.setMsg_type("text");
 			message.setText(text);
-			request.setBizContent(gson.toJson(message));
+			request.setBizContent(BizContentJson.toJson(message));
 			response = alipayClient.execute(request);
 		} catch (AlipayApiException e) {
 			e.printStackTrace();
@@ -1266,6 +1756,22 @@ public class AliTool {
 		return toAlipayGroupSendTextMsg(text, "JSON");
 	}
 
+	/**
+	 * 获取模板的渲染器，关键字集合与缓存的不一致时重新编译
+	 *
+	 * @param templateId 消息模板ID
+	 * @param keywords   模板中的关键字及其颜色与值
+	 * @return TemplateMessageRenderer
+	 */
+	public TemplateMessageRenderer templateRenderer(String templateId, Map<String, AlipayColorValue> keywords) {
+		TemplateMessageRenderer renderer = templateRenderers.get(templateId);
+		if (null == renderer || !renderer.accepts(keywords)) {
+			renderer = TemplateMessageRenderer.compile(templateId, keywords.keySet());
+			templateRenderers.put(templateId, renderer);
+		}
+		return renderer;
+	}
+
 	/**
 	 * 单发模板消息 服务窗组发消息（标签组发消息接口）
 	 *
@@ -1282,27 +1788,7 @@ public class AliTool {
 																		  Map<String, AlipayColorValue> keywords, String format) {
 		AlipayClient alipayClient = getAlipayClient(format);
 		AlipayOpenPublicMessageSingleSendRequest request = new AlipayOpenPublicMessageSingleSendRequest();
-		Map<String, Object> bizMap = new HashMap<>();
-		bizMap.put("to_user_id", toUserId);
-		Map<String, Object> templateMap = new HashMap<>();
-		templateMap.put("template_id", templateId);
-		Map<String, Object> contextMap = new HashMap<String, Object>();
-		contextMap.put("head_color", headColor);
-		contextMap.put("url", url);
-		contextMap.put("action_name", actionName);
-
-		for (Map.Entry<String, AlipayColorValue> entry : keywords.entrySet()) {
-			Map<String, Object> tmp = new HashMap<String, Object>();
-			String keyword = entry.getKey();
-			AlipayColorValue cv = entry.getValue();
-			tmp.put("color", cv.getColor());
-			tmp.put("value", cv.getValue());
-			contextMap.put(keyword, tmp);
-		}
-
-		templateMap.put("context", contextMap);
-		bizMap.put("template", templateMap);
-		request.setBizContent(getGson().toJson(bizMap));
+		request.setBizContent(templateRenderer(templateId, keywords).render(toUserId, headColor, url, actionName, keywords));
 		AlipayOpenPublicMessageSingleSendResponse response = null;
 		try {
 			response = alipayClient.execute(request);
@@ -1349,7 +1835,7 @@ public class AliTool {
 			message.setMsg_type("image-text");
 			message.setArticles(articles);
 			message.setChat(chat);
-			request.setBizContent(getGson().toJson(message));
+			request.setBizContent(BizContentJson.toJson(message));
 			response = alipayClient.execute(request);
 		} catch (AlipayApiException e) {
 			e.printStackTrace();
@@ -1393,7 +1879,7 @@ public class AliTool {
 			text.setContent(textContent);
 			message.setText(text);
 			message.setChat(chat);
-			request.setBizContent(getGson().toJson(message));
+			request.setBizContent(BizContentJson.toJson(message));
 			// 使用SDK，调用单发接口发送图文消息
 			response = alipayClient.execute(request);
 		} catch (AlipayApiException e) {
@@ -1452,6 +1938,60 @@ public class AliTool {
 		return getFollowlist(nextUserId, "JSON");
 	}
 
+	/**
+	 * 流式获取服务窗关注者列表，userId边解析边回调，不在内存中保留整页列表
+	 *
+	 * @param nextUserId 本次拉取数据中第一个用户的userId，从上次接口调用返回值中获取。第一次调用置空
+	 * @param consumer   每个关注者userId的回调
+	 * @param format     请求数据格式 默认：JSON（暂时支持JSON，请根据官方API来填写，建议使用不带此参数的方法！）
+	 * @return AlipayOpenPublicFollowBatchqueryResponse 对象，只包含count、next_user_id，userIdList为空；
+	 * 调用失败时返回null或失败的响应，此前可能已回调了部分userId，调用方须丢弃这些userId，从同一nextUserId重新拉取
+	 * @throws ConsumerException 回调抛出异常，不计入熔断
+	 */
+	public AlipayOpenPublicFollowBatchqueryResponse streamFollowlist(String nextUserId, FollowerConsumer consumer, String format) {
+		AlipayClient alipayClient = getAlipayClient(format);
+		FollowListStreamRequest request = new FollowListStreamRequest(consumer);
+		if (nextUserId == null || nextUserId.trim().length() == 0)
+			request.setBizContent("{}");
+		else
+			request.setBizContent("{\"next_user_id\":\"" + nextUserId + "\"}");
+		AlipayOpenPublicFollowBatchqueryResponse response = null;
+		try {
+			response = alipayClient.execute(request);
+			// XML等未直接解码的格式，解析完成后再逐个回调
+			if (null != response && null != response.getUserIdList()) {
+				for (String userId : response.getUserIdList()) {
+					try {
+						consumer.accept(userId);
+					} catch (ConsumerException e) {
+						throw e;
+					} catch (RuntimeException e) {
+						throw new ConsumerException(e);
+					}
+				}
+				response.setUserIdList(null);
+			}
+		} catch (ConsumerException e) {
+			throw e;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return response;
+	}
+
+	/**
+	 * 流式获取服务窗关注者列表，userId边解析边回调，不在内存中保留整页列表
+	 *
+	 * @param nextUserId 本次拉取数据中第一个用户的userId，从上次接口调用返回值中获取。第一次调用置空
+	 * @param consumer   每个关注者userId的回调
+	 * @return AlipayOpenPublicFollowBatchqueryResponse 对象，只包含count、next_user_id，userIdList为空；
+	 * 调用失败时此前已回调的userId只是部分页，须丢弃，见 {@link #streamFollowlist(String, FollowerConsumer, String)}
+	 * @throws ConsumerException 回调抛出异常，不计入熔断
+	 */
+	public AlipayOpenPublicFollowBatchqueryResponse streamFollowlist(String nextUserId, FollowerConsumer consumer) {
+		return streamFollowlist(nextUserId, consumer, "JSON");
+	}
+
 	/**
 	 * 获取用户地理位置
 	 *
@@ -1460,7 +2000,6 @@ public class AliTool {
 	 * @return AlipayOpenPublicGisQueryResponse 对象
 	 */
 	public AlipayOpenPublicGisQueryResponse getUserLocation(String userId, String format) {
-		AlipayClient alipayClient = getAlipayClient(format);
 		AlipayOpenPublicGisQueryRequest request = new AlipayOpenPublicGisQueryRequest();
 		AlipayOpenPublicGisQueryModel model = new AlipayOpenPublicGisQueryModel();
 		AlipayOpenPublicGisQueryResponse response = null;
@@ -1469,7 +2008,9 @@ public class AliTool {
 				model.setUserId(userId);
 			else throw new Exception("获取用户地理位置userId不能为空！");
 			request.setBizModel(model);
-			response = alipayClient.execute(request);
+			if (locationReads.incrementAndGet() % LOCATION_PURGE_INTERVAL == 0)
+				locationCache.purgeExpired();
+			response = executeCached(locationCache, request, format);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -1486,6 +2027,67 @@ public class AliTool {
 		return getUserLocation(userId, "JSON");
 	}
 
+	/**
+	 * 设置门店坐标，整体替换之前的门店；之后 {@link #findNearbyStores(String, int)} 在内存中查找最近的门店
+	 *
+	 * @param stores 全部门店
+	 */
+	public synchronized void setStores(Collection<StoreIndex.Store> stores) {
+		StoreIndex index = this.storeIndex;
+		if (null == index)
+			index = new StoreIndex();
+		index.setStores(stores);
+		this.storeIndex = index;
+	}
+
+	/**
+	 * @return 门店坐标索引，未设置门店时返回null
+	 */
+	public StoreIndex getStoreIndex() {
+		return storeIndex;
+	}
+
+	/**
+	 * 查找离用户最近的门店：用户位置走位置缓存，同一用户的并发查询只调用一次接口，门店在内存索引中查找；需先调用
+	 * {@link #setStores(Collection)}
+	 *
+	 * @param userId 该用户的userId
+	 * @param k      最多返回的门店数
+	 * @return 按距离由近到远排列，获取用户位置失败时返回null
+	 */
+	public List<StoreIndex.Nearby> findNearbyStores(String userId, int k) {
+		return findNearbyStores(userId, k, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * 查找离用户最近且在指定距离内的门店
+	 *
+	 * @param userId            该用户的userId
+	 * @param k                 最多返回的门店数
+	 * @param maxDistanceMeters 最大距离（米）
+	 * @return 按距离由近到远排列，获取用户位置失败时返回null
+	 */
+	public List<StoreIndex.Nearby> findNearbyStores(String userId, int k, double maxDistanceMeters) {
+		StoreIndex index = this.storeIndex;
+		if (null == index)
+			throw new IllegalStateException("门店坐标未设置，请先调用 setStores");
+		AlipayOpenPublicGisQueryResponse location = getUserLocation(userId);
+		if (null == location || !location.isSuccess())
+			return null;
+		String latitude = location.getLatitude();
+		String longitude = location.getLongitude();
+		if (null == latitude || null == longitude) {
+			System.out.println("用户地理位置为空：" + latitude + "," + longitude);
+			return null;
+		}
+		try {
+			return index.nearest(Double.parseDouble(latitude), Double.parseDouble(longitude), k, maxDistanceMeters);
+		} catch (NumberFormatException e) {
+			System.out.println("用户地理位置无法解析：" + latitude + "," + longitude);
+			return null;
+		}
+	}
+
 
 	// FIXME 用户信息共享
 
@@ -1529,6 +2131,15 @@ public class AliTool {
 	 * @return AlipayUserUserinfoShareResponse 对象
 	 */
 	public AlipayUserUserinfoShareResponse getOauthUserInformation(String authCode, String format) {
+		OauthTokenStore store = this.oauthTokenStore;
+		if (null != store && "JSON".equalsIgnoreCase(format)) {
+			try {
+				return store.login(authCode);
+			} catch (AlipayApiException alipayApiException) {
+				alipayApiException.printStackTrace();
+				return null;
+			}
+		}
 		AlipaySystemOauthTokenResponse oauthTokenResponse = null;
 		AlipayUserUserinfoShareResponse userinfoShareResponse = null;
 		try {
@@ -1571,6 +2182,44 @@ public class AliTool {
 		return getOauthUserInformation(authCode, "JSON");
 	}
 
+	/**
+	 * 开启网页授权缓存：auth_code换取令牌后按userId保存令牌与用户信息，用户信息在有效期内不再调用
+	 * alipay.user.userinfo.share，后台线程在令牌过期前用refresh_token刷新；只对JSON格式的调用生效
+	 *
+	 * @param userInfoTtlMillis 用户信息的缓存毫秒数，小于等于0表示关闭缓存
+	 */
+	public synchronized void setOauthCache(long userInfoTtlMillis) {
+		OauthTokenStore previous = this.oauthTokenStore;
+		this.oauthTokenStore = userInfoTtlMillis > 0 ? new OauthTokenStore(APP_ID, getAlipayClient("JSON"), GRANT_TYPE, userInfoTtlMillis) : null;
+		if (null != previous)
+			previous.close();
+	}
+
+	/**
+	 * @return 网页授权缓存，未开启时返回null
+	 */
+	public OauthTokenStore getOauthTokenStore() {
+		return oauthTokenStore;
+	}
+
+	/**
+	 * 按userId获取授权过的用户信息，有效期内直接返回缓存，否则用保存的令牌重新获取；需先调用 {@link #setOauthCache(long)}
+	 *
+	 * @param userId 用户userId
+	 * @return AlipayUserUserinfoShareResponse 对象，未开启缓存、该用户未授权过或令牌已失效时返回null
+	 */
+	public AlipayUserUserinfoShareResponse getOauthUserInformationByUserId(String userId) {
+		OauthTokenStore store = this.oauthTokenStore;
+		if (null == store)
+			return null;
+		try {
+			return store.userInfo(userId);
+		} catch (AlipayApiException alipayApiException) {
+			alipayApiException.printStackTrace();
+			return null;
+		}
+	}
+
 
 	// FIXME 开发者网关，支付宝所有主动和开发者的交互会经过此网关进入开发者系统(配置在开放平台的应用网关)
 
@@ -1669,7 +2318,7 @@ public class AliTool {
 			verifySign(requestParamsMap);
 
 			//3. 获取业务执行器   根据请求中的 service, msgType, eventType, actionParam 确定执行器
-			Dispatcher dispatcher = new Dispatcher(getAlipayClient("JSON"), PUBLIC_KEY, APP_ID);
+			Dispatcher dispatcher = new Dispatcher(getAlipayClient("JSON"), PUBLIC_KEY, APP_ID, chatCoalescer);
 			ActionExecutor executor = dispatcher.getExecutor(requestParamsMap);
 
 			//4. 执行业务逻辑
@@ -1927,24 +2576,104 @@ public class AliTool {
 		return getAlipayOfflineMaterialImageUploadRequest(imageName, imageType, fileItem, imagePid);
 	}
 
-	private AlipayClient getAlipayClient(String format) {
+	/**
+	 * 执行可缓存的查询请求，只缓存成功的响应；未命中时并发的相同请求合并为一次调用
+	 */
+	private <T extends AlipayResponse> T executeCached(AlipayRequest<T> request, String format) throws AlipayApiException {
+		return executeCached(responseCache, request, format);
+	}
+
+	private <T extends AlipayResponse> T executeCached(final TtlCache<String, AlipayResponse> cache, final AlipayRequest<T> request, String format)
+			throws AlipayApiException {
+		format = normalizeFormat(format);
+		final String key = getRequestKey(request, format);
+		AlipayResponse cached = cache.get(key);
+		if (null != cached)
+			return request.getResponseClass().cast(cached);
+		final AlipayClient alipayClient = getAlipayClient(format);
+		return executeShared(key, request, new Callable<AlipayResponse>() {
+			@Override
+			public AlipayResponse call() throws Exception {
+				long stamp = cache.stamp();
+				T response = alipayClient.execute(request);
+				if (null != response && response.isSuccess())
+					cache.put(key, response, stamp);
+				return response;
+			}
+		});
+	}
+
+	/**
+	 * 执行查询请求，并发的相同请求（API方法与biz_content均相同）合并为一次调用，所有调用者共享同一个响应
+	 */
+	private <T extends AlipayResponse> T executeShared(final AlipayRequest<T> request, String format) throws AlipayApiException {
+		format = normalizeFormat(format);
+		final AlipayClient alipayClient = getAlipayClient(format);
+		return executeShared(getRequestKey(request, format), request, new Callable<AlipayResponse>() {
+			@Override
+			public AlipayResponse call() throws Exception {
+				return alipayClient.execute(request);
+			}
+		});
+	}
+
+	private <T extends AlipayResponse> T executeShared(String key, AlipayRequest<T> request, Callable<AlipayResponse> loader) throws AlipayApiException {
+		try {
+			return request.getResponseClass().cast(inFlightReads.execute(key, loader));
+		} catch (AlipayApiException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new AlipayApiException(e);
+		}
+	}
+
+	/**
+	 * 请求标识：API方法 + 格式 + 规范化后的biz_content
+	 */
+	private String getRequestKey(AlipayRequest<?> request, String format) {
+		String bizContent = null;
+		Map<String, String> textParams = request.getTextParams();
+		if (null != textParams)
+			bizContent = textParams.get(AlipayConstants.BIZ_CONTENT_KEY);
+		if (StringUtils.isEmpty(bizContent) && null != request.getBizModel())
+			bizContent = new JSONWriter().write(request.getBizModel(), true);
+		return request.getApiMethodName() + ":" + format + ":" + (null == bizContent ? "" : bizContent);
+	}
+
+	private void invalidateCache(String apiMethodName) {
+		for (String format : new String[]{"JSON", "XML"}) {
+			String key = apiMethodName + ":" + format + ":";
+			inFlightReads.forget(key);
+			responseCache.invalidate(key);
+		}
+	}
+
+	private String normalizeFormat(String format) {
 		if (null == format || format.trim().length() == 0)
-			format = "JSON";
+			return "JSON";
 		format = format.trim().toUpperCase();
 		if (!format.equals("XML") && !format.equals("JSON"))
 			format = "JSON";
+		return format;
+	}
+
+	private AlipayClient getAlipayClient(String format) {
+		format = normalizeFormat(format);
 		AlipayClient client = this.clientMap.get(format);
 		if (null == client) {
 			client = AlipayAPIClientFactory.getAlipayClient(ALIPAY_GATEWAY, APP_ID, PRIVATE_KEY, format, CHARSET, ALIPAY_PUBLIC_KEY, SIGN_TYPE);
+			// 高频与大响应直接解码，不经过SDK的反射转换
+			client = new DirectAlipayClient(client, ALIPAY_GATEWAY, APP_ID, PRIVATE_KEY, format, CHARSET, ALIPAY_PUBLIC_KEY, SIGN_TYPE);
+			client = new CircuitBreakerAlipayClient(client, APP_ID, CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS, CIRCUIT_HALF_OPEN_PROBES);
+			// 配额在熔断之外，被拒绝的调用不计入熔断失败
+			client = new QuotaAlipayClient(client, quotaManager);
+			// 最外层记录指标，配额排队与熔断拒绝都计入
+			client = new InstrumentedAlipayClient(client, APP_ID, MetricsRegistry.getInstance());
 			this.clientMap.put(format, client);
 		}
 		return client;
 	}
 
-	private Gson getGson() {
-		if (null == googleGson)
-			googleGson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
-		return googleGson;
-	}
-
 }
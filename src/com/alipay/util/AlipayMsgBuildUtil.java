@@ -4,7 +4,10 @@
  */
 package com.alipay.util;
 
+import com.alipay.api.domain.Article;
+
 import java.util.Calendar;
+import java.util.Collections;
 
 /**
  * 消息构造工具
@@ -14,6 +17,17 @@ import java.util.Calendar;
  */
 public class AlipayMsgBuildUtil {
 
+    /** 免登连接地址，开发者需根据部署服务修改相应服务ip地址 */
+    private static final String LOGIN_AUTH_URL = "http://10.15.132.68:8080/AlipayFuwuDemo/loginAuth.html";
+
+    /** 样例图文，只编码一次 */
+    private static final CustomMessageBuilder.Articles SAMPLE_ARTICLES = CustomMessageBuilder.encode(
+        Collections.singletonList(sampleArticle("https://www.alipay.com/")));
+
+    /** 样例免登图文，只编码一次 */
+    private static final CustomMessageBuilder.Articles SAMPLE_LOGIN_AUTH_ARTICLES = CustomMessageBuilder.encode(
+        Collections.singletonList(sampleArticle(LOGIN_AUTH_URL)), CustomMessageBuilder.LOGIN_AUTH);
+
     /**
      * 构造单发图文消息
      * 
@@ -22,13 +36,8 @@ public class AlipayMsgBuildUtil {
      */
     public static String buildSingleImgTextMsg(String fromUserId) {
 
-        StringBuilder sb = new StringBuilder();
-
         //构建json格式单发图文消息: 所有内容开发者请根据自有业务自行设置响应值，这里只是个样例
-        sb.append("{'articles':[{'action_name':'立即查看','desc':'这是图文内容','image_url':'http://pic.alipayobjects.com/e/201311/1PaQ27Go6H_src.jpg','title':'这是标题','url':'https://www.alipay.com/'}],'msg_type':'image-text','to_user_id':'"
-                  + fromUserId + "'}");
-
-        return sb.toString();
+        return CustomMessageBuilder.get().toUser(fromUserId).imageText(SAMPLE_ARTICLES).build();
     }
 
     /**
@@ -38,12 +47,8 @@ public class AlipayMsgBuildUtil {
      */
     public static String buildGroupImgTextMsg() {
 
-        StringBuilder sb = new StringBuilder();
-
         //构建json格式群发图文消息: 所有内容开发者请根据自有业务自行设置响应值，这里只是个样例
-        sb.append("{'articles':[{'action_name':'立即查看','desc':'这是图文内容','image_url':'http://pic.alipayobjects.com/e/201311/1PaQ27Go6H_src.jpg','title':'这是标题','url':'https://www.alipay.com/'}],'msg_type':'image-text'}");
-
-        return sb.toString();
+        return CustomMessageBuilder.get().imageText(SAMPLE_ARTICLES).build();
     }
 
     /**
@@ -54,13 +59,19 @@ public class AlipayMsgBuildUtil {
      */
     public static String buildSingleTextMsg(String fromUserId) {
 
-        StringBuilder sb = new StringBuilder();
-
         //构建json格式单发纯文本消息体： 所有内容开发者请根据自有业务自行设置响应值，这里只是个样例
-        sb.append("{'msg_type':'text','text':{'content':'这是纯文本消息'}, 'to_user_id':'" + fromUserId
-                  + "'}");
+        return buildSingleTextMsg(fromUserId, "这是纯文本消息");
+    }
 
-        return sb.toString();
+    /**
+     * 构造单发纯文本消息
+     * 
+     * @param fromUserId
+     * @param content 文本内容，自动转义
+     * @return
+     */
+    public static String buildSingleTextMsg(String fromUserId, String content) {
+        return CustomMessageBuilder.get().toUser(fromUserId).text(content).build();
     }
 
     /**
@@ -70,12 +81,8 @@ public class AlipayMsgBuildUtil {
      */
     public static String buildGroupTextMsg() {
 
-        StringBuilder sb = new StringBuilder();
-
         //构建json格式群发纯文本消息体： 所有内容开发者请根据自有业务自行设置响应值，这里只是个样例
-        sb.append("{'msg_type':'text','text':{'content':'这是纯文本消息'}}");
-
-        return sb.toString();
+        return CustomMessageBuilder.get().text("这是纯文本消息").build();
     }
 
     /**
@@ -86,18 +93,8 @@ public class AlipayMsgBuildUtil {
      */
     public static String buildImgTextLoginAuthMsg(String fromUserId) {
 
-        StringBuilder sb = new StringBuilder();
-
-        //免登连接地址，开发者需根据部署服务修改相应服务ip地址
-        String url = "http://10.15.132.68:8080/AlipayFuwuDemo/loginAuth.html";
-
         //构建json格式的单发免登图文消息体     authType 等于 "loginAuth"表示免登消息 ： 所有内容开发者请根据自有业务自行设置响应值，这里只是个样例
-        sb.append("{'articles':[{'action_name':'立即查看','desc':'这是图文内容','image_url':'http://pic.alipayobjects.com/e/201311/1PaQ27Go6H_src.jpg','title':'这是标题','url':'"
-                  + url
-                  + "', 'auth_type':'loginAuth'}],'msg_type':'image-text', 'to_user_id':'"
-                  + fromUserId + "'}");
-
-        return sb.toString();
+        return CustomMessageBuilder.get().toUser(fromUserId).imageText(SAMPLE_LOGIN_AUTH_ARTICLES).build();
     }
 
     /**
@@ -116,4 +113,14 @@ public class AlipayMsgBuildUtil {
         return sb.toString();
     }
 
+    private static Article sampleArticle(String url) {
+        Article article = new Article();
+        article.setActionName("立即查看");
+        article.setDesc("这是图文内容");
+        article.setImageUrl("http://pic.alipayobjects.com/e/201311/1PaQ27Go6H_src.jpg");
+        article.setTitle("这是标题");
+        article.setUrl(url);
+        return article;
+    }
+
 }
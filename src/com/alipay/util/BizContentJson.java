@@ -0,0 +1,263 @@
+package com.alipay.util;
+
+import com.alipay.api.domain.Article;
+import com.alipay.api.domain.Text;
+import com.alipay.domain.AlipayImageTextMessage;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 出站消息 biz_content 的紧凑JSON序列化
+ * <p>
+ * 不做格式化缩进；{@link AlipayImageTextMessage}、{@link Article}、{@link Text} 使用手写的 TypeAdapter，按支付宝接口字段名
+ * （image_url、action_name 等）输出，不经过反射。Gson 实例线程安全，全局共享；每个线程复用一个写缓冲区。
+ */
+public final class BizContentJson {
+
+	/**
+	 * 超过该容量的缓冲区用完后不再复用，避免个别大消息长期占用内存
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private static final Gson GSON = new GsonBuilder()
+			.disableHtmlEscaping()
+			.registerTypeAdapter(Article.class, new ArticleAdapter().nullSafe())
+			.registerTypeAdapter(Text.class, new TextAdapter().nullSafe())
+			.registerTypeAdapter(AlipayImageTextMessage.class, new ImageTextMessageAdapter().nullSafe())
+			.create();
+
+	private static final ThreadLocal<BufferWriter> BUFFER = new ThreadLocal<BufferWriter>() {
+		@Override
+		protected BufferWriter initialValue() {
+			return new BufferWriter();
+		}
+	};
+
+	private BizContentJson() {
+	}
+
+	/**
+	 * 序列化为紧凑JSON
+	 *
+	 * @param src 消息对象
+	 * @return JSON字符串
+	 */
+	public static String toJson(Object src) {
+		if (null == src)
+			return "null";
+		BufferWriter buffer = BUFFER.get();
+		buffer.builder.setLength(0);
+		try {
+			GSON.toJson(src, src.getClass(), new JsonWriter(buffer));
+			return buffer.builder.toString();
+		} finally {
+			if (buffer.builder.capacity() > MAX_RETAINED_CAPACITY)
+				BUFFER.remove();
+			else
+				buffer.builder.setLength(0);
+		}
+	}
+
+	/**
+	 * 获取共享的 Gson 实例
+	 *
+	 * @return Gson
+	 */
+	public static Gson getGson() {
+		return GSON;
+	}
+
+	private static void writeString(JsonWriter out, String name, String value) throws IOException {
+		if (null != value)
+			out.name(name).value(value);
+	}
+
+	/**
+	 * 写入复用的 StringBuilder，不做同步
+	 */
+	private static final class BufferWriter extends Writer {
+		private final StringBuilder builder = new StringBuilder(1024);
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			builder.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(int c) {
+			builder.append((char) c);
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			builder.append(str, off, off + len);
+		}
+
+		@Override
+		public Writer append(CharSequence csq) {
+			builder.append(csq);
+			return this;
+		}
+
+		@Override
+		public Writer append(char c) {
+			builder.append(c);
+			return this;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static final class ArticleAdapter extends TypeAdapter<Article> {
+		@Override
+		public void write(JsonWriter out, Article article) throws IOException {
+			out.beginObject();
+			writeString(out, "title", article.getTitle());
+			writeString(out, "desc", article.getDesc());
+			writeString(out, "image_url", article.getImageUrl());
+			writeString(out, "url", article.getUrl());
+			writeString(out, "action_name", article.getActionName());
+			out.endObject();
+		}
+
+		@Override
+		public Article read(JsonReader in) throws IOException {
+			Article article = new Article();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				if ("title".equals(name))
+					article.setTitle(in.nextString());
+				else if ("desc".equals(name))
+					article.setDesc(in.nextString());
+				else if ("image_url".equals(name))
+					article.setImageUrl(in.nextString());
+				else if ("url".equals(name))
+					article.setUrl(in.nextString());
+				else if ("action_name".equals(name))
+					article.setActionName(in.nextString());
+				else
+					in.skipValue();
+			}
+			in.endObject();
+			return article;
+		}
+	}
+
+	private static final class TextAdapter extends TypeAdapter<Text> {
+		@Override
+		public void write(JsonWriter out, Text text) throws IOException {
+			out.beginObject();
+			writeString(out, "title", text.getTitle());
+			writeString(out, "content", text.getContent());
+			out.endObject();
+		}
+
+		@Override
+		public Text read(JsonReader in) throws IOException {
+			Text text = new Text();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				if ("title".equals(name))
+					text.setTitle(in.nextString());
+				else if ("content".equals(name))
+					text.setContent(in.nextString());
+				else
+					in.skipValue();
+			}
+			in.endObject();
+			return text;
+		}
+	}
+
+	private static final class ImageTextMessageAdapter extends TypeAdapter<AlipayImageTextMessage> {
+		private final ArticleAdapter articleAdapter = new ArticleAdapter();
+		private final TextAdapter textAdapter = new TextAdapter();
+
+		@Override
+		public void write(JsonWriter out, AlipayImageTextMessage message) throws IOException {
+			out.beginObject();
+			writeString(out, "to_user_id", message.getTo_user_id());
+			writeString(out, "msg_type", message.getMsg_type());
+			if (null != message.getArticles()) {
+				out.name("articles").beginArray();
+				for (Article article : message.getArticles()) {
+					if (null == article)
+						out.nullValue();
+					else
+						articleAdapter.write(out, article);
+				}
+				out.endArray();
+			}
+			if (null != message.getText()) {
+				out.name("text");
+				textAdapter.write(out, message.getText());
+			}
+			writeString(out, "chat", message.getChat());
+			out.endObject();
+		}
+
+		@Override
+		public AlipayImageTextMessage read(JsonReader in) throws IOException {
+			AlipayImageTextMessage message = new AlipayImageTextMessage();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				if ("to_user_id".equals(name)) {
+					message.setTo_user_id(in.nextString());
+				} else if ("msg_type".equals(name)) {
+					message.setMsg_type(in.nextString());
+				} else if ("chat".equals(name)) {
+					message.setChat(in.nextString());
+				} else if ("text".equals(name)) {
+					message.setText(textAdapter.read(in));
+				} else if ("articles".equals(name)) {
+					List<Article> articles = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext()) {
+						if (in.peek() == JsonToken.NULL) {
+							in.nextNull();
+							articles.add(null);
+						} else {
+							articles.add(articleAdapter.read(in));
+						}
+					}
+					in.endArray();
+					message.setArticles(articles);
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return message;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.alipay.util;
+
+import com.alipay.api.domain.Article;
+
+import java.util.List;
+
+/**
+ * 客服消息（alipay.open.public.message.custom.send）biz_content 构造器，输出转义正确的紧凑JSON
+ * <p>
+ * 每个线程复用一个构造器及其写缓冲区，用法：
+ * <pre>
+ * String bizContent = CustomMessageBuilder.get().toUser(fromUserId).text("你好").build();
+ * </pre>
+ * 在 {@link #build()} 之前不要在同一线程再次调用 {@link #get()}。固定不变的图文内容用 {@link #encode(List)} 预先编码一次，
+ * 发送时直接写入，不再逐条转义。
+ */
+public final class CustomMessageBuilder {
+
+	/**
+	 * 免登图文消息的 auth_type
+	 */
+	public static final String LOGIN_AUTH = "loginAuth";
+
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private static final ThreadLocal<CustomMessageBuilder> POOL = new ThreadLocal<CustomMessageBuilder>() {
+		@Override
+		protected CustomMessageBuilder initialValue() {
+			return new CustomMessageBuilder();
+		}
+	};
+
+	private final StringBuilder buffer = new StringBuilder(512);
+	private String toUserId;
+	private String msgType;
+	private String textContent;
+	private Articles articles;
+	private String chat;
+
+	private CustomMessageBuilder() {
+	}
+
+	/**
+	 * 获取当前线程的构造器，已清空
+	 *
+	 * @return CustomMessageBuilder
+	 */
+	public static CustomMessageBuilder get() {
+		CustomMessageBuilder builder = POOL.get();
+		builder.reset();
+		return builder;
+	}
+
+	/**
+	 * 预先编码图文消息的文章列表
+	 *
+	 * @param articles 文章列表
+	 * @return 编码后的文章列表，不可变，可在线程间共享
+	 */
+	public static Articles encode(List<Article> articles) {
+		return encode(articles, null);
+	}
+
+	/**
+	 * 预先编码图文消息的文章列表，每篇文章带 auth_type，如 {@link #LOGIN_AUTH} 表示免登消息
+	 *
+	 * @param articles 文章列表
+	 * @param authType 为null时不输出
+	 * @return 编码后的文章列表，不可变，可在线程间共享
+	 */
+	public static Articles encode(List<Article> articles, String authType) {
+		StringBuilder out = new StringBuilder(256 * Math.max(1, articles.size()));
+		out.append('[');
+		for (Article article : articles) {
+			if (out.length() > 1)
+				out.append(',');
+			out.append('{');
+			JsonEscape.appendField(out, "title", article.getTitle());
+			JsonEscape.appendField(out, "desc", article.getDesc());
+			JsonEscape.appendField(out, "image_url", article.getImageUrl());
+			JsonEscape.appendField(out, "url", article.getUrl());
+			JsonEscape.appendField(out, "action_name", article.getActionName());
+			JsonEscape.appendField(out, "auth_type", authType);
+			out.append('}');
+		}
+		return new Articles(out.append(']').toString());
+	}
+
+	/**
+	 * @param toUserId 消息接收用户的userid，群发时不设置
+	 * @return this
+	 */
+	public CustomMessageBuilder toUser(String toUserId) {
+		this.toUserId = toUserId;
+		return this;
+	}
+
+	/**
+	 * 纯文本消息
+	 *
+	 * @param content 文本消息的内容
+	 * @return this
+	 */
+	public CustomMessageBuilder text(String content) {
+		this.msgType = "text";
+		this.textContent = content;
+		this.articles = null;
+		return this;
+	}
+
+	/**
+	 * 图文消息
+	 *
+	 * @param articles 由 {@link #encode(List)} 编码的文章列表
+	 * @return this
+	 */
+	public CustomMessageBuilder imageText(Articles articles) {
+		this.msgType = "image-text";
+		this.articles = articles;
+		this.textContent = null;
+		return this;
+	}
+
+	/**
+	 * @param chat 是否是聊天消息，0或1
+	 * @return this
+	 */
+	public CustomMessageBuilder chat(String chat) {
+		this.chat = chat;
+		return this;
+	}
+
+	/**
+	 * 生成 biz_content 并清空构造器
+	 *
+	 * @return biz_content
+	 */
+	public String build() {
+		if (null == msgType)
+			throw new IllegalStateException("未设置消息类型，请先调用 text 或 imageText");
+		StringBuilder out = buffer;
+		try {
+			out.append('{');
+			JsonEscape.appendField(out, "to_user_id", toUserId);
+			JsonEscape.appendField(out, "msg_type", msgType);
+			if (null != articles)
+				out.append(",\"articles\":").append(articles.json);
+			if (null != textContent) {
+				out.append(",\"text\":{");
+				JsonEscape.appendField(out, "content", textContent);
+				out.append('}');
+			}
+			JsonEscape.appendField(out, "chat", chat);
+			return out.append('}').toString();
+		} finally {
+			reset();
+			if (out.capacity() > MAX_RETAINED_CAPACITY)
+				POOL.remove();
+		}
+	}
+
+	private void reset() {
+		buffer.setLength(0);
+		toUserId = null;
+		msgType = null;
+		textContent = null;
+		articles = null;
+		chat = null;
+	}
+
+	/**
+	 * 预先编码的文章列表
+	 */
+	public static final class Articles {
+		private final String json;
+
+		private Articles(String json) {
+			this.json = json;
+		}
+
+		@Override
+		public String toString() {
+			return json;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.alipay.util;
+
+/**
+ * JSON字符串转义，与 {@link BizContentJson} 一致：不转义HTML字符，转义引号、反斜杠、控制字符与 U+2028、U+2029
+ */
+public final class JsonEscape {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private JsonEscape() {
+	}
+
+	/**
+	 * 追加转义后的字符串内容，不含两端引号
+	 *
+	 * @param out   输出
+	 * @param value 字符串
+	 */
+	public static void append(StringBuilder out, String value) {
+		int start = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String replacement;
+			if (c == '"') {
+				replacement = "\\\"";
+			} else if (c == '\\') {
+				replacement = "\\\\";
+			} else if (c == '\n') {
+				replacement = "\\n";
+			} else if (c == '\r') {
+				replacement = "\\r";
+			} else if (c == '\t') {
+				replacement = "\\t";
+			} else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+				replacement = null;
+			} else {
+				continue;
+			}
+			out.append(value, start, i);
+			if (null == replacement)
+				out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+			else
+				out.append(replacement);
+			start = i + 1;
+		}
+		out.append(value, start, length);
+	}
+
+	/**
+	 * 追加带引号的字段 "name":"value"，value 为null时不追加；对象内第一个字段前不加逗号
+	 *
+	 * @param out   输出
+	 * @param name  字段名，不转义
+	 * @param value 字段值
+	 */
+	static void appendField(StringBuilder out, String name, String value) {
+		if (null == value)
+			return;
+		if (out.charAt(out.length() - 1) != '{')
+			out.append(',');
+		out.append('"').append(name).append("\":\"");
+		append(out, value);
+		out.append('"');
+	}
+}
@@ -0,0 +1,196 @@
+package com.alipay.util;
+
+import com.alipay.domain.AlipayColorValue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的模板消息（alipay.open.public.message.single.send）biz_content 渲染器
+ * <p>
+ * 按 template_id 与关键字集合编译一次，固定部分（字段名、template_id、关键字名）预先拼好并转义；渲染时只转义并写入
+ * to_user_id、head_color、url、action_name 与各关键字的颜色和值，不创建中间 Map，不经过 Gson。
+ * 输出与 {@link BizContentJson} 序列化同结构 Map 的结果等价：紧凑JSON，值为null的字段省略。
+ * 实例不可变，线程安全；每个线程复用一个写缓冲区。
+ */
+public final class TemplateMessageRenderer {
+
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(512);
+		}
+	};
+
+	private final String templateId;
+	private final List<String> keywords;
+	/**
+	 * "template":{"template_id":"...","context":{
+	 */
+	private final String templateOpen;
+	/**
+	 * 各关键字的 "name":{ ，与 keywords 一一对应
+	 */
+	private final String[] keywordOpen;
+
+	private TemplateMessageRenderer(String templateId, List<String> keywords) {
+		this.templateId = templateId;
+		this.keywords = keywords;
+		StringBuilder builder = new StringBuilder("\"template\":{");
+		if (null != templateId) {
+			builder.append("\"template_id\":\"");
+			JsonEscape.append(builder, templateId);
+			builder.append("\",");
+		}
+		this.templateOpen = builder.append("\"context\":{").toString();
+		this.keywordOpen = new String[keywords.size()];
+		for (int i = 0; i < keywordOpen.length; i++) {
+			builder.setLength(0);
+			builder.append('"');
+			JsonEscape.append(builder, keywords.get(i));
+			keywordOpen[i] = builder.append("\":{").toString();
+		}
+	}
+
+	/**
+	 * 编译模板
+	 *
+	 * @param templateId 消息模板ID
+	 * @param keywords   模板中的关键字，渲染时按此顺序输出
+	 * @return TemplateMessageRenderer
+	 */
+	public static TemplateMessageRenderer compile(String templateId, Collection<String> keywords) {
+		List<String> list = new ArrayList<>(keywords.size());
+		for (String keyword : keywords) {
+			if (null == keyword)
+				throw new IllegalArgumentException("关键字不能为null");
+			list.add(keyword);
+		}
+		return new TemplateMessageRenderer(templateId, Collections.unmodifiableList(list));
+	}
+
+	public String getTemplateId() {
+		return templateId;
+	}
+
+	/**
+	 * @return 编译时的关键字，即 {@link #render(String, String, String, String, AlipayColorValue...)} 中 values 的顺序
+	 */
+	public List<String> getKeywords() {
+		return keywords;
+	}
+
+	/**
+	 * 判断关键字集合是否与编译时相同
+	 *
+	 * @param keywords 关键字及其颜色与值
+	 * @return 相同返回true
+	 */
+	public boolean accepts(Map<String, AlipayColorValue> keywords) {
+		if (keywords.size() != keywordOpen.length)
+			return false;
+		for (int i = 0; i < keywordOpen.length; i++) {
+			if (!keywords.containsKey(this.keywords.get(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 渲染 biz_content
+	 *
+	 * @param toUserId   消息接收用户的userid，为null时不输出
+	 * @param headColor  顶部色条的色值
+	 * @param url        点击消息后承接页的地址
+	 * @param actionName 底部链接描述文字
+	 * @param keywords   关键字及其颜色与值，须与编译时的关键字集合相同（见 {@link #accepts(Map)}）
+	 * @return biz_content
+	 */
+	public String render(String toUserId, String headColor, String url, String actionName, Map<String, AlipayColorValue> keywords) {
+		StringBuilder buffer = BUFFER.get();
+		try {
+			appendHead(buffer, toUserId, headColor, url, actionName);
+			for (int i = 0; i < keywordOpen.length; i++)
+				appendKeyword(buffer, i, keywords.get(this.keywords.get(i)));
+			return buffer.append("}}}").toString();
+		} finally {
+			release(buffer);
+		}
+	}
+
+	/**
+	 * 渲染 biz_content
+	 *
+	 * @param toUserId   消息接收用户的userid，为null时不输出
+	 * @param headColor  顶部色条的色值
+	 * @param url        点击消息后承接页的地址
+	 * @param actionName 底部链接描述文字
+	 * @param values     各关键字的颜色与值，按 {@link #getKeywords()} 的顺序
+	 * @return biz_content
+	 */
+	public String render(String toUserId, String headColor, String url, String actionName, AlipayColorValue... values) {
+		if (values.length != keywordOpen.length)
+			throw new IllegalArgumentException("模板 " + templateId + " 需要 " + keywordOpen.length + " 个关键字，实际为 " + values.length);
+		StringBuilder buffer = BUFFER.get();
+		try {
+			appendHead(buffer, toUserId, headColor, url, actionName);
+			for (int i = 0; i < keywordOpen.length; i++)
+				appendKeyword(buffer, i, values[i]);
+			return buffer.append("}}}").toString();
+		} finally {
+			release(buffer);
+		}
+	}
+
+	private void appendHead(StringBuilder out, String toUserId, String headColor, String url, String actionName) {
+		out.append('{');
+		if (null != toUserId) {
+			out.append("\"to_user_id\":\"");
+			JsonEscape.append(out, toUserId);
+			out.append("\",");
+		}
+		out.append(templateOpen);
+		appendField(out, "\"head_color\":\"", headColor);
+		appendField(out, "\"url\":\"", url);
+		appendField(out, "\"action_name\":\"", actionName);
+	}
+
+	private void appendKeyword(StringBuilder out, int index, AlipayColorValue value) {
+		if (null == value)
+			return;
+		appendComma(out);
+		out.append(keywordOpen[index]);
+		appendField(out, "\"color\":\"", value.getColor());
+		appendField(out, "\"value\":\"", value.getValue());
+		out.append('}');
+	}
+
+	private static void appendField(StringBuilder out, String open, String value) {
+		if (null == value)
+			return;
+		appendComma(out);
+		out.append(open);
+		JsonEscape.append(out, value);
+		out.append('"');
+	}
+
+	/**
+	 * 对象内第一个字段前不加逗号
+	 */
+	private static void appendComma(StringBuilder out) {
+		if (out.charAt(out.length() - 1) != '{')
+			out.append(',');
+	}
+
+	private static void release(StringBuilder buffer) {
+		if (buffer.capacity() > MAX_RETAINED_CAPACITY)
+			BUFFER.remove();
+		else
+			buffer.setLength(0);
+	}
+}
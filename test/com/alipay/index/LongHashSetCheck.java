@@ -0,0 +1,183 @@
+package com.alipay.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * {@link LongHashSet} 与 HashSet 对照的随机操作检查：跨表尾的删除前移、未正常关闭后的重新散列、经临时文件扩容
+ *
+ * <pre>
+ * java com.alipay.index.LongHashSetCheck [seed]
+ * </pre>
+ */
+public class LongHashSetCheck {
+
+	private static final int HEADER_BYTES = 16;
+	private static final int CAPACITY = 1024;
+
+	public static void main(String[] args) throws IOException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		System.out.println("seed=" + seed);
+		Random random = new Random(seed);
+		File dir = Files.createTempDirectory("long-hash-set-check").toFile();
+		try {
+			wraparound(random);
+			crashRecovery(random, new File(dir, "crash.idx"));
+			resize(random, new File(dir, "resize.idx"));
+		} finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+		System.out.println("ok");
+	}
+
+	/**
+	 * 只用理想槽位在表尾与表头附近的元素，探测链都跨过表尾，删除时的前移要正确处理回绕
+	 */
+	private static void wraparound(Random random) throws IOException {
+		List<Long> pool = new ArrayList<>();
+		for (long key = 1; pool.size() < 200; key++) {
+			int ideal = hash(key) & (CAPACITY - 1);
+			if (ideal >= CAPACITY - 8 || ideal < 4)
+				pool.add(key);
+		}
+		LongHashSet set = LongHashSet.allocate(100);
+		Set<Long> expected = new HashSet<>();
+		for (int op = 0; op < 200000; op++) {
+			long key = pool.get(random.nextInt(pool.size()));
+			// 元素数保持在扩容阈值以下，只检查删除前移
+			boolean add = expected.size() < 150 && random.nextBoolean();
+			if (add)
+				check(set.add(key) == expected.add(key), "add " + key);
+			else
+				check(set.remove(key) == expected.remove(key), "remove " + key);
+			check(set.size() == expected.size(), "size");
+			if (op % 97 == 0)
+				compare(set, expected, pool);
+		}
+		compare(set, expected, pool);
+	}
+
+	/**
+	 * 未正常关闭的文件中槽位被打乱、有重复元素，重新打开时应重新散列修复
+	 */
+	private static void crashRecovery(Random random, File file) throws IOException {
+		LongHashSet set = LongHashSet.open(file, 500);
+		Set<Long> expected = new HashSet<>();
+		List<Long> pool = new ArrayList<>();
+		for (int i = 0; i < 600; i++)
+			pool.add(2088000000000000L + random.nextInt(1000000));
+		for (Long key : pool) {
+			if (random.nextInt(4) != 0 && expected.size() < 700) {
+				set.add(key);
+				expected.add(key);
+			}
+		}
+		set.force();
+		// 模拟崩溃：不调用 close()，把部分元素移到错误的槽位，并写入一个重复元素
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			int capacity = (int) ((raf.length() - HEADER_BYTES) / 8);
+			long[] slots = new long[capacity];
+			for (int i = 0; i < capacity; i++) {
+				raf.seek(HEADER_BYTES + 8L * i);
+				slots[i] = raf.readLong();
+			}
+			for (int i = 0; i < capacity; i++) {
+				int j = random.nextInt(capacity);
+				long swap = slots[i];
+				slots[i] = slots[j];
+				slots[j] = swap;
+			}
+			long duplicate = expected.iterator().next();
+			for (int i = 0; i < capacity; i++) {
+				if (slots[i] == 0) {
+					slots[i] = duplicate;
+					break;
+				}
+			}
+			for (int i = 0; i < capacity; i++) {
+				raf.seek(HEADER_BYTES + 8L * i);
+				raf.writeLong(slots[i]);
+			}
+			raf.seek(4);
+			check(raf.readInt() == 0, "运行中的正常关闭标记应为0");
+		} finally {
+			raf.close();
+		}
+		LongHashSet reopened = LongHashSet.open(file, 500);
+		check(reopened.size() == expected.size(), "重新散列后的元素数 " + reopened.size() + " != " + expected.size());
+		compare(reopened, expected, pool);
+		for (int op = 0; op < 20000; op++) {
+			long key = pool.get(random.nextInt(pool.size()));
+			if (random.nextBoolean())
+				check(reopened.add(key) == expected.add(key), "add " + key);
+			else
+				check(reopened.remove(key) == expected.remove(key), "remove " + key);
+		}
+		compare(reopened, expected, pool);
+		reopened.close();
+	}
+
+	/**
+	 * 超过3/4时经同目录临时文件扩容，替换后正常关闭再打开，内容不变
+	 */
+	private static void resize(Random random, File file) throws IOException {
+		LongHashSet set = LongHashSet.open(file, 10);
+		long initialBytes = set.byteSize();
+		Set<Long> expected = new HashSet<>();
+		List<Long> pool = new ArrayList<>();
+		while (expected.size() < 5000) {
+			long key = 2088000000000000L + (random.nextLong() & 0xffffffffffL);
+			pool.add(key);
+			check(set.add(key) == expected.add(key), "add " + key);
+			if (random.nextInt(5) == 0) {
+				long removed = pool.get(random.nextInt(pool.size()));
+				check(set.remove(removed) == expected.remove(removed), "remove " + removed);
+			}
+		}
+		check(set.byteSize() > initialBytes, "应已扩容");
+		check(file.length() == set.byteSize(), "文件长度 " + file.length() + " != " + set.byteSize());
+		check(!new File(file.getPath() + ".resize").exists(), "临时文件应已替换正式文件");
+		compare(set, expected, pool);
+		set.close();
+		LongHashSet reopened = LongHashSet.open(file, 10);
+		check(reopened.size() == expected.size(), "重新打开后的元素数");
+		compare(reopened, expected, pool);
+		reopened.close();
+	}
+
+	private static void compare(LongHashSet set, Set<Long> expected, List<Long> pool) {
+		for (Long key : pool)
+			check(set.contains(key) == expected.contains(key), "contains " + key);
+		long[] keys = set.toArray();
+		check(keys.length == expected.size(), "toArray " + keys.length + " != " + expected.size());
+		Set<Long> actual = new HashSet<>();
+		for (long key : keys)
+			actual.add(key);
+		check(actual.equals(expected), "toArray 内容不一致");
+	}
+
+	/**
+	 * 与 LongHashSet.hash 相同
+	 */
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,129 @@
+package com.alipay.index;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * {@link OrdinalBitmap} 与 BitSet 对照的随机操作检查：每块的元素数在4096上下反复变化，
+ * 使有序数组与位图两种保存方式来回切换；同时检查遍历顺序、copy 以及数组与位图混合的 and、or、andNot
+ *
+ * <pre>
+ * java com.alipay.index.OrdinalBitmapCheck [seed]
+ * </pre>
+ */
+public class OrdinalBitmapCheck {
+
+	private static final int ARRAY_MAX = 4096;
+	/**
+	 * 使用的块（高16位），每块只在低 8192 个值中取元素，元素数容易越过4096
+	 */
+	private static final int[] BLOCKS = {0, 1, 2, 300};
+	private static final int RANGE = 8192;
+
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		System.out.println("seed=" + seed);
+		Random random = new Random(seed);
+		OrdinalBitmap a = new OrdinalBitmap();
+		OrdinalBitmap b = new OrdinalBitmap();
+		BitSet expectedA = new BitSet();
+		BitSet expectedB = new BitSet();
+		int crossings = 0;
+		for (int round = 0; round < 40; round++) {
+			for (int block : BLOCKS) {
+				// 目标元素数在阈值两侧交替，b 的部分块保持稀疏，使集合运算覆盖数组与位图的各种组合
+				int targetA = round % 2 == 0 ? ARRAY_MAX + 1 + random.nextInt(200) : ARRAY_MAX - random.nextInt(200);
+				int targetB = block == 1 ? random.nextInt(100) : (round % 3 == 0 ? ARRAY_MAX + random.nextInt(300) : ARRAY_MAX - 150 + random.nextInt(300));
+				crossings += drive(random, a, expectedA, block, targetA);
+				drive(random, b, expectedB, block, targetB);
+			}
+			compare(a, expectedA);
+			compare(b, expectedB);
+			compareOps(a, b, expectedA, expectedB);
+
+			OrdinalBitmap copy = a.copy();
+			compare(copy, expectedA);
+			int x = BLOCKS[random.nextInt(BLOCKS.length)] << 16 | random.nextInt(RANGE);
+			if (copy.contains(x))
+				copy.remove(x);
+			else
+				copy.add(x);
+			compare(a, expectedA);
+		}
+		check(crossings > 100, "元素数越过阈值的次数太少：" + crossings);
+		// 清空后没有剩余的块
+		for (int x = expectedA.nextSetBit(0); x >= 0; x = expectedA.nextSetBit(x + 1))
+			check(a.remove(x), "remove " + x);
+		check(a.cardinality() == 0 && a.cursor().next() == -1, "清空后应为空");
+		System.out.println("ok crossings=" + crossings);
+	}
+
+	/**
+	 * 随机加入或删除块内的元素，直到块的元素数到达目标
+	 *
+	 * @return 块的元素数越过 {@link #ARRAY_MAX} 的次数
+	 */
+	private static int drive(Random random, OrdinalBitmap bitmap, BitSet expected, int block, int target) {
+		int base = block << 16;
+		int card = expected.get(base, base + RANGE).cardinality();
+		int crossings = 0;
+		while (card != target) {
+			int x = base | random.nextInt(RANGE);
+			// 偏向目标方向，同时夹杂反向操作
+			boolean add = random.nextInt(4) == 0 ? card > target : card < target;
+			// 稀疏块中随机删除很少命中，一半的删除取块内已有的元素
+			if (!add && card > 0 && random.nextBoolean()) {
+				x = expected.nextSetBit(x);
+				if (x < 0 || x >= base + RANGE)
+					x = expected.nextSetBit(base);
+			}
+			boolean changed = add ? bitmap.add(x) : bitmap.remove(x);
+			check(changed == (expected.get(x) != add), (add ? "add " : "remove ") + x);
+			if (changed) {
+				expected.set(x, add);
+				int before = card;
+				card += add ? 1 : -1;
+				if ((before <= ARRAY_MAX) != (card <= ARRAY_MAX))
+					crossings++;
+			}
+			check(bitmap.contains(x) == expected.get(x), "contains " + x);
+		}
+		return crossings;
+	}
+
+	private static void compareOps(OrdinalBitmap a, OrdinalBitmap b, BitSet expectedA, BitSet expectedB) {
+		BitSet and = (BitSet) expectedA.clone();
+		and.and(expectedB);
+		compare(OrdinalBitmap.and(a, b), and);
+		BitSet or = (BitSet) expectedA.clone();
+		or.or(expectedB);
+		compare(OrdinalBitmap.or(a, b), or);
+		BitSet andNot = (BitSet) expectedA.clone();
+		andNot.andNot(expectedB);
+		compare(OrdinalBitmap.andNot(a, b), andNot);
+		BitSet reverse = (BitSet) expectedB.clone();
+		reverse.andNot(expectedA);
+		compare(OrdinalBitmap.andNot(b, a), reverse);
+	}
+
+	/**
+	 * 元素数、逐个包含关系与升序遍历都与 BitSet 一致
+	 */
+	private static void compare(OrdinalBitmap bitmap, BitSet expected) {
+		check(bitmap.cardinality() == expected.cardinality(), "cardinality " + bitmap.cardinality() + " != " + expected.cardinality());
+		OrdinalBitmap.Cursor cursor = bitmap.cursor();
+		for (int x = expected.nextSetBit(0); x >= 0; x = expected.nextSetBit(x + 1))
+			check(cursor.next() == x, "遍历应返回 " + x);
+		check(cursor.next() == -1, "遍历应结束");
+		for (int block : BLOCKS) {
+			int base = block << 16;
+			for (int x = base; x < base + RANGE; x += 7)
+				check(bitmap.contains(x) == expected.get(x), "contains " + x);
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
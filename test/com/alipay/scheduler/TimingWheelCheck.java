@@ -0,0 +1,134 @@
+package com.alipay.scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * {@link TimingWheel} 与 TreeMap 对照的随机操作检查，重点是 256^k 个tick边界上的逐层下放：
+ * 每次推进后，取出的条目必须正好是到期tick不晚于当前tick的条目，不早取、不漏取、不重复
+ *
+ * <pre>
+ * java com.alipay.scheduler.TimingWheelCheck [seed]
+ * </pre>
+ */
+public class TimingWheelCheck {
+
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		System.out.println("seed=" + seed);
+		Random random = new Random(seed);
+		for (int level = 1; level <= 3; level++) {
+			long span = 1L << (8 * level);
+			for (int round = 0; round < 3; round++) {
+				long tickMillis = round == 0 ? 1 : 1 + random.nextInt(10);
+				// 从某个 256^level 边界之前开始，推进跨过边界
+				long boundary = span * (1 + random.nextInt(3));
+				long startTick = boundary - 1 - (long) (random.nextDouble() * span);
+				run(random, tickMillis, startTick, boundary, span);
+			}
+		}
+		System.out.println("ok");
+	}
+
+	private static void run(Random random, final long tickMillis, long startTick, long boundary, long span) {
+		long now = startTick * tickMillis;
+		TimingWheel wheel = new TimingWheel(tickMillis, now);
+		long currentTick = startTick;
+		// 到期tick -> 编号，以及编号 -> 到期时间
+		final TreeMap<Long, List<Long>> byTick = new TreeMap<>();
+		final Map<Long, Long> dueOf = new HashMap<>();
+		final Map<Long, Long> tickOf = new HashMap<>();
+		long nextId = 1;
+		long endTick = boundary + 2 * span;
+
+		// 正好落在边界前后与各层边界上的条目
+		long[] edges = {boundary - 1, boundary, boundary + 1, boundary + 255, boundary + 256, boundary + 257, boundary + span - 1,
+				boundary + span, endTick - 1};
+		for (long edge : edges)
+			nextId = add(wheel, byTick, dueOf, tickOf, nextId, edge * tickMillis, currentTick, tickMillis);
+
+		final List<Long> expired = new ArrayList<>();
+		TimingWheel.Sink sink = new TimingWheel.Sink() {
+			@Override
+			public void expire(long id, long dueMillis, long ref) {
+				check(ref == id, "ref " + ref + " != " + id);
+				check(dueOf.containsKey(id), "已取出或已删除的条目再次取出 " + id);
+				check(dueOf.get(id) == dueMillis, "到期时间 " + dueMillis + " != " + dueOf.get(id));
+				expired.add(id);
+			}
+		};
+		while (currentTick < endTick) {
+			int adds = random.nextInt(4);
+			for (int i = 0; i < adds; i++) {
+				long due;
+				switch (random.nextInt(4)) {
+					case 0:
+						due = (currentTick + (long) (random.nextDouble() * 512)) * tickMillis;
+						break;
+					case 1:
+						due = (currentTick + (long) (random.nextDouble() * 2 * span)) * tickMillis + random.nextInt((int) tickMillis);
+						break;
+					case 2:
+						due = (boundary + random.nextInt(3) - 1) * tickMillis;
+						break;
+					default:
+						// 已过期的时间在下一个tick取出
+						due = currentTick * tickMillis - random.nextInt(1000);
+				}
+				nextId = add(wheel, byTick, dueOf, tickOf, nextId, due, currentTick, tickMillis);
+			}
+			if (random.nextInt(8) == 0 && nextId > 1) {
+				long id = 1 + (long) (random.nextDouble() * (nextId - 1));
+				boolean live = dueOf.containsKey(id);
+				check(wheel.remove(id) == live, "remove " + id);
+				if (live) {
+					byTick.get(tickOf.get(id)).remove(id);
+					dueOf.remove(id);
+				}
+			}
+			// 随机步长推进，边界附近逐个tick推进
+			long distance = Math.abs(currentTick - boundary);
+			long step = distance < 300 ? 1 : 1 + (long) (random.nextDouble() * Math.min(distance, Math.max(1, span / 64)));
+			currentTick = Math.min(endTick, currentTick + step);
+			expired.clear();
+			wheel.advance(currentTick * tickMillis + random.nextInt((int) tickMillis), sink);
+
+			List<Long> expected = new ArrayList<>();
+			for (List<Long> ids : byTick.headMap(currentTick, true).values())
+				expected.addAll(ids);
+			check(new HashSet<>(expired).equals(new HashSet<>(expected)) && expired.size() == expected.size(),
+					"tick " + currentTick + " 取出 " + expired + " 应为 " + expected);
+			byTick.headMap(currentTick, true).clear();
+			for (Long id : expired) {
+				dueOf.remove(id);
+				tickOf.remove(id);
+			}
+			check(wheel.size() == dueOf.size(), "size " + wheel.size() + " != " + dueOf.size());
+		}
+	}
+
+	private static long add(TimingWheel wheel, TreeMap<Long, List<Long>> byTick, Map<Long, Long> dueOf, Map<Long, Long> tickOf, long id,
+			long dueMillis, long currentTick, long tickMillis) {
+		long dueTick = Math.max(dueMillis / tickMillis + (dueMillis % tickMillis == 0 ? 0 : 1), currentTick + 1);
+		wheel.add(id, dueMillis, id);
+		List<Long> ids = byTick.get(dueTick);
+		if (null == ids) {
+			ids = new ArrayList<>();
+			byTick.put(dueTick, ids);
+		}
+		ids.add(id);
+		dueOf.put(id, dueMillis);
+		tickOf.put(id, dueTick);
+		return id + 1;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}